@@ -0,0 +1,29 @@
+import java.util.zip.ZipFile
+
+def entries(File sdu) {
+    assert sdu.isFile()
+    def zip = new ZipFile(sdu)
+    try {
+        return zip.entries().collectEntries { [(it.name): it.size + ":" + it.crc] }
+    } finally {
+        zip.close()
+    }
+}
+
+def main = entries(new File(basedir, "target/parallel-sdu-it-1.0-SNAPSHOT.sdu"))
+assert main.keySet().containsAll([
+    "parallel-device-profile-a-it-1.0-SNAPSHOT.dar",
+    "parallel-device-profile-b-it-1.0-SNAPSHOT.dar" ])
+for (int i = 1; i <= 8; i++) {
+    assert entries(new File(basedir, "target/parallel-sdu-it-1.0-SNAPSHOT-copy" + i + ".sdu")) == main
+}
+
+// Every project created its own SDU at the same time
+assert new File(basedir, "xde/target/parallel-xde-it-1.0-SNAPSHOT.sdu").isFile()
+assert new File(basedir, "network-feature-a/target/parallel-network-feature-a-it-1.0-SNAPSHOT.sdu").isFile()
+assert new File(basedir, "network-feature-b/target/parallel-network-feature-b-it-1.0-SNAPSHOT.sdu").isFile()
+assert new File(basedir, "device-profile-a/target/parallel-device-profile-a-it-1.0-SNAPSHOT.sdu").isFile()
+assert new File(basedir, "device-profile-b/target/parallel-device-profile-b-it-1.0-SNAPSHOT.sdu").isFile()
+
+// No temporary files are left behind
+assert new File(basedir, "target").listFiles().findAll { it.name.endsWith(".part") || it.name.endsWith(".spool") }.isEmpty()
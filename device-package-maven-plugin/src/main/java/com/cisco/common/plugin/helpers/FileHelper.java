@@ -0,0 +1,109 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.common.plugin.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Writes files in place without leaving a partial file behind: a file is
+ * written to its part file first, which is then moved over the file.
+ *
+ * @author danijoh2
+ */
+public class FileHelper {
+
+    /**
+     * The suffix of the temporary file a file is written to.
+     */
+    public static final String PART_SUFFIX = ".part"; // $NON-NLS-1$
+
+    /**
+     * Size of the memory mapped windows used to checksum files.
+     */
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Private constructor as this is a static helper class.
+     */
+    private FileHelper() {
+    }
+
+    /**
+     * @param file
+     *            - The file to write.
+     * @return The part file next to the file, to write it to before moving
+     *         it in place with {@link #move(File, File)}.
+     */
+    public static File getPartFile(File file) {
+        return new File(file.getParentFile(), file.getName() + PART_SUFFIX);
+    }
+
+    /**
+     * Writes a file through its part file.
+     *
+     * @param file
+     *            - The file to write.
+     * @param data
+     *            - The contents of the file.
+     * @throws IOException
+     *             - If the file cannot be written, the file is then left
+     *             untouched.
+     */
+    public static void write(File file, byte[] data) throws IOException {
+        File part = getPartFile(file);
+        try {
+            Files.write(part.toPath(), data);
+            move(part, file);
+        } finally {
+            part.delete();
+        }
+    }
+
+    /**
+     * Moves a file in place, atomically when supported by the file system.
+     *
+     * @param source
+     *            - The file to move.
+     * @param target
+     *            - The file to replace.
+     * @throws IOException
+     *             - If the file cannot be moved.
+     */
+    public static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param file
+     *            - The file to checksum.
+     * @return The CRC of a file, read through memory mapped windows.
+     * @throws IOException
+     *             - If the file cannot be read.
+     */
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            for (long position = 0; position < length; position += WINDOW_SIZE) {
+                crc.update(channel.map(MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, length - position)));
+            }
+        }
+        return crc.getValue();
+    }
+}
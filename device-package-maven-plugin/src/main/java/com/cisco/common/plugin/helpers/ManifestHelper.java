@@ -5,13 +5,11 @@
  *****************************************************************************/
 package com.cisco.common.plugin.helpers;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileWriter;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 
 import org.apache.maven.project.MavenProject;
 
@@ -54,55 +52,77 @@ public class ManifestHelper {
         return false;
     }
 
+    /**
+     * Appends a line separator to a manifest that does not end with an empty
+     * line.
+     *
+     * @param manifest
+     *            - The manifest file to fix.
+     * @return - {@code true} if a change was made, otherwise {@code false}.
+     */
     public static boolean enforceEmptyLineAtEnd(File manifest) {
 
-        InputStream fis = null;
-        BufferedReader reader = null;
-        String lastLine = null;
         try {
-            fis = new FileInputStream(manifest);
-            reader = new BufferedReader(new InputStreamReader(fis));
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                lastLine = line;
+            if (hasEmptyLineAtEnd(manifest)) {
+                return false;
             }
+        } catch (IOException e) {
+            // Appended to below, as before
+        }
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new FileWriter(manifest, true), true);
+            writer.println();
         } catch (Exception e) {
 
         } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (Exception e) {
-
-                }
-            }
-            if (fis != null) {
+            if (writer != null) {
                 try {
-                    fis.close();
+                    writer.close();
                 } catch (Exception e) {
 
                 }
             }
         }
-        if (lastLine == null || !lastLine.isEmpty()) {
-            PrintWriter writer = null;
-            try {
-                writer = new PrintWriter(new FileWriter(manifest, true), true);
-                writer.println();
-            } catch (Exception e) {
+        return true;
+    }
 
-            } finally {
-                if (writer != null) {
-                    try {
-                        writer.close();
-                    } catch (Exception e) {
+    /**
+     * Checks whether the last line of a manifest is empty, only reading the
+     * last bytes of the file. A line ends with {@code \n}, {@code \r} or
+     * {@code \r\n}, so the file must end with two line terminators, or
+     * consist of a single one.
+     *
+     * @param manifest
+     *            - The manifest file to check.
+     * @return - {@code true} if the last line of the file is empty.
+     * @throws IOException
+     *             - If the file cannot be read.
+     */
+    public static boolean hasEmptyLineAtEnd(File manifest) throws IOException {
 
-                    }
-                }
-            }
-            return true;
+        byte[] tail;
+        try (RandomAccessFile file = new RandomAccessFile(manifest, "r")) { // $NON-NLS-1$
+            int length = (int) Math.min(file.length(), 4);
+            tail = new byte[length];
+            file.seek(file.length() - length);
+            file.readFully(tail);
         }
 
-        return false;
+        int end = tail.length;
+        if (end == 0 || !isLineTerminator(tail[end - 1])) {
+            return false;
+        }
+        // Drop the terminator of the last line, a line starting there is empty
+        if (end >= 2 && tail[end - 2] == '\r' && tail[end - 1] == '\n') {
+            end -= 2;
+        } else {
+            end--;
+        }
+        return end == 0 || isLineTerminator(tail[end - 1]);
+    }
+
+    private static boolean isLineTerminator(byte b) {
+        return b == '\n' || b == '\r';
     }
 }
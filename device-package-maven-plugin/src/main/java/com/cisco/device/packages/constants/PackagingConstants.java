@@ -23,6 +23,7 @@ public class PackagingConstants {
     public static final String DOT = "."; // $NON-NLS-1$
     public static final String DASH = "-"; // $NON-NLS-1$
     public static final String COLON = ":"; // $NON-NLS-1$
+    public static final String COMMA = ","; // $NON-NLS-1$
 
     public static final List<String> ALL_DP_PACKAGING = Arrays.asList(
             new String[] { PackagingConstants.DAR_EXT, PackagingConstants.FEATURE_EXT, PackagingConstants.XDE_EXT });
@@ -0,0 +1,243 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import org.apache.maven.project.MavenProject;
+
+import com.cisco.common.plugin.helpers.FileHelper;
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.sdu.SduCompression;
+import com.cisco.device.packages.internal.sdu.SduEntry;
+import com.cisco.device.packages.internal.sdu.SduReader;
+import com.cisco.device.packages.internal.sdu.SduWriter;
+
+/**
+ * Packages the output directory of a Device Package project into its archive,
+ * in process, with the project file extension expected by suitable platforms.
+ * The project Manifest is used as is if one is found, otherwise a minimal
+ * Manifest is generated. The {@code pom.xml} and {@code pom.properties} of the
+ * project are added under {@code META-INF/maven}, as the
+ * {@code maven-jar-plugin} does. Entries of the previous archive of the
+ * project whose size and CRC match the file in the output directory are copied
+ * as is, without being compressed again. The archive is written to a
+ * temporary file first and then moved in place.<br>
+ * <br>
+ * Every entry records a fixed time when one is set, otherwise files record
+ * their modification time and the generated entries the one of the POM, so
+ * the same sources always produce the same archive.
+ *
+ * @author danijoh2
+ */
+public class DevicePackageArchiver {
+
+    private static final String JAR_SEPARATOR = "/"; // $NON-NLS-1$
+    private static final String MAVEN_PATH = "META-INF/maven/"; // $NON-NLS-1$
+    private static final String CREATED_BY = "Created-By"; // $NON-NLS-1$
+    private static final String CREATED_BY_VALUE = "device-package-maven-plugin"; // $NON-NLS-1$
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+    private final MavenProject project;
+    private Manifest manifest;
+    private Long time;
+    private int reused;
+
+    /**
+     * @param project
+     *            - The Device Package project to package.
+     */
+    public DevicePackageArchiver(MavenProject project) {
+        this.project = project;
+    }
+
+    /**
+     * @param manifest
+     *            - The Manifest to use, or {@code null} to generate one.
+     */
+    public void setManifest(Manifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * @param time
+     *            - The time recorded for every entry, usually the
+     *            {@code project.build.outputTimestamp}, or {@code null} to
+     *            record the modification time of the files.
+     */
+    public void setTime(Long time) {
+        this.time = time;
+    }
+
+    /**
+     * Parses a {@code project.build.outputTimestamp}, as an ISO 8601 date and
+     * time with an offset, or a number of seconds since the epoch.
+     *
+     * @return The time in milliseconds, or {@code null} if the value is empty
+     *         or a single character, which disables the timestamp.
+     * @throws IllegalArgumentException
+     *             - If the timestamp is not valid.
+     */
+    public static Long parseOutputTimestamp(String value) {
+        if (value == null || value.trim().length() < 2) {
+            return null;
+        }
+        String timestamp = value.trim();
+        try {
+            if (timestamp.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(timestamp) * 1000;
+            }
+            return OffsetDateTime.parse(timestamp).toInstant().toEpochMilli();
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid project.build.outputTimestamp '" + value
+                    + "', expected an ISO 8601 date and time such as 2018-01-01T00:00:00Z, or seconds since the epoch.");
+        }
+    }
+
+    /**
+     * @return The number of entries copied from the previous archive by the
+     *         last call to {@link #createArchive()}.
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    /**
+     * @return The archive of the project,
+     *         {@code <finalName>.<packaging>} in the build directory.
+     */
+    public File getArchive() {
+        return new File(project.getBuild().getDirectory(),
+                project.getBuild().getFinalName() + PackagingConstants.DOT + project.getPackaging());
+    }
+
+    /**
+     * Writes the archive of the project.
+     *
+     * @return The archive.
+     * @throws IOException
+     *             - If the output directory cannot be read, or the archive
+     *             cannot be written.
+     */
+    public File createArchive() throws IOException {
+        File archive = getArchive();
+        File parent = archive.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+
+        File part = FileHelper.getPartFile(archive);
+        reused = 0;
+        try {
+            try (SduReader previous = openPrevious(archive); SduWriter writer = new SduWriter(part)) {
+                writer.setCompression(SduCompression.DEFLATE);
+                if (time != null) {
+                    writer.setTime(time);
+                } else {
+                    writer.setFileTimes(true);
+                    if (project.getFile() != null && project.getFile().isFile()) {
+                        writer.setTime(project.getFile().lastModified());
+                    }
+                }
+                writer.putManifest(createManifest());
+
+                String mavenPath = MAVEN_PATH + project.getGroupId() + JAR_SEPARATOR + project.getArtifactId()
+                        + JAR_SEPARATOR;
+                if (project.getFile() != null && project.getFile().isFile()) {
+                    writer.putStored(mavenPath + "pom.xml", Files.readAllBytes(project.getFile().toPath())); // $NON-NLS-1$
+                }
+                String properties = "groupId=" + project.getGroupId() + "\nartifactId=" + project.getArtifactId() // $NON-NLS-1$ // $NON-NLS-2$
+                        + "\nversion=" + project.getVersion() + "\n"; // $NON-NLS-1$ // $NON-NLS-2$
+                writer.putStored(mavenPath + "pom.properties", properties.getBytes(UTF_8)); // $NON-NLS-1$
+
+                Map<File, String> files = getFiles(new File(project.getBuild().getOutputDirectory()));
+                if (previous != null) {
+                    Iterator<Map.Entry<File, String>> iterator = files.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<File, String> file = iterator.next();
+                        SduEntry entry = previous.getEntry(file.getValue());
+                        if (entry != null && !entry.isDirectory() && entry.getSize() == file.getKey().length()
+                                && entry.getCrc() == FileHelper.checksum(file.getKey())) {
+                            writer.putRaw(file.getValue(), previous, entry,
+                                    time != null ? time : file.getKey().lastModified());
+                            iterator.remove();
+                            reused++;
+                        }
+                    }
+                }
+                writer.putFiles(files);
+            }
+            FileHelper.move(part, archive);
+        } finally {
+            part.delete();
+        }
+        return archive;
+    }
+
+    /**
+     * @return The previous archive of the project, or {@code null} if there is
+     *         none or it cannot be read.
+     */
+    private static SduReader openPrevious(File archive) {
+        if (!archive.isFile()) {
+            return null;
+        }
+        try {
+            return new SduReader(archive);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The project Manifest, or a minimal Manifest if there is none.
+     */
+    private Manifest createManifest() {
+        Manifest mf = manifest == null ? new Manifest() : new Manifest(manifest);
+        Attributes attributes = mf.getMainAttributes();
+        if (attributes.getValue(Attributes.Name.MANIFEST_VERSION) == null) {
+            attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0"); // $NON-NLS-1$
+        }
+        if (attributes.getValue(CREATED_BY) == null) {
+            attributes.putValue(CREATED_BY, CREATED_BY_VALUE);
+        }
+        return mf;
+    }
+
+    /**
+     * @return The files of the output directory, but its Manifest, mapped to
+     *         their path in the archive, in path order.
+     */
+    private static Map<File, String> getFiles(File directory) throws IOException {
+        Map<File, String> files = new TreeMap<File, String>();
+        if (!directory.isDirectory()) {
+            return files;
+        }
+        Path root = directory.toPath();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                if (!JarFile.MANIFEST_NAME.equals(name)) {
+                    files.put(path.toFile(), name);
+                }
+            });
+        }
+        return files;
+    }
+}
@@ -6,12 +6,14 @@
 package com.cisco.device.packages.internal.device.profile;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Set;
 
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Exclusion;
@@ -19,10 +21,6 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.sonatype.plexus.build.incremental.BuildContext;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import com.cisco.common.plugin.helpers.BuildHelper;
 import com.cisco.common.plugin.helpers.ManifestHelper;
@@ -35,7 +33,21 @@ import com.cisco.device.packages.internal.device.profile.constants.IOrderedDepen
  */
 public class DeviceProfileValidator {
 
-    public static void validate(MavenProject project, BuildContext context, MavenProjectHelper helper)
+    /**
+     * Validates a Device Profile project.
+     *
+     * @param project
+     *            - The Device Profile project.
+     * @param context
+     *            - The build context receiving the problems found.
+     * @param helper
+     *            - The project helper.
+     * @return The ordered features of the project, as parsed for the
+     *         validation.
+     * @throws MojoExecutionException
+     *             - If the project is not valid.
+     */
+    public static OrderedFeatures validate(MavenProject project, BuildContext context, MavenProjectHelper helper)
             throws MojoExecutionException {
 
         context.removeMessages(project.getFile());
@@ -54,49 +66,33 @@ public class DeviceProfileValidator {
             context.removeMessages(manifestFile);
         }
 
-        List<String> orderedDeps = new ArrayList<String>();
-        Map<String, String> overrides = new HashMap<String, String>();
-        Document doc = null;
+        OrderedFeatures orderedFeatures = null;
         try {
-            doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(orderedFeaturesFile);
+            orderedFeatures = OrderedFeatures.read(orderedFeaturesFile);
         } catch (Exception e) {
             BuildHelper.makeError(context, orderedFeaturesFile,
-                    "Failed to parse " + IOrderedDependencyConstants.ORDERED_FEATURE_FILE_NAME + " file.", true);
+                    "Failed to parse " + IOrderedDependencyConstants.ORDERED_FEATURE_FILE_NAME + " file.", e, true);
         }
-        Element docElement = doc.getDocumentElement();
-        if (docElement == null) {
-            BuildHelper.makeError(context, orderedFeaturesFile,
-                    "Failed to parse " + IOrderedDependencyConstants.ORDERED_FEATURE_FILE_NAME + " file.", true);
+        for (String depName : orderedFeatures.getMissingOverrides()) {
+            BuildHelper.makeWarning(context, orderedFeaturesFile,
+                    "Dependency " + depName + " is marked for override, but no override is given.");
         }
 
-        NodeList docList = docElement.getElementsByTagName(IOrderedDependencyConstants.DEP_ROOT_NODE);
-        if (docList != null) {
-            Element root = (Element) docList.item(0);
-            if (root != null) {
-                NodeList deps = root.getChildNodes();
-                for (int i = 0; i < deps.getLength(); i++) {
-                    Node node = deps.item(i);
-                    if (!(node instanceof Element)
-                            || !node.getNodeName().equals(IOrderedDependencyConstants.DEPENDENCY_NODE)) {
-                        continue;
-                    }
-                    Element dep = (Element) node;
-                    String depName = getIdFromDep(dep);
-                    if (!dep.hasAttribute(IOrderedDependencyConstants.OVERRIDE)) {
-                        orderedDeps.add(depName);
-                    } else {
-                        Element override = (Element) dep
-                                .getElementsByTagName(IOrderedDependencyConstants.DEPENDENCY_NODE).item(0);
-                        if (override == null) {
-                            BuildHelper.makeWarning(context, orderedFeaturesFile,
-                                    "Dependency " + depName + " is marked for override, but no override is given.");
-                        }
-                        String overrideName = getIdFromDep(override);
-                        overrides.put(depName, overrideName);
-                    }
-                }
+        // Each ordered feature is matched by at most one feature dependency,
+        // the first remaining occurrence of duplicates is matched first
+        List<String> orderedDeps = orderedFeatures.getOrdered();
+        Map<String, Deque<Integer>> orderedIndexes = new HashMap<String, Deque<Integer>>();
+        for (int i = 0; i < orderedDeps.size(); i++) {
+            Deque<Integer> indexes = orderedIndexes.get(orderedDeps.get(i));
+            if (indexes == null) {
+                indexes = new ArrayDeque<Integer>();
+                orderedIndexes.put(orderedDeps.get(i), indexes);
             }
+            indexes.add(i);
         }
+        BitSet matched = new BitSet(orderedDeps.size());
+        Map<String, String> overrides = orderedFeatures.getOverrides();
+        Set<String> overridingDeps = new HashSet<String>(overrides.values());
 
         File cdpDir = new File(project.getBasedir(), IOrderedDependencyConstants.CDP_DIRECTORY);
 
@@ -122,17 +118,13 @@ public class DeviceProfileValidator {
                                                 + depName);
                             }
                         } else {
+                            Set<String> exclusionNames = new HashSet<String>();
+                            for (Exclusion exclusion : exclusions) {
+                                exclusionNames.add(exclusion.getGroupId() + PackagingConstants.DOT
+                                        + exclusion.getArtifactId());
+                            }
                             for (String override : overrides.keySet()) {
-                                boolean found = false;
-                                for (Exclusion exclusion : exclusions) {
-                                    String exclusionName = exclusion.getGroupId() + PackagingConstants.DOT
-                                            + exclusion.getArtifactId();
-                                    if (override.equals(exclusionName)) {
-                                        found = true;
-                                        break;
-                                    }
-                                }
-                                if (!found) {
+                                if (!exclusionNames.contains(override)) {
                                     BuildHelper.makeWarning(context, project.getFile(),
                                             "Project configuration contains an override for feature: '" + override
                                                     + "', but no <exclusion> is declared in the POM on parent dependency: '"
@@ -148,23 +140,10 @@ public class DeviceProfileValidator {
                                 true);
                     }
                 } else if (PackagingConstants.FEATURE_EXT.equals(dep.getType())) {
-                    boolean found = false;
-                    for (String orderedDep : orderedDeps) {
-                        if (orderedDep.equals(depName)) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (found) {
-                        orderedDeps.remove(depName);
-                    } else {
-                        for (String override : overrides.values()) {
-                            if (override.equals(depName)) {
-                                found = true;
-                            }
-                        }
-                    }
-                    if (!found) {
+                    Deque<Integer> indexes = orderedIndexes.get(depName);
+                    if (indexes != null && !indexes.isEmpty()) {
+                        matched.set(indexes.poll());
+                    } else if (!overridingDeps.contains(depName)) {
                         BuildHelper.makeWarning(context, orderedFeaturesFile,
                                 "Project configuration is missing the execution order details for feature: '" + depName
                                         + "'. Please use the SDK to correct the project configuration.");
@@ -173,18 +152,13 @@ public class DeviceProfileValidator {
             }
         }
 
-        for (String orderedDep : orderedDeps) {
+        for (int i = matched.nextClearBit(0); i < orderedDeps.size(); i = matched.nextClearBit(i + 1)) {
+            String orderedDep = orderedDeps.get(i);
             BuildHelper.makeWarning(context, project.getFile(),
                     "Project configuration contains a reference to Network Feature: '" + orderedDep
                             + "', but there is no matching <dependency> declared in the POM. Please use the SDK to correct the project configuration.");
         }
-    }
-
-    private static String getIdFromDep(Element dep) {
-        String groupId = dep.getElementsByTagName(IOrderedDependencyConstants.GROUP_ID_NODE).item(0).getTextContent();
-        String artifactId = dep.getElementsByTagName(IOrderedDependencyConstants.ARTIFACT_ID_NODE).item(0)
-                .getTextContent();
-        return getId(groupId, artifactId);
+        return orderedFeatures;
     }
 
     private static String getIdFromDep(Dependency dep) {
@@ -0,0 +1,255 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.device.profile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.device.profile.constants.IOrderedDependencyConstants;
+
+/**
+ * The execution order of the Network Features of a Device Profile, read from
+ * its {@code .orderedFeatures} file with a single streaming pass. Only the
+ * first {@code orderedFeatureList} below the document element is read. Each of
+ * its {@code dependency} children is either an ordered feature, or, when
+ * marked with the {@code override} attribute, an override of a feature of the
+ * parent profile by the first {@code dependency} nested in it. The
+ * {@code groupId} and {@code artifactId} of a dependency are the first ones
+ * found within it, in document order.
+ *
+ * @author danijoh2
+ */
+public class OrderedFeatures {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final List<String> ordered = new ArrayList<String>();
+    private final Map<String, String> overrides = new HashMap<String, String>();
+    private final List<String> missingOverrides = new ArrayList<String>();
+
+    /**
+     * @return The {@code <groupId>:<artifactId>} of the ordered features, in
+     *         execution order, possibly with duplicates.
+     */
+    public List<String> getOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @return The overridden features mapped to the feature overriding them,
+     *         both as {@code <groupId>:<artifactId>}.
+     */
+    public Map<String, String> getOverrides() {
+        return overrides;
+    }
+
+    /**
+     * @return The features marked for override without an override, in
+     *         document order.
+     */
+    public List<String> getMissingOverrides() {
+        return missingOverrides;
+    }
+
+    /**
+     * Reads an {@code .orderedFeatures} file.
+     *
+     * @param file
+     *            - The file to read.
+     * @return The ordered features.
+     * @throws IOException
+     *             - If the file cannot be read.
+     * @throws XMLStreamException
+     *             - If the file is not well formed, or a dependency misses
+     *             its {@code groupId} or {@code artifactId}.
+     */
+    public static OrderedFeatures read(File file) throws IOException, XMLStreamException {
+        try (InputStream in = new FileInputStream(file)) {
+            XMLStreamReader reader;
+            synchronized (FACTORY) {
+                reader = FACTORY.createXMLStreamReader(in);
+            }
+            try {
+                return read(reader);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static OrderedFeatures read(XMLStreamReader reader) throws XMLStreamException {
+        OrderedFeatures result = new OrderedFeatures();
+        int depth = 0;
+        int listDepth = -1;
+        Dependency dependency = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                if (dependency != null && depth == dependency.depth) {
+                    result.add(dependency);
+                    dependency = null;
+                } else if (dependency != null && depth == dependency.overrideDepth) {
+                    dependency.overrideDepth = Integer.MAX_VALUE;
+                } else if (depth == listDepth) {
+                    // Only the first list is read
+                    break;
+                }
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            depth++;
+            String name = getName(reader);
+            if (listDepth < 0) {
+                if (depth > 1 && IOrderedDependencyConstants.DEP_ROOT_NODE.equals(name)) {
+                    listDepth = depth;
+                }
+            } else if (dependency == null) {
+                if (depth == listDepth + 1 && IOrderedDependencyConstants.DEPENDENCY_NODE.equals(name)) {
+                    dependency = new Dependency(depth,
+                            hasAttribute(reader, IOrderedDependencyConstants.OVERRIDE));
+                }
+            } else if (IOrderedDependencyConstants.DEPENDENCY_NODE.equals(name)) {
+                if (dependency.override && !dependency.hasOverride) {
+                    dependency.hasOverride = true;
+                    dependency.overrideDepth = depth;
+                }
+            } else if (IOrderedDependencyConstants.GROUP_ID_NODE.equals(name)
+                    || IOrderedDependencyConstants.ARTIFACT_ID_NODE.equals(name)) {
+                boolean groupId = IOrderedDependencyConstants.GROUP_ID_NODE.equals(name);
+                boolean inOverride = depth > dependency.overrideDepth;
+                String text = readText(reader);
+                // The element has been read up to its end
+                depth--;
+                if (groupId) {
+                    dependency.groupId = first(dependency.groupId, text);
+                    if (inOverride) {
+                        dependency.overrideGroupId = first(dependency.overrideGroupId, text);
+                    }
+                } else {
+                    dependency.artifactId = first(dependency.artifactId, text);
+                    if (inOverride) {
+                        dependency.overrideArtifactId = first(dependency.overrideArtifactId, text);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void add(Dependency dependency) throws XMLStreamException {
+        String id = getId(dependency.groupId, dependency.artifactId);
+        if (!dependency.override) {
+            ordered.add(id);
+        } else if (!dependency.hasOverride) {
+            missingOverrides.add(id);
+        } else {
+            overrides.put(id, getId(dependency.overrideGroupId, dependency.overrideArtifactId));
+        }
+    }
+
+    private static String getId(String groupId, String artifactId) throws XMLStreamException {
+        if (groupId == null || artifactId == null) {
+            throw new XMLStreamException("A dependency is missing its " + (groupId == null
+                    ? IOrderedDependencyConstants.GROUP_ID_NODE : IOrderedDependencyConstants.ARTIFACT_ID_NODE));
+        }
+        return groupId + PackagingConstants.COLON + artifactId;
+    }
+
+    private static String first(String current, String value) {
+        return current != null ? current : value;
+    }
+
+    /**
+     * @return The qualified name of the current element, as matched by a
+     *         document that is not namespace aware.
+     */
+    private static String getName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        return prefix == null || prefix.isEmpty() ? reader.getLocalName()
+                : prefix + PackagingConstants.COLON + reader.getLocalName();
+    }
+
+    private static boolean hasAttribute(XMLStreamReader reader, String name) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String attribute = prefix == null || prefix.isEmpty() ? reader.getAttributeLocalName(i)
+                    : prefix + PackagingConstants.COLON + reader.getAttributeLocalName(i);
+            if (name.equals(attribute)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the text content of the current element, including the text of
+     * nested elements, up to its end element.
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                text.append(reader.getText());
+                break;
+            default:
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * A dependency of the list being read.
+     */
+    private static class Dependency {
+        private final int depth;
+        private final boolean override;
+        private boolean hasOverride;
+        private int overrideDepth = Integer.MAX_VALUE;
+        private String groupId;
+        private String artifactId;
+        private String overrideGroupId;
+        private String overrideArtifactId;
+
+        Dependency(int depth, boolean override) {
+            this.depth = depth;
+            this.override = override;
+        }
+    }
+}
@@ -6,7 +6,6 @@
 package com.cisco.device.packages.internal.feature;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -24,6 +23,7 @@ import org.sonatype.plexus.build.incremental.BuildContext;
 import com.cisco.common.plugin.helpers.BuildHelper;
 import com.cisco.common.plugin.helpers.ManifestHelper;
 import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.plugin.ManifestService;
 
 /**
  *
@@ -31,8 +31,8 @@ import com.cisco.device.packages.constants.PackagingConstants;
  */
 public class NetworkFeatureValidator {
 
-    public static void validate(MavenProject project, BuildContext context, MavenProjectHelper helper)
-            throws MojoExecutionException {
+    public static void validate(MavenProject project, BuildContext context, MavenProjectHelper helper,
+            ManifestService manifests) throws MojoExecutionException {
 
         context.removeMessages(project.getFile());
 
@@ -47,8 +47,8 @@ public class NetworkFeatureValidator {
         }
 
         Manifest manifest = null;
-        try (FileInputStream stream = new FileInputStream(manifestFile)) {
-            manifest = new Manifest(stream);
+        try {
+            manifest = manifests.getManifest(project);
         } catch (Exception e) {
             BuildHelper.makeError(context, project.getFile(),
                     "An error occurred reading the project Manifest file at: " + manifestFile.getAbsolutePath(), e,
@@ -0,0 +1,281 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A view of a shared executor running at most a given number of its tasks at
+ * the same time, the others waiting in a queue of the view. Shutting the view
+ * down only stops it from accepting tasks, the shared executor keeps running.
+ * Running tasks are only interrupted by cancelling their future.<br>
+ * <br>
+ * The view records how long its tasks waited to start and how long they ran,
+ * which {@link #getStats()} reports along with the largest number of tasks
+ * waiting at once and the utilisation of the threads it may use.<br>
+ * <br>
+ * Classes running a batch of tasks get their view from
+ * {@link #forBatch(ExecutorService, int)} and {@link #release()} it once the
+ * batch is done, which runs the batch on the executor of the build when
+ * given one, or on a pool of threads of its own otherwise.
+ *
+ * @author danijoh2
+ */
+public class BoundedExecutor extends AbstractExecutorService {
+
+    private final Executor delegate;
+    private final int limit;
+    private final ExecutorService pool;
+    private final Set<Future<?>> pending = Collections.newSetFromMap(new ConcurrentHashMap<Future<?>, Boolean>());
+    private final Deque<Task> queue = new ArrayDeque<Task>();
+    private int running;
+    private boolean shutdown;
+
+    private long submitted;
+    private long started;
+    private long peakWaiting;
+    private long waitNanos;
+    private long busyNanos;
+    private long firstSubmit;
+    private long lastEnd;
+
+    /**
+     * @param delegate
+     *            - The executor running the tasks.
+     * @param limit
+     *            - The number of tasks run at the same time.
+     */
+    public BoundedExecutor(Executor delegate, int limit) {
+        this(delegate, limit, null);
+    }
+
+    private BoundedExecutor(Executor delegate, int limit, ExecutorService pool) {
+        this.delegate = delegate;
+        this.limit = Math.max(1, limit);
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a view running a batch of tasks, to {@link #release()} once the
+     * batch is done.
+     *
+     * @param executor
+     *            - The executor running the tasks, which is not shut down by
+     *            the view, or {@code null} to run them on a pool of threads
+     *            of the view.
+     * @param threads
+     *            - The number of tasks run at the same time.
+     * @return The view.
+     */
+    public static BoundedExecutor forBatch(ExecutorService executor, int threads) {
+        if (executor != null) {
+            return new BoundedExecutor(executor, threads);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        return new BoundedExecutor(pool, threads, pool);
+    }
+
+    /**
+     * Releases the view once its batch is done: queued tasks are dropped, the
+     * tasks still running are cancelled, and the pool of threads of the view,
+     * if any, is shut down.
+     */
+    public void release() {
+        shutdownNow();
+        for (Future<?> future : pending) {
+            future.cancel(true);
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The number of tasks run at the same time.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Task task = new Task(command);
+        synchronized (this) {
+            if (shutdown) {
+                pending.remove(command);
+                throw new RejectedExecutionException("The executor is shut down.");
+            }
+            if (running == 0) {
+                // Idle time between batches does not count against utilisation
+                firstSubmit = task.submitted - (lastEnd - firstSubmit);
+            }
+            submitted++;
+            peakWaiting = Math.max(peakWaiting, submitted - started);
+            if (running >= limit) {
+                queue.add(task);
+                return;
+            }
+            running++;
+        }
+        dispatch(task);
+    }
+
+    private void dispatch(Task task) {
+        try {
+            delegate.execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                running--;
+                notifyAll();
+            }
+            pending.remove(task.command);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> dropped = new ArrayList<Runnable>(queue.size());
+        for (Task task : queue) {
+            dropped.add(task.command);
+        }
+        queue.clear();
+        notifyAll();
+        return dropped;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && running == 0;
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PendingTask<T>(callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PendingTask<T>(Executors.callable(runnable, value));
+    }
+
+    /**
+     * @return A summary of the tasks run so far, such as
+     *         {@code 12 task(s) on 4 thread(s), 87% utilisation, peak queue 8, mean wait 3.2 ms}
+     *         .
+     */
+    public synchronized String getStats() {
+        long wall = (running > 0 ? System.nanoTime() : lastEnd) - firstSubmit;
+        double utilisation = wall <= 0 ? 0 : busyNanos * 100.0 / ((double) wall * limit);
+        double meanWait = started == 0 ? 0 : waitNanos / (double) started / TimeUnit.MILLISECONDS.toNanos(1);
+        return String.format("%d task(s) on %d thread(s), %.0f%% utilisation, peak queue %d, mean wait %.1f ms", // $NON-NLS-1$
+                submitted, limit, Math.min(100.0, utilisation), peakWaiting, meanWait);
+    }
+
+    /**
+     * A future of the view, known to the view until done so
+     * {@link BoundedExecutor#release()} can cancel it.
+     */
+    private class PendingTask<T> extends FutureTask<T> {
+
+        PendingTask(Callable<T> callable) {
+            super(callable);
+            pending.add(this);
+        }
+
+        @Override
+        protected void done() {
+            pending.remove(this);
+        }
+    }
+
+    /**
+     * A task of the view, which hands the thread over to the next queued task
+     * of the view once done.
+     */
+    private class Task implements Runnable {
+        private final Runnable command;
+        private final long submitted = System.nanoTime();
+
+        Task(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            synchronized (BoundedExecutor.this) {
+                started++;
+                waitNanos += start - submitted;
+            }
+            try {
+                command.run();
+            } finally {
+                long end = System.nanoTime();
+                Task next;
+                synchronized (BoundedExecutor.this) {
+                    busyNanos += end - start;
+                    lastEnd = Math.max(lastEnd, end);
+                    next = queue.poll();
+                    if (next == null) {
+                        running--;
+                        BoundedExecutor.this.notifyAll();
+                    }
+                }
+                if (next != null) {
+                    try {
+                        dispatch(next);
+                    } catch (RejectedExecutionException e) {
+                        // The shared executor is shut down, the queued tasks
+                        // can no longer run
+                        shutdownNow();
+                    }
+                }
+            }
+        }
+    }
+}
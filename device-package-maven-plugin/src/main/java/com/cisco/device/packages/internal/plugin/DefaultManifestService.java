@@ -0,0 +1,139 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Manifest;
+
+import org.apache.maven.project.MavenProject;
+
+import com.cisco.common.plugin.helpers.ManifestHelper;
+
+/**
+ * Keeps the Manifests read for a project in the context values of the
+ * project, so they live as long as the project in the current session. Each
+ * Manifest is remembered along with the size and modification time of its
+ * file, and read again when either changed.
+ *
+ * @author danijoh2
+ */
+public class DefaultManifestService implements ManifestService {
+
+    private static final String CONTEXT_KEY = ManifestService.class.getName();
+
+    @Override
+    public Manifest getManifest(MavenProject project) throws IOException {
+        return getManifest(project, ManifestHelper.getManifest(project));
+    }
+
+    @Override
+    public Manifest getManifest(MavenProject project, File file) throws IOException {
+        Entry entry = getEntry(project, file);
+        if (entry == null) {
+            return null;
+        }
+        return new Manifest(entry.getManifest());
+    }
+
+    @Override
+    public boolean fixManifest(MavenProject project) {
+        File file = ManifestHelper.getManifest(project);
+        Entry entry = getEntry(project, file);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            if (entry.hasEmptyLineAtEnd()) {
+                return false;
+            }
+        } catch (IOException e) {
+            // Fixed below, as the manifest helper does
+        }
+        getEntries(project).remove(file);
+        return ManifestHelper.enforceEmptyLineAtEnd(file);
+    }
+
+    @Override
+    public void invalidate(MavenProject project) {
+        synchronized (project) {
+            project.setContextValue(CONTEXT_KEY, null);
+        }
+    }
+
+    private Entry getEntry(MavenProject project, File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Map<File, Entry> entries = getEntries(project);
+        Entry entry = entries.get(file);
+        if (entry == null || !entry.isCurrent()) {
+            entry = new Entry(file);
+            entries.put(file, entry);
+        }
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<File, Entry> getEntries(MavenProject project) {
+        synchronized (project) {
+            Map<File, Entry> entries = (Map<File, Entry>) project.getContextValue(CONTEXT_KEY);
+            if (entries == null) {
+                entries = new ConcurrentHashMap<File, Entry>();
+                project.setContextValue(CONTEXT_KEY, entries);
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * A Manifest file as of its size and modification time, whose content
+     * and ending are read on first use.
+     */
+    private static class Entry {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private Manifest manifest;
+        private IOException error;
+        private Boolean emptyLineAtEnd;
+
+        Entry(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        boolean isCurrent() {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+
+        synchronized Manifest getManifest() throws IOException {
+            if (manifest == null && error == null) {
+                try (InputStream in = new FileInputStream(file)) {
+                    manifest = new Manifest(in);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return manifest;
+        }
+
+        synchronized boolean hasEmptyLineAtEnd() throws IOException {
+            if (emptyLineAtEnd == null) {
+                emptyLineAtEnd = ManifestHelper.hasEmptyLineAtEnd(file);
+            }
+            return emptyLineAtEnd;
+        }
+    }
+}
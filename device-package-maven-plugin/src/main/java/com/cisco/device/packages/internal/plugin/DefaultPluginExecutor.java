@@ -0,0 +1,103 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Keeps one executor per build, keyed by the execution request, which is
+ * shared by the session clones of a parallel build, and released with it at
+ * the end of the build.
+ *
+ * @author danijoh2
+ */
+public class DefaultPluginExecutor implements PluginExecutor {
+
+    private static final String DEGREE_OF_CONCURRENCY = "getDegreeOfConcurrency"; // $NON-NLS-1$
+    private static final String THREAD_COUNT = "getThreadCount"; // $NON-NLS-1$
+    private static final String PER_CORE_THREAD_COUNT = "isPerCoreThreadCount"; // $NON-NLS-1$
+    private static final String PER_CORE = "C"; // $NON-NLS-1$
+
+    private final Map<MavenExecutionRequest, SessionExecutor> executors = new WeakHashMap<MavenExecutionRequest, SessionExecutor>();
+
+    @Override
+    public SessionExecutor getExecutor(MavenSession session, int threads) {
+        if (session == null || session.getRequest() == null) {
+            return new SessionExecutor(getThreads(null, threads));
+        }
+        synchronized (executors) {
+            SessionExecutor executor = executors.get(session.getRequest());
+            if (executor == null) {
+                executor = new SessionExecutor(getThreads(session.getRequest(), threads));
+                executors.put(session.getRequest(), executor);
+            }
+            if (threads > 0) {
+                executor.configure(threads);
+            }
+            return executor;
+        }
+    }
+
+    @Override
+    public void release(MavenSession session) {
+        if (session == null || session.getRequest() == null) {
+            return;
+        }
+        SessionExecutor executor;
+        synchronized (executors) {
+            executor = executors.remove(session.getRequest());
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static int getThreads(MavenExecutionRequest request, int threads) {
+        if (threads > 0) {
+            return threads;
+        }
+        int concurrency = request == null ? 1 : getDegreeOfConcurrency(request);
+        return concurrency > 1 ? concurrency : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return The number of projects built concurrently ({@code -T}), read
+     *         through the API of the running Maven version: the degree of
+     *         concurrency since Maven 3.3, the thread count before.
+     */
+    private static int getDegreeOfConcurrency(MavenExecutionRequest request) {
+        try {
+            Method method = request.getClass().getMethod(DEGREE_OF_CONCURRENCY);
+            return ((Number) method.invoke(request)).intValue();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Maven 3.0 to 3.2
+        }
+        try {
+            Method method = request.getClass().getMethod(THREAD_COUNT);
+            String count = (String) method.invoke(request);
+            if (count == null) {
+                return 1;
+            }
+            boolean perCore = count.endsWith(PER_CORE);
+            if (perCore) {
+                count = count.substring(0, count.length() - PER_CORE.length());
+            }
+            float value = Float.parseFloat(count);
+            Method perCoreMethod = request.getClass().getMethod(PER_CORE_THREAD_COUNT);
+            if (perCore || Boolean.TRUE.equals(perCoreMethod.invoke(request))) {
+                value *= Runtime.getRuntime().availableProcessors();
+            }
+            return (int) value;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.sdu.PackageGraphService;
+import com.cisco.device.packages.internal.sdu.SduCreator;
+import com.cisco.device.packages.internal.sdu.SduLock;
+
+/**
+ * Starts resolving the device package graph of the reactor as soon as the
+ * projects are read, when the build is going to create an SDU. The Device
+ * Package dependencies of every Device Package project that are not part of
+ * the reactor are resolved from the repository in the background, along with
+ * their POMs and parents, into the build cache of the
+ * {@link PackageGraphService}. The {@code create-sdu} goal then finds the
+ * graph ready, the resolution having overlapped with the earlier phases of
+ * the build.<br>
+ * <br>
+ * The participant only prefetches, it never fails the build: a package that
+ * cannot be resolved is left for the {@code create-sdu} goal to report. It
+ * also releases the executor and the cache of the build once the build is
+ * over. Builds with a {@code device-packages.lock} file in any project of
+ * the reactor are not prefetched, the SDU being created from the lock.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+public class DevicePackageLifecycleParticipant extends AbstractMavenLifecycleParticipant {
+
+    private static final String PLUGIN_GROUP_ID = "com.cisco.maven.plugins"; // $NON-NLS-1$
+    private static final String PLUGIN_ARTIFACT_ID = "device-package-maven-plugin"; // $NON-NLS-1$
+    private static final String CREATE_SDU = "createSDU"; // $NON-NLS-1$
+    private static final String CREATE_SDU_GOAL = "create-sdu"; // $NON-NLS-1$
+    private static final String REPOSITORY_SESSION = "getRepositorySession"; // $NON-NLS-1$
+    private static final String REMOTE_REPOSITORIES = "getRemotePluginRepositories"; // $NON-NLS-1$
+
+    /**
+     * The phases running the {@code create-sdu} goal of Device Package
+     * projects.
+     */
+    private static final List<String> SDU_PHASES = Arrays.asList("package", "pre-integration-test", // $NON-NLS-1$ // $NON-NLS-2$
+            "integration-test", "post-integration-test", "verify", "install", "deploy"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+
+    /**
+     * The number of POMs and packages resolved at once.
+     */
+    private static final int PREFETCH_THREADS = 8;
+
+    // Injected by the container, see components.xml
+    private PackageGraphService graphs;
+    private PluginExecutor executors;
+    private RepositorySystem repoSystem;
+
+    @Override
+    public void afterProjectsRead(MavenSession session) {
+        if (!isCreatingSdu(session)) {
+            return;
+        }
+        RepositorySystemSession repoSession = getRepositorySession(session);
+        if (repoSession == null) {
+            // Maven 3.0 resolves through the Sonatype Aether API
+            return;
+        }
+
+        List<MavenProject> projects = new ArrayList<MavenProject>();
+        for (MavenProject project : session.getProjects()) {
+            if (new File(project.getBasedir(), SduLock.LOCK_FILE_NAME).isFile()) {
+                // The graph is locked, only the locked packages are fetched
+                return;
+            }
+            if (PackagingConstants.ALL_DP_PACKAGING.contains(project.getPackaging())) {
+                projects.add(project);
+            }
+        }
+        if (projects.isEmpty()) {
+            return;
+        }
+
+        // The goals may still configure the number of threads of the
+        // executor, prefetching only waits on the repository
+        BoundedExecutor executor = executors.getExecutor(session, 0).io(PREFETCH_THREADS);
+        for (MavenProject project : projects) {
+            SduCreator sduCreator = new SduCreator(project, session, repoSystem, repoSession,
+                    getRemoteRepositories(project));
+            sduCreator.setBuildCache(graphs.getCache(session));
+            sduCreator.setReactorProjects(session.getProjects());
+            sduCreator.prefetch(executor);
+        }
+    }
+
+    /**
+     * Releases the executor and the cache of the build. Called by Maven 3.2.1
+     * and later only, earlier versions release them with the build request.
+     */
+    public void afterSessionEnd(MavenSession session) {
+        executors.release(session);
+        graphs.release(session);
+    }
+
+    /**
+     * @return {@code true} if the build runs the {@code create-sdu} goal with
+     *         {@code createSDU} enabled, on the command line or in the
+     *         configuration of the plugin in any project of the reactor.
+     */
+    private static boolean isCreatingSdu(MavenSession session) {
+        boolean sduGoal = false;
+        for (String goal : session.getGoals()) {
+            if (SDU_PHASES.contains(goal) || goal.endsWith(CREATE_SDU_GOAL)) {
+                sduGoal = true;
+                break;
+            }
+        }
+        if (!sduGoal) {
+            return false;
+        }
+        if (Boolean.parseBoolean(session.getUserProperties().getProperty(CREATE_SDU))) {
+            return true;
+        }
+        for (MavenProject project : session.getProjects()) {
+            for (Plugin plugin : project.getBuildPlugins()) {
+                if (!PLUGIN_GROUP_ID.equals(plugin.getGroupId()) || !PLUGIN_ARTIFACT_ID.equals(plugin.getArtifactId())) {
+                    continue;
+                }
+                if (isCreateSdu(plugin.getConfiguration())) {
+                    return true;
+                }
+                for (PluginExecution execution : plugin.getExecutions()) {
+                    if (isCreateSdu(execution.getConfiguration())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCreateSdu(Object configuration) {
+        if (!(configuration instanceof Xpp3Dom)) {
+            return false;
+        }
+        Xpp3Dom createSdu = ((Xpp3Dom) configuration).getChild(CREATE_SDU);
+        return createSdu != null && Boolean.parseBoolean(createSdu.getValue());
+    }
+
+    /**
+     * @return The repository session of the build, or {@code null} if the
+     *         running Maven version does not resolve through Eclipse Aether.
+     *         Read reflectively, as the API the plugin is compiled against
+     *         returns the Sonatype Aether session.
+     */
+    private static RepositorySystemSession getRepositorySession(MavenSession session) {
+        try {
+            Method method = session.getClass().getMethod(REPOSITORY_SESSION);
+            Object repoSession = method.invoke(session);
+            return repoSession instanceof RepositorySystemSession ? (RepositorySystemSession) repoSession : null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<RemoteRepository> getRemoteRepositories(MavenProject project) {
+        try {
+            Method method = project.getClass().getMethod(REMOTE_REPOSITORIES);
+            return (List<RemoteRepository>) method.invoke(project);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return new ArrayList<RemoteRepository>();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.Manifest;
+
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Reads the Manifests of a project once per build, so the goals checking,
+ * validating and packaging a project share the parsed Manifest. A cached
+ * Manifest is read again when its file changes.
+ *
+ * @author danijoh2
+ */
+public interface ManifestService {
+
+    /**
+     * @param project
+     *            - The project to read from.
+     * @return A copy of the project Manifest, or {@code null} if the project
+     *         has no Manifest.
+     * @throws IOException
+     *             - If the Manifest cannot be read.
+     */
+    Manifest getManifest(MavenProject project) throws IOException;
+
+    /**
+     * @param project
+     *            - The project the Manifest belongs to.
+     * @param file
+     *            - A Manifest file of the project, such as the one copied to
+     *            the output directory.
+     * @return A copy of the Manifest, or {@code null} if the file does not
+     *         exist.
+     * @throws IOException
+     *             - If the Manifest cannot be read.
+     */
+    Manifest getManifest(MavenProject project, File file) throws IOException;
+
+    /**
+     * Ensures the project Manifest ends with an empty line, see
+     * {@link com.cisco.common.plugin.helpers.ManifestHelper#fixManifest(MavenProject)}.
+     *
+     * @param project
+     *            - The project to check.
+     * @return {@code true} if a change was made, otherwise {@code false}.
+     */
+    boolean fixManifest(MavenProject project);
+
+    /**
+     * Forgets the Manifests read for a project.
+     *
+     * @param project
+     *            - The project whose Manifests changed.
+     */
+    void invalidate(MavenProject project);
+}
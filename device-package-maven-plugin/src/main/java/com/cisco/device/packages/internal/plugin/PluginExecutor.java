@@ -0,0 +1,41 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Provides the executor running the parallel work of the plugin, shared by all
+ * goals of a build.
+ *
+ * @author danijoh2
+ */
+public interface PluginExecutor {
+
+    /**
+     * Gets the executor of the build. The number of threads is set by the
+     * first goal configuring it, or else is the degree of concurrency of the
+     * build ({@code -T}) when greater than one, otherwise the number of
+     * available processors.
+     *
+     * @param session
+     *            - The current session, or {@code null} for an executor not
+     *            shared with any other goal.
+     * @param threads
+     *            - The number of threads configured for the plugin, zero or
+     *            less for the default.
+     * @return The executor of the build.
+     */
+    SessionExecutor getExecutor(MavenSession session, int threads);
+
+    /**
+     * Shuts the executor of a build down once it is over.
+     *
+     * @param session
+     *            - The session of the build.
+     */
+    void release(MavenSession session);
+}
@@ -0,0 +1,212 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.cisco.common.plugin.helpers.BuildHelper;
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.device.profile.OrderedFeatures;
+import com.cisco.device.packages.internal.device.profile.constants.IOrderedDependencyConstants;
+
+/**
+ * An index of the Device Package projects of a reactor, filled concurrently
+ * while the projects are validated, to check the projects against each other
+ * once all are known:
+ * <ul>
+ * <li>Device Profiles must not share the file name of their archive, as they
+ * are all placed at the root of an SDU.</li>
+ * <li>A feature overridden by a Device Profile must be included by a parent
+ * Device Profile, and the overriding feature must be a dependency of the
+ * profile or a Network Feature of the reactor.</li>
+ * <li>Every Network Feature of the reactor should be included by at least one
+ * Device Profile of the reactor.</li>
+ * </ul>
+ * Checks involving projects outside of the reactor are skipped, as their
+ * configuration is not known.
+ *
+ * @author danijoh2
+ */
+public class ReactorValidationIndex {
+
+    private final Map<String, MavenProject> projects = new LinkedHashMap<String, MavenProject>();
+    private final ConcurrentMap<String, OrderedFeatures> orderedFeatures = new ConcurrentHashMap<String, OrderedFeatures>();
+
+    /**
+     * @param reactorProjects
+     *            - The Device Package projects of the reactor, in reactor
+     *            order.
+     */
+    public ReactorValidationIndex(List<MavenProject> reactorProjects) {
+        for (MavenProject project : reactorProjects) {
+            projects.put(getId(project.getGroupId(), project.getArtifactId()), project);
+        }
+    }
+
+    /**
+     * Records the ordered features of a Device Profile of the reactor, may be
+     * called concurrently.
+     *
+     * @param project
+     *            - The Device Profile project.
+     * @param features
+     *            - Its ordered features.
+     */
+    public void addOrderedFeatures(MavenProject project, OrderedFeatures features) {
+        orderedFeatures.put(getId(project.getGroupId(), project.getArtifactId()), features);
+    }
+
+    /**
+     * Runs the cross-project checks.
+     *
+     * @param context
+     *            - The build context receiving the problems found.
+     * @throws MojoExecutionException
+     *             - Never, as problems are reported without failing.
+     */
+    public void check(BuildContext context) throws MojoExecutionException {
+        Set<String> includedFeatures = new HashSet<String>();
+        Map<String, String> profileNames = new HashMap<String, String>();
+        boolean hasProfiles = false;
+        for (Map.Entry<String, MavenProject> entry : projects.entrySet()) {
+            MavenProject project = entry.getValue();
+            if (!PackagingConstants.DAR_EXT.equals(project.getPackaging())) {
+                continue;
+            }
+            hasProfiles = true;
+            includedFeatures.addAll(getFeatures(entry.getKey()));
+
+            String name = project.getBuild().getFinalName() + PackagingConstants.DOT + PackagingConstants.DAR_EXT;
+            String other = profileNames.putIfAbsent(name, entry.getKey());
+            if (other != null) {
+                BuildHelper.makeError(context, project.getFile(), "The Device Profile archive " + name
+                        + " has the same name as the archive of Device Profile '" + other
+                        + "', only one of them can be placed at the root of an SDU.", false);
+            }
+            checkOverrides(context, entry.getKey(), project, getParentChain(entry.getKey()));
+        }
+
+        if (!hasProfiles) {
+            return;
+        }
+        for (Map.Entry<String, MavenProject> entry : projects.entrySet()) {
+            if (PackagingConstants.FEATURE_EXT.equals(entry.getValue().getPackaging())
+                    && !includedFeatures.contains(entry.getKey())) {
+                BuildHelper.makeWarning(context, entry.getValue().getFile(), "Network Feature '" + entry.getKey()
+                        + "' is not included by any Device Profile of the reactor.");
+            }
+        }
+    }
+
+    private void checkOverrides(BuildContext context, String id, MavenProject project, List<String> chain) {
+        OrderedFeatures features = orderedFeatures.get(id);
+        if (features == null || features.getOverrides().isEmpty()) {
+            return;
+        }
+        File orderedFeaturesFile = new File(project.getBasedir(),
+                IOrderedDependencyConstants.ORDERED_FEATURE_FILE_NAME);
+
+        // The features of the parents can only be known if the whole chain is
+        // in the reactor
+        Set<String> parentFeatures = null;
+        String top = chain.get(chain.size() - 1);
+        if (chain.size() > 1 && projects.containsKey(top) && getParent(projects.get(top)) == null) {
+            parentFeatures = new HashSet<String>();
+            for (String parent : chain.subList(1, chain.size())) {
+                parentFeatures.addAll(getFeatures(parent));
+            }
+        }
+
+        Set<String> dependencies = new HashSet<String>();
+        for (Dependency dependency : project.getDependencies()) {
+            if (PackagingConstants.FEATURE_EXT.equals(dependency.getType())) {
+                dependencies.add(getId(dependency.getGroupId(), dependency.getArtifactId()));
+            }
+        }
+        for (Map.Entry<String, String> override : features.getOverrides().entrySet()) {
+            if (parentFeatures != null && !parentFeatures.contains(override.getKey())) {
+                BuildHelper.makeWarning(context, orderedFeaturesFile,
+                        "Project configuration contains an override for feature: '" + override.getKey()
+                                + "', but no parent Device Profile in the reactor includes it.");
+            }
+            MavenProject overriding = projects.get(override.getValue());
+            if (!dependencies.contains(override.getValue()) && (overriding == null
+                    || !PackagingConstants.FEATURE_EXT.equals(overriding.getPackaging()))) {
+                BuildHelper.makeWarning(context, orderedFeaturesFile,
+                        "Project configuration overrides feature: '" + override.getKey() + "' with '"
+                                + override.getValue()
+                                + "', which is neither a dependency of the project nor a Network Feature of the reactor.");
+            }
+        }
+    }
+
+    /**
+     * @return The profile followed by its parents, up to the first parent
+     *         that is not in the reactor.
+     */
+    private List<String> getParentChain(String id) {
+        // Maven rejects circular dependencies in the reactor, the set only
+        // guards against looping forever
+        Set<String> chain = new LinkedHashSet<String>();
+        String current = id;
+        while (current != null && chain.add(current)) {
+            MavenProject project = projects.get(current);
+            current = project == null ? null : getParent(project);
+        }
+        return new ArrayList<String>(chain);
+    }
+
+    private static String getParent(MavenProject project) {
+        for (Dependency dependency : project.getDependencies()) {
+            if (PackagingConstants.DAR_EXT.equals(dependency.getType())) {
+                return getId(dependency.getGroupId(), dependency.getArtifactId());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The features a profile of the reactor includes, through its
+     *         dependencies, ordered features and overrides.
+     */
+    private Set<String> getFeatures(String id) {
+        Set<String> features = new HashSet<String>();
+        MavenProject project = projects.get(id);
+        if (project == null) {
+            return features;
+        }
+        for (Dependency dependency : project.getDependencies()) {
+            if (PackagingConstants.FEATURE_EXT.equals(dependency.getType())) {
+                features.add(getId(dependency.getGroupId(), dependency.getArtifactId()));
+            }
+        }
+        OrderedFeatures ordered = orderedFeatures.get(id);
+        if (ordered != null) {
+            features.addAll(ordered.getOrdered());
+            features.addAll(ordered.getOverrides().values());
+        }
+        return features;
+    }
+
+    private static String getId(String groupId, String artifactId) {
+        return groupId + PackagingConstants.COLON + artifactId;
+    }
+}
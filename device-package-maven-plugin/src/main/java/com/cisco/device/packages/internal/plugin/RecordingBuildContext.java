@@ -0,0 +1,198 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codehaus.plexus.util.Scanner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+/**
+ * Delegates to the build context of the build, recording every marker added
+ * through it. The markers can also be held back from the delegate, to be
+ * reported later as part of a consolidated list.
+ *
+ * @author danijoh2
+ */
+public class RecordingBuildContext implements BuildContext {
+
+    private final BuildContext delegate;
+    private final boolean forward;
+    private final List<Marker> markers = Collections.synchronizedList(new ArrayList<Marker>());
+
+    /**
+     * @param delegate
+     *            - The build context of the build, which receives every
+     *            marker as well.
+     */
+    public RecordingBuildContext(BuildContext delegate) {
+        this(delegate, true);
+    }
+
+    /**
+     * @param delegate
+     *            - The build context of the build.
+     * @param forward
+     *            - Whether markers are passed on to the delegate.
+     */
+    public RecordingBuildContext(BuildContext delegate, boolean forward) {
+        this.delegate = delegate;
+        this.forward = forward;
+    }
+
+    /**
+     * @return The markers recorded so far, in the order they were added.
+     */
+    public List<Marker> getMarkers() {
+        synchronized (markers) {
+            return new ArrayList<Marker>(markers);
+        }
+    }
+
+    @Override
+    public boolean hasDelta(String relpath) {
+        return delegate.hasDelta(relpath);
+    }
+
+    @Override
+    public boolean hasDelta(File file) {
+        return delegate.hasDelta(file);
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public boolean hasDelta(List relpaths) {
+        return delegate.hasDelta(relpaths);
+    }
+
+    @Override
+    public void refresh(File file) {
+        delegate.refresh(file);
+    }
+
+    @Override
+    public OutputStream newFileOutputStream(File file) throws IOException {
+        return delegate.newFileOutputStream(file);
+    }
+
+    @Override
+    public Scanner newScanner(File basedir) {
+        return delegate.newScanner(basedir);
+    }
+
+    @Override
+    public Scanner newDeleteScanner(File basedir) {
+        return delegate.newDeleteScanner(basedir);
+    }
+
+    @Override
+    public Scanner newScanner(File basedir, boolean ignoreDelta) {
+        return delegate.newScanner(basedir, ignoreDelta);
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return delegate.isIncremental();
+    }
+
+    @Override
+    public void setValue(String key, Object value) {
+        delegate.setValue(key, value);
+    }
+
+    @Override
+    public Object getValue(String key) {
+        return delegate.getValue(key);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void addWarning(File file, int line, int column, String message, Throwable cause) {
+        markers.add(new Marker(file, line, column, message, BuildContext.SEVERITY_WARNING));
+        if (forward) {
+            delegate.addWarning(file, line, column, message, cause);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void addError(File file, int line, int column, String message, Throwable cause) {
+        markers.add(new Marker(file, line, column, message, BuildContext.SEVERITY_ERROR));
+        if (forward) {
+            delegate.addError(file, line, column, message, cause);
+        }
+    }
+
+    @Override
+    public void addMessage(File file, int line, int column, String message, int severity, Throwable cause) {
+        markers.add(new Marker(file, line, column, message, severity));
+        if (forward) {
+            delegate.addMessage(file, line, column, message, severity, cause);
+        }
+    }
+
+    @Override
+    public void removeMessages(File file) {
+        delegate.removeMessages(file);
+    }
+
+    @Override
+    public boolean isUptodate(File target, File source) {
+        return delegate.isUptodate(target, source);
+    }
+
+    /**
+     * A marker added to a file.
+     */
+    public static class Marker {
+        private final File file;
+        private final int line;
+        private final int column;
+        private final String message;
+        private final int severity;
+
+        public Marker(File file, int line, int column, String message, int severity) {
+            this.file = file;
+            this.line = line;
+            this.column = column;
+            this.message = message;
+            this.severity = severity;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return {@link BuildContext#SEVERITY_WARNING} or
+         *         {@link BuildContext#SEVERITY_ERROR}.
+         */
+        public int getSeverity() {
+            return severity;
+        }
+
+        public boolean isError() {
+            return severity == BuildContext.SEVERITY_ERROR;
+        }
+    }
+}
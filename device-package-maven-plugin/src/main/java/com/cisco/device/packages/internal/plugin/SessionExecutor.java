@@ -0,0 +1,167 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads running the parallel work of the plugin during a build, shared
+ * by all goals and projects so the plugin never runs more CPU-bound tasks at
+ * once than the build allows, whatever the number of goals running
+ * concurrently in a parallel build.<br>
+ * <br>
+ * CPU-bound tasks, such as checksumming and compressing packages or validating
+ * projects, run on a fixed number of threads through {@link #compute(int)}.
+ * These tasks must not wait on other tasks of the executor. Tasks which mostly
+ * wait, on I/O or on other tasks, run through {@link #io()} on a thread of
+ * their own, a virtual thread when the Java runtime supports them.<br>
+ * <br>
+ * All threads are daemon threads, and idle threads are released after a few
+ * seconds.
+ *
+ * @author danijoh2
+ */
+public class SessionExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    private static final String VIRTUAL_EXECUTOR_FACTORY = "newVirtualThreadPerTaskExecutor"; // $NON-NLS-1$
+
+    private volatile int threads;
+    private boolean configured;
+    private final ThreadPoolExecutor compute;
+    private final ExecutorService io;
+    private final boolean virtual;
+
+    /**
+     * @param threads
+     *            - The number of threads running CPU-bound tasks.
+     */
+    public SessionExecutor(int threads) {
+        this.threads = Math.max(1, threads);
+        this.compute = new ThreadPoolExecutor(this.threads, this.threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("device-package-worker-")); // $NON-NLS-1$
+        compute.allowCoreThreadTimeOut(true);
+        ExecutorService virtualExecutor = newVirtualThreadExecutor();
+        this.virtual = virtualExecutor != null;
+        this.io = virtual ? virtualExecutor
+                : new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), new DaemonThreadFactory("device-package-io-")); // $NON-NLS-1$
+    }
+
+    /**
+     * @return The number of threads running CPU-bound tasks.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads running CPU-bound tasks, unless set before.
+     * Views created before keep their limit.
+     *
+     * @param threads
+     *            - The number of threads.
+     */
+    public synchronized void configure(int threads) {
+        if (configured) {
+            return;
+        }
+        configured = true;
+        int size = Math.max(1, threads);
+        // The core size may never exceed the maximum size
+        if (size > compute.getMaximumPoolSize()) {
+            compute.setMaximumPoolSize(size);
+            compute.setCorePoolSize(size);
+        } else {
+            compute.setCorePoolSize(size);
+            compute.setMaximumPoolSize(size);
+        }
+        this.threads = size;
+    }
+
+    /**
+     * @return {@code true} if tasks submitted through {@link #io()} run on
+     *         virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @param parallelism
+     *            - The number of tasks of the view to run at once, or zero or
+     *            less for as many as there are threads. Never more than there
+     *            are threads.
+     * @return A new view running CPU-bound tasks on the shared threads.
+     */
+    public BoundedExecutor compute(int parallelism) {
+        int size = threads;
+        return new BoundedExecutor(compute, parallelism > 0 ? Math.min(parallelism, size) : size);
+    }
+
+    /**
+     * @return A new view running each task on a thread of its own.
+     */
+    public BoundedExecutor io() {
+        return io(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param parallelism
+     *            - The number of tasks of the view to run at once.
+     * @return A new view running each task on a thread of its own.
+     */
+    public BoundedExecutor io(int parallelism) {
+        return new BoundedExecutor(io, parallelism);
+    }
+
+    /**
+     * Stops the threads once the tasks already submitted are done.
+     */
+    public void shutdown() {
+        compute.shutdown();
+        io.shutdown();
+    }
+
+    /**
+     * @return An executor running each task on a new virtual thread, or
+     *         {@code null} if the Java runtime does not support them.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod(VIRTUAL_EXECUTOR_FACTORY);
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so the threads never keep the JVM alive.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.project.MavenProject;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.cisco.common.plugin.helpers.ManifestHelper;
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.device.profile.constants.IOrderedDependencyConstants;
+
+/**
+ * Remembers the outcome of the last successful validation of a Device Package
+ * project, so a project whose inputs did not change is not validated again.
+ * The inputs are the POM, including the dependencies it inherits, the
+ * {@code .orderedFeatures}, the {@code MANIFEST.MF} and the {@code cdp}
+ * directory of the project. In an incremental IDE build the inputs are first
+ * checked with {@link BuildContext#hasDelta(File)}, otherwise a digest of them
+ * is compared with the digest persisted in {@value #STATE_PATH} of the build
+ * directory. The markers produced by the validation are persisted along with
+ * the digest, and emitted again when the validation is skipped.
+ *
+ * @author danijoh2
+ */
+public class ValidationCache {
+
+    public static final String STATE_PATH = "device-package/validation.properties"; // $NON-NLS-1$
+
+    private static final String FORMAT = "1"; // $NON-NLS-1$
+    private static final String DIGEST_ALGORITHM = "SHA-256"; // $NON-NLS-1$
+    private static final String DIGEST = "digest"; // $NON-NLS-1$
+    private static final String MARKERS = "markers"; // $NON-NLS-1$
+    private static final String MARKER = "marker."; // $NON-NLS-1$
+    private static final String FILE = ".file"; // $NON-NLS-1$
+    private static final String LINE = ".line"; // $NON-NLS-1$
+    private static final String COLUMN = ".column"; // $NON-NLS-1$
+    private static final String SEVERITY = ".severity"; // $NON-NLS-1$
+    private static final String MESSAGE = ".message"; // $NON-NLS-1$
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+    private final MavenProject project;
+    private final File stateFile;
+    private RecordingBuildContext recorder;
+    private Properties state;
+    private String digest;
+
+    /**
+     * @param project
+     *            - The project to validate.
+     */
+    public ValidationCache(MavenProject project) {
+        this.project = project;
+        this.stateFile = new File(project.getBuild().getDirectory(), STATE_PATH);
+    }
+
+    /**
+     * @param context
+     *            - The current maven build context.
+     * @return {@code true} if the project was validated successfully with the
+     *         same inputs before.
+     */
+    public boolean isUpToDate(BuildContext context) {
+        state = readState();
+        if (state == null) {
+            return false;
+        }
+        if (context.isIncremental()) {
+            boolean delta = false;
+            for (File input : getInputs()) {
+                delta |= context.hasDelta(input);
+            }
+            if (!delta) {
+                return true;
+            }
+        }
+        return getDigest().equals(state.getProperty(DIGEST));
+    }
+
+    /**
+     * Emits the markers of the last validation again, replacing the markers
+     * of the same files.
+     *
+     * @param context
+     *            - The current maven build context.
+     */
+    public void replay(BuildContext context) {
+        if (state == null) {
+            return;
+        }
+        int count = Integer.parseInt(state.getProperty(MARKERS, "0")); // $NON-NLS-1$
+        List<RecordingBuildContext.Marker> replayed = new ArrayList<RecordingBuildContext.Marker>(count);
+        Set<File> files = new LinkedHashSet<File>(getInputs());
+        for (int i = 0; i < count; i++) {
+            String prefix = MARKER + i;
+            String path = state.getProperty(prefix + FILE);
+            File file = path == null ? null : new File(path);
+            if (file != null && !file.isAbsolute()) {
+                file = new File(project.getBasedir(), path);
+            }
+            replayed.add(new RecordingBuildContext.Marker(file,
+                    Integer.parseInt(state.getProperty(prefix + LINE, "0")), // $NON-NLS-1$
+                    Integer.parseInt(state.getProperty(prefix + COLUMN, "0")), // $NON-NLS-1$
+                    state.getProperty(prefix + MESSAGE),
+                    Integer.parseInt(state.getProperty(prefix + SEVERITY, "1")))); // $NON-NLS-1$
+            files.add(file);
+        }
+        for (File file : files) {
+            if (file != null) {
+                context.removeMessages(file);
+            }
+        }
+        for (RecordingBuildContext.Marker marker : replayed) {
+            context.addMessage(marker.getFile(), marker.getLine(), marker.getColumn(), marker.getMessage(),
+                    marker.getSeverity(), null);
+        }
+    }
+
+    /**
+     * @param context
+     *            - The current maven build context.
+     * @return A build context recording the markers of the validation, to be
+     *         persisted by {@link #save()}.
+     */
+    public BuildContext record(BuildContext context) {
+        recorder = new RecordingBuildContext(context);
+        return recorder;
+    }
+
+    /**
+     * Persists the digest of the inputs and the recorded markers, after a
+     * successful validation.
+     *
+     * @throws IOException
+     *             - If the state cannot be written.
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(DIGEST, getDigest());
+        List<RecordingBuildContext.Marker> markers = recorder == null
+                ? Collections.<RecordingBuildContext.Marker> emptyList() : recorder.getMarkers();
+        properties.setProperty(MARKERS, String.valueOf(markers.size()));
+        Path basedir = project.getBasedir().toPath();
+        for (int i = 0; i < markers.size(); i++) {
+            RecordingBuildContext.Marker marker = markers.get(i);
+            String prefix = MARKER + i;
+            if (marker.getFile() != null) {
+                Path path = marker.getFile().toPath();
+                properties.setProperty(prefix + FILE,
+                        path.startsWith(basedir) ? basedir.relativize(path).toString() : path.toString());
+            }
+            properties.setProperty(prefix + LINE, String.valueOf(marker.getLine()));
+            properties.setProperty(prefix + COLUMN, String.valueOf(marker.getColumn()));
+            properties.setProperty(prefix + SEVERITY, String.valueOf(marker.getSeverity()));
+            properties.setProperty(prefix + MESSAGE, marker.getMessage() == null ? "" : marker.getMessage()); // $NON-NLS-1$
+        }
+
+        File parent = stateFile.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        try (OutputStream out = new FileOutputStream(stateFile)) {
+            properties.store(out, null);
+        }
+    }
+
+    /**
+     * Forgets the last validation, after a failed validation.
+     */
+    public void invalidate() {
+        stateFile.delete();
+    }
+
+    private Properties readState() {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(stateFile)) {
+            properties.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        return properties.getProperty(DIGEST) == null ? null : properties;
+    }
+
+    private List<File> getInputs() {
+        List<File> inputs = new ArrayList<File>();
+        inputs.add(project.getFile());
+        inputs.add(new File(project.getBasedir(), IOrderedDependencyConstants.ORDERED_FEATURE_FILE_NAME));
+        inputs.add(ManifestHelper.getManifest(project));
+        inputs.add(new File(project.getBasedir(), IOrderedDependencyConstants.CDP_DIRECTORY));
+        return inputs;
+    }
+
+    private String getDigest() {
+        if (digest == null) {
+            try {
+                digest = computeDigest();
+            } catch (IOException | NoSuchAlgorithmException e) {
+                // Never matches, so the project is validated
+                digest = e.toString();
+            }
+        }
+        return digest;
+    }
+
+    private String computeDigest() throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        update(md, FORMAT);
+        try {
+            update(md, DevicePackagePluginInfo.getVersion());
+        } catch (IOException | NullPointerException e) {
+            // Not packaged, such as when resolved from an IDE workspace
+        }
+        update(md, project.getPackaging());
+
+        // The dependencies may be inherited, so are not covered by the POM
+        for (Dependency dependency : project.getDependencies()) {
+            update(md, dependency.getGroupId() + PackagingConstants.COLON + dependency.getArtifactId()
+                    + PackagingConstants.COLON + dependency.getType());
+            for (Exclusion exclusion : dependency.getExclusions()) {
+                update(md, exclusion.getGroupId() + PackagingConstants.COLON + exclusion.getArtifactId());
+            }
+        }
+
+        List<File> inputs = getInputs();
+        for (File input : inputs.subList(0, inputs.size() - 1)) {
+            update(md, input.getName());
+            if (input.isFile()) {
+                md.update(Files.readAllBytes(input.toPath()));
+            }
+        }
+
+        // Only the presence of configuration parts is validated, so their
+        // names, sizes and modification times are enough
+        File cdpDir = inputs.get(inputs.size() - 1);
+        if (cdpDir.isDirectory()) {
+            Path root = cdpDir.toPath();
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(root)) {
+                paths = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path path : paths) {
+                File file = path.toFile();
+                update(md, root.relativize(path) + PackagingConstants.COLON + file.length() + PackagingConstants.COLON
+                        + file.lastModified());
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b)); // $NON-NLS-1$
+        }
+        return hex.toString();
+    }
+
+    private static void update(MessageDigest md, String value) {
+        md.update(String.valueOf(value).getBytes(UTF_8));
+        md.update((byte) 0);
+    }
+}
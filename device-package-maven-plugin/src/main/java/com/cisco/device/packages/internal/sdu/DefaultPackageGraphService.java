@@ -0,0 +1,49 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Keeps one cache per build, keyed by the execution request, which is shared
+ * by the session clones of a parallel build. The cache is released when the
+ * build is over, or at the latest with the request.
+ *
+ * @author danijoh2
+ */
+public class DefaultPackageGraphService implements PackageGraphService {
+
+    private final Map<MavenExecutionRequest, SduBuildCache> caches = new WeakHashMap<MavenExecutionRequest, SduBuildCache>();
+
+    @Override
+    public SduBuildCache getCache(MavenSession session) {
+        if (session == null || session.getRequest() == null) {
+            return new SduBuildCache();
+        }
+        synchronized (caches) {
+            SduBuildCache cache = caches.get(session.getRequest());
+            if (cache == null) {
+                cache = new SduBuildCache();
+                caches.put(session.getRequest(), cache);
+            }
+            return cache;
+        }
+    }
+
+    @Override
+    public void release(MavenSession session) {
+        if (session == null || session.getRequest() == null) {
+            return;
+        }
+        synchronized (caches) {
+            caches.remove(session.getRequest());
+        }
+    }
+}
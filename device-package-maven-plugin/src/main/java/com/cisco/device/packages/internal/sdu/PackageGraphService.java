@@ -0,0 +1,34 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Holds the graph of device packages resolved during a build, shared by every
+ * execution creating an SDU, so each package is resolved and read once per
+ * build.
+ *
+ * @author danijoh2
+ */
+public interface PackageGraphService {
+
+    /**
+     * @param session
+     *            - The current session, or {@code null} for a cache not
+     *            shared with any other SDU.
+     * @return The cache of the build.
+     */
+    SduBuildCache getCache(MavenSession session);
+
+    /**
+     * Releases the cache of a build once it is over.
+     *
+     * @param session
+     *            - The session of the build.
+     */
+    void release(MavenSession session);
+}
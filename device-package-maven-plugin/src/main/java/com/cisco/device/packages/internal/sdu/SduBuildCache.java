@@ -0,0 +1,214 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.File;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * State shared by all SDUs created during the same Maven build, so building an
+ * SDU per project does not repeat the work already done for upstream
+ * projects. Holds the graph of device packages resolved from the repository:
+ * the POM models and their effective properties, the device package
+ * artifacts, the transitive device package dependencies of each model, and the
+ * SDU entries already written for each package file, so later SDUs can copy
+ * the entry from an earlier SDU instead of reading and checksumming the
+ * package again.<br>
+ * <br>
+ * The cache of a build is kept by the {@link PackageGraphService}. All maps
+ * are concurrent, as the SDUs of a parallel build use the cache at the same
+ * time, and the cached models and properties are never modified. Models,
+ * properties and artifacts are loaded at most once per build: an SDU asking
+ * for one being loaded by another SDU waits for it.
+ *
+ * @author danijoh2
+ */
+public class SduBuildCache {
+
+    private final ConcurrentMap<String, FutureTask<Model>> models = new ConcurrentHashMap<String, FutureTask<Model>>();
+    private final ConcurrentMap<String, FutureTask<Properties>> properties = new ConcurrentHashMap<String, FutureTask<Properties>>();
+    private final ConcurrentMap<String, FutureTask<org.eclipse.aether.artifact.Artifact>> artifacts = new ConcurrentHashMap<String, FutureTask<org.eclipse.aether.artifact.Artifact>>();
+    private final ConcurrentMap<String, List<Artifact>> dependencyArtifacts = new ConcurrentHashMap<String, List<Artifact>>();
+    private final ConcurrentMap<File, WrittenEntry> entries = new ConcurrentHashMap<File, WrittenEntry>();
+    private final Set<String> prefetched = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Claims the prefetching of a device package, so each package is only
+     * prefetched once per build, whatever the number of projects depending on
+     * it.
+     *
+     * @param key
+     *            - The {@code groupId:artifactId:type:version} of the package.
+     * @return {@code true} if the package was not claimed before.
+     */
+    public boolean claimPrefetch(String key) {
+        return prefetched.add(key);
+    }
+
+    /**
+     * @param gav
+     *            - The {@code groupId:artifactId:version} of a model read from
+     *            the repository.
+     * @param loader
+     *            - Reads the model, if not cached yet.
+     * @return The model, or {@code null} if it cannot be found, which is not
+     *         cached.
+     */
+    public Model getModel(String gav, Loader<Model> loader) throws MojoExecutionException {
+        return load(models, gav, loader);
+    }
+
+    /**
+     * @param gav
+     *            - The {@code groupId:artifactId:version} of a model read from
+     *            the repository.
+     * @param loader
+     *            - Computes the properties of the model merged with those of
+     *            its parents, if not cached yet.
+     * @return The properties, shared by all SDUs, so never to be modified.
+     */
+    public Properties getProperties(String gav, Loader<Properties> loader) throws MojoExecutionException {
+        return load(properties, gav, loader);
+    }
+
+    /**
+     * @param key
+     *            - The {@code groupId:artifactId:type:version} of an artifact
+     *            resolved from the repository.
+     * @param loader
+     *            - Resolves the artifact, if not cached yet.
+     */
+    public org.eclipse.aether.artifact.Artifact getArtifact(String key,
+            Loader<org.eclipse.aether.artifact.Artifact> loader) throws MojoExecutionException {
+        return load(artifacts, key, loader);
+    }
+
+    /**
+     * @param key
+     *            - Identifies a model and the exclusions applied to its
+     *            dependencies.
+     * @return The transitive device package dependencies of the model, or
+     *         {@code null} if not resolved yet.
+     */
+    public List<Artifact> getDependencyArtifacts(String key) {
+        return dependencyArtifacts.get(key);
+    }
+
+    public void putDependencyArtifacts(String key, List<Artifact> artifacts) {
+        dependencyArtifacts.put(key, artifacts);
+    }
+
+    /**
+     * Gets an SDU entry already written for a package file, provided neither
+     * the package nor the SDU changed since, and the entry was written with the
+     * same compression settings.
+     *
+     * @param payload
+     *            - The package file.
+     * @return The entry, or {@code null} if there is no usable entry.
+     */
+    public WrittenEntry getEntry(File payload, SduCompression compression, int level) {
+        WrittenEntry entry = entries.get(payload.getAbsoluteFile());
+        if (entry == null || entry.compression != compression || entry.level != level
+                || entry.payloadLength != payload.length() || entry.payloadModified != payload.lastModified()
+                || entry.sduLength != entry.sdu.length() || entry.sduModified != entry.sdu.lastModified()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Records the entry written for a package file. Must be called once the SDU
+     * is complete.
+     */
+    public void putEntry(File payload, File sdu, SduEntry entry, SduCompression compression, int level) {
+        entries.put(payload.getAbsoluteFile(), new WrittenEntry(payload, sdu, entry, compression, level));
+    }
+
+    /**
+     * Gets a value of the cache, loading it unless another thread already did
+     * or is doing so. A value that is {@code null} or failed to load is not
+     * cached, so it is loaded again next time.
+     */
+    private static <T> T load(ConcurrentMap<String, FutureTask<T>> values, String key, Loader<T> loader)
+            throws MojoExecutionException {
+        FutureTask<T> task = values.get(key);
+        if (task == null) {
+            FutureTask<T> created = new FutureTask<T>(loader::load);
+            task = values.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                created.run();
+            }
+        }
+        try {
+            T value = task.get();
+            if (value == null) {
+                values.remove(key, task);
+            }
+            return value;
+        } catch (ExecutionException e) {
+            values.remove(key, task);
+            if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while loading " + key + ".", e);
+        }
+    }
+
+    /**
+     * Loads a value missing from the cache.
+     */
+    public interface Loader<T> {
+        T load() throws MojoExecutionException;
+    }
+
+    /**
+     * An entry of an SDU written earlier in the build.
+     */
+    public static class WrittenEntry {
+        private final File sdu;
+        private final SduEntry entry;
+        private final SduCompression compression;
+        private final int level;
+        private final long payloadLength;
+        private final long payloadModified;
+        private final long sduLength;
+        private final long sduModified;
+
+        WrittenEntry(File payload, File sdu, SduEntry entry, SduCompression compression, int level) {
+            this.sdu = sdu;
+            this.entry = entry;
+            this.compression = compression;
+            this.level = level;
+            this.payloadLength = payload.length();
+            this.payloadModified = payload.lastModified();
+            this.sduLength = sdu.length();
+            this.sduModified = sdu.lastModified();
+        }
+
+        public File getSdu() {
+            return sdu;
+        }
+
+        public SduEntry getEntry() {
+            return entry;
+        }
+    }
+}
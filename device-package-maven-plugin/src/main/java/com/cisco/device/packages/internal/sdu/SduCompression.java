@@ -0,0 +1,49 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.util.Locale;
+
+/**
+ * How the device packages of an SDU are compressed.
+ *
+ * @author danijoh2
+ */
+public enum SduCompression {
+
+    /**
+     * Packages are stored as is, the default.
+     */
+    STORED,
+
+    /**
+     * Packages are deflated.
+     */
+    DEFLATE,
+
+    /**
+     * Packages are deflated only when a sample of the package compresses
+     * well, otherwise they are stored.
+     */
+    AUTO;
+
+    /**
+     * @param value
+     *            - One of {@code stored}, {@code deflate} or {@code auto},
+     *            case insensitive.
+     * @return The compression mode.
+     * @throws IllegalArgumentException
+     *             - If the value is not a known compression mode.
+     */
+    public static SduCompression fromString(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException(
+                    "Unknown SDU compression '" + value + "', expected one of: stored, deflate, auto.");
+        }
+    }
+}
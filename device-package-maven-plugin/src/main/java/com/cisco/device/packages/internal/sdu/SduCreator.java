@@ -5,26 +5,31 @@
  *****************************************************************************/
 package com.cisco.device.packages.internal.sdu;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
+import java.util.zip.Deflater;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.artifact.Artifact;
@@ -53,13 +58,22 @@ import org.eclipse.aether.resolution.VersionRangeResult;
 import org.eclipse.aether.version.Version;
 
 import com.cisco.common.constructs.Node;
+import com.cisco.common.plugin.helpers.FileHelper;
 import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.plugin.BoundedExecutor;
 import com.cisco.device.packages.internal.plugin.DependencyTree;
+import com.cisco.device.packages.internal.plugin.SessionExecutor;
 
 /**
  * Can be used to create an SDU from a collection of Maven projects during a
  * Maven build. Expects at least the packaging phase to have been run prior to
- * invocation.
+ * invocation.<br>
+ * <br>
+ * An instance creates one SDU and is used by one thread, while any number of
+ * instances may run concurrently in a parallel build. The models of the
+ * reactor and of the build cache are shared by all of them, so they are only
+ * read, never modified. The state of an SDU being created is kept per call,
+ * and the SDU is written to a file of its own before being moved in place.
  *
  * @author danijoh2
  */
@@ -70,10 +84,29 @@ public class SduCreator {
     public static final String SDU_MANIFEST_ATTR_VERSION = "xmp_version"; // $NON-NLS-1$
     public static final String SDU_MANIFEST_ATTR_TYPE = "xmp_type"; // $NON-NLS-1$
     public static final String SDU_MANIFEST_ATTR_LOAD_ORDER = "devicePackage"; // $NON-NLS-1$
+    /**
+     * The install wave of a package, its depth in the device package
+     * dependency graph. Packages of the same wave do not depend on each other,
+     * so can be installed in parallel once every earlier wave is installed.
+     */
+    public static final String SDU_MANIFEST_ATTR_WAVE = "xmp_wave"; // $NON-NLS-1$
+    /**
+     * The load order of the device packages a package directly depends on,
+     * comma separated.
+     */
+    public static final String SDU_MANIFEST_ATTR_PREDECESSORS = "xmp_predecessors"; // $NON-NLS-1$
+    /**
+     * The number of install waves of the SDU, in the main attributes.
+     */
+    public static final String SDU_MANIFEST_ATTR_WAVES = "xmp_waves"; // $NON-NLS-1$
+
+    private static final String KEY_SEPARATOR = "|"; // $NON-NLS-1$
+    private static final String SPOOL_SUFFIX = ".spool"; // $NON-NLS-1$
 
     private MavenProject project;
     private MavenSession mavenSession;
     private List<MavenProject> reactorProjects;
+    private Map<String, MavenProject> reactorIndex = Collections.emptyMap();
     List<Exclusion> extraExclusions;
 
     private RepositorySystem repoSystem;
@@ -89,7 +122,47 @@ public class SduCreator {
 
     private Log log;
 
-    private Map<String, String> dependencyVersionMap = new HashMap<String, String>();
+    private SduCompression compression = SduCompression.STORED;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int threads;
+    private int threadsUsed;
+    private SessionExecutor executor;
+    private BoundedExecutor workers;
+
+    private SduBuildCache cache = new SduBuildCache();
+
+    /**
+     * The spool packages are written to while resolving, if any.
+     */
+    private SduSpool spool;
+    private final Set<File> spooled = new HashSet<File>();
+
+    /**
+     * Records how each device package is included while resolving, if set.
+     * The dependencies of each model are then resolved again rather than
+     * taken from the build cache, which does not keep the inclusion paths.
+     */
+    private SduSizeReport sizeReport;
+    private final Map<String, List<Artifact>> reportedDependencies = new HashMap<String, List<Artifact>>();
+
+    /**
+     * The lock the SDU is created from, if any, skipping the discovery of the
+     * graph.
+     */
+    private SduLock lock;
+
+    /**
+     * Records the exclusions applied while resolving, when locking the graph.
+     * The dependencies of each model are then resolved again, as for the size
+     * report.
+     */
+    private SduLock recording;
+
+    /**
+     * The modification time recorded for the entries of the SDU, or
+     * {@code null} for the current time.
+     */
+    private Long time;
 
     public SduCreator(MavenProject project, MavenSession mavenSession, RepositorySystem repoSystem,
             RepositorySystemSession repoSession, List<RemoteRepository> remoteRepos) {
@@ -100,6 +173,15 @@ public class SduCreator {
         this.remoteRepos = remoteRepos;
     }
 
+    /**
+     * @param cache
+     *            - The cache of the build, shared with every other SDU created
+     *            in the build. By default the SDU uses a cache of its own.
+     */
+    public void setBuildCache(SduBuildCache cache) {
+        this.cache = cache;
+    }
+
     public void setSduName(String name) {
         this.sduName = name;
     }
@@ -114,24 +196,163 @@ public class SduCreator {
 
     public void setReactorProjects(List<MavenProject> reactorProjects) {
         this.reactorProjects = reactorProjects;
+        Map<String, MavenProject> index = new HashMap<String, MavenProject>();
+        if (reactorProjects != null) {
+            for (MavenProject reactorProject : reactorProjects) {
+                index.putIfAbsent(getGav(reactorProject.getGroupId(), reactorProject.getArtifactId(),
+                        reactorProject.getVersion()), reactorProject);
+            }
+        }
+        this.reactorIndex = Collections.unmodifiableMap(index);
     }
 
     public void setIncludeAllReactorProjects(boolean includeAll) {
         this.includeAllReactorProjects = includeAll;
     }
 
+    public void setCompression(SduCompression compression) {
+        this.compression = compression;
+    }
+
+    public void setCompressionLevel(int level) {
+        this.compressionLevel = level;
+    }
+
+    /**
+     * @param sizeReport
+     *            - The report to record the packages and dependency edges of
+     *            the SDU in, or {@code null} for none.
+     */
+    public void setSizeReport(SduSizeReport sizeReport) {
+        this.sizeReport = sizeReport;
+    }
+
+    /**
+     * @param threads
+     *            - The number of threads used to read and compress packages,
+     *            or zero or less to use one per available processor.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param executor
+     *            - The executor of the build, reading and compressing packages
+     *            on its shared threads, or {@code null} to use threads of this
+     *            creator.
+     */
+    public void setExecutor(SessionExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param lock
+     *            - The locked graph to create the SDU from, or {@code null} to
+     *            resolve the graph. The SDU must be created with the
+     *            exclusions and inclusion flag the graph was locked with.
+     */
+    public void setLock(SduLock lock) {
+        this.lock = lock;
+    }
+
+    /**
+     * Starts resolving the device packages the project depends on from the
+     * repository, along with their POMs, so the build cache already holds them
+     * when the SDU is created. Exclusions are only applied when the SDU is
+     * created, and the packages and POMs that cannot be resolved are left for
+     * it to report. Returns at once, and may be called from any thread.
+     *
+     * @param executor
+     *            - Runs the resolution, one task per package.
+     */
+    public void prefetch(Executor executor) {
+        executor.execute(() -> prefetch(project.getModel(), executor));
+    }
+
+    private void prefetch(Model model, Executor executor) {
+        if (model.getDependencies() == null) {
+            return;
+        }
+        Properties properties;
+        try {
+            properties = getAllProperties(model);
+        } catch (MojoExecutionException | RuntimeException e) {
+            debug("Failed to prefetch the parents of " + getModelKey(model) + ": " + e.getMessage());
+            return;
+        }
+        for (Dependency dep : model.getDependencies()) {
+            if (!PackagingConstants.ALL_DP_PACKAGING.contains(dep.getType()) || dep.getVersion() == null) {
+                continue;
+            }
+            String version = resolve(properties, dep.getVersion());
+            if (reactorIndex.containsKey(getGav(dep.getGroupId(), dep.getArtifactId(), version))
+                    || !cache.claimPrefetch(getGav(dep.getGroupId(), dep.getArtifactId(), version)
+                            + PackagingConstants.COLON + dep.getType())) {
+                // Reactor projects are prefetched on their own
+                continue;
+            }
+            executor.execute(() -> {
+                try {
+                    getArtifact(new org.eclipse.aether.artifact.DefaultArtifact(dep.getGroupId(),
+                            dep.getArtifactId(), dep.getType(), version));
+                    Model depModel = getModel(dep.getGroupId(), dep.getArtifactId(), version);
+                    if (depModel != null) {
+                        prefetch(depModel, executor);
+                    }
+                } catch (MojoExecutionException | RuntimeException e) {
+                    debug("Failed to prefetch " + dep.getGroupId() + PackagingConstants.COLON + dep.getArtifactId()
+                            + PackagingConstants.COLON + version + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Resolves the device packages and creates the SDU. Packages are written to
+     * a spool as soon as they are resolved, so reading, checksumming and
+     * compressing them overlaps with resolving the rest of the dependencies.
+     * The manifest is written once every package is known, followed by the
+     * spool.
+     *
+     * @return The SDU file, or {@code null} if there are no projects to create
+     *         an SDU from.
+     */
     public File create() throws MojoExecutionException, MojoFailureException {
+        if (lock != null) {
+            return createLocked();
+        }
+        try (SduSpool spool = new SduSpool(File.createTempFile(getSduName(), SPOOL_SUFFIX, getBaseDir()),
+                compression, compressionLevel, getWriterThreads(), getWorkers(),
+                executor != null ? executor.io() : null)) {
+            this.spool = spool;
+            Set<Artifact> artifacts = resolve();
+            return artifacts == null ? null : create(artifacts);
+        } catch (IOException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        } finally {
+            spool = null;
+            spooled.clear();
+        }
+    }
+
+    /**
+     * Resolves the device packages to include in the SDU. The models and
+     * artifacts resolved are shared with every other SDU created in the build,
+     * so further SDUs with different exclusions or inclusion flags only filter
+     * what was resolved here.
+     *
+     * @return The device packages, or {@code null} if there are no projects to
+     *         create an SDU from.
+     */
+    public Set<Artifact> resolve() throws MojoExecutionException, MojoFailureException {
 
         Set<MavenProject> projects = new HashSet<MavenProject>();
         projects.add(project);
         if (PackagingConstants.POM_EXT.equals(project.getPackaging())) {
             projects.addAll(getSubProjects(project, reactorProjects));
-        } else if (PackagingConstants.ALL_DP_PACKAGING.contains(project.getPackaging())) {
-            if (project.getArtifact() == null || project.getArtifact().getFile() == null
-                    || !project.getArtifact().getFile().exists()) {
-                throw new MojoExecutionException(
-                        "SDU Creation requires at least goal 'package' of the current project to be executed.");
-            }
+        } else {
+            checkPackaged();
         }
 
         if (projects.isEmpty()) {
@@ -159,15 +380,227 @@ public class SduCreator {
                         "No artifacts found to include in the SDU. Check your project dependencies and use of dependency exclusions.");
             }
         }
+        return artifacts;
+    }
+
+    private void checkPackaged() throws MojoExecutionException {
+        if (PackagingConstants.ALL_DP_PACKAGING.contains(project.getPackaging())) {
+            if (project.getArtifact() == null || project.getArtifact().getFile() == null
+                    || !project.getArtifact().getFile().exists()) {
+                throw new MojoExecutionException(
+                        "SDU Creation requires at least goal 'package' of the current project to be executed.");
+            }
+        }
+    }
+
+    /**
+     * Creates the SDU from the given device packages.
+     *
+     * @param artifacts
+     *            - The device packages, as returned by {@link #resolve()}.
+     * @return The SDU file.
+     */
+    public File create(Set<Artifact> artifacts) throws MojoExecutionException, MojoFailureException {
 
         Map<File, String> files = createSDUFileMap(artifacts);
 
+        Manifest mf = createManifest(artifacts);
+        File sdu = null;
+        try {
+            sdu = createSDU(files, mf, createIndex(artifacts, files, mf), getBaseDir(), getSduName());
+        } catch (IOException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        }
+        return sdu;
+    }
+
+    /**
+     * Resolves the device packages to include in the SDU, and locks them along
+     * with the manifest entries of the SDU and the exclusions applied, so the
+     * SDU can be created again from the exact same packages.
+     *
+     * @return The lock, or {@code null} if there are no projects to create an
+     *         SDU from.
+     */
+    public SduLock lock() throws MojoExecutionException, MojoFailureException {
+
+        recording = new SduLock(getExclusionsKey(extraExclusions), includeAllReactorProjects,
+                System.currentTimeMillis());
+        try {
+            Set<Artifact> artifacts = resolve();
+            if (artifacts == null) {
+                return null;
+            }
+            Manifest mf = createManifest(artifacts);
+            Map<String, Attributes> entries = mf.getEntries();
+            for (int i = 0; entries.containsKey(SDU_MANIFEST_ATTR_LOAD_ORDER + i); i++) {
+                Attributes attr = entries.get(SDU_MANIFEST_ATTR_LOAD_ORDER + i);
+                String predecessors = attr.getValue(SDU_MANIFEST_ATTR_PREDECESSORS);
+                recording.addEntry(i, attr.getValue(SDU_MANIFEST_ATTR_GROUP_ID),
+                        attr.getValue(SDU_MANIFEST_ATTR_ARTIFACT_ID), attr.getValue(SDU_MANIFEST_ATTR_VERSION),
+                        attr.getValue(SDU_MANIFEST_ATTR_TYPE), Integer.parseInt(attr.getValue(SDU_MANIFEST_ATTR_WAVE)),
+                        predecessors == null ? "" : predecessors); // $NON-NLS-1$
+            }
+
+            for (Artifact art : artifacts) {
+                String path = getSduPath(art);
+                if (path == null) {
+                    continue;
+                }
+                boolean reactor = reactorIndex
+                        .containsKey(getGav(art.getGroupId(), art.getArtifactId(), art.getVersion()));
+                String sha256 = ""; // $NON-NLS-1$
+                if (!reactor) {
+                    try {
+                        sha256 = SduLock.checksum(art.getFile());
+                    } catch (IOException e) {
+                        throw new MojoFailureException("Failed to checksum " + art.getFile() + ": " + e.getMessage(),
+                                e);
+                    }
+                }
+                recording.addPackage(art.getGroupId(), art.getArtifactId(), art.getVersion(), art.getType(),
+                        reactor ? SduLock.SOURCE_REACTOR : SduLock.SOURCE_REPOSITORY, sha256, path);
+            }
+            return recording;
+        } finally {
+            recording = null;
+        }
+    }
+
+    /**
+     * Creates the SDU from the locked graph. The packages of the reactor are
+     * taken from the reactor, the others are fetched from the repository in
+     * parallel and must match their locked checksum. The manifest is the
+     * locked manifest, and every entry of the SDU records the time of the lock.
+     */
+    private File createLocked() throws MojoExecutionException, MojoFailureException {
+
+        if (!lock.getExclusions().equals(getExclusionsKey(extraExclusions))
+                || lock.isIncludeAll() != includeAllReactorProjects) {
+            throw new MojoFailureException("The device package lock of " + project.getId()
+                    + " was written with exclusions [" + lock.getExclusions() + "] and includeAll="
+                    + lock.isIncludeAll() + ", but the SDU is created with exclusions ["
+                    + getExclusionsKey(extraExclusions) + "] and includeAll=" + includeAllReactorProjects
+                    + ". Run the lock goal again.");
+        }
+        checkPackaged();
+
+        Map<SduLock.Package, Future<File>> fetches = new LinkedHashMap<SduLock.Package, Future<File>>();
+        ExecutorService fetcher = executor != null ? executor.io() : null;
+        Set<Artifact> artifacts = new HashSet<Artifact>();
+        Map<File, String> files = new TreeMap<File, String>();
+        try {
+            for (SduLock.Package locked : lock.getPackages()) {
+                if (!locked.isReactor() && fetcher != null) {
+                    fetches.put(locked, fetcher.submit(() -> fetch(locked)));
+                }
+            }
+            for (SduLock.Package locked : lock.getPackages()) {
+                File file;
+                if (locked.isReactor()) {
+                    MavenProject reactorProject = reactorIndex
+                            .get(getGav(locked.getGroupId(), locked.getArtifactId(), locked.getVersion()));
+                    if (reactorProject == null) {
+                        throw new MojoFailureException("The locked device package " + locked
+                                + " is not built by the reactor. Run the lock goal again.");
+                    }
+                    file = getReactorArtifact(reactorProject).getFile();
+                } else if (fetcher != null) {
+                    file = fetches.get(locked).get();
+                } else {
+                    file = fetch(locked);
+                }
+
+                Artifact artifact = new org.apache.maven.artifact.DefaultArtifact(locked.getGroupId(),
+                        locked.getArtifactId(), locked.getVersion(), null, locked.getType(), locked.getType(), null);
+                artifact.setFile(file);
+                artifacts.add(artifact);
+                files.put(file, locked.getPath());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while fetching the locked device packages.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MojoFailureException) {
+                throw (MojoFailureException) e.getCause();
+            } else if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            if (fetcher != null) {
+                fetcher.shutdown();
+                for (Future<File> future : fetches.values()) {
+                    future.cancel(true);
+                }
+            }
+        }
+        info("Creating SDU from " + files.size() + " locked device package(s)");
+        for (String path : files.values()) {
+            info("Adding: " + path);
+        }
+
+        Manifest mf = newManifest();
+        Map<String, Attributes> entries = mf.getEntries();
+        int waves = 0;
+        for (SduLock.Entry entry : lock.getEntries()) {
+            Attributes attr = new Attributes();
+            attr.putValue(SDU_MANIFEST_ATTR_GROUP_ID, entry.getGroupId());
+            attr.putValue(SDU_MANIFEST_ATTR_ARTIFACT_ID, entry.getArtifactId());
+            attr.putValue(SDU_MANIFEST_ATTR_VERSION, entry.getVersion());
+            attr.putValue(SDU_MANIFEST_ATTR_TYPE, entry.getType());
+            attr.putValue(SDU_MANIFEST_ATTR_WAVE, String.valueOf(entry.getWave()));
+            if (!entry.getPredecessors().isEmpty()) {
+                attr.putValue(SDU_MANIFEST_ATTR_PREDECESSORS, entry.getPredecessors());
+            }
+            entries.put(SDU_MANIFEST_ATTR_LOAD_ORDER + entry.getLoadOrder(), attr);
+            waves = Math.max(waves, entry.getWave() + 1);
+        }
+        if (waves > 0) {
+            mf.getMainAttributes().putValue(SDU_MANIFEST_ATTR_WAVES, String.valueOf(waves));
+        }
+
+        time = lock.getTime();
+        try {
+            return createSDU(files, mf, createIndex(artifacts, files, mf), getBaseDir(), getSduName());
+        } catch (IOException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        } finally {
+            time = null;
+        }
+    }
+
+    /**
+     * Fetches a locked package from the repository, and verifies its
+     * checksum.
+     */
+    private File fetch(SduLock.Package locked) throws MojoExecutionException, MojoFailureException {
+        File file = getArtifact(new org.eclipse.aether.artifact.DefaultArtifact(locked.getGroupId(),
+                locked.getArtifactId(), locked.getType(), locked.getVersion())).getFile();
+        String sha256;
+        try {
+            sha256 = SduLock.checksum(file);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to checksum " + file + ": " + e.getMessage(), e);
+        }
+        if (!sha256.equals(locked.getSha256())) {
+            throw new MojoFailureException("Checksum mismatch for the locked device package " + locked + ": expected "
+                    + locked.getSha256() + " but " + file + " has " + sha256 + ".");
+        }
+        return file;
+    }
+
+    private File getBaseDir() {
         File baseDir = new File(project.getBuild().getDirectory());
         if (!baseDir.exists()) {
-            // Create the "target" directory to place the .sdu into
-            baseDir.mkdir();
+            // Create the "target" directory to place the .sdu into, another
+            // execution may be creating it as well
+            baseDir.mkdirs();
         }
+        return baseDir;
+    }
 
+    private String getSduName() {
         // Check if user supplied name for .sdu file
         if (sduName == null) {
             // They did not, default to <artifactId>-<version>.sdu
@@ -177,14 +610,7 @@ public class SduCreator {
             }
             sduName += PackagingConstants.SDU_EXT;
         }
-
-        File sdu = null;
-        try {
-            sdu = createSDU(files, createManifest(artifacts), baseDir, sduName);
-        } catch (IOException e) {
-            throw new MojoFailureException(e.getMessage(), e);
-        }
-        return sdu;
+        return sduName;
     }
 
     protected Set<MavenProject> getProjectRoots(Set<MavenProject> projects) {
@@ -249,48 +675,60 @@ public class SduCreator {
     protected Set<Artifact> getArtifacts(Set<MavenProject> projects)
             throws MojoExecutionException, MojoFailureException {
 
-        Set<Artifact> artifacts = new HashSet<Artifact>();
+        Map<String, Artifact> artifacts = new LinkedHashMap<String, Artifact>();
         for (MavenProject proj : projects) {
+            if (sizeReport != null) {
+                sizeReport.addRoot(getModelKey(proj.getModel()));
+            }
             if (PackagingConstants.ALL_DP_PACKAGING.contains(proj.getPackaging())) {
-                Artifact artifact = proj.getArtifact();
-                while (artifact.getFile() == null || !artifact.getFile().exists()) {
-                    if (mavenSession.getResult().hasExceptions()) {
-                        throw new MojoExecutionException(
-                                "Stopping build of " + project.getId() + " because of upstream build failures.");
-                    }
-                    BuildSummary projectSummary = mavenSession.getResult().getBuildSummary(proj);
-                    if (projectSummary instanceof BuildFailure) {
-                        throw new MojoExecutionException(
-                                "Failed to package SDU because of a build failure in project " + proj.getId());
-                    } else if (projectSummary instanceof BuildSuccess) {
-                        break;
-                    }
-
-                    // Need to use the artifact in the reactor, wait until it is
-                    // ready if we have to
-                    info(project.getId() + " is waiting on project in reactor to finish: " + proj.getId());
-                    try {
-                        Thread.sleep(1000);
-                    } catch (Exception e) {
-
-                    }
+                Artifact artifact = getReactorArtifact(proj);
+                artifacts.put(getArtifactKey(artifact), artifact);
+                resolved(artifact);
+                if (sizeReport != null) {
+                    sizeReport.addPackage(getModelKey(proj.getModel()), proj.getPackaging(), artifact.getFile(),
+                            getSduPath(artifact));
                 }
-                artifacts.add(artifact);
             }
 
-            addAllDependencyArtifacts(proj.getModel(), null, artifacts);
+            for (Artifact artifact : getDependencyArtifacts(proj.getModel(), null)) {
+                String key = getArtifactKey(artifact);
+                if (!artifacts.containsKey(key)) {
+                    artifacts.put(key, artifact);
+                    resolved(artifact);
+                }
+            }
         }
 
-        return artifacts;
+        return new HashSet<Artifact>(artifacts.values());
     }
 
-    private void addAllDependencyArtifacts(Model model, List<Exclusion> exclusions, Set<Artifact> artifacts)
+    /**
+     * Gets the device packages a model depends on, directly or transitively.
+     * The dependencies of each model are only resolved once per build, and
+     * then shared by every SDU created in the build.
+     *
+     * @param model
+     *            - The model.
+     * @param exclusions
+     *            - The exclusions inherited from the dependency on the model,
+     *            or {@code null}.
+     */
+    private List<Artifact> getDependencyArtifacts(Model model, List<Exclusion> exclusions)
             throws MojoExecutionException {
 
         if (model.getDependencies() == null) {
-            return;
+            return Collections.emptyList();
+        }
+
+        String key = getModelKey(model) + KEY_SEPARATOR + getExclusionsKey(exclusions) + KEY_SEPARATOR
+                + getExclusionsKey(extraExclusions);
+        boolean local = sizeReport != null || recording != null;
+        List<Artifact> dependencies = local ? reportedDependencies.get(key) : cache.getDependencyArtifacts(key);
+        if (dependencies != null) {
+            return dependencies;
         }
 
+        Map<String, Artifact> artifacts = new LinkedHashMap<String, Artifact>();
         Properties properties = getAllProperties(model);
         for (Dependency dep : model.getDependencies()) {
             if (!PackagingConstants.ALL_DP_PACKAGING.contains(dep.getType())) {
@@ -301,20 +739,28 @@ public class SduCreator {
             // profile, because in order to load a parent package in the runtime
             // we will need its original feature dependencies present. We can
             // process any extra exclusions passed explicitly though.
-            if (!PackagingConstants.DAR_EXT.equals(dep.getType()) || exclusions == null) {
-                exclusions = extraExclusions;
-            } else if (extraExclusions != null) {
-                exclusions.addAll(extraExclusions);
+            List<Exclusion> depExclusions = extraExclusions;
+            if (PackagingConstants.DAR_EXT.equals(dep.getType()) && exclusions != null) {
+                depExclusions = new ArrayList<Exclusion>(exclusions);
+                if (extraExclusions != null) {
+                    depExclusions.addAll(extraExclusions);
+                }
             }
 
-            if (exclusions != null) {
+            if (depExclusions != null) {
                 boolean skip = false;
-                for (Exclusion exclusion : exclusions) {
+                for (Exclusion exclusion : depExclusions) {
                     if (matches(exclusion, dep)) {
                         log.debug("Ignoring dependency " + dep + " because of exclusion " + "{groupId="
                                 + exclusion.getGroupId() + ", artifactId=" + exclusion.getArtifactId()
                                 + "} from project {groupId=" + model.getGroupId() + ", artifactId="
                                 + model.getArtifactId() + "}");
+                        if (recording != null) {
+                            recording.addExclusion(getModelKey(model),
+                                    dep.getGroupId() + PackagingConstants.COLON + dep.getArtifactId()
+                                            + PackagingConstants.COLON + dep.getType(),
+                                    exclusion.getGroupId() + PackagingConstants.COLON + exclusion.getArtifactId());
+                        }
                         skip = true;
                         break;
                     }
@@ -325,27 +771,12 @@ public class SduCreator {
             }
 
             String version = resolve(properties, dep.getVersion());
-            boolean found = false;
-            for (Artifact artifact : artifacts) {
-                if (artifact.getArtifactId().equals(dep.getArtifactId())
-                        && artifact.getGroupId().equals(dep.getGroupId()) && artifact.getVersion().equals(version)
-                        && artifact.getType().equals(dep.getType())) {
-                    found = true;
-                    break;
-                }
-            }
 
-            MavenProject reactorProject = null;
-            for (MavenProject buildProject : reactorProjects) {
-                if (buildProject.getGroupId().equals(dep.getGroupId())
-                        && buildProject.getArtifactId().equals(dep.getArtifactId())
-                        && buildProject.getVersion().equals(version)) {
-                    reactorProject = buildProject;
-                    break;
-                }
-            }
+            MavenProject reactorProject = reactorIndex.get(getGav(dep.getGroupId(), dep.getArtifactId(), version));
 
-            if (!found) {
+            String artifactKey = dep.getGroupId() + PackagingConstants.COLON + dep.getArtifactId()
+                    + PackagingConstants.COLON + version + PackagingConstants.COLON + dep.getType();
+            if (!artifacts.containsKey(artifactKey)) {
                 if (reactorProject == null) {
                     // Not in the reactor, need to get it from repository
                     org.eclipse.aether.artifact.Artifact art = new org.eclipse.aether.artifact.DefaultArtifact(
@@ -360,35 +791,18 @@ public class SduCreator {
                     Artifact artifact = new org.apache.maven.artifact.DefaultArtifact(art.getGroupId(),
                             art.getArtifactId(), art.getVersion(), dep.getScope(), dep.getType(), classifier, null);
                     artifact.setFile(art.getFile());
-                    artifacts.add(artifact);
+                    artifacts.put(artifactKey, artifact);
                 } else {
-                    Artifact artifact = reactorProject.getArtifact();
-                    while (artifact.getFile() == null || !artifact.getFile().exists()) {
-                        if (mavenSession.getResult().hasExceptions()) {
-                            throw new MojoExecutionException(
-                                    "Stopping build of " + project.getId() + " because of upstream build failures.");
-                        }
-                        BuildSummary projectSummary = mavenSession.getResult().getBuildSummary(reactorProject);
-                        if (projectSummary instanceof BuildFailure) {
-                            throw new MojoExecutionException(
-                                    "Failed to package SDU because of a build failure in project "
-                                            + reactorProject.getId());
-                        } else if (projectSummary instanceof BuildSuccess) {
-                            break;
-                        }
-
-                        // Need to use the artifact in the reactor, wait until
-                        // it is ready if we have to
-                        info(project.getId() + " is waiting on project in reactor to finish: "
-                                + reactorProject.getId());
-                        try {
-                            Thread.sleep(1000);
-                        } catch (Exception e) {
-
-                        }
-                    }
-                    artifacts.add(artifact);
+                    artifacts.put(artifactKey, getReactorArtifact(reactorProject));
                 }
+                resolved(artifacts.get(artifactKey));
+            }
+            if (sizeReport != null) {
+                String id = dep.getGroupId() + PackagingConstants.COLON + dep.getArtifactId()
+                        + PackagingConstants.COLON + version;
+                Artifact artifact = artifacts.get(artifactKey);
+                sizeReport.addDependency(getModelKey(model), id);
+                sizeReport.addPackage(id, dep.getType(), artifact.getFile(), getSduPath(artifact));
             }
 
             Model depModel = null;
@@ -398,8 +812,96 @@ public class SduCreator {
                 depModel = getModelForDependency(dep, properties);
             }
 
-            addAllDependencyArtifacts(depModel, dep.getExclusions(), artifacts);
+            for (Artifact artifact : getDependencyArtifacts(depModel, dep.getExclusions())) {
+                String depKey = getArtifactKey(artifact);
+                if (!artifacts.containsKey(depKey)) {
+                    artifacts.put(depKey, artifact);
+                }
+            }
+        }
+
+        dependencies = Collections.unmodifiableList(new ArrayList<Artifact>(artifacts.values()));
+        cache.putDependencyArtifacts(key, dependencies);
+        if (local) {
+            reportedDependencies.put(key, dependencies);
+        }
+        return dependencies;
+    }
+
+    /**
+     * Called as soon as a device package is resolved, queues it to be written
+     * to the spool, unless it can be copied from an SDU built earlier.
+     */
+    private void resolved(Artifact artifact) {
+        if (spool == null || artifact.getFile() == null || spooled.contains(artifact.getFile())) {
+            return;
+        }
+        String path = getSduPath(artifact);
+        if (path != null && cache.getEntry(artifact.getFile(), compression, compressionLevel) == null) {
+            spool.add(artifact.getFile(), path);
+            spooled.add(artifact.getFile());
+        }
+    }
+
+    /**
+     * Waits until a project of the reactor is packaged, and returns its
+     * artifact.
+     */
+    private Artifact getReactorArtifact(MavenProject reactorProject) throws MojoExecutionException {
+        Artifact artifact = reactorProject.getArtifact();
+        while (artifact.getFile() == null || !artifact.getFile().exists()) {
+            if (mavenSession.getResult().hasExceptions()) {
+                throw new MojoExecutionException(
+                        "Stopping build of " + project.getId() + " because of upstream build failures.");
+            }
+            BuildSummary projectSummary = mavenSession.getResult().getBuildSummary(reactorProject);
+            if (projectSummary instanceof BuildFailure) {
+                throw new MojoExecutionException(
+                        "Failed to package SDU because of a build failure in project " + reactorProject.getId());
+            } else if (projectSummary instanceof BuildSuccess) {
+                break;
+            }
+
+            // Need to use the artifact in the reactor, wait until
+            // it is ready if we have to
+            info(project.getId() + " is waiting on project in reactor to finish: " + reactorProject.getId());
+            try {
+                Thread.sleep(1000);
+            } catch (Exception e) {
+
+            }
+        }
+        return artifact;
+    }
+
+    private static String getArtifactKey(Artifact artifact) {
+        return artifact.getGroupId() + PackagingConstants.COLON + artifact.getArtifactId() + PackagingConstants.COLON
+                + artifact.getVersion() + PackagingConstants.COLON + artifact.getType();
+    }
+
+    private static String getGav(String groupId, String artifactId, String version) {
+        return groupId + PackagingConstants.COLON + artifactId + PackagingConstants.COLON + version;
+    }
+
+    private static String getModelKey(Model model) {
+        String groupId = model.getGroupId();
+        String version = model.getVersion();
+        if (model.getParent() != null) {
+            groupId = groupId == null ? model.getParent().getGroupId() : groupId;
+            version = version == null ? model.getParent().getVersion() : version;
         }
+        return groupId + PackagingConstants.COLON + model.getArtifactId() + PackagingConstants.COLON + version;
+    }
+
+    private static String getExclusionsKey(List<Exclusion> exclusions) {
+        if (exclusions == null) {
+            return ""; // $NON-NLS-1$
+        }
+        Set<String> keys = new TreeSet<String>();
+        for (Exclusion exclusion : exclusions) {
+            keys.add(exclusion.getGroupId() + PackagingConstants.COLON + exclusion.getArtifactId());
+        }
+        return StringUtils.join(keys, ',');
     }
 
     private boolean matches(Exclusion exclusion, Dependency dep) {
@@ -430,11 +932,26 @@ public class SduCreator {
         return true;
     }
 
+    /**
+     * @return The properties of the model merged with those of its parents,
+     *         never to be modified, as the properties of models read from the
+     *         repository are shared by all SDUs of the build.
+     */
     private Properties getAllProperties(Model depModel) throws MojoExecutionException {
+        String key = getModelKey(depModel);
+        if (reactorIndex.containsKey(key)) {
+            // The model of a reactor project may still change during the build
+            return mergeProperties(depModel);
+        }
+        return cache.getProperties(key, () -> mergeProperties(depModel));
+    }
+
+    private Properties mergeProperties(Model depModel) throws MojoExecutionException {
 
-        Properties properties = depModel.getProperties();
-        if (properties == null) {
-            properties = new Properties();
+        // Models are shared by all SDUs of the build, work on a copy
+        Properties properties = new Properties();
+        if (depModel.getProperties() != null) {
+            properties.putAll(depModel.getProperties());
         }
 
         Parent parent = depModel.getParent();
@@ -498,28 +1015,11 @@ public class SduCreator {
                 continue;
             }
 
-            // Replace .jar extension with the correct one (.dar, .feature,
-            // etc.)
-            String fileName = file.getName();
-            if (fileName.endsWith(PackagingConstants.JAR_EXT)) {
-                String ext = repoSession.getArtifactTypeRegistry().get(art.getType()).getExtension();
-                if (ext.equals(PackagingConstants.JAR_EXT)) {
-                    continue;
-                }
-                fileName = fileName.substring(0, fileName.length() - PackagingConstants.JAR_EXT.length()) + ext;
-            }
-
-            if (fileName.endsWith(PackagingConstants.DAR_EXT)) {
-                // Device Profile, place at root of the .sdu
-                files.put(file, fileName);
-            } else {
-                // Feature or XDE, get path ACPM expects
-                fileName = getACPMPath(art) + fileName;
-                files.put(file, fileName);
+            String fileName = getSduPath(art);
+            if (fileName == null) {
+                continue;
             }
-            // Save the version for when we create the manifest entries
-            dependencyVersionMap.put(art.getGroupId() + PackagingConstants.DOT + art.getArtifactId(),
-                    art.getBaseVersion());
+            files.put(file, fileName);
         }
 
         for (String path : files.values()) {
@@ -528,134 +1028,236 @@ public class SduCreator {
         return files;
     }
 
-    protected File createSDU(Map<File, String> files, Manifest mf, File baseDir, String name)
+    /**
+     * @return The path of a device package in the SDU, or {@code null} if the
+     *         artifact is not added to the SDU.
+     */
+    private String getSduPath(Artifact art) {
+        File file = art.getFile();
+        if (file == null || !file.exists()) {
+            return null;
+        }
+
+        // Replace .jar extension with the correct one (.dar, .feature,
+        // etc.)
+        String fileName = file.getName();
+        if (fileName.endsWith(PackagingConstants.JAR_EXT)) {
+            String ext = repoSession.getArtifactTypeRegistry().get(art.getType()).getExtension();
+            if (ext.equals(PackagingConstants.JAR_EXT)) {
+                return null;
+            }
+            fileName = fileName.substring(0, fileName.length() - PackagingConstants.JAR_EXT.length()) + ext;
+        }
+
+        if (fileName.endsWith(PackagingConstants.DAR_EXT)) {
+            // Device Profile, place at root of the .sdu
+            return fileName;
+        }
+        // Feature or XDE, get path ACPM expects
+        return getACPMPath(art) + fileName;
+    }
+
+    /**
+     * Creates the package index of the SDU, recording the coordinates, path,
+     * and manifest load order of every device package added to it.
+     */
+    protected SduIndex createIndex(Set<Artifact> artifacts, Map<File, String> files, Manifest mf) {
+
+        Map<String, Integer> loadOrder = new HashMap<String, Integer>();
+        Map<String, Attributes> entries = mf.getEntries();
+        for (int i = 0; entries.containsKey(SDU_MANIFEST_ATTR_LOAD_ORDER + i); i++) {
+            Attributes attr = entries.get(SDU_MANIFEST_ATTR_LOAD_ORDER + i);
+            loadOrder.put(attr.getValue(SDU_MANIFEST_ATTR_GROUP_ID) + PackagingConstants.COLON
+                    + attr.getValue(SDU_MANIFEST_ATTR_ARTIFACT_ID) + PackagingConstants.COLON
+                    + attr.getValue(SDU_MANIFEST_ATTR_VERSION), i);
+        }
+
+        SduIndex index = new SduIndex();
+        for (Artifact art : artifacts) {
+            String path = art.getFile() == null ? null : files.get(art.getFile());
+            if (path == null) {
+                continue;
+            }
+            Integer order = loadOrder.get(art.getGroupId() + PackagingConstants.COLON + art.getArtifactId()
+                    + PackagingConstants.COLON + art.getBaseVersion());
+            index.add(order == null ? SduPackage.NO_LOAD_ORDER : order, art.getGroupId(), art.getArtifactId(),
+                    art.getBaseVersion(), path.substring(path.lastIndexOf(PackagingConstants.DOT) + 1), path);
+        }
+        index.getRecords().sort((a, b) -> a.getPath().compareTo(b.getPath()));
+        return index;
+    }
+
+    protected File createSDU(Map<File, String> files, Manifest mf, SduIndex index, File baseDir, String name)
             throws IOException, MojoExecutionException {
 
+        // Written to a file of its own and then moved in place, so an SDU
+        // being read by another execution is never truncated
         File sduFile = new File(baseDir, name);
-        if (sduFile.exists()) {
-            // .sdu file already exists, delete it
-            info("Deleting " + sduFile.getCanonicalPath());
-            if (!sduFile.delete()) {
-                throw new IOException("Failed to delete the already existing file " + sduFile.getCanonicalPath());
-            }
+        File partFile = File.createTempFile(name, FileHelper.PART_SUFFIX, baseDir);
+
+        // Wait for the packages queued while resolving
+        List<SduWriter.EntryReport> reports = new ArrayList<SduWriter.EntryReport>();
+        if (spool != null) {
+            reports.addAll(spool.finish());
         }
 
         // Create the .sdu with the manifest
-        try (FileOutputStream jarStream = new FileOutputStream(sduFile)) {
-            try (JarOutputStream sduJar = new JarOutputStream(jarStream, mf)) {
-                int read;
-                byte[] buffer = new byte[1024];
-                CRC32 crc = new CRC32();
+        Map<File, SduReader> readers = new HashMap<File, SduReader>();
+        List<SduEntry> entries;
+        int reused = 0;
+        long start = spool != null ? spool.getStart() : System.nanoTime();
+        try {
+            try (SduWriter writer = new SduWriter(partFile)) {
+                writer.setCompression(compression);
+                writer.setCompressionLevel(compressionLevel);
+                if (getWriterThreads() > 0) {
+                    writer.setThreads(getWriterThreads());
+                }
+                writer.setExecutor(getWorkers());
+                if (time != null) {
+                    writer.setTime(time);
+                }
+                writer.putManifest(mf);
 
                 // Create versions.txt in SDU
                 String versionText = project.getGroupId() + "." + project.getArtifactId() + "-" + project.getVersion();
-                byte[] bytes = versionText.getBytes(Charset.forName("UTF-8"));
-                crc.update(bytes);
-                ZipEntry versionsFile = new ZipEntry("version.txt");
-                versionsFile.setMethod(ZipEntry.STORED);
-                versionsFile.setSize(bytes.length);
-                versionsFile.setCompressedSize(bytes.length);
-                versionsFile.setCrc(crc.getValue());
-                sduJar.putNextEntry(versionsFile);
-                sduJar.write(bytes);
-
-                // Add all device package artifacts
-                Set<File> keys = files.keySet();
-                for (File file : keys) {
-
-                    String newPath = files.get(file);
-                    // Create Parent folder structure
-                    if (newPath.contains(JarSeparator)) {
-                        createParent(sduJar, newPath.substring(0, newPath.lastIndexOf(JarSeparator)));
-                    }
+                writer.putStored("version.txt", versionText.getBytes(Charset.forName("UTF-8")));
 
-                    // Gather CRC
-                    BufferedInputStream in = null;
-                    try {
-                        in = new BufferedInputStream(new FileInputStream(file), 1024);
-                        crc.reset();
-                        while ((read = in.read(buffer)) != -1) {
-                            crc.update(buffer, 0, read);
-                        }
-                    } finally {
-                        if (in != null) {
-                            in.close();
-                        }
-                    }
+                // Add the package index, so readers can locate packages without
+                // parsing the manifest
+                if (index != null) {
+                    writer.putStored(SduIndex.SDU_INDEX_PATH, index.toBytes());
+                }
 
-                    // Copy the file into the .sdu
-                    ZipEntry entry = new ZipEntry(newPath);
-                    entry.setMethod(ZipEntry.STORED);
-                    entry.setCompressedSize(file.length());
-                    entry.setSize(file.length());
-                    entry.setCrc(crc.getValue());
-                    sduJar.putNextEntry(entry);
+                // Append the packages written to the spool
+                if (spool != null) {
+                    writer.putAll(spool.getWriter());
+                }
 
-                    in = null;
-                    try {
-                        in = new BufferedInputStream(new FileInputStream(file), 1024);
-                        while ((read = in.read(buffer)) != -1) {
-                            sduJar.write(buffer, 0, read);
-                        }
-                    } finally {
-                        if (in != null) {
-                            in.close();
+                // Copy the packages already written to an SDU earlier in the
+                // build as is, they do not need to be read, checksummed, or
+                // compressed again
+                Map<File, String> remaining = new TreeMap<File, String>();
+                for (Map.Entry<File, String> file : files.entrySet()) {
+                    if (spooled.contains(file.getKey())) {
+                        continue;
+                    }
+                    SduEntry entry = null;
+                    SduReader reader = null;
+                    // Entries copied from another SDU keep the time of that SDU
+                    SduBuildCache.WrittenEntry written = time != null ? null
+                            : cache.getEntry(file.getKey(), compression, compressionLevel);
+                    if (written != null && !written.getSdu().equals(sduFile)) {
+                        reader = readers.get(written.getSdu());
+                        if (reader == null) {
+                            reader = new SduReader(written.getSdu());
+                            readers.put(written.getSdu(), reader);
                         }
+                        entry = reader.getEntry(written.getEntry().getName());
+                    }
+                    if (entry != null && entry.isSameContent(written.getEntry())
+                            && entry.getCompressedSize() == written.getEntry().getCompressedSize()) {
+                        debug("Copying " + file.getValue() + " from " + written.getSdu());
+                        writer.putRaw(file.getValue(), reader, entry);
+                        reused++;
+                    } else {
+                        remaining.put(file.getKey(), file.getValue());
                     }
                 }
+
+                // Add all other device package artifacts
+                reports.addAll(writer.putFiles(remaining));
+                threadsUsed = spool != null ? spool.getThreads() : writer.getThreads();
+                entries = writer.getEntries();
+            }
+            FileHelper.move(partFile, sduFile);
+        } finally {
+            for (SduReader reader : readers.values()) {
+                reader.close();
             }
+            partFile.delete();
+        }
+
+        // Remember where each package was written, for the SDUs built later in
+        // the build
+        Map<String, File> payloads = new HashMap<String, File>();
+        for (Map.Entry<File, String> file : files.entrySet()) {
+            payloads.put(file.getValue(), file.getKey());
+        }
+        for (SduEntry entry : entries) {
+            File payload = payloads.get(entry.getName());
+            if (payload != null) {
+                cache.putEntry(payload, sduFile, entry, compression, compressionLevel);
+            }
+        }
+        if (!reports.isEmpty()) {
+            report(reports, System.nanoTime() - start);
+        }
+        if (reused > 0) {
+            info("Copied " + reused + " package(s) from SDUs built earlier in this build.");
         }
 
         return sduFile;
     }
 
-    /** This is the separator that JAR files require **/
-    private static String JarSeparator = "/"; // $NON-NLS-1$
-
     /**
-     * This is the artifact path in the jar that ACPM requires
+     * Logs the size and time trade-off of the SDU compression.
      */
-    private String getACPMPath(Artifact art) {
-        return art.getGroupId().replace(".", JarSeparator) + JarSeparator + art.getArtifactId() + JarSeparator
-                + art.getBaseVersion() + JarSeparator;
+    private void report(List<SduWriter.EntryReport> reports, long nanos) {
+        long size = 0;
+        long compressedSize = 0;
+        for (SduWriter.EntryReport report : reports) {
+            size += report.getSize();
+            compressedSize += report.getCompressedSize();
+            debug(String.format("%s %s: %d -> %d bytes (%.1f%%) in %d ms", report.isDeflated() ? "Deflated" : "Stored",
+                    report.getName(), report.getSize(), report.getCompressedSize(),
+                    percent(report.getCompressedSize(), report.getSize()),
+                    TimeUnit.NANOSECONDS.toMillis(report.getNanos())));
+        }
+        info(String.format("SDU packages written using %s compression: %d -> %d bytes (%.1f%%) in %d ms with %d thread(s)",
+                compression.name().toLowerCase(Locale.ENGLISH), size, compressedSize, percent(compressedSize, size),
+                TimeUnit.NANOSECONDS.toMillis(nanos), threadsUsed));
+        if (workers != null) {
+            info("SDU compression workers: " + workers.getStats());
+        }
     }
 
     /**
-     * Since we are adding files to the JAR 'randomly' we will keep track of
-     * what folders we have already created in the JAR so we do not accidently
-     * overwrite them with a new entry.
-     */
-    Set<String> jarMap = new HashSet<String>();
-
-    /**
-     * Creates all the parent folders for a file path.
+     * @return The view of the build executor the packages of this SDU are read
+     *         and compressed on, or {@code null} if there is no executor.
      */
-    private void createParent(JarOutputStream jarSDU, String path) throws IOException {
+    private BoundedExecutor getWorkers() {
+        if (workers == null && executor != null) {
+            workers = executor.compute(threads);
+        }
+        return workers;
+    }
 
-        if (path == null || path.isEmpty())
-            return;
+    private int getWriterThreads() {
+        BoundedExecutor view = getWorkers();
+        return view != null ? view.getLimit() : threads;
+    }
 
-        // Recursively create parent folder
-        if (path.contains(JarSeparator)) {
-            createParent(jarSDU, path.substring(0, path.lastIndexOf(JarSeparator)));
-        }
+    private static double percent(long part, long total) {
+        return total == 0 ? 100.0 : part * 100.0 / total;
+    }
 
-        // The path MUST end with the sepatrator character
-        if (!path.endsWith(JarSeparator)) {
-            path += JarSeparator;
-        }
+    /** This is the separator that JAR files require **/
+    private static final String JAR_SEPARATOR = "/"; // $NON-NLS-1$
 
-        // If we have already added it then return
-        if (jarMap.contains(path)) {
-            return;
-        }
+    /**
+     * This is the artifact path in the jar that ACPM requires
+     */
+    private String getACPMPath(Artifact art) {
+        return getACPMPath(art.getGroupId(), art.getArtifactId(), art.getBaseVersion());
+    }
 
-        // And the JAR entry
-        JarEntry entry = new JarEntry(path);
-        jarSDU.putNextEntry(entry);
-        jarSDU.closeEntry();
-        // And add it to the map.
-        jarMap.add(path);
+    /**
+     * This is the folder in the SDU that ACPM requires for a Network Feature or
+     * XDE, <code>groupId/path/artifactId/version/</code>.
+     */
+    public static String getACPMPath(String groupId, String artifactId, String version) {
+        return groupId.replace(".", JAR_SEPARATOR) + JAR_SEPARATOR + artifactId + JAR_SEPARATOR + version + JAR_SEPARATOR;
     }
 
     /**
@@ -669,27 +1271,118 @@ public class SduCreator {
      */
     private Manifest createManifest(Set<Artifact> artifacts) throws MojoExecutionException {
 
-        /** Header info **/
-        Manifest mf = new Manifest();
+        Manifest mf = newManifest();
         Attributes mfAttr = mf.getMainAttributes();
-        mfAttr.putValue("Manifest-Version", "1.0");
-        mfAttr.putValue("Created-By", "Cisco Systems, Inc. XMP");
+
+        // Save the version of every package, for dependencies declared with a
+        // version range
+        ManifestState state = new ManifestState();
+        for (Artifact art : artifacts) {
+            if (getSduPath(art) != null) {
+                state.versions.put(art.getGroupId() + PackagingConstants.DOT + art.getArtifactId(),
+                        art.getBaseVersion());
+            }
+        }
 
         /** Specify device profile load order for ACPM **/
         Map<String, Attributes> entries = mf.getEntries();
-        DependencyTree dependencyTree = createDependencyTree(artifacts);
+        DependencyTree dependencyTree = createDependencyTree(artifacts, state);
         for (Node<Model> root : dependencyTree.getRoots()) {
-            addEntry(entries, root);
+            addEntry(entries, root, state);
+        }
+        int waves = addWaves(state);
+        if (waves > 0) {
+            mfAttr.putValue(SDU_MANIFEST_ATTR_WAVES, String.valueOf(waves));
         }
 
         return mf;
     }
 
     /**
-     * Counter used by the following function to keep track of how many device
-     * profiles have been added to the manifest file already.
+     * @return A manifest with the header of SDU manifests only.
+     */
+    private static Manifest newManifest() {
+        Manifest mf = new Manifest();
+        Attributes mfAttr = mf.getMainAttributes();
+        mfAttr.putValue("Manifest-Version", "1.0");
+        mfAttr.putValue("Created-By", "Cisco Systems, Inc. XMP");
+        return mf;
+    }
+
+    /**
+     * The state of the manifest being created, kept per call so an instance
+     * never carries state from one SDU to the next.
      */
-    private int numEntries = 0;
+    private static class ManifestState {
+
+        /**
+         * The version of each device package of the SDU, by
+         * {@code <groupId>.<artifactId>}.
+         */
+        private final Map<String, String> versions = new HashMap<String, String>();
+
+        /**
+         * Counter used to keep track of how many device profiles have been
+         * added to the manifest file already.
+         */
+        private int numEntries = 0;
+
+        /**
+         * The device packages each node of the dependency tree directly
+         * depends on. The tree only links a package to one of them.
+         */
+        private final Map<Node<Model>, Set<Node<Model>>> predecessors = new HashMap<Node<Model>, Set<Node<Model>>>();
+
+        /**
+         * The load order and manifest attributes of each node, in load order.
+         */
+        private final Map<Node<Model>, Integer> loadOrders = new LinkedHashMap<Node<Model>, Integer>();
+        private final Map<Node<Model>, Attributes> nodeAttributes = new HashMap<Node<Model>, Attributes>();
+    }
+
+    /**
+     * Adds the install wave and the direct predecessors of every package to
+     * its manifest entry. The wave of a package without device package
+     * dependencies is 0, any other package is one wave after its latest
+     * predecessor. The linear load order is kept as is for runtimes that
+     * install packages one at a time.
+     *
+     * @return The number of waves.
+     */
+    private int addWaves(ManifestState state) {
+        Map<Node<Model>, Integer> waves = new HashMap<Node<Model>, Integer>();
+        int count = 0;
+        for (Map.Entry<Node<Model>, Integer> entry : state.loadOrders.entrySet()) {
+            Node<Model> node = entry.getKey();
+            int wave = getWave(node, waves, state);
+            count = Math.max(count, wave + 1);
+            Set<Integer> orders = new TreeSet<Integer>();
+            for (Node<Model> predecessor : state.predecessors.getOrDefault(node, Collections.emptySet())) {
+                Integer order = state.loadOrders.get(predecessor);
+                if (order != null) {
+                    orders.add(order);
+                }
+            }
+            Attributes attr = state.nodeAttributes.get(node);
+            attr.putValue(SDU_MANIFEST_ATTR_WAVE, String.valueOf(wave));
+            if (!orders.isEmpty()) {
+                attr.putValue(SDU_MANIFEST_ATTR_PREDECESSORS, StringUtils.join(orders, PackagingConstants.COMMA));
+            }
+        }
+        return count;
+    }
+
+    private int getWave(Node<Model> node, Map<Node<Model>, Integer> waves, ManifestState state) {
+        Integer wave = waves.get(node);
+        if (wave == null) {
+            wave = 0;
+            for (Node<Model> predecessor : state.predecessors.getOrDefault(node, Collections.emptySet())) {
+                wave = Math.max(wave, getWave(predecessor, waves, state) + 1);
+            }
+            waves.put(node, wave);
+        }
+        return wave;
+    }
 
     /**
      * Recursively checks for any dependencies on a device profile in a POM. If
@@ -708,7 +1401,8 @@ public class SduCreator {
      *             model for a parent dependency from Nexus or not having
      *             permissions to read the file.
      */
-    private DependencyTree createDependencyTree(Set<Artifact> artifacts) throws MojoExecutionException {
+    private DependencyTree createDependencyTree(Set<Artifact> artifacts, ManifestState state)
+            throws MojoExecutionException {
 
         DependencyTree dependencyTree = new DependencyTree();
 
@@ -718,19 +1412,19 @@ public class SduCreator {
             if (model.getPackaging().equals(PackagingConstants.POM_EXT)) {
                 for (Dependency dep : model.getDependencies()) {
                     if (PackagingConstants.ALL_DP_PACKAGING.contains(dep.getType())) {
-                        recursiveAddModelToTree(dependencyTree, getModelForDependency(dep, properties));
+                        recursiveAddModelToTree(dependencyTree, getModelForDependency(dep, properties), state);
                     }
                 }
             } else {
-                recursiveAddModelToTree(dependencyTree, model);
+                recursiveAddModelToTree(dependencyTree, model, state);
             }
         }
 
         return dependencyTree;
     }
 
-    private Node<Model> recursiveAddModelToTree(DependencyTree dependencyTree, Model model)
-            throws MojoExecutionException {
+    private Node<Model> recursiveAddModelToTree(DependencyTree dependencyTree, Model model,
+            ManifestState state) throws MojoExecutionException {
 
         Node<Model> returnNode = dependencyTree.find(model);
         if (returnNode != null) {
@@ -738,6 +1432,7 @@ public class SduCreator {
         }
 
         Node<Model> parentNode = null;
+        Set<Node<Model>> dependencyNodes = new LinkedHashSet<Node<Model>>();
 
         Properties properties = getAllProperties(model);
         List<Dependency> deps = model.getDependencies();
@@ -747,8 +1442,10 @@ public class SduCreator {
                 if (version == null || version.startsWith("[") || version.startsWith("(")) {
                     String id = dep.getGroupId() + PackagingConstants.DOT + dep.getArtifactId();
                     // We saved a map of all the device package versions, lets
-                    if (dependencyVersionMap != null && dependencyVersionMap.containsKey(id)) {
-                        String resolvedVersion = dependencyVersionMap.get(id);
+                    if (state.versions.containsKey(id)) {
+                        String resolvedVersion = state.versions.get(id);
+                        // The model is shared, resolve the version on a copy
+                        dep = dep.clone();
                         dep.setVersion(resolvedVersion);
                     }
                 }
@@ -760,15 +1457,19 @@ public class SduCreator {
                 }
                 parentNode = dependencyTree.find(depModel);
                 if (parentNode == null) {
-                    parentNode = recursiveAddModelToTree(dependencyTree, depModel);
+                    parentNode = recursiveAddModelToTree(dependencyTree, depModel, state);
                 }
+                dependencyNodes.add(parentNode);
             }
         }
 
-        return parentNode == null ? dependencyTree.addRoot(model) : parentNode.addChild(model);
+        Node<Model> node = parentNode == null ? dependencyTree.addRoot(model) : parentNode.addChild(model);
+        state.predecessors.put(node, dependencyNodes);
+        return node;
     }
 
-    private void addEntry(Map<String, Attributes> entries, Node<Model> node) throws MojoExecutionException {
+    private void addEntry(Map<String, Attributes> entries, Node<Model> node, ManifestState state)
+            throws MojoExecutionException {
 
         Model model = node.getData();
         Attributes attr = new Attributes();
@@ -793,10 +1494,12 @@ public class SduCreator {
         attr.putValue(SDU_MANIFEST_ATTR_ARTIFACT_ID, artifactId);
         attr.putValue(SDU_MANIFEST_ATTR_VERSION, version);
         attr.putValue(SDU_MANIFEST_ATTR_TYPE, node.getData().getPackaging());
-        entries.put(SDU_MANIFEST_ATTR_LOAD_ORDER + numEntries++, attr);
+        state.loadOrders.put(node, state.numEntries);
+        state.nodeAttributes.put(node, attr);
+        entries.put(SDU_MANIFEST_ATTR_LOAD_ORDER + state.numEntries++, attr);
 
         for (Node<Model> childNode : node.getChildren()) {
-            addEntry(entries, childNode);
+            addEntry(entries, childNode, state);
         }
     }
 
@@ -832,19 +1535,14 @@ public class SduCreator {
 
     private Model getModel(String groupId, String artifactId, String version) throws MojoExecutionException {
 
-        if (reactorProjects != null) {
-            Model modelInReactor = reactorProjects.parallelStream()
-                    .filter(project -> project.getGroupId().equals(groupId)
-                            && project.getArtifactId().equals(artifactId) && project.getVersion().equals(version))
-                    .map(project -> project.getModel()).findFirst().orElse(null);
-            if (modelInReactor != null) {
-                debug("Artifact found in reactor: " + groupId + ":" + artifactId + ":" + version + ":pom");
-                return modelInReactor;
-            }
+        String key = getGav(groupId, artifactId, version);
+        MavenProject reactorProject = reactorIndex.get(key);
+        if (reactorProject != null) {
+            debug("Artifact found in reactor: " + groupId + ":" + artifactId + ":" + version + ":pom");
+            return reactorProject.getModel();
         }
-        org.eclipse.aether.artifact.Artifact art = new org.eclipse.aether.artifact.DefaultArtifact(groupId, artifactId,
-                PackagingConstants.POM_EXT, version);
-        return readModel(getArtifact(art).getFile());
+        return cache.getModel(key, () -> readModel(getArtifact(new org.eclipse.aether.artifact.DefaultArtifact(
+                groupId, artifactId, PackagingConstants.POM_EXT, version)).getFile()));
     }
 
     /**
@@ -882,6 +1580,15 @@ public class SduCreator {
     private org.eclipse.aether.artifact.Artifact getArtifact(org.eclipse.aether.artifact.Artifact artifact)
             throws MojoExecutionException {
 
+        String key = artifact.getGroupId() + PackagingConstants.COLON + artifact.getArtifactId()
+                + PackagingConstants.COLON + artifact.getExtension() + PackagingConstants.COLON
+                + artifact.getVersion();
+        return cache.getArtifact(key, () -> resolveArtifact(artifact));
+    }
+
+    private org.eclipse.aether.artifact.Artifact resolveArtifact(org.eclipse.aether.artifact.Artifact artifact)
+            throws MojoExecutionException {
+
         if (artifact.getVersion().startsWith("[") || artifact.getVersion().startsWith("(")) {
             VersionRangeRequest versionRequest = new VersionRangeRequest();
             versionRequest.setArtifact(artifact);
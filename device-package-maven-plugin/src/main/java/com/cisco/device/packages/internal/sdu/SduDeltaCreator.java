@@ -0,0 +1,308 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Creates a delta SDU, containing only the device packages that were added or
+ * changed between a baseline SDU and the current SDU. Packages are compared by
+ * the CRC and size recorded in the central directory of each SDU, using the
+ * {@link SduReader}, so the payload of unchanged packages is never read.<br>
+ * <br>
+ * The delta SDU manifest carries the complete load order of the current SDU,
+ * with each {@code devicePackageN} entry marked as added, changed, or
+ * unchanged. Packages not part of the load order are listed under their entry
+ * path, and packages only present in the baseline are listed as removed.
+ *
+ * @author danijoh2
+ */
+public class SduDeltaCreator {
+
+    public static final String SDU_MANIFEST_ATTR_DELTA = "xmp_delta"; // $NON-NLS-1$
+    public static final String SDU_MANIFEST_ATTR_PATH = "xmp_path"; // $NON-NLS-1$
+    public static final String SDU_MANIFEST_ATTR_DELTA_BASELINE = "Delta-Baseline"; // $NON-NLS-1$
+
+    public static final String DELTA_ADDED = "added"; // $NON-NLS-1$
+    public static final String DELTA_CHANGED = "changed"; // $NON-NLS-1$
+    public static final String DELTA_UNCHANGED = "unchanged"; // $NON-NLS-1$
+    public static final String DELTA_REMOVED = "removed"; // $NON-NLS-1$
+
+    private static final String INDEX_FOLDER = "META-INF"; // $NON-NLS-1$
+    private static final String VERSION_PATH = "version.txt"; // $NON-NLS-1$
+    private static final String JAR_SEPARATOR = "/"; // $NON-NLS-1$
+
+    private final File baseline;
+    private final File current;
+
+    private Log log;
+
+    public SduDeltaCreator(File baseline, File current) {
+        this.baseline = baseline;
+        this.current = current;
+    }
+
+    public void setLog(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Creates the delta SDU.
+     *
+     * @param deltaFile
+     *            - The delta SDU file to write.
+     * @return The number of payload entries written to the delta SDU.
+     * @throws MojoExecutionException
+     *             - If either SDU cannot be read.
+     * @throws MojoFailureException
+     *             - If the delta SDU cannot be written.
+     */
+    public int create(File deltaFile) throws MojoExecutionException, MojoFailureException {
+
+        try (SduReader baselineSdu = open(baseline); SduReader currentSdu = open(current)) {
+            Manifest baselineManifest = readManifest(baselineSdu);
+            Manifest currentManifest = readManifest(currentSdu);
+            Map<String, SduPackage> baselinePayloads = getPayloads(baselineSdu);
+            Map<String, SduPackage> currentPayloads = getPayloads(currentSdu);
+
+            // Compare the central directory records of both SDUs
+            Map<String, String> status = new LinkedHashMap<String, String>();
+            for (Entry<String, SduPackage> entry : currentPayloads.entrySet()) {
+                SduPackage baselinePackage = baselinePayloads.get(entry.getKey());
+                if (baselinePackage == null) {
+                    status.put(entry.getKey(), DELTA_ADDED);
+                } else if (baselinePackage.getEntry().isSameContent(entry.getValue().getEntry())) {
+                    status.put(entry.getKey(), DELTA_UNCHANGED);
+                } else {
+                    status.put(entry.getKey(), DELTA_CHANGED);
+                }
+                debug(status.get(entry.getKey()) + ": " + entry.getKey());
+            }
+
+            Manifest deltaManifest = createManifest(baselineSdu, baselineManifest, baselinePayloads, currentManifest,
+                    currentPayloads, status);
+
+            int written = 0;
+            try (FileOutputStream stream = new FileOutputStream(deltaFile);
+                    JarOutputStream deltaJar = new JarOutputStream(stream, deltaManifest)) {
+                SduEntry versionEntry = currentSdu.getEntry(VERSION_PATH);
+                if (versionEntry != null) {
+                    copyEntry(currentSdu, versionEntry, deltaJar);
+                }
+
+                Set<String> folders = new HashSet<String>();
+                SduIndex index = new SduIndex();
+                for (Entry<String, String> entry : status.entrySet()) {
+                    if (!DELTA_UNCHANGED.equals(entry.getValue())) {
+                        SduPackage sduPackage = currentPayloads.get(entry.getKey());
+                        index.add(sduPackage.getLoadOrder(), sduPackage.getGroupId(), sduPackage.getArtifactId(),
+                                sduPackage.getVersion(), sduPackage.getType(), sduPackage.getPath());
+                    }
+                }
+                if (currentSdu.hasIndex()) {
+                    createParent(deltaJar, INDEX_FOLDER, folders);
+                    writeEntry(deltaJar, SduIndex.SDU_INDEX_PATH, index.toBytes());
+                }
+
+                for (SduIndex.Record record : index.getRecords()) {
+                    String path = record.getPath();
+                    if (path.contains(JAR_SEPARATOR)) {
+                        createParent(deltaJar, path.substring(0, path.lastIndexOf(JAR_SEPARATOR)), folders);
+                    }
+                    copyEntry(currentSdu, currentPayloads.get(path).getEntry(), deltaJar);
+                    written++;
+                }
+            }
+            return written;
+        } catch (IOException e) {
+            throw new MojoFailureException("Failed to create delta SDU " + deltaFile.getAbsolutePath() + ".", e);
+        }
+    }
+
+    private Manifest createManifest(SduReader baselineSdu, Manifest baselineManifest,
+            Map<String, SduPackage> baselinePayloads, Manifest currentManifest,
+            Map<String, SduPackage> currentPayloads, Map<String, String> status) throws IOException {
+
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().putAll(currentManifest.getMainAttributes());
+        mf.getMainAttributes().putValue(SDU_MANIFEST_ATTR_DELTA_BASELINE, getBaselineVersion(baselineSdu));
+        Map<String, Attributes> entries = mf.getEntries();
+
+        // Keep the full load order of the current SDU
+        Map<Integer, String> currentPaths = getLoadOrderPaths(currentPayloads);
+        Set<String> listed = new HashSet<String>();
+        Map<String, Attributes> currentEntries = currentManifest.getEntries();
+        int i = 0;
+        Attributes attr = currentEntries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i);
+        while (attr != null) {
+            Attributes deltaAttr = new Attributes(attr);
+            String path = currentPaths.get(i);
+            if (path != null) {
+                listed.add(path);
+                deltaAttr.putValue(SDU_MANIFEST_ATTR_PATH, path);
+                deltaAttr.putValue(SDU_MANIFEST_ATTR_DELTA, status.get(path));
+            }
+            entries.put(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i, deltaAttr);
+            attr = currentEntries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + ++i);
+        }
+
+        // Packages outside of the load order are listed by entry path
+        for (Entry<String, String> entry : status.entrySet()) {
+            if (!listed.contains(entry.getKey())) {
+                Attributes deltaAttr = new Attributes();
+                deltaAttr.putValue(SDU_MANIFEST_ATTR_DELTA, entry.getValue());
+                entries.put(entry.getKey(), deltaAttr);
+            }
+        }
+
+        // Packages only found in the baseline were removed
+        Map<Integer, String> baselinePaths = getLoadOrderPaths(baselinePayloads);
+        Map<String, Attributes> baselineAttributes = new HashMap<String, Attributes>();
+        Map<String, Attributes> baselineEntries = baselineManifest.getEntries();
+        i = 0;
+        attr = baselineEntries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i);
+        while (attr != null) {
+            String path = baselinePaths.get(i);
+            if (path != null) {
+                baselineAttributes.put(path, attr);
+            }
+            attr = baselineEntries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + ++i);
+        }
+        for (String path : baselinePayloads.keySet()) {
+            if (currentPayloads.containsKey(path)) {
+                continue;
+            }
+            Attributes deltaAttr = baselineAttributes.containsKey(path) ? new Attributes(baselineAttributes.get(path))
+                    : new Attributes();
+            deltaAttr.putValue(SDU_MANIFEST_ATTR_DELTA, DELTA_REMOVED);
+            entries.put(path, deltaAttr);
+            debug(DELTA_REMOVED + ": " + path);
+        }
+        return mf;
+    }
+
+    /**
+     * Maps the {@code N} of each {@code devicePackageN} manifest entry to the
+     * SDU entry holding its payload.
+     */
+    private Map<Integer, String> getLoadOrderPaths(Map<String, SduPackage> payloads) {
+        Map<Integer, String> paths = new HashMap<Integer, String>();
+        for (SduPackage sduPackage : payloads.values()) {
+            if (sduPackage.getLoadOrder() != SduPackage.NO_LOAD_ORDER) {
+                paths.put(sduPackage.getLoadOrder(), sduPackage.getPath());
+            }
+        }
+        return paths;
+    }
+
+    private Map<String, SduPackage> getPayloads(SduReader sdu) throws IOException {
+        Map<String, SduPackage> payloads = new LinkedHashMap<String, SduPackage>();
+        for (SduPackage sduPackage : sdu.getPackages()) {
+            payloads.put(sduPackage.getPath(), sduPackage);
+        }
+        return payloads;
+    }
+
+    private String getBaselineVersion(SduReader baselineSdu) throws IOException {
+        String version = baselineSdu.getVersion();
+        return version == null ? baseline.getName() : version;
+    }
+
+    private void copyEntry(SduReader source, SduEntry entry, JarOutputStream target) throws IOException {
+        ZipEntry newEntry = new ZipEntry(entry.getName());
+        if (entry.getMethod() == ZipEntry.STORED) {
+            newEntry.setMethod(ZipEntry.STORED);
+            newEntry.setSize(entry.getSize());
+            newEntry.setCompressedSize(entry.getSize());
+            newEntry.setCrc(entry.getCrc());
+        }
+        target.putNextEntry(newEntry);
+        try (InputStream stream = source.getInputStream(entry)) {
+            IOUtils.copy(stream, target, 8192);
+        }
+        target.closeEntry();
+    }
+
+    private void writeEntry(JarOutputStream target, String name, byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        target.putNextEntry(entry);
+        target.write(bytes);
+        target.closeEntry();
+    }
+
+    private void createParent(JarOutputStream target, String path, Set<String> folders) throws IOException {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        if (path.contains(JAR_SEPARATOR)) {
+            createParent(target, path.substring(0, path.lastIndexOf(JAR_SEPARATOR)), folders);
+        }
+        if (!path.endsWith(JAR_SEPARATOR)) {
+            path += JAR_SEPARATOR;
+        }
+        if (folders.add(path)) {
+            target.putNextEntry(new JarEntry(path));
+            target.closeEntry();
+        }
+    }
+
+    private SduReader open(File sdu) throws MojoExecutionException {
+        if (sdu == null || !sdu.isFile()) {
+            throw new MojoExecutionException("SDU not found: " + (sdu == null ? null : sdu.getAbsolutePath()) + ".");
+        }
+        try {
+            return new SduReader(sdu);
+        } catch (IOException e) {
+            throw new MojoExecutionException("An error occurred opening SDU: " + sdu.getAbsolutePath() + ".", e);
+        }
+    }
+
+    private Manifest readManifest(SduReader sdu) throws MojoExecutionException {
+        Manifest manifest;
+        try {
+            manifest = sdu.getManifest();
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "An error occurred loading MANIFEST from: " + sdu.getFile().getAbsolutePath() + ".", e);
+        }
+        if (manifest == null) {
+            throw new MojoExecutionException("SDU is missing MANIFEST: " + sdu.getFile().getAbsolutePath() + ".");
+        }
+        return manifest;
+    }
+
+    private void debug(String msg) {
+        if (log != null) {
+            log.debug(msg);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry of an SDU, as recorded in the central directory of the archive.
+ *
+ * @author danijoh2
+ */
+public class SduEntry {
+
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    /**
+     * Offset of the entry data, lazily resolved from the local file header.
+     */
+    private volatile long dataOffset = -1;
+
+    /**
+     * Modification time of the entry in MS-DOS format, as read from the
+     * central directory or written by {@link SduWriter}.
+     */
+    private int dosTime;
+
+    public SduEntry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The compression method, either {@link ZipEntry#STORED} or
+     *         {@link ZipEntry#DEFLATED}.
+     */
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    long getDataOffset() {
+        return dataOffset;
+    }
+
+    void setDataOffset(long dataOffset) {
+        this.dataOffset = dataOffset;
+    }
+
+    int getDosTime() {
+        return dosTime;
+    }
+
+    void setDosTime(int dosTime) {
+        this.dosTime = dosTime;
+    }
+
+    /**
+     * @return {@code true} if both entries have the same name, size, and CRC.
+     */
+    public boolean isSameContent(SduEntry other) {
+        return other != null && name.equals(other.name) && size == other.size && crc == other.crc;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,232 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+import com.cisco.common.plugin.helpers.FileHelper;
+import com.cisco.device.packages.internal.plugin.BoundedExecutor;
+
+/**
+ * Extracts entries of an SDU into a directory. Entries are extracted in
+ * parallel, reading the entry data through memory mapped windows of the SDU.
+ * Files already present with the size and CRC of their entry are left
+ * untouched, so extracting a rebuilt SDU only writes what changed. Every file
+ * is written to a temporary file first and then moved in place, so an
+ * interrupted extraction never leaves a partial file behind.
+ *
+ * @author danijoh2
+ */
+public class SduExtractor {
+
+    private final SduReader reader;
+    private final File directory;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+    private boolean verify = true;
+
+    /**
+     * @param reader
+     *            - The SDU to extract from.
+     * @param directory
+     *            - The directory to extract to.
+     */
+    public SduExtractor(SduReader reader, File directory) {
+        this.reader = reader;
+        this.directory = directory;
+    }
+
+    /**
+     * @param threads
+     *            - The number of entries to extract concurrently.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param executor
+     *            - The executor running the extractions, see
+     *            {@link BoundedExecutor#forBatch}.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param verify
+     *            - Whether the CRC and size of every extracted entry are
+     *            checked against the central directory.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Extracts entries of the SDU.
+     *
+     * @param targets
+     *            - The entries to extract, each to its path relative to the
+     *            directory.
+     * @return The result of each entry, in the order of the targets.
+     * @throws InterruptedException
+     *             - If interrupted while waiting on the extraction.
+     */
+    public List<Result> extract(Map<SduEntry, String> targets) throws InterruptedException {
+        List<Result> results = new ArrayList<Result>(targets.size());
+        if (targets.isEmpty()) {
+            return results;
+        }
+
+        BoundedExecutor pool = BoundedExecutor.forBatch(executor, Math.min(threads, targets.size()));
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(targets.size());
+        try {
+            List<Map.Entry<SduEntry, String>> entries = new ArrayList<Map.Entry<SduEntry, String>>(
+                    targets.entrySet());
+            for (Map.Entry<SduEntry, String> entry : entries) {
+                futures.add(pool.submit(() -> extract(entry.getKey(), entry.getValue())));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result(entries.get(i).getKey(), entries.get(i).getValue(), Status.FAILED,
+                            String.valueOf(e.getCause()), 0));
+                }
+            }
+        } finally {
+            pool.release();
+        }
+        return results;
+    }
+
+    private Result extract(SduEntry entry, String path) {
+        long start = System.nanoTime();
+        File target = new File(directory, path);
+        try {
+            if (!target.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator)) {
+                return new Result(entry, path, Status.FAILED, "Path is outside of " + directory + ".",
+                        System.nanoTime() - start);
+            }
+            if (entry.isDirectory()) {
+                if (!target.isDirectory() && !target.mkdirs()) {
+                    throw new IOException("Failed to create directory " + target);
+                }
+                return new Result(entry, path, Status.UNCHANGED, null, System.nanoTime() - start);
+            }
+            if (target.isFile() && target.length() == entry.getSize() && FileHelper.checksum(target) == entry.getCrc()) {
+                return new Result(entry, path, Status.UNCHANGED, null, System.nanoTime() - start);
+            }
+
+            File parent = target.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Failed to create directory " + parent);
+            }
+            File part = FileHelper.getPartFile(target);
+            try {
+                CRC32 crc = verify ? new CRC32() : null;
+                long size;
+                try (FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    size = reader.readData(entry, crc, out);
+                }
+                if (verify) {
+                    if (size != entry.getSize()) {
+                        return new Result(entry, path, Status.FAILED, "Size mismatch, expected " + entry.getSize()
+                                + " bytes but found " + size + " bytes.", System.nanoTime() - start);
+                    }
+                    if (crc.getValue() != entry.getCrc()) {
+                        return new Result(entry, path, Status.FAILED, String.format(
+                                "CRC mismatch, expected %08x but found %08x.", entry.getCrc(), crc.getValue()),
+                                System.nanoTime() - start);
+                    }
+                }
+                FileHelper.move(part, target);
+            } finally {
+                part.delete();
+            }
+            return new Result(entry, path, Status.EXTRACTED, null, System.nanoTime() - start);
+        } catch (IOException | DataFormatException e) {
+            return new Result(entry, path, Status.FAILED, e.getClass().getSimpleName() + ": " + e.getMessage(),
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * What happened to an entry.
+     */
+    public enum Status {
+        /**
+         * The entry was written.
+         */
+        EXTRACTED,
+        /**
+         * A file with the size and CRC of the entry was already present.
+         */
+        UNCHANGED,
+        /**
+         * The entry could not be extracted, or failed verification.
+         */
+        FAILED
+    }
+
+    /**
+     * The extraction result of a single entry.
+     */
+    public static class Result {
+        private final SduEntry entry;
+        private final String path;
+        private final Status status;
+        private final String error;
+        private final long nanos;
+
+        Result(SduEntry entry, String path, Status status, String error, long nanos) {
+            this.entry = entry;
+            this.path = path;
+            this.status = status;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        public SduEntry getEntry() {
+            return entry;
+        }
+
+        /**
+         * @return The path the entry was extracted to, relative to the
+         *         directory.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return The reason the entry failed, {@code null} otherwise.
+         */
+        public String getError() {
+            return error;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
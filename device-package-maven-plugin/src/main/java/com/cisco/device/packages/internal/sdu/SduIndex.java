@@ -0,0 +1,154 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The compact package index written into an SDU, so readers can find the
+ * device packages without parsing the manifest. Each line describes one
+ * package as tab separated values:
+ *
+ * <pre>
+ * loadOrder groupId artifactId version type path
+ * </pre>
+ *
+ * Where {@code loadOrder} is the {@code N} of the {@code devicePackageN}
+ * manifest entry, or {@code -1} when the package is not listed in the
+ * manifest. Unknown values, such as the group and version of a package found
+ * at the root of an SDU, are left empty.
+ *
+ * @author danijoh2
+ */
+public class SduIndex {
+
+    public static final String SDU_INDEX_PATH = "META-INF/sdu.index"; // $NON-NLS-1$
+
+    private static final String HEADER = "# SDU index v1"; // $NON-NLS-1$
+    private static final String SEPARATOR = "\t"; // $NON-NLS-1$
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+    private final List<Record> records = new ArrayList<Record>();
+
+    /**
+     * Adds a package to the index.
+     *
+     * @throws IllegalArgumentException
+     *             - If a value is empty, or holds a tab or line break.
+     */
+    public void add(int loadOrder, String groupId, String artifactId, String version, String type, String path) {
+        for (String value : new String[] { groupId, artifactId, version, type, path }) {
+            if (value != null && (value.isEmpty() || value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0
+                    || value.indexOf('\r') >= 0)) {
+                throw new IllegalArgumentException("Invalid SDU index value '" + value + "' for " + path);
+            }
+        }
+        records.add(new Record(loadOrder, groupId, artifactId, version, type, path));
+    }
+
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    public byte[] toBytes() {
+        StringBuilder builder = new StringBuilder(HEADER).append('\n');
+        for (Record record : records) {
+            builder.append(record.loadOrder);
+            for (String value : new String[] { record.groupId, record.artifactId, record.version, record.type,
+                    record.path }) {
+                builder.append(SEPARATOR);
+                if (value != null) {
+                    builder.append(value);
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    public static SduIndex read(InputStream stream) throws IOException {
+        SduIndex index = new SduIndex();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, UTF_8));
+        String line = reader.readLine();
+        if (!HEADER.equals(line)) {
+            throw new IOException("Unsupported SDU index format: " + line);
+        }
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] values = line.split(SEPARATOR, -1);
+            if (values.length != 6) {
+                throw new IOException("Malformed SDU index record: " + line);
+            }
+            if (values[5].isEmpty()) {
+                throw new IOException("Malformed SDU index record: " + line);
+            }
+            try {
+                index.add(Integer.parseInt(values[0]), toValue(values[1]), toValue(values[2]), toValue(values[3]),
+                        toValue(values[4]), values[5]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed SDU index record: " + line, e);
+            }
+        }
+        return index;
+    }
+
+    private static String toValue(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * A single package of the index.
+     */
+    public static class Record {
+        final int loadOrder;
+        final String groupId;
+        final String artifactId;
+        final String version;
+        final String type;
+        final String path;
+
+        Record(int loadOrder, String groupId, String artifactId, String version, String type, String path) {
+            this.loadOrder = loadOrder;
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.type = type;
+            this.path = path;
+        }
+
+        public int getLoadOrder() {
+            return loadOrder;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getPath() {
+            return path;
+        }
+    }
+}
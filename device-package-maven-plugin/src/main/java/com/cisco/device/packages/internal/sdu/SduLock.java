@@ -0,0 +1,459 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The device package graph of an SDU, locked by the {@code lock} goal so
+ * {@code create-sdu} can build the SDU again without discovering the graph.
+ * The lock file is a text file, one record per line as tab separated values:
+ *
+ * <pre>
+ * exclusions  exclusions
+ * includeAll  includeAll
+ * time        time
+ * package     groupId artifactId version type source sha256 path
+ * entry       loadOrder groupId artifactId version type wave predecessors
+ * excluded    model dependency exclusion
+ * </pre>
+ *
+ * The {@code exclusions} and {@code includeAll} records hold the settings the
+ * graph was resolved with, and {@code time} the time recorded for every entry
+ * of the SDU, so SDUs built from the same lock are identical. Each
+ * {@code package} is a device package of the SDU, with the exact version
+ * resolved, whether it is built by the reactor or fetched from the
+ * repository, the SHA-256 checksum of repository packages and its path in
+ * the SDU. Each {@code entry} is a {@code devicePackageN} entry of the SDU
+ * manifest. Each {@code excluded} record is a dependency of a model left out
+ * of the SDU by an exclusion, for reference only.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+public class SduLock {
+
+    public static final String LOCK_FILE_NAME = "device-packages.lock"; // $NON-NLS-1$
+
+    public static final String SOURCE_REACTOR = "reactor"; // $NON-NLS-1$
+    public static final String SOURCE_REPOSITORY = "repository"; // $NON-NLS-1$
+
+    private static final String HEADER = "# Device package lock v1"; // $NON-NLS-1$
+    private static final String SEPARATOR = "\t"; // $NON-NLS-1$
+    private static final String EXCLUSIONS = "exclusions"; // $NON-NLS-1$
+    private static final String INCLUDE_ALL = "includeAll"; // $NON-NLS-1$
+    private static final String TIME = "time"; // $NON-NLS-1$
+    private static final String PACKAGE = "package"; // $NON-NLS-1$
+    private static final String ENTRY = "entry"; // $NON-NLS-1$
+    private static final String EXCLUDED = "excluded"; // $NON-NLS-1$
+    private static final String DIGEST_ALGORITHM = "SHA-256"; // $NON-NLS-1$
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+    private final String exclusions;
+    private final boolean includeAll;
+    private final long time;
+    private final List<Package> packages = new ArrayList<Package>();
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Set<String> excluded = new TreeSet<String>();
+
+    /**
+     * @param exclusions
+     *            - The extra exclusions the graph is resolved with, sorted and
+     *            comma separated.
+     * @param includeAll
+     *            - Whether all device package projects of an aggregator are
+     *            included.
+     * @param time
+     *            - The time recorded for every entry of the SDU.
+     */
+    public SduLock(String exclusions, boolean includeAll, long time) {
+        this.exclusions = exclusions;
+        this.includeAll = includeAll;
+        this.time = time;
+    }
+
+    public String getExclusions() {
+        return exclusions;
+    }
+
+    public boolean isIncludeAll() {
+        return includeAll;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void addPackage(String groupId, String artifactId, String version, String type, String source,
+            String sha256, String path) {
+        packages.add(new Package(groupId, artifactId, version, type, source, sha256, path));
+    }
+
+    /**
+     * @return The packages, in SDU path order.
+     */
+    public List<Package> getPackages() {
+        return packages;
+    }
+
+    public void addEntry(int loadOrder, String groupId, String artifactId, String version, String type, int wave,
+            String predecessors) {
+        entries.add(new Entry(loadOrder, groupId, artifactId, version, type, wave, predecessors));
+    }
+
+    /**
+     * @return The manifest entries, in load order.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Records a dependency left out of the SDU by an exclusion.
+     *
+     * @param model
+     *            - The {@code groupId:artifactId:version} of the model
+     *            declaring the dependency.
+     * @param dependency
+     *            - The {@code groupId:artifactId:type} of the dependency.
+     * @param exclusion
+     *            - The {@code groupId:artifactId} of the exclusion.
+     */
+    public synchronized void addExclusion(String model, String dependency, String exclusion) {
+        excluded.add(model + SEPARATOR + dependency + SEPARATOR + exclusion);
+    }
+
+    public void write(File file) throws IOException {
+        packages.sort((a, b) -> a.path.compareTo(b.path));
+        entries.sort((a, b) -> Integer.compare(a.loadOrder, b.loadOrder));
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), UTF_8)) {
+            writer.write(HEADER + '\n');
+            writer.write(EXCLUSIONS + SEPARATOR + exclusions + '\n');
+            writer.write(INCLUDE_ALL + SEPARATOR + includeAll + '\n');
+            writer.write(TIME + SEPARATOR + time + '\n');
+            for (Package sduPackage : packages) {
+                writer.write(PACKAGE + SEPARATOR + sduPackage.groupId + SEPARATOR + sduPackage.artifactId + SEPARATOR
+                        + sduPackage.version + SEPARATOR + sduPackage.type + SEPARATOR + sduPackage.source + SEPARATOR
+                        + sduPackage.sha256 + SEPARATOR + sduPackage.path + '\n');
+            }
+            for (Entry entry : entries) {
+                writer.write(ENTRY + SEPARATOR + entry.loadOrder + SEPARATOR + entry.groupId + SEPARATOR
+                        + entry.artifactId + SEPARATOR + entry.version + SEPARATOR + entry.type + SEPARATOR
+                        + entry.wave + SEPARATOR + entry.predecessors + '\n');
+            }
+            for (String exclusion : excluded) {
+                writer.write(EXCLUDED + SEPARATOR + exclusion + '\n');
+            }
+        }
+    }
+
+    public static SduLock read(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IOException("Unsupported lock file format in " + file + ": " + line);
+            }
+            String exclusions = null;
+            Boolean includeAll = null;
+            Long time = null;
+            List<String[]> records = new ArrayList<String[]>();
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) { // $NON-NLS-1$
+                    continue;
+                }
+                String[] values = line.split(SEPARATOR, -1);
+                if (EXCLUSIONS.equals(values[0]) && values.length == 2) {
+                    exclusions = values[1];
+                } else if (INCLUDE_ALL.equals(values[0]) && values.length == 2) {
+                    includeAll = Boolean.valueOf(values[1]);
+                } else if (TIME.equals(values[0]) && values.length == 2) {
+                    try {
+                        time = Long.valueOf(values[1]);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Malformed lock record in " + file + ": " + line, e);
+                    }
+                } else if ((PACKAGE.equals(values[0]) && values.length == 8)
+                        || (ENTRY.equals(values[0]) && values.length == 8)
+                        || (EXCLUDED.equals(values[0]) && values.length == 4)) {
+                    records.add(values);
+                } else {
+                    throw new IOException("Malformed lock record in " + file + ": " + line);
+                }
+            }
+            if (exclusions == null || includeAll == null || time == null) {
+                throw new IOException("Incomplete lock file " + file + ", the settings of the graph are missing.");
+            }
+
+            SduLock lock = new SduLock(exclusions, includeAll, time);
+            for (String[] values : records) {
+                try {
+                    if (PACKAGE.equals(values[0])) {
+                        lock.addPackage(values[1], values[2], values[3], values[4], values[5], values[6], values[7]);
+                    } else if (ENTRY.equals(values[0])) {
+                        lock.addEntry(Integer.parseInt(values[1]), values[2], values[3], values[4], values[5],
+                                Integer.parseInt(values[6]), values[7]);
+                    } else {
+                        lock.addExclusion(values[1], values[2], values[3]);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException(
+                            "Malformed lock record in " + file + ": " + String.join(SEPARATOR, values), e);
+                }
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Compares this lock with the lock of the graph as resolved now. Packages
+     * and manifest entries are matched by {@code groupId:artifactId}, the time
+     * of the locks and the excluded dependencies are not compared.
+     *
+     * @param resolved
+     *            - The lock of the resolved graph.
+     * @return A description of every difference: a changed setting, a package
+     *         or entry whose version or other value changed, a package or
+     *         entry locked but no longer resolved, and one resolved but not
+     *         locked. Empty if the lock matches the resolved graph.
+     */
+    public List<String> compare(SduLock resolved) {
+        List<String> differences = new ArrayList<String>();
+        compare(differences, EXCLUSIONS, "the graph", exclusions, resolved.exclusions); // $NON-NLS-1$
+        compare(differences, INCLUDE_ALL, "the graph", String.valueOf(includeAll), // $NON-NLS-1$
+                String.valueOf(resolved.includeAll));
+
+        Map<String, Package> resolvedPackages = new LinkedHashMap<String, Package>();
+        for (Package sduPackage : resolved.packages) {
+            resolvedPackages.put(sduPackage.getKey(), sduPackage);
+        }
+        for (Package locked : packages) {
+            Package current = resolvedPackages.remove(locked.getKey());
+            if (current == null) {
+                differences.add("Missing device package " + locked + ", locked but no longer resolved.");
+                continue;
+            }
+            String what = "device package " + locked.getKey(); // $NON-NLS-1$
+            compare(differences, "version", what, locked.version, current.version); // $NON-NLS-1$
+            compare(differences, "type", what, locked.type, current.type); // $NON-NLS-1$
+            compare(differences, "source", what, locked.source, current.source); // $NON-NLS-1$
+            compare(differences, "checksum", what, locked.sha256, current.sha256); // $NON-NLS-1$
+            compare(differences, "path", what, locked.path, current.path); // $NON-NLS-1$
+        }
+        for (Package current : resolvedPackages.values()) {
+            differences.add("Extra device package " + current + ", resolved but not locked.");
+        }
+
+        Map<String, Entry> resolvedEntries = new LinkedHashMap<String, Entry>();
+        for (Entry entry : resolved.entries) {
+            resolvedEntries.put(entry.getKey(), entry);
+        }
+        for (Entry locked : entries) {
+            Entry current = resolvedEntries.remove(locked.getKey());
+            if (current == null) {
+                differences.add("Missing manifest entry " + locked + ", locked but no longer resolved.");
+                continue;
+            }
+            String what = "manifest entry " + locked.getKey(); // $NON-NLS-1$
+            compare(differences, "version", what, locked.version, current.version); // $NON-NLS-1$
+            compare(differences, "type", what, locked.type, current.type); // $NON-NLS-1$
+            compare(differences, "load order", what, String.valueOf(locked.loadOrder), // $NON-NLS-1$
+                    String.valueOf(current.loadOrder));
+            compare(differences, "wave", what, String.valueOf(locked.wave), // $NON-NLS-1$
+                    String.valueOf(current.wave));
+            compare(differences, "predecessors", what, locked.predecessors, current.predecessors); // $NON-NLS-1$
+        }
+        for (Entry current : resolvedEntries.values()) {
+            differences.add("Extra manifest entry " + current + ", resolved but not locked.");
+        }
+        return differences;
+    }
+
+    private static void compare(List<String> differences, String value, String what, String locked,
+            String resolved) {
+        if (!locked.equals(resolved)) {
+            differences.add("Changed " + value + " of " + what + ": locked " + locked + ", resolved " + resolved + ".");
+        }
+    }
+
+    /**
+     * @return The SHA-256 checksum of a file, as lower case hexadecimal.
+     */
+    public static String checksum(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), md)) {
+            while (in.read(buffer) != -1) {
+                // Digested while read
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b)); // $NON-NLS-1$
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A device package of the SDU.
+     */
+    public static class Package {
+        final String groupId;
+        final String artifactId;
+        final String version;
+        final String type;
+        final String source;
+        final String sha256;
+        final String path;
+
+        Package(String groupId, String artifactId, String version, String type, String source, String sha256,
+                String path) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.type = type;
+            this.source = source;
+            this.sha256 = sha256;
+            this.path = path;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        /**
+         * @return The exact version, a timestamped version for snapshots
+         *         fetched from the repository.
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public boolean isReactor() {
+            return SOURCE_REACTOR.equals(source);
+        }
+
+        /**
+         * @return The checksum of a package fetched from the repository, empty
+         *         for a package built by the reactor.
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return The {@code groupId:artifactId} of the package.
+         */
+        public String getKey() {
+            return groupId + ':' + artifactId;
+        }
+
+        @Override
+        public String toString() {
+            return groupId + ':' + artifactId + ':' + version + ':' + type;
+        }
+    }
+
+    /**
+     * A {@code devicePackageN} entry of the SDU manifest.
+     */
+    public static class Entry {
+        final int loadOrder;
+        final String groupId;
+        final String artifactId;
+        final String version;
+        final String type;
+        final int wave;
+        final String predecessors;
+
+        Entry(int loadOrder, String groupId, String artifactId, String version, String type, int wave,
+                String predecessors) {
+            this.loadOrder = loadOrder;
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.type = type;
+            this.wave = wave;
+            this.predecessors = predecessors;
+        }
+
+        public int getLoadOrder() {
+            return loadOrder;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getWave() {
+            return wave;
+        }
+
+        /**
+         * @return The comma separated load orders of the direct predecessors,
+         *         empty if there are none.
+         */
+        public String getPredecessors() {
+            return predecessors;
+        }
+
+        /**
+         * @return The {@code groupId:artifactId} of the entry.
+         */
+        public String getKey() {
+            return groupId + ':' + artifactId;
+        }
+
+        @Override
+        public String toString() {
+            return SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + loadOrder + ' ' + groupId + ':' + artifactId + ':'
+                    + version + ':' + type;
+        }
+    }
+}
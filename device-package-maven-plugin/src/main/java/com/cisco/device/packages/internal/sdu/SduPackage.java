@@ -0,0 +1,100 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+
+/**
+ * A device package (Device Profile, Network Feature, or XDE) stored in an SDU.
+ *
+ * @author danijoh2
+ */
+public class SduPackage {
+
+    /**
+     * Load order of packages that are not listed in the SDU manifest.
+     */
+    public static final int NO_LOAD_ORDER = -1;
+
+    private final String groupId;
+    private final String artifactId;
+    private final String version;
+    private final String type;
+    private final int loadOrder;
+    private final SduEntry entry;
+
+    public SduPackage(String groupId, String artifactId, String version, String type, int loadOrder,
+            SduEntry entry) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.type = type;
+        this.loadOrder = loadOrder;
+        this.entry = entry;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return The {@code N} of the {@code devicePackageN} manifest entry of
+     *         this package, or {@link #NO_LOAD_ORDER} if it is not listed.
+     */
+    public int getLoadOrder() {
+        return loadOrder;
+    }
+
+    public SduEntry getEntry() {
+        return entry;
+    }
+
+    public String getPath() {
+        return entry.getName();
+    }
+
+    public long getOffset() {
+        return entry.getLocalHeaderOffset();
+    }
+
+    public long getSize() {
+        return entry.getSize();
+    }
+
+    public long getCrc() {
+        return entry.getCrc();
+    }
+
+    /**
+     * @return The {@code <groupId>.<artifactId>} key, used to identify the
+     *         same package across versions.
+     */
+    public String getKey() {
+        return groupId + PackagingConstants.DOT + artifactId;
+    }
+
+    public boolean isDeviceProfile() {
+        return PackagingConstants.DAR_EXT.equals(type);
+    }
+
+    @Override
+    public String toString() {
+        return groupId + PackagingConstants.COLON + artifactId + PackagingConstants.COLON + version
+                + PackagingConstants.COLON + type;
+    }
+}
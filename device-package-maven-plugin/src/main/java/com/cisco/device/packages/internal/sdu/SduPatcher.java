@@ -0,0 +1,94 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+import com.cisco.common.plugin.helpers.FileHelper;
+import com.cisco.device.packages.constants.PackagingConstants;
+
+/**
+ * Replaces device packages of an existing SDU with rebuilt ones, without
+ * creating the SDU again. Every other entry, including the manifest, the
+ * version and the package index, is copied as is with
+ * {@link SduWriter#putRaw(String, SduReader, SduEntry)}, so patching an SDU
+ * only costs reading and writing the bytes of the SDU once. A replaced package
+ * keeps its path, its position, its compression method and its time, so
+ * patching does not restamp an SDU created with fixed times. The patched SDU
+ * is written to a temporary file first and then moved in place.
+ *
+ * @author danijoh2
+ */
+public class SduPatcher {
+
+    private final File sdu;
+
+    /**
+     * @param sdu
+     *            - The SDU to patch.
+     */
+    public SduPatcher(File sdu) {
+        this.sdu = sdu;
+    }
+
+    /**
+     * Replaces the packages of the SDU with the given files.
+     *
+     * @param packages
+     *            - The rebuilt packages, keyed by
+     *            {@code <groupId>:<artifactId>:<version>}. Packages the SDU
+     *            does not hold are ignored.
+     * @return The number of packages replaced, the SDU is left untouched if
+     *         none.
+     * @throws IOException
+     *             - If the SDU cannot be read or written.
+     */
+    public int patch(Map<String, File> packages) throws IOException {
+        File part = FileHelper.getPartFile(sdu);
+        int replaced = 0;
+        try {
+            try (SduReader reader = new SduReader(sdu)) {
+                Map<SduEntry, File> replacements = new HashMap<SduEntry, File>();
+                for (SduPackage sduPackage : reader.getPackages()) {
+                    File file = packages.get(sduPackage.getGroupId() + PackagingConstants.COLON
+                            + sduPackage.getArtifactId() + PackagingConstants.COLON + sduPackage.getVersion());
+                    if (file != null && file.isFile()) {
+                        replacements.put(sduPackage.getEntry(), file);
+                    }
+                }
+                if (replacements.isEmpty()) {
+                    return 0;
+                }
+
+                try (SduWriter writer = new SduWriter(part)) {
+                    for (SduEntry entry : reader.getEntries()) {
+                        File file = replacements.get(entry);
+                        writer.setTime(entry);
+                        if (entry.isDirectory()) {
+                            writer.putDirectory(entry.getName());
+                        } else if (file == null) {
+                            writer.putRaw(entry.getName(), reader, entry);
+                        } else {
+                            writer.setCompression(entry.getMethod() == ZipEntry.DEFLATED ? SduCompression.DEFLATE
+                                    : SduCompression.STORED);
+                            writer.putFiles(Collections.singletonMap(file, entry.getName()));
+                            replaced++;
+                        }
+                    }
+                }
+            }
+            FileHelper.move(part, sdu);
+        } finally {
+            part.delete();
+        }
+        return replaced;
+    }
+}
@@ -0,0 +1,674 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.apache.commons.io.IOUtils;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+
+/**
+ * Random access reader for SDU files. The central directory of the SDU is
+ * memory mapped and parsed once, giving direct access to the offset, size and
+ * CRC of every entry without reading any payload. The device packages of the
+ * SDU are read from the embedded {@link SduIndex} when present, otherwise they
+ * are derived from the {@code devicePackageN} entries of the SDU manifest and
+ * the ACPM path of each entry.<br>
+ * <br>
+ * All reads are positional, so a single reader can be shared by multiple
+ * threads.
+ *
+ * @author danijoh2
+ */
+public class SduReader implements Closeable {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_HEADER_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_HEADER_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_HEADER_SIZE = 22;
+    static final int ZIP64_END_HEADER_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+
+    /**
+     * Size of the memory mapped windows used to read entry data, keeps the
+     * address space used per thread bounded for very large entries.
+     */
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+    private static final String VERSION_PATH = "version.txt"; // $NON-NLS-1$
+    private static final String JAR_SEPARATOR = "/"; // $NON-NLS-1$
+
+    private final File file;
+    private final FileChannel channel;
+    private final Map<String, SduEntry> entries = new LinkedHashMap<String, SduEntry>();
+
+    private volatile Manifest manifest;
+    private volatile List<SduPackage> packages;
+
+    public SduReader(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return All entries of the SDU, in central directory order.
+     */
+    public Collection<SduEntry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public SduEntry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * @return {@code true} if the SDU carries an embedded package index.
+     */
+    public boolean hasIndex() {
+        return entries.containsKey(SduIndex.SDU_INDEX_PATH);
+    }
+
+    /**
+     * Gets the device packages stored in the SDU. Packages listed in the load
+     * order of the SDU manifest come first, ordered by their load order,
+     * followed by all other packages in central directory order.
+     *
+     * @return The device packages of the SDU.
+     * @throws IOException
+     *             - If the package index or manifest cannot be read.
+     */
+    public List<SduPackage> getPackages() throws IOException {
+        List<SduPackage> result = packages;
+        if (result == null) {
+            synchronized (this) {
+                result = packages;
+                if (result == null) {
+                    result = hasIndex() ? readPackagesFromIndex() : readPackagesFromManifest();
+                    packages = result = Collections.unmodifiableList(result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The SDU manifest, or {@code null} if the SDU has none.
+     * @throws IOException
+     *             - If the manifest cannot be read.
+     */
+    public Manifest getManifest() throws IOException {
+        Manifest result = manifest;
+        if (result == null) {
+            SduEntry entry = entries.get(JarFile.MANIFEST_NAME);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream stream = getInputStream(entry)) {
+                manifest = result = new Manifest(stream);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The contents of the {@code version.txt} entry of the SDU, or
+     *         {@code null} if the SDU has none.
+     * @throws IOException
+     *             - If the entry cannot be read.
+     */
+    public String getVersion() throws IOException {
+        SduEntry entry = entries.get(VERSION_PATH);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream stream = getInputStream(entry)) {
+            return IOUtils.toString(stream, UTF_8).trim();
+        }
+    }
+
+    /**
+     * Gets the offset of the data of an entry, by reading its local file
+     * header. The offset is cached on the entry.
+     *
+     * @param entry
+     *            - An entry of this SDU.
+     * @return The position of the first byte of the entry data.
+     * @throws IOException
+     *             - If the local file header is invalid.
+     */
+    public long getDataOffset(SduEntry entry) throws IOException {
+        long offset = entry.getDataOffset();
+        if (offset < 0) {
+            ByteBuffer header = read(entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local file header for " + entry.getName() + " in " + file);
+            }
+            offset = entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF)
+                    + (header.getShort(28) & 0xFFFF);
+            if (offset + entry.getCompressedSize() > channel.size()) {
+                throw new ZipException("Truncated data for " + entry.getName() + " in " + file);
+            }
+            entry.setDataOffset(offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Opens a stream over the uncompressed contents of an entry.
+     *
+     * @param entry
+     *            - An entry of this SDU.
+     * @return The stream, which must be closed by the caller.
+     * @throws IOException
+     *             - If the entry cannot be read.
+     */
+    public InputStream getInputStream(SduEntry entry) throws IOException {
+        InputStream raw = getRawInputStream(entry);
+        if (entry.getMethod() == ZipEntry.DEFLATED) {
+            return new EntryInflaterInputStream(raw);
+        }
+        return raw;
+    }
+
+    /**
+     * Opens a stream over the stored bytes of an entry, without decompressing
+     * them.
+     *
+     * @param entry
+     *            - An entry of this SDU.
+     * @return The stream, which must be closed by the caller.
+     * @throws IOException
+     *             - If the entry cannot be read.
+     */
+    public InputStream getRawInputStream(SduEntry entry) throws IOException {
+        return new RegionInputStream(getDataOffset(entry), entry.getCompressedSize());
+    }
+
+    /**
+     * Reads the uncompressed contents of an entry through memory mapped
+     * windows of the SDU, optionally updating a checksum and writing the
+     * contents to a channel.
+     *
+     * @param entry
+     *            - A stored or deflated entry of this SDU.
+     * @param checksum
+     *            - The checksum to update with the uncompressed contents, or
+     *            {@code null}.
+     * @param out
+     *            - The channel to write the uncompressed contents to, or
+     *            {@code null}.
+     * @return The uncompressed size read.
+     * @throws DataFormatException
+     *             - If the deflated data is corrupt.
+     */
+    long readData(SduEntry entry, CRC32 checksum, WritableByteChannel out) throws IOException, DataFormatException {
+        long offset = getDataOffset(entry);
+        long length = entry.getCompressedSize();
+        if (entry.getMethod() != ZipEntry.DEFLATED) {
+            for (long position = 0; position < length; position += WINDOW_SIZE) {
+                MappedByteBuffer window = map(offset + position, Math.min(WINDOW_SIZE, length - position));
+                if (out != null) {
+                    ByteBuffer data = window.duplicate();
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                }
+                if (checksum != null) {
+                    checksum.update(window);
+                }
+            }
+            return length;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] input = new byte[BUFFER_SIZE];
+            byte[] output = new byte[BUFFER_SIZE];
+            long size = 0;
+            for (long position = 0; position < length && !inflater.finished(); position += WINDOW_SIZE) {
+                MappedByteBuffer window = map(offset + position, Math.min(WINDOW_SIZE, length - position));
+                while (window.hasRemaining() && !inflater.finished()) {
+                    int read = Math.min(input.length, window.remaining());
+                    window.get(input, 0, read);
+                    inflater.setInput(input, 0, read);
+                    size += inflate(inflater, output, checksum, out);
+                }
+            }
+            if (!inflater.finished()) {
+                // The inflater may need an extra dummy byte with nowrap
+                inflater.setInput(new byte[1]);
+                size += inflate(inflater, output, checksum, out);
+            }
+            if (!inflater.finished()) {
+                throw new ZipException("Unexpected end of deflated data.");
+            }
+            return size;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static long inflate(Inflater inflater, byte[] output, CRC32 checksum, WritableByteChannel out)
+            throws DataFormatException, IOException {
+        long size = 0;
+        while (!inflater.finished()) {
+            int inflated = inflater.inflate(output);
+            if (inflated == 0) {
+                if (inflater.needsDictionary()) {
+                    throw new ZipException("Deflated data requires a preset dictionary.");
+                }
+                if (inflater.needsInput()) {
+                    break;
+                }
+            }
+            if (checksum != null) {
+                checksum.update(output, 0, inflated);
+            }
+            if (out != null) {
+                ByteBuffer data = ByteBuffer.wrap(output, 0, inflated);
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            }
+            size += inflated;
+        }
+        return size;
+    }
+
+    /**
+     * Reads bytes at the given position of the SDU.
+     */
+    ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Memory maps a region of the SDU.
+     */
+    MappedByteBuffer map(long position, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_HEADER_SIZE) {
+            throw new ZipException("Not an SDU archive: " + file);
+        }
+
+        // The end of central directory record is followed by an optional
+        // comment of at most 64KB, a signature found in the comment itself
+        // is skipped as its comment length runs past the end of the file
+        long tailStart = Math.max(0, fileSize - END_HEADER_SIZE - MAX_COMMENT_SIZE);
+        MappedByteBuffer tail = channel.map(MapMode.READ_ONLY, tailStart, fileSize - tailStart);
+        tail.order(ByteOrder.LITTLE_ENDIAN);
+        int end = -1;
+        for (int i = tail.limit() - END_HEADER_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_HEADER_SIGNATURE
+                    && i + END_HEADER_SIZE + (tail.getShort(i + 20) & 0xFFFF) <= tail.limit()) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("Not an SDU archive, no end of central directory found: " + file);
+        }
+
+        long total = tail.getShort(end + 10) & 0xFFFF;
+        long centralSize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long centralOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        long locatorPosition = tailStart + end - ZIP64_LOCATOR_SIZE;
+        if ((total == ZIP64_MAGIC_COUNT || centralSize == ZIP64_MAGIC || centralOffset == ZIP64_MAGIC)
+                && locatorPosition >= 0) {
+            ByteBuffer locator = read(locatorPosition, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                long zip64EndPosition = locator.getLong(8);
+                if (zip64EndPosition < 0 || zip64EndPosition > locatorPosition - ZIP64_END_HEADER_SIZE) {
+                    throw new ZipException("Invalid ZIP64 end of central directory locator in " + file);
+                }
+                ByteBuffer zip64End = read(zip64EndPosition, ZIP64_END_HEADER_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid ZIP64 end of central directory in " + file);
+                }
+                total = zip64End.getLong(32);
+                centralSize = zip64End.getLong(40);
+                centralOffset = zip64End.getLong(48);
+            }
+        }
+        if (total < 0 || centralSize < 0 || centralOffset < 0 || centralOffset + centralSize > fileSize
+                || centralSize > Integer.MAX_VALUE || total > centralSize / CENTRAL_HEADER_SIZE) {
+            throw new ZipException("Invalid central directory in " + file);
+        }
+
+        MappedByteBuffer central = channel.map(MapMode.READ_ONLY, centralOffset, centralSize);
+        central.order(ByteOrder.LITTLE_ENDIAN);
+        int position = 0;
+        for (long i = 0; i < total; i++) {
+            if (position + CENTRAL_HEADER_SIZE > central.limit()
+                    || central.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header in " + file);
+            }
+            int method = central.getShort(position + 10) & 0xFFFF;
+            int dosTime = central.getInt(position + 12);
+            long crc = central.getInt(position + 16) & 0xFFFFFFFFL;
+            long compressedSize = central.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = central.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = central.getShort(position + 28) & 0xFFFF;
+            int extraLength = central.getShort(position + 30) & 0xFFFF;
+            int commentLength = central.getShort(position + 32) & 0xFFFF;
+            long offset = central.getInt(position + 42) & 0xFFFFFFFFL;
+            int next = position + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (next > central.limit()) {
+                throw new ZipException("Truncated central directory header in " + file);
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            central.position(position + CENTRAL_HEADER_SIZE);
+            central.get(nameBytes);
+            String name = new String(nameBytes, UTF_8);
+
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+                int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = central.getShort(extra) & 0xFFFF;
+                    int length = central.getShort(extra + 2) & 0xFFFF;
+                    int data = extra + 4;
+                    if (data + length > extraEnd) {
+                        throw new ZipException("Invalid extra field of " + name + " in " + file);
+                    }
+                    if (id == ZIP64_EXTRA_ID) {
+                        int fields = (size == ZIP64_MAGIC ? 8 : 0) + (compressedSize == ZIP64_MAGIC ? 8 : 0)
+                                + (offset == ZIP64_MAGIC ? 8 : 0);
+                        if (length < fields) {
+                            throw new ZipException("Invalid ZIP64 extra field of " + name + " in " + file);
+                        }
+                        if (size == ZIP64_MAGIC) {
+                            size = central.getLong(data);
+                            data += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = central.getLong(data);
+                            data += 8;
+                        }
+                        if (offset == ZIP64_MAGIC) {
+                            offset = central.getLong(data);
+                        }
+                        break;
+                    }
+                    extra = data + length;
+                }
+            }
+
+            // The data of every entry precedes the central directory
+            if (size < 0 || compressedSize < 0 || offset < 0
+                    || offset + LOCAL_HEADER_SIZE + compressedSize > centralOffset) {
+                throw new ZipException("Invalid size or offset of " + name + " in " + file);
+            }
+            SduEntry entry = new SduEntry(name, method, crc, compressedSize, size, offset);
+            entry.setDosTime(dosTime);
+            entries.put(name, entry);
+            position = next;
+        }
+    }
+
+    private List<SduPackage> readPackagesFromIndex() throws IOException {
+        SduIndex index;
+        try (InputStream stream = getInputStream(entries.get(SduIndex.SDU_INDEX_PATH))) {
+            index = SduIndex.read(stream);
+        }
+        List<SduPackage> ordered = new ArrayList<SduPackage>();
+        List<SduPackage> unordered = new ArrayList<SduPackage>();
+        for (SduIndex.Record record : index.getRecords()) {
+            SduEntry entry = entries.get(record.path);
+            if (entry == null) {
+                throw new ZipException("SDU index references a missing entry " + record.path + " in " + file);
+            }
+            SduPackage sduPackage = new SduPackage(record.groupId, record.artifactId, record.version, record.type,
+                    record.loadOrder, entry);
+            if (record.loadOrder == SduPackage.NO_LOAD_ORDER) {
+                unordered.add(sduPackage);
+            } else {
+                ordered.add(sduPackage);
+            }
+        }
+        ordered.sort((a, b) -> Integer.compare(a.getLoadOrder(), b.getLoadOrder()));
+        ordered.addAll(unordered);
+        return ordered;
+    }
+
+    private List<SduPackage> readPackagesFromManifest() throws IOException {
+        // Index the payloads by their folder, to match ACPM paths
+        Map<String, SduEntry> folders = new HashMap<String, SduEntry>();
+        for (SduEntry entry : entries.values()) {
+            if (isPackage(entry)) {
+                int lastSlash = entry.getName().lastIndexOf(JAR_SEPARATOR);
+                folders.putIfAbsent(lastSlash < 0 ? "" : entry.getName().substring(0, lastSlash + 1), entry);
+            }
+        }
+
+        List<SduPackage> result = new ArrayList<SduPackage>();
+        Set<String> listed = new HashSet<String>();
+        Manifest mf = getManifest();
+        if (mf != null) {
+            Map<String, Attributes> mfEntries = mf.getEntries();
+            int i = SduVolumeSplitter.getFirstLoadOrder(mf);
+            Attributes attr = mfEntries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i);
+            while (attr != null) {
+                String groupId = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_GROUP_ID);
+                String artifactId = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_ARTIFACT_ID);
+                String version = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_VERSION);
+                String type = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_TYPE);
+                SduEntry entry = null;
+                if (type == null || PackagingConstants.DAR_EXT.equals(type)) {
+                    entry = entries.get(artifactId + PackagingConstants.DASH + version + PackagingConstants.DOT
+                            + PackagingConstants.DAR_EXT);
+                }
+                if (entry == null && groupId != null) {
+                    entry = folders.get(SduCreator.getACPMPath(groupId, artifactId, version));
+                }
+                if (entry != null && listed.add(entry.getName())) {
+                    result.add(new SduPackage(groupId, artifactId, version, type == null ? getType(entry) : type, i,
+                            entry));
+                }
+                attr = mfEntries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + ++i);
+            }
+        }
+
+        for (SduEntry entry : entries.values()) {
+            if (isPackage(entry) && !listed.contains(entry.getName())) {
+                result.add(getPackageFromPath(entry));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Derives the coordinates of a package not listed in the manifest from its
+     * ACPM path, {@code <groupId path>/<artifactId>/<version>/<file>}.
+     */
+    private SduPackage getPackageFromPath(SduEntry entry) {
+        String[] segments = entry.getName().split(JAR_SEPARATOR);
+        String type = getType(entry);
+        if (segments.length < 4) {
+            String fileName = segments[segments.length - 1];
+            return new SduPackage(null, fileName.substring(0, fileName.length() - type.length() - 1), null, type,
+                    SduPackage.NO_LOAD_ORDER, entry);
+        }
+        StringBuilder groupId = new StringBuilder();
+        for (int i = 0; i < segments.length - 3; i++) {
+            if (i > 0) {
+                groupId.append(PackagingConstants.DOT);
+            }
+            groupId.append(segments[i]);
+        }
+        return new SduPackage(groupId.toString(), segments[segments.length - 3], segments[segments.length - 2], type,
+                SduPackage.NO_LOAD_ORDER, entry);
+    }
+
+    private static boolean isPackage(SduEntry entry) {
+        return !entry.isDirectory() && getType(entry) != null;
+    }
+
+    private static String getType(SduEntry entry) {
+        String name = entry.getName();
+        for (String type : PackagingConstants.ALL_DP_PACKAGING) {
+            if (name.endsWith(PackagingConstants.DOT + type)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stream over a region of the SDU, using positional reads.
+     */
+    private class RegionInputStream extends InputStream {
+
+        private long position;
+        private final long end;
+
+        RegionInputStream(long position, long length) {
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+
+    /**
+     * Inflates raw DEFLATE data, supplying the extra dummy byte the
+     * {@link Inflater} requires at the end of the input when using the
+     * {@code nowrap} option.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+
+        private boolean eof;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+}
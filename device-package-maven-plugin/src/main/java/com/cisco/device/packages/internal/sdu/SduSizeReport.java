@@ -0,0 +1,400 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+
+/**
+ * Attributes the size of an SDU to the dependencies that pull each device
+ * package in. {@link SduCreator} records the root projects and every device
+ * package dependency it follows while resolving, so for each package the
+ * report lists its size, the shortest and all inclusion paths from the root
+ * projects, and the exclusion that would remove it along with the bytes it
+ * would save. The bytes brought in by each direct dependency of the root
+ * projects are summed up as well.<br>
+ * <br>
+ * Packages are identified by their {@code groupId:artifactId:version}.
+ *
+ * @author danijoh2
+ */
+public class SduSizeReport {
+
+    /**
+     * The maximum number of inclusion paths listed per package, as the number
+     * of paths can grow exponentially with the depth of the dependency graph.
+     */
+    public static final int MAX_PATHS = 100;
+
+    private static final String PATH_SEPARATOR = " -> "; // $NON-NLS-1$
+
+    private final String name;
+    private final Set<String> roots = new LinkedHashSet<String>();
+    private final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+    private final Map<String, Package> packages = new LinkedHashMap<String, Package>();
+
+    /**
+     * @param name
+     *            - The name of the SDU reported on.
+     */
+    public SduSizeReport(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a project the SDU is created from.
+     */
+    public synchronized void addRoot(String id) {
+        roots.add(id);
+    }
+
+    /**
+     * Records a device package dependency followed while resolving.
+     */
+    public synchronized void addDependency(String from, String to) {
+        dependencies.computeIfAbsent(from, k -> new LinkedHashSet<String>()).add(to);
+        dependents.computeIfAbsent(to, k -> new LinkedHashSet<String>()).add(from);
+    }
+
+    /**
+     * Records a device package of the SDU.
+     *
+     * @param file
+     *            - The package file, or {@code null} if it was not found.
+     * @param path
+     *            - The path of the package in the SDU, or {@code null} if it
+     *            is not added to the SDU.
+     */
+    public synchronized void addPackage(String id, String type, File file, String path) {
+        if (!packages.containsKey(id)) {
+            packages.put(id, new Package(id, type, file == null || path == null ? 0 : file.length(), path));
+        }
+    }
+
+    /**
+     * @return The packages, largest first.
+     */
+    public synchronized List<Package> getPackages() {
+        List<Package> sorted = new ArrayList<Package>(packages.values());
+        sorted.sort(Comparator.comparingLong(Package::getSize).reversed().thenComparing(Package::getId));
+        return sorted;
+    }
+
+    public synchronized long getTotalSize() {
+        return getSize(packages.keySet());
+    }
+
+    /**
+     * @return The shortest inclusion path of a package, starting at a root
+     *         project, or an empty list if it cannot be reached.
+     */
+    public synchronized List<String> getShortestPath(String id) {
+        Map<String, String> previous = new HashMap<String, String>();
+        Deque<String> queue = new ArrayDeque<String>();
+        for (String root : roots) {
+            previous.put(root, null);
+            queue.add(root);
+        }
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            if (current.equals(id)) {
+                List<String> path = new ArrayList<String>();
+                for (String node = current; node != null; node = previous.get(node)) {
+                    path.add(node);
+                }
+                Collections.reverse(path);
+                return path;
+            }
+            for (String next : dependencies.getOrDefault(current, Collections.emptySet())) {
+                if (!previous.containsKey(next)) {
+                    previous.put(next, current);
+                    queue.add(next);
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return Up to {@value #MAX_PATHS} inclusion paths of a package, each
+     *         starting at a root project.
+     */
+    public synchronized List<List<String>> getPaths(String id) {
+        List<List<String>> paths = new ArrayList<List<String>>();
+        Deque<String> path = new ArrayDeque<String>();
+        path.push(id);
+        collectPaths(id, path, paths);
+        return paths;
+    }
+
+    private void collectPaths(String id, Deque<String> path, List<List<String>> paths) {
+        if (paths.size() >= MAX_PATHS) {
+            return;
+        }
+        if (roots.contains(id)) {
+            paths.add(new ArrayList<String>(path));
+        }
+        for (String dependent : dependents.getOrDefault(id, Collections.emptySet())) {
+            if (!path.contains(dependent)) {
+                path.push(dependent);
+                collectPaths(dependent, path, paths);
+                path.pop();
+            }
+        }
+    }
+
+    /**
+     * @return The exclusion, in {@code groupId:artifactId} format, that would
+     *         remove a package from the SDU, or {@code null} if the package is
+     *         a root project, which cannot be excluded.
+     */
+    public synchronized String getExclusion(String id) {
+        if (roots.contains(id)) {
+            return null;
+        }
+        return getGroupArtifact(id);
+    }
+
+    /**
+     * @return The bytes that would be removed from the SDU by the exclusion of
+     *         a package, including the packages only reachable through it.
+     */
+    public synchronized long getExcludedSize(String id) {
+        String exclusion = getExclusion(id);
+        if (exclusion == null) {
+            return 0;
+        }
+        Set<String> remaining = getReachable(roots, exclusion);
+        Set<String> removed = new HashSet<String>(packages.keySet());
+        removed.removeAll(remaining);
+        return getSize(removed);
+    }
+
+    /**
+     * @return The direct dependencies of the root projects that are not root
+     *         projects themselves.
+     */
+    public synchronized Set<String> getDirectDependencies() {
+        Set<String> direct = new LinkedHashSet<String>();
+        for (String root : roots) {
+            for (String dependency : dependencies.getOrDefault(root, Collections.emptySet())) {
+                if (!roots.contains(dependency)) {
+                    direct.add(dependency);
+                }
+            }
+        }
+        return direct;
+    }
+
+    /**
+     * @return The bytes of a package and of all the packages it depends on,
+     *         directly or transitively.
+     */
+    public synchronized long getTotalSize(String id) {
+        return getSize(getReachable(Collections.singleton(id), null));
+    }
+
+    private Set<String> getReachable(Set<String> from, String exclusion) {
+        Set<String> reached = new HashSet<String>(from);
+        Deque<String> queue = new ArrayDeque<String>(from);
+        while (!queue.isEmpty()) {
+            for (String next : dependencies.getOrDefault(queue.poll(), Collections.emptySet())) {
+                // Exclusions never apply to the root projects
+                if ((roots.contains(next) || !getGroupArtifact(next).equals(exclusion)) && reached.add(next)) {
+                    queue.add(next);
+                }
+            }
+        }
+        return reached;
+    }
+
+    private long getSize(Set<String> ids) {
+        long size = 0;
+        for (String id : ids) {
+            Package sduPackage = packages.get(id);
+            if (sduPackage != null) {
+                size += sduPackage.getSize();
+            }
+        }
+        return size;
+    }
+
+    private static String getGroupArtifact(String id) {
+        int index = id.lastIndexOf(PackagingConstants.COLON);
+        return index < 0 ? id : id.substring(0, index);
+    }
+
+    /**
+     * Writes the report as JSON.
+     */
+    public synchronized void writeJson(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println("{");
+            out.println("  \"sdu\": " + quote(name) + ",");
+            out.println("  \"totalSize\": " + getTotalSize() + ",");
+            out.println("  \"roots\": " + quote(roots) + ",");
+            out.println("  \"directDependencies\": [");
+            List<String> direct = getSortedDirectDependencies();
+            for (int i = 0; i < direct.size(); i++) {
+                String id = direct.get(i);
+                out.println("    { \"id\": " + quote(id) + ", \"totalSize\": " + getTotalSize(id)
+                        + ", \"excludedSize\": " + getExcludedSize(id) + " }" + (i < direct.size() - 1 ? "," : ""));
+            }
+            out.println("  ],");
+            out.println("  \"packages\": [");
+            List<Package> sorted = getPackages();
+            for (int i = 0; i < sorted.size(); i++) {
+                Package sduPackage = sorted.get(i);
+                String id = sduPackage.getId();
+                List<List<String>> paths = getPaths(id);
+                out.println("    {");
+                out.println("      \"id\": " + quote(id) + ",");
+                out.println("      \"type\": " + quote(sduPackage.getType()) + ",");
+                out.println("      \"path\": " + quote(sduPackage.getPath()) + ",");
+                out.println("      \"size\": " + sduPackage.getSize() + ",");
+                out.println("      \"exclusion\": " + quote(getExclusion(id)) + ",");
+                out.println("      \"excludedSize\": " + getExcludedSize(id) + ",");
+                out.println("      \"shortestPath\": " + quote(getShortestPath(id)) + ",");
+                out.println("      \"pathsTruncated\": " + (paths.size() >= MAX_PATHS) + ",");
+                out.println("      \"paths\": [");
+                for (int j = 0; j < paths.size(); j++) {
+                    out.println("        " + quote(paths.get(j)) + (j < paths.size() - 1 ? "," : ""));
+                }
+                out.println("      ]");
+                out.println("    }" + (i < sorted.size() - 1 ? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Writes a summary of the report, largest first.
+     */
+    public synchronized void writeText(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println("SDU size report for " + name);
+            out.println(String.format("Total: %,d bytes in %d package(s)", getTotalSize(), packages.size()));
+            out.println();
+            out.println("Direct dependencies, by bytes brought in:");
+            out.println(String.format("  %15s %15s  %s", "total", "if excluded", "dependency"));
+            for (String id : getSortedDirectDependencies()) {
+                out.println(String.format("  %,15d %,15d  %s", getTotalSize(id), getExcludedSize(id), id));
+            }
+            out.println();
+            out.println("Packages, by size:");
+            out.println(String.format("  %15s %15s  %s", "size", "if excluded", "package"));
+            for (Package sduPackage : getPackages()) {
+                String id = sduPackage.getId();
+                String exclusion = getExclusion(id);
+                List<List<String>> paths = getPaths(id);
+                out.println(String.format("  %,15d %,15d  %s", sduPackage.getSize(), getExcludedSize(id), id));
+                out.println("      exclusion: " + (exclusion == null ? "none, root project" : exclusion));
+                out.println("      shortest path: " + String.join(PATH_SEPARATOR, getShortestPath(id)));
+                out.println("      paths: " + paths.size() + (paths.size() >= MAX_PATHS ? "+" : ""));
+            }
+        }
+    }
+
+    private List<String> getSortedDirectDependencies() {
+        List<String> direct = new ArrayList<String>(getDirectDependencies());
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        for (String id : direct) {
+            sizes.put(id, getTotalSize(id));
+        }
+        direct.sort(Comparator.comparing((String id) -> sizes.get(id)).reversed().thenComparing(id -> id));
+        return direct;
+    }
+
+    private static String quote(Iterable<String> values) {
+        StringBuilder json = new StringBuilder("[");
+        for (String value : values) {
+            if (json.length() > 1) {
+                json.append(", ");
+            }
+            json.append(quote(value));
+        }
+        return json.append(']').toString();
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * A device package of the SDU.
+     */
+    public static class Package {
+        private final String id;
+        private final String type;
+        private final long size;
+        private final String path;
+
+        Package(String id, String type, long size, String path) {
+            this.id = id;
+            this.type = type;
+            this.size = size;
+            this.path = path;
+        }
+
+        /**
+         * @return The {@code groupId:artifactId:version} of the package.
+         */
+        public String getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return The size of the package file, or 0 if it is not added to
+         *         the SDU.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return The path of the package in the SDU, or {@code null} if it is
+         *         not added to the SDU.
+         */
+        public String getPath() {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes device packages to a spool file as soon as they are resolved, so
+ * reading, checksumming and compressing the packages overlaps with the
+ * resolution of the remaining packages. Once every package is known, the SDU
+ * is assembled by writing its manifest first and appending the spool with
+ * {@link SduWriter#putAll(SduWriter)}. The spool file is deleted on close.
+ *
+ * @author danijoh2
+ */
+class SduSpool implements Closeable {
+
+    private static final Map.Entry<File, String> END = new AbstractMap.SimpleImmutableEntry<File, String>(null, null);
+
+    private final File file;
+    private final SduWriter writer;
+    private final BlockingQueue<Map.Entry<File, String>> queue = new LinkedBlockingQueue<Map.Entry<File, String>>();
+    private final ExecutorService thread;
+    private final Future<List<SduWriter.EntryReport>> future;
+    private final long start = System.nanoTime();
+    private volatile boolean ended;
+
+    /**
+     * @param threads
+     *            - The number of threads reading and compressing packages, or
+     *            zero or less to use one per available processor.
+     * @param workers
+     *            - The executor reading and compressing packages, which is
+     *            not shut down by the spool, or {@code null} to use a pool of
+     *            threads of the spool.
+     * @param thread
+     *            - An executor dedicated to the spool, which mostly waits for
+     *            packages and workers, shut down on close, or {@code null} to
+     *            use a thread of the spool.
+     */
+    SduSpool(File file, SduCompression compression, int level, int threads, ExecutorService workers,
+            ExecutorService thread) throws IOException {
+        this.file = file;
+        this.writer = new SduWriter(file);
+        writer.setCompression(compression);
+        writer.setCompressionLevel(level);
+        if (threads > 0) {
+            writer.setThreads(threads);
+        }
+        writer.setExecutor(workers);
+        this.thread = thread != null ? thread : Executors.newSingleThreadExecutor();
+        this.future = this.thread.submit(() -> writer.putFiles(new QueueIterator()));
+    }
+
+    /**
+     * Queues a package to be written to the spool.
+     */
+    void add(File payload, String name) {
+        queue.add(new AbstractMap.SimpleImmutableEntry<File, String>(payload, name));
+    }
+
+    /**
+     * Waits until every queued package is written to the spool.
+     *
+     * @return A report of every entry written.
+     */
+    List<SduWriter.EntryReport> finish() throws IOException {
+        queue.add(END);
+        try {
+            List<SduWriter.EntryReport> reports = future.get();
+            if (!ended) {
+                throw new InterruptedIOException("Interrupted while writing " + file);
+            }
+            return reports;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to write " + file, e.getCause());
+        }
+    }
+
+    /**
+     * @return The writer of the spool, to append to the SDU once
+     *         {@link #finish()} returned.
+     */
+    SduWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} the spool was started at.
+     */
+    long getStart() {
+        return start;
+    }
+
+    int getThreads() {
+        return writer.getThreads();
+    }
+
+    @Override
+    public void close() throws IOException {
+        future.cancel(true);
+        thread.shutdownNow();
+        try {
+            // Let the spool thread stop using the writer before closing it
+            thread.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writer.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the queued packages, blocking until the next one is queued.
+     */
+    private class QueueIterator implements Iterator<Map.Entry<File, String>> {
+        private Map.Entry<File, String> next;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !ended) {
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (next == END) {
+                    next = null;
+                    ended = true;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<File, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<File, String> result = next;
+            next = null;
+            return result;
+        }
+    }
+}
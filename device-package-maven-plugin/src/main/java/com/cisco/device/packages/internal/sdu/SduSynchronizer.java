@@ -0,0 +1,262 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.io.FileUtils;
+
+import com.cisco.common.plugin.helpers.FileHelper;
+import com.cisco.device.packages.constants.PackagingConstants;
+
+/**
+ * Synchronizes the device packages of an SDU into a deployment directory,
+ * laid out by the ACPM path scheme of
+ * {@link SduCreator#getACPMPath(String, String, String)}. Only new or changed
+ * packages, compared by size and CRC, are copied with {@link SduExtractor}.
+ * Once every package is in place, the load order of the SDU is written
+ * atomically to {@value #LOAD_ORDER_PATH}, in the {@link SduIndex} format, and
+ * the packages and versions the SDU no longer holds are removed. A runtime
+ * reading the load order therefore never finds a package missing.
+ *
+ * @author danijoh2
+ */
+public class SduSynchronizer {
+
+    public static final String LOAD_ORDER_PATH = "load-order.index"; // $NON-NLS-1$
+
+    private static final String JAR_SEPARATOR = "/"; // $NON-NLS-1$
+
+    private final SduReader reader;
+    private final File directory;
+    private final SduExtractor extractor;
+
+    /**
+     * @param reader
+     *            - The SDU to synchronize.
+     * @param directory
+     *            - The deployment directory.
+     */
+    public SduSynchronizer(SduReader reader, File directory) {
+        this.reader = reader;
+        this.directory = directory;
+        this.extractor = new SduExtractor(reader, directory);
+    }
+
+    /**
+     * @param threads
+     *            - The number of packages to copy concurrently.
+     */
+    public void setThreads(int threads) {
+        extractor.setThreads(threads);
+    }
+
+    /**
+     * @param executor
+     *            - The executor running the copies, see
+     *            {@link SduExtractor#setExecutor}.
+     */
+    public void setExecutor(ExecutorService executor) {
+        extractor.setExecutor(executor);
+    }
+
+    /**
+     * @param verify
+     *            - Whether the CRC and size of every copied package are
+     *            checked against the central directory.
+     */
+    public void setVerify(boolean verify) {
+        extractor.setVerify(verify);
+    }
+
+    /**
+     * Synchronizes the deployment directory with the SDU. If any package fails
+     * to be copied, the load order and the stale packages are left untouched.
+     *
+     * @return The result of the synchronization.
+     * @throws IOException
+     *             - If the SDU or the deployment directory cannot be read or
+     *             written.
+     * @throws InterruptedException
+     *             - If interrupted while waiting on the copies.
+     */
+    public Result sync() throws IOException, InterruptedException {
+        SduIndex index = new SduIndex();
+        Map<SduEntry, String> targets = new LinkedHashMap<SduEntry, String>();
+        for (SduPackage sduPackage : reader.getPackages()) {
+            String path = getPath(sduPackage);
+            targets.put(sduPackage.getEntry(), path);
+            index.add(sduPackage.getLoadOrder(), sduPackage.getGroupId(), sduPackage.getArtifactId(),
+                    sduPackage.getVersion(), sduPackage.getType(), path);
+        }
+
+        Result result = new Result(extractor.extract(targets));
+        if (result.getFailures() > 0) {
+            return result;
+        }
+
+        SduIndex previous = readLoadOrder();
+        writeLoadOrder(index);
+        removeStale(index, previous, result.removed);
+        return result;
+    }
+
+    /**
+     * @return The path of a package in the deployment directory, its SDU path
+     *         when its group or version is unknown.
+     */
+    static String getPath(SduPackage sduPackage) {
+        String path = sduPackage.getPath();
+        if (sduPackage.getGroupId() == null || sduPackage.getVersion() == null) {
+            return path;
+        }
+        return SduCreator.getACPMPath(sduPackage.getGroupId(), sduPackage.getArtifactId(), sduPackage.getVersion())
+                + path.substring(path.lastIndexOf(JAR_SEPARATOR) + 1);
+    }
+
+    private SduIndex readLoadOrder() throws IOException {
+        File file = new File(directory, LOAD_ORDER_PATH);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return SduIndex.read(in);
+        }
+    }
+
+    private void writeLoadOrder(SduIndex index) throws IOException {
+        FileHelper.write(new File(directory, LOAD_ORDER_PATH), index.toBytes());
+    }
+
+    /**
+     * Removes the packages of the previous load order the SDU no longer holds,
+     * and every other version of the packages of the SDU.
+     */
+    private void removeStale(SduIndex index, SduIndex previous, List<String> removed) throws IOException {
+        Set<String> paths = new HashSet<String>();
+        Set<File> versions = new HashSet<File>();
+        Set<File> artifacts = new HashSet<File>();
+        for (SduIndex.Record record : index.getRecords()) {
+            paths.add(record.getPath());
+            if (record.getGroupId() == null || record.getVersion() == null) {
+                // Kept at its SDU path, it has no other versions to remove
+                continue;
+            }
+            File version = new File(directory, SduCreator.getACPMPath(record.getGroupId(), record.getArtifactId(),
+                    record.getVersion()));
+            versions.add(version);
+            artifacts.add(version.getParentFile());
+        }
+
+        if (previous != null) {
+            for (SduIndex.Record record : previous.getRecords()) {
+                File file = new File(directory, record.getPath());
+                if (!paths.contains(record.getPath()) && file.isFile() && isInside(file)) {
+                    Files.delete(file.toPath());
+                    removed.add(record.getPath());
+                    deleteEmptyParents(file.getParentFile());
+                }
+            }
+        }
+
+        for (File artifact : artifacts) {
+            File[] children = artifact.listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+                if (child.isDirectory() && !versions.contains(child) && isVersion(artifact, child)) {
+                    FileUtils.deleteDirectory(child);
+                    removed.add(directory.toPath().relativize(child.toPath()).toString() + JAR_SEPARATOR);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if a directory holds a version of the artifact,
+     *         rather than the packages of a group nested in the path of the
+     *         artifact.
+     */
+    private static boolean isVersion(File artifact, File dir) {
+        String prefix = artifact.getName() + PackagingConstants.DASH + dir.getName() + PackagingConstants.DOT;
+        String[] children = dir.list();
+        if (children != null) {
+            for (String child : children) {
+                if (child.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void deleteEmptyParents(File dir) {
+        while (dir != null && isInside(dir)) {
+            String[] children = dir.list();
+            if (children == null || children.length > 0 || !dir.delete()) {
+                return;
+            }
+            dir = dir.getParentFile();
+        }
+    }
+
+    private boolean isInside(File file) {
+        try {
+            return file.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The result of a synchronization.
+     */
+    public static class Result {
+        private final List<SduExtractor.Result> packages;
+        private final List<String> removed = new ArrayList<String>();
+
+        Result(List<SduExtractor.Result> packages) {
+            this.packages = packages;
+        }
+
+        /**
+         * @return The result of each package of the SDU.
+         */
+        public List<SduExtractor.Result> getPackages() {
+            return packages;
+        }
+
+        /**
+         * @return The paths removed from the deployment directory, relative to
+         *         it, with a trailing {@code /} for directories.
+         */
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public int getFailures() {
+            int failures = 0;
+            for (SduExtractor.Result result : packages) {
+                if (result.getStatus() == SduExtractor.Status.FAILED) {
+                    failures++;
+                }
+            }
+            return failures;
+        }
+    }
+}
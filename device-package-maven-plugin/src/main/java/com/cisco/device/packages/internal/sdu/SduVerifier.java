@@ -0,0 +1,315 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.plugin.BoundedExecutor;
+
+/**
+ * Verifies the integrity of an SDU. The CRC and size of every entry are
+ * checked against the central directory in parallel, reading the entry data
+ * through memory mapped windows of the SDU. The manifest is checked to ensure
+ * every {@code devicePackageN} entry resolves to a payload of the SDU, and
+ * that the load order has no gaps.
+ *
+ * @author danijoh2
+ */
+public class SduVerifier {
+
+    private final SduReader reader;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+
+    public SduVerifier(SduReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @param threads
+     *            - The number of entries to verify concurrently.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param executor
+     *            - The executor running the verifications, see
+     *            {@link BoundedExecutor#forBatch}.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Verifies the CRC and size of every file entry of the SDU.
+     *
+     * @return The result of each entry, in central directory order.
+     * @throws InterruptedException
+     *             - If interrupted while waiting on the verification.
+     */
+    public List<Result> verifyEntries() throws InterruptedException {
+        List<SduEntry> entries = new ArrayList<SduEntry>();
+        for (SduEntry entry : reader.getEntries()) {
+            if (!entry.isDirectory()) {
+                entries.add(entry);
+            }
+        }
+        List<Result> results = new ArrayList<Result>(entries.size());
+        if (entries.isEmpty()) {
+            return results;
+        }
+
+        BoundedExecutor pool = BoundedExecutor.forBatch(executor, Math.min(threads, entries.size()));
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(entries.size());
+        try {
+            for (SduEntry entry : entries) {
+                futures.add(pool.submit(() -> verify(entry)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result(entries.get(i), String.valueOf(e.getCause()), 0));
+                }
+            }
+        } finally {
+            pool.release();
+        }
+        return results;
+    }
+
+    /**
+     * Verifies the manifest and package index of the SDU reference payloads
+     * present in the SDU. Device packages of a delta SDU which are unchanged
+     * from the baseline are not required to be present.
+     *
+     * @return The problems found, empty if the manifest is valid.
+     */
+    public List<String> verifyManifest() {
+        List<String> problems = new ArrayList<String>();
+        Manifest mf;
+        List<SduPackage> packages;
+        try {
+            mf = reader.getManifest();
+            packages = reader.getPackages();
+        } catch (IOException e) {
+            problems.add("Failed to read the SDU manifest or package index: " + e.getMessage());
+            return problems;
+        }
+        if (mf == null) {
+            problems.add("SDU is missing its MANIFEST.");
+            return problems;
+        }
+
+        Map<Integer, SduPackage> loadOrder = new HashMap<Integer, SduPackage>();
+        for (SduPackage sduPackage : packages) {
+            if (sduPackage.getLoadOrder() != SduPackage.NO_LOAD_ORDER) {
+                loadOrder.put(sduPackage.getLoadOrder(), sduPackage);
+            }
+        }
+
+        boolean delta = mf.getMainAttributes().getValue(SduDeltaCreator.SDU_MANIFEST_ATTR_DELTA_BASELINE) != null;
+        Map<String, Attributes> entries = mf.getEntries();
+        // Volumes start at the first load order entry they hold
+        int first = SduVolumeSplitter.getFirstLoadOrder(mf);
+        int count = first;
+        Attributes attr = entries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + count);
+        while (attr != null) {
+            String name = SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + count;
+            String groupId = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_GROUP_ID);
+            String artifactId = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_ARTIFACT_ID);
+            String version = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_VERSION);
+            if (groupId == null || artifactId == null || version == null) {
+                problems.add(name + " is missing one of the " + SduCreator.SDU_MANIFEST_ATTR_GROUP_ID + ", "
+                        + SduCreator.SDU_MANIFEST_ATTR_ARTIFACT_ID + " or " + SduCreator.SDU_MANIFEST_ATTR_VERSION
+                        + " attributes.");
+            } else {
+                String gav = groupId + PackagingConstants.COLON + artifactId + PackagingConstants.COLON + version;
+                SduPackage sduPackage = loadOrder.get(count);
+                String status = attr.getValue(SduDeltaCreator.SDU_MANIFEST_ATTR_DELTA);
+                if (sduPackage == null) {
+                    if (!delta || SduDeltaCreator.DELTA_ADDED.equals(status)
+                            || SduDeltaCreator.DELTA_CHANGED.equals(status)) {
+                        problems.add(name + " (" + gav + ") has no matching payload in the SDU.");
+                    }
+                } else if (!groupId.equals(sduPackage.getGroupId()) || !artifactId.equals(sduPackage.getArtifactId())
+                        || !version.equals(sduPackage.getVersion())) {
+                    problems.add(name + " (" + gav + ") does not match its payload " + sduPackage.getPath() + " ("
+                            + sduPackage + ").");
+                }
+            }
+            attr = entries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + ++count);
+        }
+
+        // Entries past a gap in the load order are never loaded
+        for (String name : entries.keySet()) {
+            if (name.startsWith(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER)) {
+                try {
+                    int order = Integer.parseInt(name.substring(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER.length()));
+                    if (order < first) {
+                        problems.add(name + " is unreachable, the load order of this volume starts at "
+                                + SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + first + ".");
+                    } else if (order >= count) {
+                        problems.add(name + " is unreachable, the load order ends at "
+                                + SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + (count - 1) + ".");
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a load order entry
+                }
+            }
+        }
+        for (SduPackage sduPackage : packages) {
+            if (sduPackage.getLoadOrder() != SduPackage.NO_LOAD_ORDER
+                    && (sduPackage.getLoadOrder() < first || sduPackage.getLoadOrder() >= count)) {
+                problems.add("SDU index references " + SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER
+                        + sduPackage.getLoadOrder() + " for " + sduPackage.getPath()
+                        + ", which is not part of the MANIFEST load order.");
+            }
+        }
+        verifyWaves(mf, first, count, problems);
+        return problems;
+    }
+
+    /**
+     * Ensures the install waves of the SDU, if any, are consistent with the
+     * predecessors of each package, so installing each wave in parallel
+     * respects every dependency. Predecessors in an earlier volume are only
+     * checked to be part of the load order.
+     */
+    private void verifyWaves(Manifest mf, int first, int count, List<String> problems) {
+        String waveCount = mf.getMainAttributes().getValue(SduCreator.SDU_MANIFEST_ATTR_WAVES);
+        if (waveCount == null) {
+            return;
+        }
+        int waves;
+        try {
+            waves = Integer.parseInt(waveCount);
+        } catch (NumberFormatException e) {
+            problems.add("Invalid " + SduCreator.SDU_MANIFEST_ATTR_WAVES + " attribute: " + waveCount);
+            return;
+        }
+        Map<Integer, Integer> waveByOrder = new HashMap<Integer, Integer>();
+        for (int i = first; i < count; i++) {
+            String name = SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i;
+            String wave = mf.getEntries().get(name).getValue(SduCreator.SDU_MANIFEST_ATTR_WAVE);
+            try {
+                int value = Integer.parseInt(wave);
+                if (value < 0 || value >= waves) {
+                    problems.add(name + " has wave " + value + ", but the SDU has " + waves + " waves.");
+                } else {
+                    waveByOrder.put(i, value);
+                }
+            } catch (NumberFormatException e) {
+                problems.add(name + " has an invalid " + SduCreator.SDU_MANIFEST_ATTR_WAVE + " attribute: " + wave);
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : waveByOrder.entrySet()) {
+            String name = SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + entry.getKey();
+            String predecessors = mf.getEntries().get(name).getValue(SduCreator.SDU_MANIFEST_ATTR_PREDECESSORS);
+            if (predecessors == null) {
+                continue;
+            }
+            for (String predecessor : predecessors.split(PackagingConstants.COMMA)) {
+                try {
+                    int order = Integer.parseInt(predecessor.trim());
+                    Integer wave = waveByOrder.get(order);
+                    if (order == entry.getKey()) {
+                        problems.add(name + " lists itself as a predecessor.");
+                    } else if (order < 0 || order >= count) {
+                        problems.add(name + " has a predecessor outside of the load order: "
+                                + SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + order + ".");
+                    } else if (wave != null && wave >= entry.getValue()) {
+                        problems.add(name + " is in wave " + entry.getValue() + ", but its predecessor "
+                                + SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + order + " is in wave " + wave + ".");
+                    }
+                } catch (NumberFormatException e) {
+                    problems.add(name + " has an invalid " + SduCreator.SDU_MANIFEST_ATTR_PREDECESSORS
+                            + " attribute: " + predecessors);
+                    break;
+                }
+            }
+        }
+    }
+
+    private Result verify(SduEntry entry) {
+        long start = System.nanoTime();
+        try {
+            CRC32 crc = new CRC32();
+            long size;
+            if (entry.getMethod() == ZipEntry.STORED) {
+                if (entry.getCompressedSize() != entry.getSize()) {
+                    return new Result(entry, "Stored entry has a compressed size of " + entry.getCompressedSize()
+                            + " bytes, but a size of " + entry.getSize() + " bytes.", System.nanoTime() - start);
+                }
+            } else if (entry.getMethod() != ZipEntry.DEFLATED) {
+                return new Result(entry, "Unsupported compression method " + entry.getMethod() + ".",
+                        System.nanoTime() - start);
+            }
+            size = reader.readData(entry, crc, null);
+            if (size != entry.getSize()) {
+                return new Result(entry, "Size mismatch, expected " + entry.getSize() + " bytes but found " + size
+                        + " bytes.", System.nanoTime() - start);
+            }
+            if (crc.getValue() != entry.getCrc()) {
+                return new Result(entry, String.format("CRC mismatch, expected %08x but found %08x.", entry.getCrc(),
+                        crc.getValue()), System.nanoTime() - start);
+            }
+            return new Result(entry, null, System.nanoTime() - start);
+        } catch (IOException | DataFormatException e) {
+            return new Result(entry, e.getClass().getSimpleName() + ": " + e.getMessage(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The verification result of a single entry.
+     */
+    public static class Result {
+        private final SduEntry entry;
+        private final String error;
+        private final long nanos;
+
+        Result(SduEntry entry, String error, long nanos) {
+            this.entry = entry;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        public SduEntry getEntry() {
+            return entry;
+        }
+
+        public boolean isValid() {
+            return error == null;
+        }
+
+        /**
+         * @return The reason the entry is invalid, {@code null} if valid.
+         */
+        public String getError() {
+            return error;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
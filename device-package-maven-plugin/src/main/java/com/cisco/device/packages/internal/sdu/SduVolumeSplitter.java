@@ -0,0 +1,440 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.plugin.BoundedExecutor;
+
+/**
+ * Splits an SDU into volumes no larger than a maximum size, so large SDUs can
+ * be uploaded and staged in parallel. Packages are assigned to volumes in load
+ * order, so every volume holds a contiguous range of the
+ * {@code devicePackageN} entries, followed by the packages outside of the load
+ * order. A package is never split across volumes, a package larger than the
+ * maximum size gets a volume of its own.<br>
+ * <br>
+ * Each volume carries its own manifest, with the {@code devicePackageN}
+ * entries of its packages keeping their global index, and the volume
+ * attributes {@value #SDU_MANIFEST_ATTR_VOLUME},
+ * {@value #SDU_MANIFEST_ATTR_VOLUMES} and
+ * {@value #SDU_MANIFEST_ATTR_VOLUME_FIRST}. Entries are copied as is from the
+ * source SDU, and the volumes are written concurrently.
+ *
+ * @author danijoh2
+ */
+public class SduVolumeSplitter {
+
+    /**
+     * The number of the volume, starting at 1.
+     */
+    public static final String SDU_MANIFEST_ATTR_VOLUME = "xmp_volume"; // $NON-NLS-1$
+
+    /**
+     * The total number of volumes.
+     */
+    public static final String SDU_MANIFEST_ATTR_VOLUMES = "xmp_volumes"; // $NON-NLS-1$
+
+    /**
+     * The {@code N} of the first {@code devicePackageN} entry of the volume.
+     */
+    public static final String SDU_MANIFEST_ATTR_VOLUME_FIRST = "xmp_volume_first"; // $NON-NLS-1$
+
+    private static final String VOLUME_SUFFIX = "-vol"; // $NON-NLS-1$
+    private static final String VERSION_PATH = "version.txt"; // $NON-NLS-1$
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+    /**
+     * An upper bound of the local header, central directory record and parent
+     * directories written for an entry, on top of its data and name.
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final SduReader reader;
+    private final long maxSize;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+    private Log log;
+    private List<Volume> volumes;
+
+    /**
+     * @param reader
+     *            - The SDU to split.
+     * @param maxSize
+     *            - The maximum size of a volume, in bytes.
+     */
+    public SduVolumeSplitter(SduReader reader, long maxSize) {
+        this.reader = reader;
+        this.maxSize = maxSize;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param executor
+     *            - The executor running the volume writes, see
+     *            {@link BoundedExecutor#forBatch}.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void setLog(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Parses a size in bytes, optionally followed by a {@code k}, {@code m} or
+     * {@code g} unit, case insensitive.
+     *
+     * @throws IllegalArgumentException
+     *             - If the size is not valid.
+     */
+    public static long parseSize(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("No SDU volume size given.");
+        }
+        String size = value.trim().toLowerCase(Locale.ENGLISH);
+        long unit = 1;
+        if (size.endsWith("k")) { // $NON-NLS-1$
+            unit = 1024L;
+        } else if (size.endsWith("m")) { // $NON-NLS-1$
+            unit = 1024L * 1024;
+        } else if (size.endsWith("g")) { // $NON-NLS-1$
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            size = size.substring(0, size.length() - 1).trim();
+        }
+        try {
+            long result = Long.parseLong(size) * unit;
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(
+                "Invalid SDU volume size '" + value + "', expected a positive number of bytes, or of k, m or g bytes.");
+    }
+
+    /**
+     * @return The {@code N} of the first {@code devicePackageN} entry of the
+     *         manifest, which is only greater than zero for a volume.
+     */
+    public static int getFirstLoadOrder(Manifest mf) {
+        String first = mf == null ? null : mf.getMainAttributes().getValue(SDU_MANIFEST_ATTR_VOLUME_FIRST);
+        if (first != null) {
+            try {
+                return Integer.parseInt(first.trim());
+            } catch (NumberFormatException e) {
+                // Not a volume written by this plugin
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The file of a volume, {@code <name>-vol<volume>.sdu} next to the
+     *         SDU.
+     */
+    public static File getVolumeFile(File sdu, int volume) {
+        String name = sdu.getName();
+        String ext = PackagingConstants.DOT + PackagingConstants.SDU_EXT;
+        if (name.endsWith(ext)) {
+            name = name.substring(0, name.length() - ext.length());
+        }
+        return new File(sdu.getParentFile(), name + VOLUME_SUFFIX + volume + ext);
+    }
+
+    /**
+     * @return The classifier of a volume, {@code vol<volume>}, prefixed by the
+     *         classifier of the SDU if any.
+     */
+    public static String getVolumeClassifier(String classifier, int volume) {
+        String suffix = VOLUME_SUFFIX.substring(1) + volume;
+        return classifier == null ? suffix : classifier + VOLUME_SUFFIX.charAt(0) + suffix;
+    }
+
+    /**
+     * @return {@code true} if the SDU is larger than the maximum volume size,
+     *         and its packages can be split into more than one volume.
+     */
+    public boolean needsSplit() throws IOException {
+        if (reader.getFile().length() <= maxSize) {
+            return false;
+        }
+        if (volumes == null) {
+            volumes = plan(getManifest());
+        }
+        return volumes.size() > 1;
+    }
+
+    /**
+     * Writes the volumes next to the SDU. The SDU itself is left untouched.
+     *
+     * @return The volume files, in volume order.
+     * @throws IOException
+     *             - If the SDU cannot be read or a volume cannot be written.
+     */
+    public List<File> split() throws IOException {
+        Manifest mf = getManifest();
+        byte[] version = null;
+        if (reader.getVersion() != null) {
+            version = reader.getVersion().getBytes(UTF_8);
+        }
+
+        if (volumes == null) {
+            volumes = plan(mf);
+        }
+        info("Splitting " + reader.getFile().getName() + " into " + volumes.size() + " volume(s) of at most "
+                + maxSize + " bytes.");
+
+        BoundedExecutor pool = BoundedExecutor.forBatch(executor, Math.min(threads, volumes.size()));
+        List<Future<File>> futures = new ArrayList<Future<File>>();
+        try {
+            for (Volume volume : volumes) {
+                final byte[] versionText = version;
+                futures.add(pool.submit(() -> write(mf, versionText, volume, volumes.size())));
+            }
+            List<File> files = new ArrayList<File>();
+            for (Future<File> future : futures) {
+                files.add(future.get());
+            }
+            return files;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while splitting " + reader.getFile());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to split " + reader.getFile(), e.getCause());
+        } finally {
+            pool.release();
+        }
+    }
+
+    private Manifest getManifest() throws IOException {
+        Manifest mf = reader.getManifest();
+        if (mf == null) {
+            throw new IOException("SDU is missing MANIFEST: " + reader.getFile().getAbsolutePath() + ".");
+        }
+        return mf;
+    }
+
+    /**
+     * Assigns the load order entries and packages of the SDU to volumes.
+     */
+    private List<Volume> plan(Manifest mf) throws IOException {
+        Map<Integer, SduPackage> ordered = new HashMap<Integer, SduPackage>();
+        List<SduPackage> unordered = new ArrayList<SduPackage>();
+        for (SduPackage sduPackage : reader.getPackages()) {
+            if (sduPackage.getLoadOrder() == SduPackage.NO_LOAD_ORDER) {
+                unordered.add(sduPackage);
+            } else {
+                ordered.put(sduPackage.getLoadOrder(), sduPackage);
+            }
+        }
+
+        // Anything else than the packages and the generated entries goes into
+        // the first volume
+        Set<String> packagePaths = new HashSet<String>();
+        for (SduPackage sduPackage : reader.getPackages()) {
+            packagePaths.add(sduPackage.getPath());
+        }
+        List<SduEntry> others = new ArrayList<SduEntry>();
+        for (SduEntry entry : reader.getEntries()) {
+            if (!entry.isDirectory() && !packagePaths.contains(entry.getName())
+                    && !JarFile.MANIFEST_NAME.equals(entry.getName())
+                    && !SduIndex.SDU_INDEX_PATH.equals(entry.getName()) && !VERSION_PATH.equals(entry.getName())) {
+                others.add(entry);
+            }
+        }
+
+        long overhead = getVolumeOverhead();
+        List<Volume> volumes = new ArrayList<Volume>();
+        Volume volume = new Volume(1, overhead);
+        volumes.add(volume);
+        for (SduEntry entry : others) {
+            volume.add(entry, null);
+        }
+
+        int first = getFirstLoadOrder(mf);
+        Map<String, Attributes> entries = mf.getEntries();
+        int count = first;
+        while (entries.containsKey(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + count)) {
+            SduPackage sduPackage = ordered.get(count);
+            if (sduPackage != null) {
+                volume = fit(volumes, volume, getSize(sduPackage.getEntry()), overhead);
+                volume.add(sduPackage.getEntry(), sduPackage);
+            }
+            volume.addLoadOrder(count);
+            count++;
+        }
+        for (SduPackage sduPackage : unordered) {
+            volume = fit(volumes, volume, getSize(sduPackage.getEntry()), overhead);
+            volume.add(sduPackage.getEntry(), sduPackage);
+        }
+        return volumes;
+    }
+
+    /**
+     * @return The size planned for the entries every volume repeats: the
+     *         manifest, version and index, the ones of the SDU being an upper
+     *         bound.
+     */
+    long getVolumeOverhead() {
+        long overhead = ENTRY_OVERHEAD * 3L;
+        for (String name : new String[] { JarFile.MANIFEST_NAME, SduIndex.SDU_INDEX_PATH, VERSION_PATH }) {
+            SduEntry entry = reader.getEntry(name);
+            overhead += entry == null ? 0 : entry.getSize();
+        }
+        return overhead + ENTRY_OVERHEAD * 2L; // Manifest volume attributes
+    }
+
+    /**
+     * @return The current volume if the entry fits, a new volume otherwise.
+     */
+    private Volume fit(List<Volume> volumes, Volume volume, long size, long overhead) {
+        if (volume.size + size <= maxSize || volume.isEmpty()) {
+            if (volume.isEmpty() && volume.size + size > maxSize) {
+                warn("A package of " + size + " bytes exceeds the maximum volume size of " + maxSize
+                        + " bytes, it is written to volume " + volume.number + " on its own.");
+            }
+            return volume;
+        }
+        Volume next = new Volume(volume.number + 1, overhead);
+        volumes.add(next);
+        return fit(volumes, next, size, overhead);
+    }
+
+    /**
+     * @return The size planned for an entry copied to a volume.
+     */
+    static long getSize(SduEntry entry) {
+        return entry.getCompressedSize() + entry.getName().length() * 2L + ENTRY_OVERHEAD;
+    }
+
+    private File write(Manifest mf, byte[] version, Volume volume, int count) throws IOException {
+        Manifest volumeManifest = new Manifest();
+        volumeManifest.getMainAttributes().putAll(mf.getMainAttributes());
+        volumeManifest.getMainAttributes().putValue(SDU_MANIFEST_ATTR_VOLUME, String.valueOf(volume.number));
+        volumeManifest.getMainAttributes().putValue(SDU_MANIFEST_ATTR_VOLUMES, String.valueOf(count));
+        SduIndex index = new SduIndex();
+        if (!volume.loadOrders.isEmpty()) {
+            volumeManifest.getMainAttributes().putValue(SDU_MANIFEST_ATTR_VOLUME_FIRST,
+                    String.valueOf(volume.loadOrders.get(0)));
+            for (Integer loadOrder : volume.loadOrders) {
+                String name = SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + loadOrder;
+                volumeManifest.getEntries().put(name, new Attributes(mf.getEntries().get(name)));
+            }
+        } else {
+            // Only packages outside of the load order, start past its end
+            volumeManifest.getMainAttributes().putValue(SDU_MANIFEST_ATTR_VOLUME_FIRST,
+                    String.valueOf(getFirstLoadOrder(mf) + countLoadOrder(mf)));
+        }
+        for (SduPackage sduPackage : volume.packages) {
+            index.add(sduPackage.getLoadOrder(), sduPackage.getGroupId(), sduPackage.getArtifactId(),
+                    sduPackage.getVersion(), sduPackage.getType(), sduPackage.getPath());
+        }
+
+        File file = getVolumeFile(reader.getFile(), volume.number);
+        try (SduWriter writer = new SduWriter(file)) {
+            // The volumes keep the times of the SDU, so splitting a
+            // reproducible SDU gives reproducible volumes
+            SduEntry manifestEntry = reader.getEntry(JarFile.MANIFEST_NAME);
+            if (manifestEntry != null) {
+                writer.setTime(manifestEntry);
+            }
+            writer.putManifest(volumeManifest);
+            if (version != null) {
+                writer.putStored(VERSION_PATH, version);
+            }
+            writer.putStored(SduIndex.SDU_INDEX_PATH, index.toBytes());
+            for (SduEntry entry : volume.entries) {
+                writer.putRaw(entry.getName(), reader, entry);
+            }
+        }
+        info("Volume " + volume.number + ": " + file.getName() + ", " + volume.packages.size() + " package(s), "
+                + file.length() + " bytes.");
+        return file;
+    }
+
+    private static int countLoadOrder(Manifest mf) {
+        int first = getFirstLoadOrder(mf);
+        int count = 0;
+        while (mf.getEntries().containsKey(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + (first + count))) {
+            count++;
+        }
+        return count;
+    }
+
+    private void info(String msg) {
+        if (log != null) {
+            log.info(msg);
+        }
+    }
+
+    private void warn(String msg) {
+        if (log != null) {
+            log.warn(msg);
+        }
+    }
+
+    /**
+     * The entries and load order range assigned to a volume.
+     */
+    private static class Volume {
+        final int number;
+        final List<SduEntry> entries = new ArrayList<SduEntry>();
+        final List<SduPackage> packages = new ArrayList<SduPackage>();
+        final List<Integer> loadOrders = new ArrayList<Integer>();
+        long size;
+
+        Volume(int number, long overhead) {
+            this.number = number;
+            this.size = overhead;
+        }
+
+        void add(SduEntry entry, SduPackage sduPackage) {
+            entries.add(entry);
+            if (sduPackage != null) {
+                packages.add(sduPackage);
+            }
+            size += getSize(entry);
+        }
+
+        void addLoadOrder(int loadOrder) {
+            loadOrders.add(loadOrder);
+        }
+
+        boolean isEmpty() {
+            return packages.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,862 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes SDU files. Device packages are read once, in blocks, by a pool of
+ * worker threads which checksum and optionally deflate each block, while the
+ * calling thread writes the finished blocks to the SDU in order. Deflated
+ * blocks of the same entry are joined into a single standard DEFLATE stream:
+ * every block but the last ends on a byte boundary with a sync flush, and is
+ * primed with the last 32KB of the previous block to keep the compression
+ * ratio close to single threaded compression. The CRC of each block is
+ * combined into the CRC of the entry, and the local file header is patched
+ * once the entry is complete.<br>
+ * <br>
+ * The resulting SDU is a plain ZIP archive, using ZIP64 extensions only when
+ * required, readable by {@link java.util.zip}.
+ *
+ * @author danijoh2
+ */
+public class SduWriter implements Closeable {
+
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int ZIP64_EXTRA_SIZE = 16;
+
+    private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int SAMPLE_SIZE = 256 * 1024;
+
+    /**
+     * Packages sampled to compress to more than this ratio are stored when
+     * using {@link SduCompression#AUTO}.
+     */
+    private static final double AUTO_MAX_RATIO = 0.9;
+
+    /**
+     * Entries at least this large always get a ZIP64 local header, as the
+     * compressed size is not known when the header is written.
+     */
+    private static final long ZIP64_THRESHOLD = 0xF0000000L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+    private static final String JAR_SEPARATOR = "/"; // $NON-NLS-1$
+
+    private final File file;
+    private final FileChannel channel;
+    private final List<SduEntry> entries = new ArrayList<SduEntry>();
+    private final Set<String> names = new HashSet<String>();
+
+    private int dosTime = toDosTime(System.currentTimeMillis());
+    private boolean fileTimes;
+    private SduCompression compression = SduCompression.STORED;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private ExecutorService executor;
+    private long zip64Limit = SduReader.ZIP64_MAGIC;
+
+    public SduWriter(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setCompression(SduCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @param level
+     *            - The deflate level, 0-9, or -1 for the default level.
+     */
+    public void setCompressionLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * @param threads
+     *            - The number of worker threads used to read and compress
+     *            packages, when no executor is given.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param executor
+     *            - The executor running the workers, which is not shut down
+     *            by this writer. When not set, a pool of {@link #setThreads
+     *            threads} is created for each call to {@link #putFiles}.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param blockSize
+     *            - The size of the blocks packages are split into.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param time
+     *            - The modification time recorded for all following entries.
+     */
+    public void setTime(long time) {
+        this.dosTime = toDosTime(time);
+    }
+
+    /**
+     * Records the modification time of an entry of another SDU for all
+     * following entries.
+     */
+    void setTime(SduEntry entry) {
+        this.dosTime = entry.getDosTime();
+    }
+
+    /**
+     * @param fileTimes
+     *            - Whether entries written from files record the modification
+     *            time of their file, rather than the time set with
+     *            {@link #setTime}. Off by default.
+     */
+    public void setFileTimes(boolean fileTimes) {
+        this.fileTimes = fileTimes;
+    }
+
+    /**
+     * @param zip64Limit
+     *            - The sizes and offsets from which ZIP64 records are written,
+     *            lowered by tests to write them in small archives.
+     */
+    void setZip64Limit(long zip64Limit) {
+        this.zip64Limit = zip64Limit;
+    }
+
+    /**
+     * @return The entries written so far.
+     */
+    public List<SduEntry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Writes the manifest. Should be called first, as
+     * {@link java.util.jar.JarInputStream} expects the manifest to be one of
+     * the first entries.
+     */
+    public void putManifest(Manifest mf) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mf.write(out);
+        putStored(JarFile.MANIFEST_NAME, out.toByteArray());
+    }
+
+    /**
+     * Writes an entry stored as is.
+     */
+    public void putStored(String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        createParents(name);
+        long offset = channel.position();
+        writeLocalHeader(name, ZipEntry.STORED, crc.getValue(), data.length, data.length, false, dosTime);
+        writeFully(ByteBuffer.wrap(data));
+        addEntry(new SduEntry(name, ZipEntry.STORED, crc.getValue(), data.length, data.length, offset), dosTime);
+    }
+
+    /**
+     * Writes a directory entry, unless already written.
+     */
+    public void putDirectory(String name) throws IOException {
+        if (!name.endsWith(JAR_SEPARATOR)) {
+            name += JAR_SEPARATOR;
+        }
+        if (!names.add(name)) {
+            return;
+        }
+        createParents(name.substring(0, name.length() - 1));
+        long offset = channel.position();
+        writeLocalHeader(name, ZipEntry.STORED, 0, 0, 0, false, dosTime);
+        addEntry(new SduEntry(name, ZipEntry.STORED, 0, 0, 0, offset), dosTime);
+    }
+
+    /**
+     * Copies an entry of another SDU as is, without decompressing or
+     * checksumming its data again. The entry keeps its modification time.
+     *
+     * @param name
+     *            - The path of the entry in this SDU.
+     * @param source
+     *            - The SDU to copy from.
+     * @param entry
+     *            - The entry of the source SDU.
+     */
+    public void putRaw(String name, SduReader source, SduEntry entry) throws IOException {
+        copyRaw(name, source, entry, entry.getDosTime());
+    }
+
+    /**
+     * Copies an entry of another SDU as is, recording the given modification
+     * time for it.
+     *
+     * @param time
+     *            - The modification time of the entry.
+     * @see #putRaw(String, SduReader, SduEntry)
+     */
+    public void putRaw(String name, SduReader source, SduEntry entry, long time) throws IOException {
+        copyRaw(name, source, entry, toDosTime(time));
+    }
+
+    private void copyRaw(String name, SduReader source, SduEntry entry, int entryTime) throws IOException {
+        createParents(name);
+        long offset = channel.position();
+        boolean zip64 = entry.getSize() >= zip64Limit || entry.getCompressedSize() >= zip64Limit;
+        writeLocalHeader(name, entry.getMethod(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(), zip64,
+                entryTime);
+        transfer(source.getChannel(), source.getDataOffset(entry), entry.getCompressedSize());
+        addEntry(new SduEntry(name, entry.getMethod(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(),
+                offset), entryTime);
+    }
+
+    /**
+     * Appends the entries written by another writer, used as a spool, as is.
+     * The data of the spool is copied by the operating system where possible,
+     * the local headers hold no offsets so they do not need to be rewritten.
+     * The spool must not be closed, as its central directory is not needed,
+     * and should be discarded afterwards.
+     *
+     * @param spool
+     *            - The writer of the spool.
+     * @throws ZipException
+     *             - If the spool has a file entry already in this SDU.
+     */
+    public void putAll(SduWriter spool) throws IOException {
+        long shift = channel.position();
+        transfer(spool.channel, 0, spool.channel.position());
+        for (SduEntry entry : spool.entries) {
+            if (!names.add(entry.getName())) {
+                if (entry.isDirectory()) {
+                    // Already listed, the copied local header is unused
+                    continue;
+                }
+                throw new ZipException("Duplicate entry " + entry.getName() + " in " + file);
+            }
+            addEntry(new SduEntry(entry.getName(), entry.getMethod(), entry.getCrc(), entry.getCompressedSize(),
+                    entry.getSize(), entry.getLocalHeaderOffset() + shift), entry.getDosTime());
+        }
+    }
+
+    /**
+     * Writes files as entries of the SDU, compressed according to the
+     * {@link SduCompression} mode. The parent directories of each entry are
+     * created as needed.
+     *
+     * @param files
+     *            - The files to write, mapped to their path in the SDU, in the
+     *            order to write them.
+     * @return A report of every entry written.
+     * @throws IOException
+     *             - If any file cannot be read, or the SDU cannot be written.
+     */
+    public List<EntryReport> putFiles(Map<File, String> files) throws IOException {
+        return putFiles(files.entrySet().iterator());
+    }
+
+    /**
+     * Writes files as entries of the SDU as they are returned by an iterator,
+     * which may block until the next file is known. Blocks of the files
+     * already returned are read, checksummed and compressed while waiting.
+     *
+     * @param files
+     *            - The files to write, mapped to their path in the SDU.
+     * @return A report of every entry written.
+     * @throws IOException
+     *             - If any file cannot be read, or the SDU cannot be written.
+     * @see #putFiles(Map)
+     */
+    public List<EntryReport> putFiles(Iterator<Map.Entry<File, String>> files) throws IOException {
+        List<EntryReport> reports = new ArrayList<EntryReport>();
+        ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool(Math.max(1, threads));
+        Deque<Block> pending = new ArrayDeque<Block>();
+        List<PendingEntry> opened = new ArrayList<PendingEntry>();
+        int maxPending = Math.max(2, threads * 2);
+        try {
+            while (files.hasNext()) {
+                Map.Entry<File, String> file = files.next();
+                // Write the blocks already processed before starting on the
+                // next file
+                while (!pending.isEmpty() && pending.peek().future.isDone()) {
+                    complete(pending.poll(), reports);
+                }
+                PendingEntry entry = new PendingEntry(file.getValue(), file.getKey());
+                entry.dosTime = fileTimes ? toDosTime(file.getKey().lastModified()) : dosTime;
+                opened.add(entry);
+                entry.method = chooseMethod(entry);
+                int blocks = (int) Math.max(1, (entry.size + blockSize - 1) / blockSize);
+                for (int i = 0; i < blocks; i++) {
+                    while (pending.size() >= maxPending) {
+                        complete(pending.poll(), reports);
+                    }
+                    long offset = (long) i * blockSize;
+                    Block block = new Block(entry, i, i == blocks - 1, offset,
+                            (int) Math.min(blockSize, entry.size - offset));
+                    block.future = pool.submit(() -> process(block));
+                    pending.add(block);
+                }
+            }
+            while (!pending.isEmpty()) {
+                complete(pending.poll(), reports);
+            }
+        } finally {
+            for (Block block : pending) {
+                block.future.cancel(true);
+            }
+            if (executor == null) {
+                pool.shutdownNow();
+            }
+            for (PendingEntry entry : opened) {
+                entry.source.close();
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Writes the central directory and closes the SDU. Has no effect if the SDU
+     * is already closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            writeCentralDirectory();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private int chooseMethod(PendingEntry entry) throws IOException {
+        if (compression == SduCompression.STORED || entry.size == 0) {
+            return ZipEntry.STORED;
+        }
+        if (compression == SduCompression.DEFLATE) {
+            return ZipEntry.DEFLATED;
+        }
+
+        // Estimate the ratio by deflating a sample of the package
+        int length = (int) Math.min(SAMPLE_SIZE, entry.size);
+        byte[] sample = new byte[length];
+        readFully(entry.source, ByteBuffer.wrap(sample), 0);
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] output = new byte[DICTIONARY_SIZE];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(output);
+            }
+            return compressed <= length * AUTO_MAX_RATIO ? ZipEntry.DEFLATED : ZipEntry.STORED;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Runs on a worker thread, reads, checksums, and optionally deflates a
+     * block.
+     */
+    private BlockResult process(Block block) throws IOException {
+        PendingEntry entry = block.entry;
+        int dictionary = entry.method == ZipEntry.DEFLATED ? (int) Math.min(DICTIONARY_SIZE, block.offset) : 0;
+        byte[] input = new byte[dictionary + block.length];
+        readFully(entry.source, ByteBuffer.wrap(input), block.offset - dictionary);
+
+        CRC32 crc = new CRC32();
+        crc.update(input, dictionary, block.length);
+        if (entry.method == ZipEntry.STORED) {
+            return new BlockResult(input, dictionary, block.length, crc.getValue(), block.length);
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary > 0) {
+                deflater.setDictionary(input, 0, dictionary);
+            }
+            deflater.setInput(input, dictionary, block.length);
+            byte[] output = new byte[block.length + block.length / 8 + 64];
+            int length = 0;
+            if (block.last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    length += deflater.deflate(output, length, output.length - length);
+                }
+            } else {
+                // Sync flush ends the block on a byte boundary without marking
+                // the end of the stream, so the next block can be appended
+                do {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+                } while (length == output.length);
+            }
+            return new BlockResult(output, 0, length, crc.getValue(), block.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Runs on the calling thread, writes a finished block to the SDU.
+     */
+    private void complete(Block block, List<EntryReport> reports) throws IOException {
+        BlockResult result;
+        try {
+            result = block.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to write " + block.entry.name + " to " + file, e.getCause());
+        }
+
+        PendingEntry entry = block.entry;
+        if (block.index == 0) {
+            createParents(entry.name);
+            entry.headerOffset = channel.position();
+            entry.zip64 = entry.size >= Math.min(ZIP64_THRESHOLD, zip64Limit);
+            writeLocalHeader(entry.name, entry.method, 0, 0, 0, entry.zip64, entry.dosTime);
+            entry.crc = result.crc;
+        } else {
+            entry.crc = crc32Combine(entry.crc, result.crc, result.inputLength);
+        }
+        writeFully(ByteBuffer.wrap(result.data, result.offset, result.length));
+        entry.compressedSize += result.length;
+
+        if (block.last) {
+            if (entry.method == ZipEntry.DEFLATED && compression == SduCompression.AUTO
+                    && entry.compressedSize >= entry.size) {
+                // Did not compress after all, store it instead
+                channel.truncate(entry.headerOffset);
+                channel.position(entry.headerOffset);
+                entry.method = ZipEntry.STORED;
+                writeLocalHeader(entry.name, entry.method, 0, 0, 0, entry.zip64, entry.dosTime);
+                transfer(entry.source, 0, entry.size);
+                entry.compressedSize = entry.size;
+            }
+            patchLocalHeader(entry);
+            addEntry(new SduEntry(entry.name, entry.method, entry.crc, entry.compressedSize, entry.size,
+                    entry.headerOffset), entry.dosTime);
+            reports.add(new EntryReport(entry.name, entry.method, entry.size, entry.compressedSize,
+                    System.nanoTime() - entry.start));
+            entry.source.close();
+        }
+    }
+
+    private void createParents(String name) throws IOException {
+        int lastSlash = name.lastIndexOf(JAR_SEPARATOR);
+        if (lastSlash > 0) {
+            putDirectory(name.substring(0, lastSlash + 1));
+        }
+    }
+
+    private void addEntry(SduEntry entry, int entryTime) {
+        entry.setDosTime(entryTime);
+        entries.add(entry);
+    }
+
+    private void writeLocalHeader(String name, int method, long crc, long compressedSize, long size, boolean zip64,
+            int entryTime) throws IOException {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(SduReader.LOCAL_HEADER_SIZE + nameBytes.length
+                + (zip64 ? 4 + ZIP64_EXTRA_SIZE : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SduReader.LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) (zip64 ? VERSION_ZIP64 : getVersion(method)));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) method);
+        header.putShort((short) (entryTime & 0xFFFF));
+        header.putShort((short) (entryTime >>> 16));
+        header.putInt((int) crc);
+        header.putInt((int) (zip64 ? SduReader.ZIP64_MAGIC : compressedSize));
+        header.putInt((int) (zip64 ? SduReader.ZIP64_MAGIC : size));
+        header.putShort((short) nameBytes.length);
+        header.putShort((short) (zip64 ? 4 + ZIP64_EXTRA_SIZE : 0));
+        header.put(nameBytes);
+        if (zip64) {
+            header.putShort((short) SduReader.ZIP64_EXTRA_ID);
+            header.putShort((short) ZIP64_EXTRA_SIZE);
+            header.putLong(size);
+            header.putLong(compressedSize);
+        }
+        header.flip();
+        writeFully(header);
+    }
+
+    private void patchLocalHeader(PendingEntry entry) throws IOException {
+        ByteBuffer crc = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        crc.putInt(0, (int) entry.crc);
+        writeFully(crc, entry.headerOffset + 14);
+        if (entry.zip64) {
+            ByteBuffer sizes = ByteBuffer.allocate(ZIP64_EXTRA_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            sizes.putLong(entry.size).putLong(entry.compressedSize).flip();
+            writeFully(sizes, entry.headerOffset + SduReader.LOCAL_HEADER_SIZE
+                    + entry.name.getBytes(UTF_8).length + 4);
+        } else {
+            ByteBuffer sizes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            sizes.putInt((int) entry.compressedSize).putInt((int) entry.size).flip();
+            writeFully(sizes, entry.headerOffset + 18);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralOffset = channel.position();
+        for (SduEntry entry : entries) {
+            byte[] nameBytes = entry.getName().getBytes(UTF_8);
+            boolean zip64Size = entry.getSize() >= zip64Limit || entry.getCompressedSize() >= zip64Limit;
+            boolean zip64Offset = entry.getLocalHeaderOffset() >= zip64Limit;
+            int extraSize = (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0);
+            ByteBuffer header = ByteBuffer
+                    .allocate(SduReader.CENTRAL_HEADER_SIZE + nameBytes.length + (extraSize > 0 ? 4 + extraSize : 0))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int version = extraSize > 0 ? VERSION_ZIP64 : getVersion(entry.getMethod());
+            header.putInt(SduReader.CENTRAL_HEADER_SIGNATURE);
+            header.putShort((short) version);
+            header.putShort((short) version);
+            header.putShort((short) FLAG_UTF8);
+            header.putShort((short) entry.getMethod());
+            header.putShort((short) (entry.getDosTime() & 0xFFFF));
+            header.putShort((short) (entry.getDosTime() >>> 16));
+            header.putInt((int) entry.getCrc());
+            header.putInt((int) (zip64Size ? SduReader.ZIP64_MAGIC : entry.getCompressedSize()));
+            header.putInt((int) (zip64Size ? SduReader.ZIP64_MAGIC : entry.getSize()));
+            header.putShort((short) nameBytes.length);
+            header.putShort((short) (extraSize > 0 ? 4 + extraSize : 0));
+            header.putShort((short) 0); // comment length
+            header.putShort((short) 0); // disk number
+            header.putShort((short) 0); // internal attributes
+            header.putInt(0); // external attributes
+            header.putInt((int) (zip64Offset ? SduReader.ZIP64_MAGIC : entry.getLocalHeaderOffset()));
+            header.put(nameBytes);
+            if (extraSize > 0) {
+                header.putShort((short) SduReader.ZIP64_EXTRA_ID);
+                header.putShort((short) extraSize);
+                if (zip64Size) {
+                    header.putLong(entry.getSize());
+                    header.putLong(entry.getCompressedSize());
+                }
+                if (zip64Offset) {
+                    header.putLong(entry.getLocalHeaderOffset());
+                }
+            }
+            header.flip();
+            writeFully(header);
+        }
+        long centralSize = channel.position() - centralOffset;
+
+        boolean zip64 = entries.size() >= SduReader.ZIP64_MAGIC_COUNT || centralOffset >= zip64Limit
+                || centralSize >= zip64Limit;
+        if (zip64) {
+            long zip64EndOffset = channel.position();
+            ByteBuffer zip64End = ByteBuffer.allocate(SduReader.ZIP64_END_HEADER_SIZE + SduReader.ZIP64_LOCATOR_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            zip64End.putInt(SduReader.ZIP64_END_HEADER_SIGNATURE);
+            zip64End.putLong(SduReader.ZIP64_END_HEADER_SIZE - 12);
+            zip64End.putShort((short) VERSION_ZIP64);
+            zip64End.putShort((short) VERSION_ZIP64);
+            zip64End.putInt(0);
+            zip64End.putInt(0);
+            zip64End.putLong(entries.size());
+            zip64End.putLong(entries.size());
+            zip64End.putLong(centralSize);
+            zip64End.putLong(centralOffset);
+            zip64End.putInt(SduReader.ZIP64_LOCATOR_SIGNATURE);
+            zip64End.putInt(0);
+            zip64End.putLong(zip64EndOffset);
+            zip64End.putInt(1);
+            zip64End.flip();
+            writeFully(zip64End);
+        }
+
+        ByteBuffer end = ByteBuffer.allocate(SduReader.END_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(SduReader.END_HEADER_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(entries.size(), SduReader.ZIP64_MAGIC_COUNT));
+        end.putShort((short) Math.min(entries.size(), SduReader.ZIP64_MAGIC_COUNT));
+        end.putInt((int) (centralSize >= zip64Limit ? SduReader.ZIP64_MAGIC : centralSize));
+        end.putInt((int) (centralOffset >= zip64Limit ? SduReader.ZIP64_MAGIC : centralOffset));
+        end.putShort((short) 0);
+        end.flip();
+        writeFully(end);
+    }
+
+    /**
+     * Copies a region of another file to the end of the SDU, leaving the copy
+     * to the operating system where possible.
+     */
+    private void transfer(FileChannel source, long position, long count) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long copied = source.transferTo(position + transferred, count - transferred, channel);
+            if (copied <= 0 && position + transferred >= source.size()) {
+                throw new EOFException("Unexpected end of file, the file may have changed while being written.");
+            }
+            transferred += copied;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file, the file may have changed while being written.");
+            }
+            position += read;
+        }
+    }
+
+    private static int getVersion(int method) {
+        return method == ZipEntry.DEFLATED ? VERSION_DEFLATED : VERSION_STORED;
+    }
+
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Combines the CRC of two consecutive blocks, as done by zlib's
+     * {@code crc32_combine}.
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // Operator for one zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // Operators for two and four zero bits
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // Apply length2 zeros to crc1
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * A file being written to the SDU.
+     */
+    private static class PendingEntry {
+        final String name;
+        final FileChannel source;
+        final long size;
+        final long start = System.nanoTime();
+        int method;
+        long headerOffset;
+        boolean zip64;
+        int dosTime;
+        long crc;
+        long compressedSize;
+
+        PendingEntry(String name, File file) throws IOException {
+            this.name = name;
+            this.source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.size = source.size();
+        }
+    }
+
+    /**
+     * A block of a file, processed by a worker thread.
+     */
+    private static class Block {
+        final PendingEntry entry;
+        final int index;
+        final boolean last;
+        final long offset;
+        final int length;
+        Future<BlockResult> future;
+
+        Block(PendingEntry entry, int index, boolean last, long offset, int length) {
+            this.entry = entry;
+            this.index = index;
+            this.last = last;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class BlockResult {
+        final byte[] data;
+        final int offset;
+        final int length;
+        final long crc;
+        final long inputLength;
+
+        BlockResult(byte[] data, int offset, int length, long crc, long inputLength) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+            this.inputLength = inputLength;
+        }
+    }
+
+    /**
+     * The size and time trade-off of a single entry.
+     */
+    public static class EntryReport {
+        private final String name;
+        private final int method;
+        private final long size;
+        private final long compressedSize;
+        private final long nanos;
+
+        EntryReport(String name, int method, long size, long compressedSize, long nanos) {
+            this.name = name;
+            this.method = method;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.nanos = nanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDeflated() {
+            return method == ZipEntry.DEFLATED;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return The time from reading the first block of the entry until the
+         *         entry was completely written.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
@@ -8,12 +8,14 @@ package com.cisco.device.packages.mojos;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
 import com.cisco.common.plugin.helpers.ManifestHelper;
+import com.cisco.device.packages.internal.plugin.ManifestService;
 
 /**
  * Ensures the project manifest has an empty line at the end, otherwise certain
@@ -28,8 +30,11 @@ public class CheckManifestMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project}", required = true, readonly = true)
     private MavenProject project;
 
+    @Component
+    private ManifestService manifests;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
-        if (ManifestHelper.fixManifest(project)) {
+        if (manifests.fixManifest(project)) {
             getLog().warn(
                     "Project Manifest file did not have an empty line, which is an expectation of all Manifest files: "
                             + ManifestHelper.getManifest(project).getAbsolutePath()
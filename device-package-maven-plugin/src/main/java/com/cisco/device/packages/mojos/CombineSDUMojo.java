@@ -10,16 +10,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.util.Enumeration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -37,6 +40,11 @@ import org.apache.maven.project.MavenProjectHelper;
 
 import com.cisco.device.packages.constants.PackagingConstants;
 import com.cisco.device.packages.internal.sdu.SduCreator;
+import com.cisco.device.packages.internal.sdu.SduEntry;
+import com.cisco.device.packages.internal.sdu.SduIndex;
+import com.cisco.device.packages.internal.sdu.SduPackage;
+import com.cisco.device.packages.internal.sdu.SduReader;
+import com.cisco.device.packages.internal.sdu.SduVolumeSplitter;
 
 /**
  * Combines one or more Single Deployable Unit (SDU) files built by other
@@ -47,7 +55,12 @@ import com.cisco.device.packages.internal.sdu.SduCreator;
  * requires all project dependencies to be downloaded, and is advised to be
  * configured in a stand-alone project with only SDU dependencies for the best
  * build performance. The resulting SDU file will be attached to the project
- * using the SDU classifier/extension.
+ * using the SDU classifier/extension.<br>
+ * <br>
+ * SDU dependencies are read directly from the local repository, so there is no
+ * need to copy them into the build directory first. Any SDU files found in the
+ * {@link #sduDirectory} are combined as well, for projects still using the
+ * {@code maven-dependency-plugin:copy-dependencies} goal.
  *
  * @author Daniel Johnson - danijoh2@cisco.com
  * @since 1.0.0
@@ -68,11 +81,21 @@ public class CombineSDUMojo extends AbstractMojo {
     private String sduName;
 
     /**
-     * The name of the resulting SDU file.
+     * An optional directory of additional SDU files to combine, such as the
+     * output of the {@code maven-dependency-plugin:copy-dependencies} goal.
+     * SDU files with the same name as a resolved SDU dependency are ignored.
      */
     @Parameter(defaultValue = "${project.build.directory}/dependency")
     private File sduDirectory;
 
+    /**
+     * Whether or not the {@code sdu} type dependencies of the project should
+     * be combined directly from the local repository. Set to {@code false} to
+     * only combine the SDU files found in the {@link #sduDirectory}.
+     */
+    @Parameter(property = "useDependencyArtifacts", defaultValue = "true")
+    private boolean useDependencyArtifacts;
+
     /**
      * Whether or not the build should fail if the resulting SDU is empty, or no
      * SDU dependencies are found in the project.
@@ -80,8 +103,26 @@ public class CombineSDUMojo extends AbstractMojo {
     @Parameter(defaultValue = "true")
     private boolean failOnEmpty;
 
+    /**
+     * When set, a combined SDU larger than this size is split into volumes of
+     * at most this size, in bytes or with a {@code k}, {@code m} or {@code g}
+     * unit. Volumes hold whole packages in load order, and are attached with a
+     * {@code vol<N>} classifier in place of the SDU.
+     */
+    @Parameter(property = "maxVolumeSize")
+    private String maxVolumeSize;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
 
+        long maxVolumeBytes = 0;
+        if (maxVolumeSize != null) {
+            try {
+                maxVolumeBytes = SduVolumeSplitter.parseSize(maxVolumeSize);
+            } catch (IllegalArgumentException e) {
+                throw new MojoFailureException(e.getMessage(), e);
+            }
+        }
+
         if (CollectionUtils.isEmpty(project.getDependencies())) {
             if (failOnEmpty) {
                 throw new MojoExecutionException(
@@ -93,122 +134,159 @@ public class CombineSDUMojo extends AbstractMojo {
 
         Manifest sduManifest = createProjectManifest();
 
+        File sduFile = new File(project.getBuild().getDirectory() + File.separator + sduName);
         Map<String, Artifact> artifactMap = new HashMap<String, Artifact>();
-        if (sduDirectory.exists()) {
-            for (File sdu : sduDirectory
-                    .listFiles(file -> FilenameUtils.isExtension(file.getName(), PackagingConstants.SDU_EXT))) {
+        List<SduReader> readers = new ArrayList<SduReader>();
+        Throwable failure = null;
+        try {
+            for (File sdu : getSduFiles().values()) {
                 getLog().info("Processing SDU: " + sdu.getAbsolutePath());
-                Manifest manifest = null;
-                try (ZipFile sduZip = new ZipFile(sdu)) {
-                    try {
-                        ZipEntry manifestEntry = sduZip.getEntry("META-INF/MANIFEST.MF");
-                        if (manifestEntry == null) {
-                            throw new MojoExecutionException("SDU is missing MANIFEST: " + sdu.getAbsolutePath() + ".");
-                        }
-                        manifest = new Manifest(sduZip.getInputStream(manifestEntry));
-                    } catch (Exception e) {
-                        throw new MojoExecutionException(
-                                "An error occurred loading MANIFEST from: " + sdu.getAbsolutePath() + ".", e);
-                    }
-                    Map<String, Attributes> entries = manifest.getEntries();
-                    int i = 0;
-                    Attributes attr = entries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i++);
-                    while (attr != null) {
-                        String groupId = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_GROUP_ID);
-                        String artifactId = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_ARTIFACT_ID);
-                        String versionValue = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_VERSION);
-                        attr = entries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i++);
-
-                        ZipEntry entry = sduZip.getEntry(artifactId + PackagingConstants.DASH + versionValue
-                                + PackagingConstants.DOT + PackagingConstants.DAR_EXT);
-                        try {
-                            addArtifactToMap(groupId, artifactId, versionValue, entry, sduZip.getInputStream(entry),
-                                    artifactMap, sduManifest);
-                        } catch (Exception e) {
-                            throw new MojoExecutionException("An error occurred getting input stream from: "
-                                    + sdu.getAbsolutePath() + " for: " + entry.getName() + ".", e);
-                        }
-                    }
-                    ZipEntry entry = null;
-                    Enumeration<? extends ZipEntry> enumerator = sduZip.entries();
-                    while (enumerator.hasMoreElements()) {
-                        entry = enumerator.nextElement();
-                        if (entry.isDirectory()) {
+                SduReader reader;
+                Manifest manifest;
+                try {
+                    reader = new SduReader(sdu);
+                    readers.add(reader);
+                    manifest = reader.getManifest();
+                } catch (Exception e) {
+                    throw new MojoExecutionException(
+                            "An error occurred loading MANIFEST from: " + sdu.getAbsolutePath() + ".", e);
+                }
+                if (manifest == null) {
+                    throw new MojoExecutionException("SDU is missing MANIFEST: " + sdu.getAbsolutePath() + ".");
+                }
+                try {
+                    List<SduPackage> packages = reader.getPackages();
+                    checkLoadOrder(sdu, manifest, packages);
+                    for (SduPackage sduPackage : packages) {
+                        if (sduPackage.getGroupId() == null || sduPackage.getVersion() == null) {
+                            getLog().debug("Ignoring " + sduPackage.getPath() + " of " + sdu.getAbsolutePath()
+                                    + " as it is not listed in the MANIFEST nor stored at an ACPM path.");
                             continue;
                         }
-                        if (entry.getName().endsWith(PackagingConstants.FEATURE_EXT)
-                                || entry.getName().endsWith(PackagingConstants.XDE_EXT)) {
-                            // Split into groupId, artifactId, version
-                            int lastSlash = entry.getName().lastIndexOf('/');
-                            String full = entry.getName().substring(0, lastSlash);
-                            lastSlash = full.lastIndexOf('/');
-                            String versionValue = full.substring(lastSlash + 1);
-                            full = full.substring(0, lastSlash);
-                            lastSlash = full.lastIndexOf('/');
-                            String artifactId = full.substring(lastSlash + 1);
-                            full = full.substring(0, lastSlash);
-                            String groupId = full.replaceAll("/", ".");
-                            try {
-                                addArtifactToMap(groupId, artifactId, versionValue, entry, sduZip.getInputStream(entry),
-                                        artifactMap, sduManifest);
-                            } catch (Exception e) {
-                                throw new MojoExecutionException("An error occurred getting input stream from: "
-                                        + sdu.getAbsolutePath() + " for: " + entry.getName() + ".", e);
-                            }
-                        }
+                        addArtifactToMap(sduPackage, reader, artifactMap, sduManifest);
                     }
+                } catch (MojoExecutionException e) {
+                    throw e;
                 } catch (Exception e) {
-                    throw new MojoExecutionException(
-                            "An error occurred loading MANIFEST from: " + sdu.getAbsolutePath() + ".", e);
+                    throw new MojoExecutionException("An error occurred reading SDU: " + sdu.getAbsolutePath() + ".",
+                            e);
                 }
             }
-        }
 
-        if (artifactMap.isEmpty()) {
-            if (failOnEmpty) {
-                throw new MojoExecutionException("No SDU files were found at " + sduDirectory.getAbsolutePath()
-                        + ". Please ensure the maven-dependencies-plugin is configured with copy-dependencies goal.");
-            } else {
+            if (artifactMap.isEmpty()) {
+                if (failOnEmpty) {
+                    throw new MojoExecutionException(
+                            "No SDU dependencies were resolved for the project, and no SDU files were found at "
+                                    + sduDirectory.getAbsolutePath()
+                                    + ". Please ensure the project declares its SDU dependencies with <type>sdu</type>.");
+                } else {
 
+                }
             }
-        }
 
-        File sduFile = new File(project.getBuild().getDirectory() + File.separator + sduName);
-        try (FileOutputStream rootStream = new FileOutputStream(sduFile)) {
-            try (JarOutputStream sduStream = new JarOutputStream(rootStream, sduManifest)) {
-                // Create versions.txt in SDU
-                String versionText = project.getGroupId() + "." + project.getArtifactId() + "-" + project.getVersion();
-                CRC32 crc = new CRC32();
-                byte[] bytes = versionText.getBytes(Charset.forName("UTF-8"));
-                crc.update(bytes);
-                ZipEntry versionsFile = new ZipEntry("version.txt");
-                versionsFile.setMethod(ZipEntry.STORED);
-                versionsFile.setSize(bytes.length);
-                versionsFile.setCompressedSize(bytes.length);
-                versionsFile.setCrc(crc.getValue());
-                sduStream.putNextEntry(versionsFile);
-                sduStream.write(bytes);
-
-                for (Entry<String, Artifact> artifact : artifactMap.entrySet()) {
-                    ZipEntry newEntry = new ZipEntry(artifact.getValue().entry);
-                    try {
-                        sduStream.putNextEntry(newEntry);
-                        IOUtils.copy(artifact.getValue().stream, sduStream, 1024);
-                    } catch (Exception e) {
-                        getLog().info("Failed to write an entry.", e);
+            try (FileOutputStream rootStream = new FileOutputStream(sduFile)) {
+                try (JarOutputStream sduStream = new JarOutputStream(rootStream, sduManifest)) {
+                    // Create versions.txt in SDU
+                    String versionText = project.getGroupId() + "." + project.getArtifactId() + "-"
+                            + project.getVersion();
+                    writeStoredEntry(sduStream, "version.txt", versionText.getBytes(Charset.forName("UTF-8")));
+                    writeStoredEntry(sduStream, SduIndex.SDU_INDEX_PATH,
+                            createIndex(artifactMap, sduManifest).toBytes());
+
+                    for (Entry<String, Artifact> artifact : artifactMap.entrySet()) {
+                        SduEntry entry = artifact.getValue().sduPackage.getEntry();
+                        ZipEntry newEntry = new ZipEntry(entry.getName());
+                        if (entry.getMethod() == ZipEntry.STORED) {
+                            newEntry.setMethod(ZipEntry.STORED);
+                            newEntry.setSize(entry.getSize());
+                            newEntry.setCompressedSize(entry.getSize());
+                            newEntry.setCrc(entry.getCrc());
+                        }
+                        try {
+                            sduStream.putNextEntry(newEntry);
+                            try (InputStream stream = artifact.getValue().reader.getInputStream(entry)) {
+                                IOUtils.copy(stream, sduStream, 1024);
+                            }
+                        } catch (Exception e) {
+                            getLog().info("Failed to write an entry.", e);
+                        }
                     }
+                } catch (Exception e) {
+                    throw new MojoFailureException("Failed to create new SDU.", e);
                 }
-            } catch (Exception e) {
+            } catch (IOException e) {
                 throw new MojoFailureException("Failed to create new SDU.", e);
             }
-        } catch (IOException e) {
-            throw new MojoFailureException("Failed to create new SDU.", e);
+        } catch (MojoExecutionException | MojoFailureException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            closeReaders(readers, failure);
         }
 
         getLog().info("SDU Created: " + sduFile.getAbsolutePath());
+        if (maxVolumeBytes > 0) {
+            List<File> volumes = null;
+            try (SduReader reader = new SduReader(sduFile)) {
+                SduVolumeSplitter splitter = new SduVolumeSplitter(reader, maxVolumeBytes);
+                splitter.setLog(getLog());
+                if (splitter.needsSplit()) {
+                    volumes = splitter.split();
+                }
+            } catch (IOException e) {
+                throw new MojoFailureException("Failed to split SDU into volumes: " + sduFile.getAbsolutePath() + ".",
+                        e);
+            }
+            if (volumes != null) {
+                // The volumes replace the combined SDU
+                sduFile.delete();
+                for (int i = 0; i < volumes.size(); i++) {
+                    mavenProjectHelper.attachArtifact(project, PackagingConstants.SDU_EXT,
+                            SduVolumeSplitter.getVolumeClassifier(null, i + 1), volumes.get(i));
+                }
+                return;
+            }
+        }
         mavenProjectHelper.attachArtifact(project, PackagingConstants.SDU_EXT, PackagingConstants.SDU_EXT, sduFile);
     }
 
+    /**
+     * Gathers the SDU files to combine, keyed by file name. The resolved
+     * {@code sdu} dependencies of the project are used straight from the local
+     * repository, followed by any other SDU files found in the
+     * {@link #sduDirectory}.
+     *
+     * @return The SDU files to combine, in processing order.
+     */
+    private Map<String, File> getSduFiles() {
+        Map<String, File> sduFiles = new LinkedHashMap<String, File>();
+        if (useDependencyArtifacts) {
+            for (org.apache.maven.artifact.Artifact artifact : project.getArtifacts()) {
+                File file = artifact.getFile();
+                if (file == null || !file.isFile()) {
+                    continue;
+                }
+                if (PackagingConstants.SDU_EXT.equals(artifact.getType())
+                        || FilenameUtils.isExtension(file.getName(), PackagingConstants.SDU_EXT)) {
+                    getLog().debug("Using SDU dependency " + artifact.getId() + " from " + file.getAbsolutePath());
+                    sduFiles.put(file.getName(), file);
+                }
+            }
+        }
+        if (sduDirectory != null && sduDirectory.isDirectory()) {
+            for (File sdu : sduDirectory
+                    .listFiles(file -> FilenameUtils.isExtension(file.getName(), PackagingConstants.SDU_EXT))) {
+                if (sduFiles.containsKey(sdu.getName())) {
+                    getLog().debug("Ignoring " + sdu.getAbsolutePath()
+                            + " as the same SDU was already resolved from the project dependencies.");
+                    continue;
+                }
+                sduFiles.put(sdu.getName(), sdu);
+            }
+        }
+        return sduFiles;
+    }
+
     private Manifest createProjectManifest() {
         Manifest manifest = new Manifest();
         manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
@@ -218,15 +296,95 @@ public class CombineSDUMojo extends AbstractMojo {
         return manifest;
     }
 
+    /**
+     * Ensures every Device Profile listed in the load order of the SDU manifest
+     * is present in the SDU.
+     */
+    private void checkLoadOrder(File sdu, Manifest manifest, List<SduPackage> packages)
+            throws MojoExecutionException {
+        Set<Integer> found = new HashSet<Integer>();
+        for (SduPackage sduPackage : packages) {
+            found.add(sduPackage.getLoadOrder());
+        }
+        Map<String, Attributes> entries = manifest.getEntries();
+        for (int i = SduVolumeSplitter.getFirstLoadOrder(manifest); entries
+                .containsKey(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i); i++) {
+            Attributes attr = entries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + i);
+            String type = attr.getValue(SduCreator.SDU_MANIFEST_ATTR_TYPE);
+            if ((type == null || PackagingConstants.DAR_EXT.equals(type)) && !found.contains(i)) {
+                throw new MojoExecutionException("SDU is missing the Device Profile "
+                        + attr.getValue(SduCreator.SDU_MANIFEST_ATTR_GROUP_ID) + ":"
+                        + attr.getValue(SduCreator.SDU_MANIFEST_ATTR_ARTIFACT_ID) + ":"
+                        + attr.getValue(SduCreator.SDU_MANIFEST_ATTR_VERSION) + " listed in its MANIFEST: "
+                        + sdu.getAbsolutePath() + ".");
+            }
+        }
+    }
+
+    /**
+     * Creates the package index of the combined SDU, using the load order of
+     * the Device Profiles in the combined manifest.
+     */
+    /**
+     * Closes the readers of the combined SDUs. A reader failing to close is
+     * added as suppressed to the failure of the goal, or logged if the goal
+     * succeeded, as the SDUs were only read.
+     */
+    private void closeReaders(List<SduReader> readers, Throwable failure) {
+        for (SduReader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                if (failure != null) {
+                    failure.addSuppressed(e);
+                } else {
+                    getLog().warn("Failed to close SDU " + reader.getFile().getAbsolutePath() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private SduIndex createIndex(Map<String, Artifact> artifactMap, Manifest manifest) {
+        Map<String, Integer> loadOrder = new HashMap<String, Integer>();
+        for (Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+            loadOrder.put(entry.getValue().getValue(SduCreator.SDU_MANIFEST_ATTR_GROUP_ID) + "."
+                    + entry.getValue().getValue(SduCreator.SDU_MANIFEST_ATTR_ARTIFACT_ID),
+                    Integer.valueOf(entry.getKey().substring(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER.length())));
+        }
+        SduIndex index = new SduIndex();
+        for (Entry<String, Artifact> entry : artifactMap.entrySet()) {
+            SduPackage sduPackage = entry.getValue().sduPackage;
+            Integer order = sduPackage.isDeviceProfile() ? loadOrder.get(entry.getKey()) : null;
+            index.add(order == null ? SduPackage.NO_LOAD_ORDER : order, sduPackage.getGroupId(),
+                    sduPackage.getArtifactId(), sduPackage.getVersion(), sduPackage.getType(), sduPackage.getPath());
+        }
+        return index;
+    }
+
+    private void writeStoredEntry(JarOutputStream sduStream, String name, byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        sduStream.putNextEntry(entry);
+        sduStream.write(bytes);
+    }
+
     private int devicePackageCounter = 0;
 
-    private void addArtifactToMap(String groupId, String artifactId, String versionValue, ZipEntry entry,
-            InputStream stream, Map<String, Artifact> artifactMap, Manifest manifest) {
+    private void addArtifactToMap(SduPackage sduPackage, SduReader reader, Map<String, Artifact> artifactMap,
+            Manifest manifest) {
 
-        String key = groupId + "." + artifactId;
+        String groupId = sduPackage.getGroupId();
+        String artifactId = sduPackage.getArtifactId();
+        String versionValue = sduPackage.getVersion();
+        String key = sduPackage.getKey();
         DefaultArtifactVersion versionComparor = new DefaultArtifactVersion(versionValue);
 
-        boolean isDar = entry.getName().endsWith(PackagingConstants.DAR_EXT);
+        boolean isDar = sduPackage.isDeviceProfile();
 
         if (artifactMap.containsKey(key)) {
             DefaultArtifactVersion otherVersionComparor = artifactMap.get(key).version;
@@ -236,7 +394,7 @@ public class CombineSDUMojo extends AbstractMojo {
             }
             if (compared > 0) {
                 getLog().info("Overriding " + otherVersionComparor + " with " + versionComparor + " for " + key);
-                artifactMap.put(key, new Artifact(versionComparor, entry, stream));
+                artifactMap.put(key, new Artifact(versionComparor, reader, sduPackage));
                 if (isDar) {
                     for (Attributes attrs : manifest.getEntries().values()) {
                         if (attrs.getValue(SduCreator.SDU_MANIFEST_ATTR_GROUP_ID).equals(groupId)
@@ -251,7 +409,7 @@ public class CombineSDUMojo extends AbstractMojo {
                 return;
             }
         } else {
-            artifactMap.put(key, new Artifact(versionComparor, entry, stream));
+            artifactMap.put(key, new Artifact(versionComparor, reader, sduPackage));
             if (isDar) {
                 Attributes attrs = new Attributes();
                 attrs.putValue(SduCreator.SDU_MANIFEST_ATTR_GROUP_ID, groupId);
@@ -262,15 +420,20 @@ public class CombineSDUMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * A package selected for the combined SDU. Only the reader of the source
+     * SDU and the package are kept, the payload is streamed when the combined
+     * SDU is written.
+     */
     protected class Artifact {
         DefaultArtifactVersion version;
-        ZipEntry entry;
-        InputStream stream;
+        SduReader reader;
+        SduPackage sduPackage;
 
-        public Artifact(DefaultArtifactVersion version, ZipEntry entry, InputStream stream) {
+        public Artifact(DefaultArtifactVersion version, SduReader reader, SduPackage sduPackage) {
             this.version = version;
-            this.entry = entry;
-            this.stream = stream;
+            this.reader = reader;
+            this.sduPackage = sduPackage;
         }
     }
 }
@@ -5,17 +5,28 @@
  *****************************************************************************/
 package com.cisco.device.packages.mojos;
 
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Build;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.Plugin;
@@ -35,8 +46,10 @@ import org.apache.maven.project.MavenProjectHelper;
 import org.twdata.maven.mojoexecutor.MojoExecutor;
 
 import com.cisco.common.constructs.Node;
+import com.cisco.common.plugin.helpers.FileHelper;
 import com.cisco.device.packages.constants.PackagingConstants;
 import com.cisco.device.packages.internal.plugin.DevicePackagePluginInfo;
+import com.cisco.device.packages.internal.plugin.PluginExecutor;
 import com.cisco.device.packages.internal.plugin.ReactorHierarchyTree;
 
 /**
@@ -52,7 +65,11 @@ import com.cisco.device.packages.internal.plugin.ReactorHierarchyTree;
  * </ul>
  * <br>
  * The exact project configuration applied can be tweaked through the various
- * goal parameters.
+ * goal parameters.<br>
+ * <br>
+ * The POM edits are computed concurrently, and a POM is only written, through
+ * a temporary file moved in place, when its serialized content changes, so
+ * configuring an already configured reactor leaves every POM untouched.
  *
  * @author danijoh2
  * @since 1.0.0
@@ -75,6 +92,12 @@ public class ConfigurePluginMojo extends AbstractMojo {
     @Component
     public MavenProjectHelper mavenProjectHelper;
 
+    @Component
+    private PluginExecutor executors;
+
+    @Parameter(defaultValue = "${session}", required = true, readonly = true)
+    private MavenSession session;
+
     /**
      * The projects in the reactor for aggregation.
      */
@@ -149,8 +172,27 @@ public class ConfigurePluginMojo extends AbstractMojo {
     @Parameter(property = "pluginVersion", required = false)
     private String pluginVersion;
 
-    MavenXpp3Reader reader = new MavenXpp3Reader();
-    MavenXpp3Writer writer = new MavenXpp3Writer();
+    /**
+     * The number of POMs to configure concurrently. Defaults to all threads of
+     * the plugin executor when zero or less.
+     */
+    @Parameter(property = "configureThreads", defaultValue = "0")
+    private int threads;
+
+    /**
+     * The number of threads of the executor shared by the goals of the
+     * plugin, see {@code pluginThreads} of the {@code create-sdu} goal.
+     */
+    @Parameter(property = "pluginThreads", defaultValue = "0")
+    private int pluginThreads;
+
+    /**
+     * The reactor projects whose parent is also in the reactor, mapped to the
+     * parent project.
+     */
+    private final Map<MavenProject, MavenProject> parentsInReactor = new IdentityHashMap<MavenProject, MavenProject>();
+    private int written;
+    private int unchanged;
 
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (StringUtils.isEmpty(pluginVersion)) {
@@ -168,33 +210,90 @@ public class ConfigurePluginMojo extends AbstractMojo {
             getLog().info("Configuring project to use the device-package-maven-plugin...");
         }
 
-        ReactorHierarchyTree parentHierarchy = new ReactorHierarchyTree();
+        // Index the parents once, rather than searching the reactor for each
+        // project
+        Set<MavenProject> reactor = new HashSet<MavenProject>(reactorProjects);
+        Set<MavenProject> reactorIdentities = Collections.newSetFromMap(new IdentityHashMap<MavenProject, Boolean>());
+        reactorIdentities.addAll(reactorProjects);
         for (MavenProject reactorProject : reactorProjects) {
-            configureBuildPlugin(reactorProject, false);
+            if (reactorProject.hasParent() && reactor.contains(reactorProject.getParent())) {
+                parentsInReactor.put(reactorProject, reactorIdentities.contains(reactorProject.getParent())
+                        ? reactorProject.getParent() : null);
+            }
+        }
+
+        ExecutorService executor = executors.getExecutor(session, pluginThreads)
+                .compute(Math.min(threads > 0 ? threads : Integer.MAX_VALUE, reactorProjects.size()));
+        try {
+            configureBuildPlugins(executor, reactorProjects, false);
+
             if (managePluginCentrally) {
-                addParentInfo(reactorProject, parentHierarchy);
+                ReactorHierarchyTree parentHierarchy = new ReactorHierarchyTree();
+                Map<MavenProject, Node<MavenProject>> nodes = new IdentityHashMap<MavenProject, Node<MavenProject>>();
+                for (MavenProject reactorProject : reactorProjects) {
+                    addParentInfo(reactorProject, parentHierarchy, nodes);
+                }
+
+                List<MavenProject> parentRoots = new ArrayList<MavenProject>();
+                Collection<Node<MavenProject>> parentPOMRoots = parentHierarchy.getRoots();
+                for (Node<MavenProject> parentRoot : parentPOMRoots) {
+                    while (parentRoot.hasChildren() && parentRoot.getChildren().size() == 1) {
+                        parentRoot = parentRoot.getChildren().iterator().next();
+                    }
+                    parentRoots.add(parentRoot.getData());
+                }
+                // The parents may have been written above, so are read again
+                configureBuildPlugins(executor, parentRoots, true);
             }
+        } finally {
+            executor.shutdownNow();
         }
 
-        if (managePluginCentrally) {
-            Collection<Node<MavenProject>> parentPOMRoots = parentHierarchy.getRoots();
-            for (Node<MavenProject> parentRoot : parentPOMRoots) {
-                while (parentRoot.hasChildren() && parentRoot.getChildren().size() == 1) {
-                    parentRoot = parentRoot.getChildren().iterator().next();
+        getLog().info(
+                "Updated " + written + " POM(s), skipped " + unchanged + " POM(s) whose configuration did not change.");
+    }
+
+    /**
+     * Computes the edits of the given projects concurrently, then reports and
+     * writes them in the given order.
+     */
+    private void configureBuildPlugins(ExecutorService executor, List<MavenProject> projects,
+            boolean isRootParentPom) throws MojoFailureException {
+        List<Future<PomEdit>> futures = new ArrayList<Future<PomEdit>>(projects.size());
+        for (MavenProject project : projects) {
+            futures.add(executor.submit(() -> configureBuildPlugin(project, isRootParentPom)));
+        }
+        for (Future<PomEdit> future : futures) {
+            PomEdit edit;
+            try {
+                edit = future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof MojoFailureException) {
+                    throw (MojoFailureException) e.getCause();
                 }
-                configureBuildPlugin(parentRoot.getData(), true);
+                throw new MojoFailureException("Failure to configure the reactor: " + e.getCause(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoFailureException("Interrupted while configuring the reactor.", e);
+            }
+            if (edit != null) {
+                edit.apply();
             }
         }
     }
 
-    private void configureBuildPlugin(MavenProject reactorProject, boolean isRootParentPom)
+    /**
+     * @return The edit of the project POM, or {@code null} if the project is
+     *         not one to configure.
+     */
+    private PomEdit configureBuildPlugin(MavenProject reactorProject, boolean isRootParentPom)
             throws MojoFailureException {
 
         boolean isRootAggregator = isRootAggregator(reactorProject);
         boolean isDevicePackageStyleProject = PackagingConstants.ALL_DP_PACKAGING
                 .contains(reactorProject.getPackaging());
         if (!isRootAggregator && !isDevicePackageStyleProject && !isRootParentPom) {
-            return;
+            return null;
         }
         // Even if we don't need to configure it, we still need to look for old
         // config to clean-up
@@ -203,12 +302,17 @@ public class ConfigurePluginMojo extends AbstractMojo {
                 || (isDevicePackageStyleProject && (!isParentInReactor || !executePluginCentrally));
 
         String name = reactorProject.getGroupId() + ":" + reactorProject.getArtifactId();
-        getLog().info("Processing project " + name + "...");
+        PomEdit edit = new PomEdit(reactorProject.getFile());
+        edit.info("Processing project " + name + "...");
 
-        // Read the project model
+        // Read the project model, and serialize it as is, to tell whether the
+        // configuration changes it
         Model model = null;
-        try (FileReader stream = new FileReader(reactorProject.getFile())) {
-            model = reader.read(stream);
+        byte[] original;
+        try {
+            edit.content = Files.readAllBytes(reactorProject.getFile().toPath());
+            model = new MavenXpp3Reader().read(new ByteArrayInputStream(edit.content));
+            original = serialize(model);
         } catch (Exception e) {
             throw new MojoFailureException("Failure to parse POM: " + reactorProject.getFile().getAbsolutePath(), e);
         }
@@ -219,42 +323,42 @@ public class ConfigurePluginMojo extends AbstractMojo {
             // Clean-up any of the old build plugins
             if (CollectionUtils.emptyIfNull(build.getPlugins()).removeIf(p -> "com.cisco.xmp.sdk".equals(p.getGroupId())
                     && OLD_PLUGIN_ARTIFACT_IDS.contains(p.getArtifactId()))) {
-                getLog().info(INDENT + "Removed stale <build><plugins> configuration.");
+                edit.info(INDENT + "Removed stale <build><plugins> configuration.");
             }
             if (build.getPluginManagement() != null) {
                 if (CollectionUtils.emptyIfNull(build.getPluginManagement().getPlugins())
                         .removeIf(p -> "com.cisco.xmp.sdk".equals(p.getGroupId())
                                 && OLD_PLUGIN_ARTIFACT_IDS.contains(p.getArtifactId()))) {
-                    getLog().info(INDENT + "Removed stale <build><pluginManagement> configuration.");
+                    edit.info(INDENT + "Removed stale <build><pluginManagement> configuration.");
                 }
             }
         } else if (shouldConfigurePlugin) {
-            getLog().info(INDENT + "Build section added.");
+            edit.info(INDENT + "Build section added.");
             build = new Build();
             model.setBuild(build);
         } else {
             // If no build config was cleaned up, and we shouldn't be
             // configuring the plugin, we can return immediately. Otherwise we
             // must always fall through so changes are actually written to disk.
-            return;
+            return edit;
         }
 
         if (shouldConfigurePlugin) {
             if (isRootAggregator || isDevicePackageStyleProject) {
                 // Only configure as a <build><plugins><plugin> in the
                 // aggregator, or device package projects
-                Plugin plugin = findDevicePackagePlugin(build.getPlugins());
+                Plugin plugin = findDevicePackagePlugin(build.getPlugins(), edit);
 
                 if (!isParentInReactor || !managePluginCentrally) {
-                    getLog().info(INDENT + "Configured plugin version as " + pluginVersion);
+                    edit.info(INDENT + "Configured plugin version as " + pluginVersion);
                     plugin.setExtensions(true);
                     plugin.setVersion(StringUtils.trimToNull(pluginVersion));
                     if (perProjectSDU || (isRootAggregator && buildRootSDU)) {
-                        getLog().info(INDENT + "Configured plugin with createSDU=true");
+                        edit.info(INDENT + "Configured plugin with createSDU=true");
                         plugin.setConfiguration(MojoExecutor.configuration(MojoExecutor.element("createSDU", "true")));
                     }
                 } else if (!StringUtils.isEmpty(plugin.getVersion())) {
-                    getLog().info(INDENT
+                    edit.info(INDENT
                             + "Version removed from plugin configuration because it should be managed centrally by the parent POM.");
                     plugin.setVersion(null);
                 }
@@ -267,7 +371,7 @@ public class ConfigurePluginMojo extends AbstractMojo {
                             .filter(ex -> CollectionUtils.emptyIfNull(ex.getGoals()).contains("create-sdu")).findFirst()
                             .orElse(null);
                     if (createSduExecution == null) {
-                        getLog().info(INDENT + "Plugin execution 'create-aggregated-sdu' added.");
+                        edit.info(INDENT + "Plugin execution 'create-aggregated-sdu' added.");
                         createSduExecution = new PluginExecution();
                         createSduExecution.setId("create-aggregated-sdu");
                         createSduExecution.setGoals(Arrays.asList(new String[] { "create-sdu" }));
@@ -282,41 +386,51 @@ public class ConfigurePluginMojo extends AbstractMojo {
                     if (build.getPlugins() == null) {
                         build.setPlugins(new ArrayList<>());
                     }
-                    plugin = findDevicePackagePlugin(build.getPlugins());
+                    plugin = findDevicePackagePlugin(build.getPlugins(), edit);
                 } else {
                     if (build.getPluginManagement() == null) {
                         build.setPluginManagement(new PluginManagement());
                     }
-                    plugin = findDevicePackagePlugin(build.getPluginManagement().getPlugins());
+                    plugin = findDevicePackagePlugin(build.getPluginManagement().getPlugins(), edit);
                 }
                 if (StringUtils.isEmpty(plugin.getVersion())) {
-                    getLog().info(INDENT + "Configured plugin version as " + pluginVersion);
+                    edit.info(INDENT + "Configured plugin version as " + pluginVersion);
                     plugin.setVersion(StringUtils.trimToNull(pluginVersion));
                 }
                 plugin.setExtensions(true);
                 if (perProjectSDU) {
-                    getLog().info(INDENT + "Configured plugin with createSDU=true");
+                    edit.info(INDENT + "Configured plugin with createSDU=true");
                     plugin.setConfiguration(MojoExecutor.configuration(MojoExecutor.element("createSDU", "true")));
                 }
             }
         }
 
-        try (FileWriter stream = new FileWriter(reactorProject.getFile())) {
-            writer.write(stream, model);
+        try {
+            byte[] updated = serialize(model);
+            if (!Arrays.equals(updated, original) && !Arrays.equals(updated, edit.content)) {
+                edit.updated = updated;
+            }
         } catch (IOException e) {
-            getLog().error(e);
+            edit.error = e;
         }
+        return edit;
+    }
+
+    private static byte[] serialize(Model model) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MavenXpp3Writer().write(out, model);
+        return out.toByteArray();
     }
 
-    private Plugin findDevicePackagePlugin(List<Plugin> plugins) {
+    private Plugin findDevicePackagePlugin(List<Plugin> plugins, PomEdit edit) {
         Optional<Plugin> plugin = CollectionUtils.emptyIfNull(plugins).stream()
                 .filter(p -> PLUGIN_GROUP_ID.equals(p.getGroupId()) && PLUGIN_ARTIFACT_ID.equals(p.getArtifactId()))
                 .findFirst();
         if (plugin.isPresent()) {
-            getLog().info(INDENT + "Existing plugin definition found, verifying configuration...");
+            edit.info(INDENT + "Existing plugin definition found, verifying configuration...");
             return plugin.get();
         }
-        getLog().info(INDENT + "Added plugin declaration");
+        edit.info(INDENT + "Added plugin declaration");
         Plugin buildPlugin = new Plugin();
         buildPlugin.setGroupId(PLUGIN_GROUP_ID);
         buildPlugin.setArtifactId(PLUGIN_ARTIFACT_ID);
@@ -325,12 +439,11 @@ public class ConfigurePluginMojo extends AbstractMojo {
     }
 
     private boolean isParentInReactor(MavenProject reactorProject) {
-        return reactorProject.hasParent() && reactorProjects.contains(reactorProject.getParent());
+        return parentsInReactor.containsKey(reactorProject);
     }
 
     private MavenProject getParentInReactor(MavenProject reactorProject) {
-        return !reactorProject.hasParent() ? null
-                : reactorProjects.stream().filter(p -> p == reactorProject.getParent()).findFirst().orElse(null);
+        return parentsInReactor.get(reactorProject);
     }
 
     private boolean isRootAggregator(MavenProject reactorProject) {
@@ -344,20 +457,66 @@ public class ConfigurePluginMojo extends AbstractMojo {
      *
      * @param reactorProject
      * @param parentProjectTree
+     * @param nodes
+     *            - The nodes of the tree, by project.
      * @return
      */
-    private Node<MavenProject> addParentInfo(MavenProject reactorProject, ReactorHierarchyTree parentProjectTree) {
+    private Node<MavenProject> addParentInfo(MavenProject reactorProject, ReactorHierarchyTree parentProjectTree,
+            Map<MavenProject, Node<MavenProject>> nodes) {
 
         MavenProject parentProject = getParentInReactor(reactorProject);
         if (parentProject != null) {
-            Node<MavenProject> parentNode = parentProjectTree.find(parentProject);
+            Node<MavenProject> parentNode = nodes.get(parentProject);
             if (parentNode != null) {
                 return parentNode;
             } else {
-                parentNode = addParentInfo(parentProject, parentProjectTree);
+                parentNode = addParentInfo(parentProject, parentProjectTree, nodes);
             }
-            return parentNode == null ? parentProjectTree.addRoot(parentProject) : parentNode.addChild(parentProject);
+            parentNode = parentNode == null ? parentProjectTree.addRoot(parentProject)
+                    : parentNode.addChild(parentProject);
+            nodes.put(parentProject, parentNode);
+            return parentNode;
         }
         return null;
     }
+
+    /**
+     * The edit of a POM, computed concurrently and applied in reactor order.
+     */
+    private class PomEdit {
+        private final File file;
+        private final List<String> messages = new ArrayList<String>();
+        private byte[] content;
+        private byte[] updated;
+        private IOException error;
+
+        PomEdit(File file) {
+            this.file = file;
+        }
+
+        void info(String message) {
+            messages.add(message);
+        }
+
+        /**
+         * Reports the edit, and writes the POM if its content changed.
+         */
+        void apply() {
+            for (String message : messages) {
+                getLog().info(message);
+            }
+            if (error != null) {
+                getLog().error(error);
+            } else if (updated == null) {
+                unchanged++;
+            } else {
+                try {
+                    FileHelper.write(file, updated);
+                    written++;
+                } catch (IOException e) {
+                    getLog().error(e);
+                }
+            }
+        }
+    }
 }
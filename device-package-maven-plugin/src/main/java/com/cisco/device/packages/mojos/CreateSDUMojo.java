@@ -8,7 +8,17 @@ package com.cisco.device.packages.mojos;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.artifact.Artifact;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Exclusion;
@@ -26,7 +36,15 @@ import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.repository.RemoteRepository;
 
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.plugin.PluginExecutor;
+import com.cisco.device.packages.internal.plugin.SessionExecutor;
+import com.cisco.device.packages.internal.sdu.PackageGraphService;
+import com.cisco.device.packages.internal.sdu.SduCompression;
 import com.cisco.device.packages.internal.sdu.SduCreator;
+import com.cisco.device.packages.internal.sdu.SduLock;
+import com.cisco.device.packages.internal.sdu.SduReader;
+import com.cisco.device.packages.internal.sdu.SduVolumeSplitter;
 
 /**
  * Packages the project and its dependencies into a Single Deployable Unit (SDU)
@@ -50,6 +68,12 @@ public class CreateSDUMojo extends AbstractMojo {
     @Component
     public MavenProjectHelper mavenProjectHelper;
 
+    @Component
+    private PluginExecutor executors;
+
+    @Component
+    private PackageGraphService graphs;
+
     /**
      * The current repository/network configuration of Maven.
      */
@@ -92,6 +116,81 @@ public class CreateSDUMojo extends AbstractMojo {
     @Parameter(property = "includeAll", defaultValue = "true")
     private boolean includeAll;
 
+    /**
+     * How the device packages are compressed in the SDU. One of
+     * {@code stored}, {@code deflate}, or {@code auto}, which only deflates
+     * packages when a sample of the package compresses well. Deflated SDUs are
+     * smaller to transfer, but take longer to build.
+     */
+    @Parameter(property = "compression", defaultValue = "stored")
+    private String compression;
+
+    /**
+     * The deflate level, 0-9, used when compressing packages. Defaults to the
+     * standard zlib level when -1.
+     */
+    @Parameter(property = "compressionLevel", defaultValue = "-1")
+    private int compressionLevel;
+
+    /**
+     * The number of threads used to read and compress packages. Large packages
+     * are split into blocks compressed in parallel. Defaults to all threads of
+     * the plugin executor when zero or less.
+     */
+    @Parameter(property = "compressionThreads", defaultValue = "0")
+    private int compressionThreads;
+
+    /**
+     * The number of threads of the executor running the parallel work of the
+     * plugin, shared by all its goals in the build. When zero or less, defaults
+     * to the degree of concurrency of the build ({@code -T}) when greater than
+     * one, otherwise to the number of available processors. The first goal of
+     * the build configuring {@code pluginThreads} sets the size of the
+     * executor.
+     */
+    @Parameter(property = "pluginThreads", defaultValue = "0")
+    private int pluginThreads;
+
+    /**
+     * Additional SDUs to build from the same resolved dependencies, each with
+     * its own classifier, name, exclusions and {@code includeAll} flag. The
+     * dependencies are resolved once for the main SDU, and all SDUs are then
+     * written concurrently.
+     *
+     * <pre>
+     * &lt;sduVariants&gt;
+     *   &lt;sduVariant&gt;
+     *     &lt;classifier&gt;lab&lt;/classifier&gt;
+     *     &lt;exclusions&gt;com.cisco.customer:*&lt;/exclusions&gt;
+     *   &lt;/sduVariant&gt;
+     * &lt;/sduVariants&gt;
+     * </pre>
+     */
+    @Parameter
+    private List<SduVariant> sduVariants;
+
+    /**
+     * When set, SDUs larger than this size are split into volumes of at most
+     * this size, in bytes or with a {@code k}, {@code m} or {@code g} unit.
+     * Volumes hold whole packages in load order, and are attached with a
+     * {@code vol<N>} classifier in place of the SDU.
+     */
+    @Parameter(property = "maxVolumeSize")
+    private String maxVolumeSize;
+
+    private long maxVolumeBytes;
+
+    /**
+     * The device package lock written by the {@code lock} goal. When the file
+     * exists, the SDU is created from the locked packages and manifest without
+     * resolving the dependencies of the project: the packages not built by the
+     * reactor are fetched from the repository in parallel and must match their
+     * locked checksum. A lock cannot be combined with {@code sduVariants}, as
+     * it only holds the graph of the main SDU.
+     */
+    @Parameter(property = "lockFile", defaultValue = "${project.basedir}/" + SduLock.LOCK_FILE_NAME)
+    private File lockFile;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
 
         if (!createSDU) {
@@ -99,33 +198,170 @@ public class CreateSDUMojo extends AbstractMojo {
             return;
         }
 
+        if (maxVolumeSize != null) {
+            try {
+                maxVolumeBytes = SduVolumeSplitter.parseSize(maxVolumeSize);
+            } catch (IllegalArgumentException e) {
+                throw new MojoFailureException(e.getMessage(), e);
+            }
+        }
+
+        SduCreator sduCreator = createSduCreator(exclusions, includeAll);
+        if (lockFile != null && lockFile.isFile()) {
+            if (sduVariants != null && !sduVariants.isEmpty()) {
+                throw new MojoFailureException("The lock file " + lockFile.getAbsolutePath()
+                        + " only locks the main SDU and cannot be combined with sduVariants. Remove the lock file"
+                        + " or the sduVariants.");
+            }
+            getLog().info("Creating SDU from lock file " + lockFile.getAbsolutePath());
+            try {
+                sduCreator.setLock(SduLock.read(lockFile));
+            } catch (IOException e) {
+                throw new MojoFailureException("Failed to read the lock file " + lockFile + ": " + e.getMessage(), e);
+            }
+        }
+        if (sduVariants == null || sduVariants.isEmpty()) {
+            File sduFile = sduCreator.create();
+            attach(null, sduFile);
+            return;
+        }
+
+        Map<String, Callable<File>> tasks = new LinkedHashMap<String, Callable<File>>();
+        final SduCreator mainCreator = sduCreator;
+        // Resolve the dependencies once, the variants reuse what was resolved
+        // for the main SDU
+        final Set<Artifact> artifacts = sduCreator.resolve();
+        if (artifacts == null) {
+            return;
+        }
+        tasks.put(null, () -> mainCreator.create(artifacts));
+        for (SduVariant variant : sduVariants) {
+            if (StringUtils.isEmpty(variant.getClassifier())) {
+                throw new MojoFailureException("A classifier is required for every SDU variant.");
+            }
+            if (tasks.containsKey(variant.getClassifier())) {
+                throw new MojoFailureException("Duplicate SDU variant classifier: " + variant.getClassifier());
+            }
+            final SduCreator variantCreator = createSduCreator(variant.getExclusions(),
+                    variant.getIncludeAll() == null ? includeAll : variant.getIncludeAll());
+            String name = variant.getName();
+            if (StringUtils.isEmpty(name)) {
+                name = project.getArtifactId() + PackagingConstants.DASH + project.getVersion()
+                        + PackagingConstants.DASH + variant.getClassifier() + PackagingConstants.DOT
+                        + PackagingConstants.SDU_EXT;
+            }
+            variantCreator.setSduName(name);
+            tasks.put(variant.getClassifier(), () -> variantCreator.create());
+        }
+
+        getLog().info("Creating " + tasks.size() + " SDUs: main, " + sduVariants);
+        // The SDUs mostly wait on the shared compression workers, so each runs
+        // on a thread of its own
+        ExecutorService executor = getExecutor().io();
+        Map<String, Future<File>> futures = new LinkedHashMap<String, Future<File>>();
+        try {
+            for (Map.Entry<String, Callable<File>> task : tasks.entrySet()) {
+                futures.put(task.getKey(), executor.submit(task.getValue()));
+            }
+            for (Map.Entry<String, Future<File>> future : futures.entrySet()) {
+                attach(future.getKey(), future.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while creating SDUs.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MojoFailureException) {
+                throw (MojoFailureException) e.getCause();
+            } else if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdown();
+            for (Future<File> future : futures.values()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private SduCreator createSduCreator(String exclusions, boolean includeAll) throws MojoFailureException {
         SduCreator sduCreator = new SduCreator(project, session, repoSystem, repoSession, remoteRepos);
         sduCreator.setLog(getLog());
+        sduCreator.setBuildCache(graphs.getCache(session));
         sduCreator.setReactorProjects(reactorProjects);
         sduCreator.setIncludeAllReactorProjects(includeAll);
+        try {
+            sduCreator.setCompression(SduCompression.fromString(compression));
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        }
+        sduCreator.setCompressionLevel(compressionLevel);
+        sduCreator.setThreads(compressionThreads);
+        sduCreator.setExecutor(getExecutor());
         if (exclusions != null) {
-            List<Exclusion> extraExclusions = new ArrayList<Exclusion>();
-            for (String exclusion : exclusions.split(",")) {
-                String[] coords = exclusion.split(":");
-                if (coords.length != 2) {
-                    throw new MojoFailureException(
-                            "Exclusion does not adhere to expected format. Expected: [<groupId>:<artifactId>], found: "
-                                    + exclusion);
-                }
-                Exclusion exclude = new Exclusion();
-                exclude.setGroupId(coords[0]);
-                exclude.setArtifactId(coords[1]);
-                extraExclusions.add(exclude);
+            sduCreator.setExtraExclusions(parseExclusions(exclusions));
+        }
+        return sduCreator;
+    }
+
+    /**
+     * Parses exclusions in
+     * {@code <groupId1>:<artifactId1>,<groupId2>:<artifactId2>,etc.} format.
+     */
+    static List<Exclusion> parseExclusions(String exclusions) throws MojoFailureException {
+        List<Exclusion> extraExclusions = new ArrayList<Exclusion>();
+        for (String exclusion : exclusions.split(",")) {
+            String[] coords = exclusion.split(":");
+            if (coords.length != 2) {
+                throw new MojoFailureException(
+                        "Exclusion does not adhere to expected format. Expected: [<groupId>:<artifactId>], found: "
+                                + exclusion);
             }
-            sduCreator.setExtraExclusions(extraExclusions);
+            Exclusion exclude = new Exclusion();
+            exclude.setGroupId(coords[0]);
+            exclude.setArtifactId(coords[1]);
+            extraExclusions.add(exclude);
         }
+        return extraExclusions;
+    }
 
-        File sduFile = sduCreator.create();
+    private SessionExecutor getExecutor() {
+        return executors.getExecutor(session, pluginThreads);
+    }
+
+    private void attach(String classifier, File sduFile) throws MojoFailureException {
+        if (sduFile == null) {
+            return;
+        }
         try {
             getLog().info("SDU Created: " + sduFile.getCanonicalPath());
+            if (maxVolumeBytes > 0) {
+                List<File> volumes = null;
+                try (SduReader reader = new SduReader(sduFile)) {
+                    SduVolumeSplitter splitter = new SduVolumeSplitter(reader, maxVolumeBytes);
+                    splitter.setLog(getLog());
+                    splitter.setExecutor(getExecutor().io());
+                    if (splitter.needsSplit()) {
+                        volumes = splitter.split();
+                    }
+                }
+                if (volumes != null) {
+                    // The volumes replace the SDU
+                    sduFile.delete();
+                    for (int i = 0; i < volumes.size(); i++) {
+                        mavenProjectHelper.attachArtifact(project, "sdu",
+                                SduVolumeSplitter.getVolumeClassifier(classifier, i + 1), volumes.get(i));
+                    }
+                    return;
+                }
+            }
             // Attach the .sdu to the project in case of install or deploy goal
             // being used
-            mavenProjectHelper.attachArtifact(project, "sdu", "sdu", sduFile);
+            if (classifier == null) {
+                mavenProjectHelper.attachArtifact(project, "sdu", "sdu", sduFile);
+            } else {
+                mavenProjectHelper.attachArtifact(project, "sdu", classifier, sduFile);
+            }
         } catch (IOException e) {
             throw new MojoFailureException(e.getMessage(), e);
         }
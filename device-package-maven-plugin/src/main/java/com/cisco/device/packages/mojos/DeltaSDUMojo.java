@@ -0,0 +1,140 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.sdu.SduDeltaCreator;
+
+/**
+ * Creates a delta Single Deployable Unit (SDU) holding only the device packages
+ * that were added or changed since a baseline SDU. The baseline can be given
+ * as a file, or as Maven coordinates to resolve from the repository. The delta
+ * SDU manifest keeps the full load order of the current SDU, and lists the
+ * unchanged and removed packages, so the delta can be applied on top of a
+ * deployed baseline. The resulting SDU file will be attached to the project
+ * using the {@code delta} classifier.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+@Mojo(name = "delta-sdu", requiresProject = true, defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true)
+public class DeltaSDUMojo extends AbstractMojo {
+
+    private static final String DELTA_CLASSIFIER = "delta"; // $NON-NLS-1$
+
+    @Parameter(defaultValue = "${project}", required = true, readonly = true)
+    private MavenProject project;
+
+    @Component
+    private RepositorySystem repoSystem;
+
+    @Component
+    public MavenProjectHelper mavenProjectHelper;
+
+    /**
+     * The current repository/network configuration of Maven.
+     */
+    @Parameter(property = "repositorySystemSession", readonly = true)
+    private RepositorySystemSession repoSession;
+
+    /**
+     * The project's remote repositories to use for the resolution of the
+     * baseline SDU.
+     */
+    @Parameter(property = "project.remoteProjectRepositories", readonly = true)
+    private List<RemoteRepository> remoteRepos;
+
+    /**
+     * The baseline SDU file to compare against. Takes precedence over
+     * {@link #baseline}.
+     */
+    @Parameter(property = "baselineSdu")
+    private File baselineSdu;
+
+    /**
+     * The baseline SDU to compare against, in
+     * {@code <groupId>:<artifactId>:<version>[:<classifier>]} format. The
+     * classifier defaults to {@code sdu}.
+     */
+    @Parameter(property = "baseline")
+    private String baseline;
+
+    /**
+     * The current SDU, as built by the {@code create-sdu} or
+     * {@code combine-sdu} goals.
+     */
+    @Parameter(property = "currentSdu", defaultValue = "${project.build.directory}/${project.artifactId}-${project.version}.sdu")
+    private File currentSdu;
+
+    /**
+     * The name of the resulting delta SDU file.
+     */
+    @Parameter(property = "deltaSduName", defaultValue = "${project.artifactId}-${project.version}-delta.sdu")
+    private String deltaSduName;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        File baselineFile = getBaselineSdu();
+        getLog().info("Creating delta SDU of " + currentSdu.getAbsolutePath() + " against baseline "
+                + baselineFile.getAbsolutePath());
+
+        SduDeltaCreator deltaCreator = new SduDeltaCreator(baselineFile, currentSdu);
+        deltaCreator.setLog(getLog());
+        File deltaFile = new File(project.getBuild().getDirectory(), deltaSduName);
+        int written = deltaCreator.create(deltaFile);
+
+        getLog().info("Delta SDU Created with " + written + " added or changed package(s): "
+                + deltaFile.getAbsolutePath());
+        mavenProjectHelper.attachArtifact(project, PackagingConstants.SDU_EXT, DELTA_CLASSIFIER, deltaFile);
+    }
+
+    private File getBaselineSdu() throws MojoExecutionException {
+        if (baselineSdu != null) {
+            return baselineSdu;
+        }
+        if (StringUtils.isEmpty(baseline)) {
+            throw new MojoExecutionException(
+                    "No baseline SDU configured. Please set either the baselineSdu or baseline parameter.");
+        }
+
+        String[] coords = baseline.split(PackagingConstants.COLON);
+        if (coords.length != 3 && coords.length != 4) {
+            throw new MojoExecutionException(
+                    "Baseline does not adhere to expected format. Expected: [<groupId>:<artifactId>:<version>[:<classifier>]], found: "
+                            + baseline);
+        }
+        String classifier = coords.length == 4 ? coords[3] : PackagingConstants.SDU_EXT;
+        Artifact artifact = new DefaultArtifact(coords[0], coords[1], classifier, PackagingConstants.SDU_EXT,
+                coords[2]);
+        try {
+            return repoSystem.resolveArtifact(repoSession, new ArtifactRequest(artifact, remoteRepos, null))
+                    .getArtifact().getFile();
+        } catch (ArtifactResolutionException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+}
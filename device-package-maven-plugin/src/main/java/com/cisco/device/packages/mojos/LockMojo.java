@@ -0,0 +1,158 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+
+import com.cisco.device.packages.internal.sdu.PackageGraphService;
+import com.cisco.device.packages.internal.sdu.SduCreator;
+import com.cisco.device.packages.internal.sdu.SduLock;
+
+/**
+ * Locks the device package graph of the SDU of the project. Resolves the
+ * device packages as the {@code create-sdu} goal does, and writes the exact
+ * versions, types, checksums and SDU paths of the packages, the load order of
+ * the SDU manifest and the dependencies left out by exclusions to a
+ * {@code device-packages.lock} file. When the lock file is present,
+ * {@code create-sdu} creates the SDU from the locked packages without
+ * resolving the graph, and every SDU created from the same lock and packages
+ * is identical. With {@code checkLock}, the goal checks the existing lock
+ * file against the graph instead of writing it.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+@Mojo(name = "lock", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true, requiresDependencyCollection = ResolutionScope.COMPILE)
+public class LockMojo extends AbstractMojo {
+
+    @Parameter(defaultValue = "${project}", required = true, readonly = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${session}", required = true, readonly = true)
+    protected MavenSession session;
+
+    @Component
+    private RepositorySystem repoSystem;
+
+    @Component
+    private PackageGraphService graphs;
+
+    /**
+     * The current repository/network configuration of Maven.
+     */
+    @Parameter(property = "repositorySystemSession", readonly = true)
+    private RepositorySystemSession repoSession;
+
+    /**
+     * The project's remote repositories to use for the resolution of plugins
+     * and their dependencies.
+     */
+    @Parameter(property = "project.remotePluginRepositories", readonly = true)
+    private List<RemoteRepository> remoteRepos;
+
+    /**
+     * The projects in the reactor for aggregation.
+     */
+    @Parameter(property = "reactorProjects", readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    /**
+     * List of exclusions to ignore, as for the {@code create-sdu} goal, in
+     * {@code <groupId1>:<artifactId1>,<groupId2>:<artifactId2>,etc.} format.
+     * The SDU must be created with the same exclusions.
+     */
+    @Parameter(property = "exclusions")
+    private String exclusions;
+
+    /**
+     * Whether all downstream device package projects of an aggregator are
+     * included, as for the {@code create-sdu} goal. The SDU must be created
+     * with the same flag.
+     */
+    @Parameter(property = "includeAll", defaultValue = "true")
+    private boolean includeAll;
+
+    /**
+     * The lock file to write.
+     */
+    @Parameter(property = "lockFile", defaultValue = "${project.basedir}/" + SduLock.LOCK_FILE_NAME)
+    private File lockFile;
+
+    /**
+     * Whether to check the lock file against the graph resolved now, instead
+     * of writing it. The goal fails listing every package and manifest entry
+     * whose version changed, that is locked but no longer resolved, or that is
+     * resolved but not locked.
+     */
+    @Parameter(property = "checkLock", defaultValue = "false")
+    private boolean checkLock;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        SduCreator sduCreator = new SduCreator(project, session, repoSystem, repoSession, remoteRepos);
+        sduCreator.setLog(getLog());
+        sduCreator.setBuildCache(graphs.getCache(session));
+        sduCreator.setReactorProjects(reactorProjects);
+        sduCreator.setIncludeAllReactorProjects(includeAll);
+        if (exclusions != null) {
+            sduCreator.setExtraExclusions(CreateSDUMojo.parseExclusions(exclusions));
+        }
+        SduLock lock = sduCreator.lock();
+        if (lock == null) {
+            return;
+        }
+        if (checkLock) {
+            check(lock);
+            return;
+        }
+
+        try {
+            lock.write(lockFile);
+        } catch (IOException e) {
+            throw new MojoFailureException("Failed to write the lock file " + lockFile + ": " + e.getMessage(), e);
+        }
+        getLog().info(String.format("Locked %d device package(s) and %d manifest entries to %s",
+                lock.getPackages().size(), lock.getEntries().size(), lockFile.getAbsolutePath()));
+    }
+
+    private void check(SduLock resolved) throws MojoFailureException {
+        if (!lockFile.isFile()) {
+            throw new MojoFailureException("No lock file to check: " + lockFile.getAbsolutePath());
+        }
+        SduLock locked;
+        try {
+            locked = SduLock.read(lockFile);
+        } catch (IOException e) {
+            throw new MojoFailureException("Failed to read the lock file " + lockFile + ": " + e.getMessage(), e);
+        }
+        List<String> differences = locked.compare(resolved);
+        if (!differences.isEmpty()) {
+            for (String difference : differences) {
+                getLog().error(difference);
+            }
+            throw new MojoFailureException("The device package lock " + lockFile.getAbsolutePath() + " does not match "
+                    + "the resolved graph, " + differences.size() + " difference(s). Run the lock goal again.");
+        }
+        getLog().info(String.format("The device package lock %s matches the resolved graph.",
+                lockFile.getAbsolutePath()));
+    }
+}
@@ -5,24 +5,12 @@
  *****************************************************************************/
 package com.cisco.device.packages.mojos;
 
-import static org.twdata.maven.mojoexecutor.MojoExecutor.artifactId;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.configuration;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.element;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.executeMojo;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.executionEnvironment;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.goal;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.groupId;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.name;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.plugin;
-import static org.twdata.maven.mojoexecutor.MojoExecutor.version;
-
 import java.io.File;
+import java.io.IOException;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
-import org.apache.maven.plugin.BuildPluginManager;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
@@ -31,9 +19,11 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
-import org.codehaus.plexus.util.xml.Xpp3Dom;
 
+import com.cisco.common.plugin.helpers.FileHelper;
 import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.archive.DevicePackageArchiver;
+import com.cisco.device.packages.internal.plugin.ManifestService;
 
 /**
  * Default package goal for Device Package projects (Device Profiles, Network
@@ -41,26 +31,16 @@ import com.cisco.device.packages.constants.PackagingConstants;
  * with the project appropriate file extension expected by suitable
  * platforms.<br>
  * <br>
- * This plugin executes the {@code maven-jar-plugin} directly to handle the bulk
- * of the project packaging, with special configuration to handle using the
- * existing Project Manifest if one is found, instead of having the
- * maven-jar-plugin generate its own:
- *
- * <pre>
- * {@code <configuration>
- *   <archive>
- *     <manifestFile>src/main/resources/META-INF/MANIFEST.MF</manifestFile>
- *   </archive>
- * <configuration>}
- * </pre>
- *
- * If you experience a problem with the way the maven-jar-plugin is packaging
- * the project contents, you can override the version is invoked using the
- * {@link #mavenJarPluginVersion} property. If you have a very special use case,
- * you can explicitly configure the maven-jar-plugin to execute in your POM's
- * {@code <build><plugins>} configuration. If this plugin already sees a main
- * project artifact attached, it will skip execution of the maven-jar-plugin
- * altogether.
+ * The archive is written in process, directly with the project file
+ * extension, using the existing Project Manifest if one is found instead of
+ * generating one. Entries that did not change since the previous archive of
+ * the project are copied from it as is, without being compressed again.<br>
+ * <br>
+ * If you have a very special use case, you can explicitly configure the
+ * maven-jar-plugin to execute in your POM's {@code <build><plugins>}
+ * configuration. If this plugin already sees a main project artifact
+ * attached, it will skip packaging altogether, and only move the artifact to
+ * the project file extension.
  *
  * @author danijoh2
  * @since 1.0.0
@@ -78,7 +58,7 @@ public class ProjectPackagingMojo extends AbstractMojo {
     public MavenProjectHelper helper;
 
     @Component
-    protected BuildPluginManager pluginManager;
+    private ManifestService manifests;
 
     @Parameter(property = "manifest", defaultValue = "${project.build.outputDirectory}/META-INF/MANIFEST.MF")
     private String manifest;
@@ -90,19 +70,12 @@ public class ProjectPackagingMojo extends AbstractMojo {
     private boolean createSDU;
 
     /**
-     * This plugin executes the maven-jar-plugin to do the bulk of the project
-     * packaging, with special configuration to handle using the existing
-     * Project Manifest if one is found, instead of having the maven-jar-plugin
-     * generate its own. If you experience a problem with the plugin you can
-     * override the version that is used with this property.<br>
-     * <br>
-     * If you have a very special use case, you can explicitly configure the
-     * maven-jar-plugin to execute in your POM's {@code <build><plugins>}
-     * configuration. If this plugin already sees a main project artifact
-     * attached, it will skip execution of the maven-jar-plugin altogether.
+     * The time recorded for every entry of the archive, for reproducible
+     * builds, as an ISO 8601 date and time or seconds since the epoch. When
+     * not set, entries record the modification time of their file.
      */
-    @Parameter(property = "mavenJarPluginVersion", defaultValue = "3.0.2")
-    private String mavenJarPluginVersion;
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
 
     public void execute() throws MojoExecutionException, MojoFailureException {
 
@@ -111,30 +84,24 @@ public class ProjectPackagingMojo extends AbstractMojo {
             getLog().info("The project artifact already exists: " + project.getArtifact().getFile().getAbsolutePath()
                     + ", skipping packaging.");
         } else {
-            // @formatter:off
-            Xpp3Dom config = configuration();
-            if (new File(manifest).exists()) {
-                config = configuration(
-                        element(name("archive"), // $NON-NLS-1$
-                                element(name("manifestFile"), manifest) // $NON-NLS-1$
-                        )
-                    );
+            DevicePackageArchiver archiver = new DevicePackageArchiver(project);
+            try {
+                archiver.setTime(DevicePackageArchiver.parseOutputTimestamp(outputTimestamp));
+            } catch (IllegalArgumentException e) {
+                throw new MojoFailureException(e.getMessage(), e);
+            }
+            try {
+                archiver.setManifest(manifests.getManifest(project, new File(manifest)));
+                File archive = archiver.createArchive();
+                project.getArtifact().setFile(archive);
+                getLog().info("Building " + project.getPackaging() + ": " + archive.getAbsolutePath());
+                if (archiver.getReused() > 0) {
+                    getLog().info("Copied " + archiver.getReused() + " unchanged entries from the previous archive.");
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to package the project: " + e.getMessage(), e);
             }
-            executeMojo(
-                    plugin(
-                        groupId("org.apache.maven.plugins"), // $NON-NLS-1$
-                        artifactId("maven-jar-plugin"), // $NON-NLS-1$
-                        version(mavenJarPluginVersion)
-                    ),
-                    goal("jar"), // $NON-NLS-1$
-                    config,
-                    executionEnvironment(
-                        project,
-                        session,
-                        pluginManager
-                    )
-                );
-            // @formatter:on
+            return;
         }
 
         File compiledJar = project.getArtifact().getFile();
@@ -151,10 +118,9 @@ public class ProjectPackagingMojo extends AbstractMojo {
         try {
             getLog().debug("Renaming project artifact to use '" + desiredFileExtension + "' extension: "
                     + renamedFile.getAbsolutePath());
-            FileUtils.copyFile(compiledJar, renamedFile);
+            FileHelper.move(compiledJar, renamedFile);
             project.getArtifact().setFile(renamedFile);
-            compiledJar.delete();
-        } catch (Exception e) {
+        } catch (IOException e) {
             getLog().warn("Failed to rename project artifact file to use '" + desiredFileExtension + "' extension:"
                     + compiledJar.getAbsolutePath());
         }
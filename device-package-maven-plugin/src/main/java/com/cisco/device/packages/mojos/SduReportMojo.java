@@ -0,0 +1,137 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+
+import com.cisco.device.packages.internal.sdu.PackageGraphService;
+import com.cisco.device.packages.internal.sdu.SduCreator;
+import com.cisco.device.packages.internal.sdu.SduSizeReport;
+
+/**
+ * Reports which dependencies the bytes of the SDU of the project come from,
+ * without creating the SDU. For every device package the SDU would include,
+ * the report lists its size, the shortest and all inclusion paths from the
+ * projects of the SDU, and the exclusion that would remove it with the bytes
+ * that would save. The bytes brought in by each direct dependency are summed
+ * up as well. The report is written as JSON, for tooling, and as a text
+ * summary sorted by size.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+@Mojo(name = "sdu-report", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true, requiresDependencyCollection = ResolutionScope.COMPILE, executionStrategy = "once-per-session")
+public class SduReportMojo extends AbstractMojo {
+
+    private static final String REPORT_SUFFIX = "-sdu-report"; // $NON-NLS-1$
+
+    @Parameter(defaultValue = "${project}", required = true, readonly = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${session}", required = true, readonly = true)
+    protected MavenSession session;
+
+    @Component
+    private RepositorySystem repoSystem;
+
+    @Component
+    private PackageGraphService graphs;
+
+    /**
+     * The current repository/network configuration of Maven.
+     */
+    @Parameter(property = "repositorySystemSession", readonly = true)
+    private RepositorySystemSession repoSession;
+
+    /**
+     * The project's remote repositories to use for the resolution of plugins
+     * and their dependencies.
+     */
+    @Parameter(property = "project.remotePluginRepositories", readonly = true)
+    private List<RemoteRepository> remoteRepos;
+
+    /**
+     * The projects in the reactor for aggregation.
+     */
+    @Parameter(property = "reactorProjects", readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    /**
+     * List of exclusions to ignore, as for the {@code create-sdu} goal, in
+     * {@code <groupId1>:<artifactId1>,<groupId2>:<artifactId2>,etc.} format.
+     */
+    @Parameter(property = "exclusions")
+    private String exclusions;
+
+    /**
+     * Whether all downstream device package projects of an aggregator are
+     * included, as for the {@code create-sdu} goal.
+     */
+    @Parameter(property = "includeAll", defaultValue = "true")
+    private boolean includeAll;
+
+    /**
+     * The directory the {@code <artifactId>-<version>-sdu-report.json} and
+     * {@code .txt} reports are written to.
+     */
+    @Parameter(property = "sduReportDirectory", defaultValue = "${project.build.directory}")
+    private File reportDirectory;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        String name = project.getArtifactId() + "-" + project.getVersion();
+        SduSizeReport report = new SduSizeReport(name + ".sdu");
+
+        SduCreator sduCreator = new SduCreator(project, session, repoSystem, repoSession, remoteRepos);
+        sduCreator.setLog(getLog());
+        sduCreator.setBuildCache(graphs.getCache(session));
+        sduCreator.setReactorProjects(reactorProjects);
+        sduCreator.setIncludeAllReactorProjects(includeAll);
+        if (exclusions != null) {
+            sduCreator.setExtraExclusions(CreateSDUMojo.parseExclusions(exclusions));
+        }
+        sduCreator.setSizeReport(report);
+        if (sduCreator.resolve() == null) {
+            return;
+        }
+
+        if (!reportDirectory.exists() && !reportDirectory.mkdirs()) {
+            throw new MojoExecutionException("Failed to create directory " + reportDirectory.getAbsolutePath());
+        }
+        File json = new File(reportDirectory, name + REPORT_SUFFIX + ".json");
+        File text = new File(reportDirectory, name + REPORT_SUFFIX + ".txt");
+        try {
+            report.writeJson(json);
+            report.writeText(text);
+        } catch (IOException e) {
+            throw new MojoFailureException("Failed to write the SDU report: " + e.getMessage(), e);
+        }
+
+        getLog().info(String.format("SDU would hold %,d bytes in %d package(s)", report.getTotalSize(),
+                report.getPackages().size()));
+        for (SduSizeReport.Package sduPackage : report.getPackages().subList(0,
+                Math.min(5, report.getPackages().size()))) {
+            getLog().info(String.format("  %,15d  %s", sduPackage.getSize(), sduPackage.getId()));
+        }
+        getLog().info("SDU report written to " + json.getAbsolutePath() + " and " + text.getName());
+    }
+}
@@ -0,0 +1,76 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+/**
+ * An additional SDU built by the {@code create-sdu} goal from the same
+ * resolved dependencies as the main SDU, configured as an
+ * {@code <sduVariant>} of the {@code <sduVariants>} parameter.
+ *
+ * @author danijoh2
+ */
+public class SduVariant {
+
+    /**
+     * The classifier the SDU is attached with, required.
+     */
+    private String classifier;
+
+    /**
+     * The name of the SDU file, {@code <artifactId>-<version>-<classifier>.sdu}
+     * by default.
+     */
+    private String name;
+
+    /**
+     * Exclusions applied to this SDU, in
+     * {@code <groupId1>:<artifactId1>,<groupId2>:<artifactId2>,etc.} format.
+     * The exclusions of the goal are not inherited.
+     */
+    private String exclusions;
+
+    /**
+     * Overrides the {@code includeAll} flag of the goal for this SDU.
+     */
+    private Boolean includeAll;
+
+    public String getClassifier() {
+        return classifier;
+    }
+
+    public void setClassifier(String classifier) {
+        this.classifier = classifier;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getExclusions() {
+        return exclusions;
+    }
+
+    public void setExclusions(String exclusions) {
+        this.exclusions = exclusions;
+    }
+
+    public Boolean getIncludeAll() {
+        return includeAll;
+    }
+
+    public void setIncludeAll(Boolean includeAll) {
+        this.includeAll = includeAll;
+    }
+
+    @Override
+    public String toString() {
+        return classifier;
+    }
+}
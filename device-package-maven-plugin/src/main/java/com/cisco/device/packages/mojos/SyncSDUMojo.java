@@ -0,0 +1,133 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.cisco.device.packages.internal.plugin.BoundedExecutor;
+import com.cisco.device.packages.internal.plugin.PluginExecutor;
+import com.cisco.device.packages.internal.sdu.SduExtractor;
+import com.cisco.device.packages.internal.sdu.SduReader;
+import com.cisco.device.packages.internal.sdu.SduSynchronizer;
+
+/**
+ * Synchronizes the device packages of a Single Deployable Unit (SDU) into a
+ * local deployment directory, laid out by the ACPM path of each package. Only
+ * new or changed packages, compared by size and CRC, are copied. The load
+ * order of the SDU is then written atomically to
+ * {@code load-order.index}, and the packages and versions no longer in the
+ * SDU are removed. This goal does not require a project.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+@Mojo(name = "sync-sdu", requiresProject = false, threadSafe = true)
+public class SyncSDUMojo extends AbstractMojo {
+
+    /**
+     * The SDU file to synchronize.
+     */
+    @Parameter(property = "sdu", defaultValue = "${project.build.directory}/${project.artifactId}-${project.version}.sdu")
+    private File sdu;
+
+    /**
+     * The deployment directory to synchronize.
+     */
+    @Parameter(property = "syncDirectory", required = true)
+    private File syncDirectory;
+
+    /**
+     * Whether the CRC and size of every copied package are checked against the
+     * central directory of the SDU.
+     */
+    @Parameter(property = "syncVerify", defaultValue = "true")
+    private boolean verify;
+
+    /**
+     * The number of packages to copy concurrently. Defaults to all threads of
+     * the plugin executor when zero or less.
+     */
+    @Parameter(property = "syncThreads", defaultValue = "0")
+    private int threads;
+
+    /**
+     * The number of threads of the executor shared by the goals of the
+     * plugin, see {@code pluginThreads} of the {@code create-sdu} goal.
+     */
+    @Parameter(property = "pluginThreads", defaultValue = "0")
+    private int pluginThreads;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    @Component
+    private PluginExecutor executors;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        if (sdu == null || !sdu.isFile()) {
+            throw new MojoExecutionException("SDU not found: " + (sdu == null ? null : sdu.getAbsolutePath()) + ".");
+        }
+
+        getLog().info("Synchronizing SDU " + sdu.getAbsolutePath() + " to " + syncDirectory.getAbsolutePath());
+        long start = System.nanoTime();
+        SduSynchronizer.Result result;
+        int threadsUsed;
+        try (SduReader reader = new SduReader(sdu)) {
+            SduSynchronizer synchronizer = new SduSynchronizer(reader, syncDirectory);
+            synchronizer.setVerify(verify);
+            BoundedExecutor workers = executors.getExecutor(session, pluginThreads).compute(threads);
+            synchronizer.setThreads(workers.getLimit());
+            synchronizer.setExecutor(workers);
+            threadsUsed = workers.getLimit();
+            result = synchronizer.sync();
+            getLog().debug("Synchronization workers: " + workers.getStats());
+        } catch (IOException e) {
+            throw new MojoExecutionException("An error occurred synchronizing SDU: " + sdu.getAbsolutePath() + ".", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while synchronizing SDU: " + sdu.getAbsolutePath() + ".",
+                    e);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int copied = 0;
+        for (SduExtractor.Result packageResult : result.getPackages()) {
+            switch (packageResult.getStatus()) {
+            case EXTRACTED:
+                getLog().info("  Copied    " + packageResult.getPath());
+                copied++;
+                break;
+            case UNCHANGED:
+                getLog().debug("  Unchanged " + packageResult.getPath());
+                break;
+            default:
+                getLog().error("  FAIL  " + packageResult.getPath() + ": " + packageResult.getError());
+            }
+        }
+        for (String removed : result.getRemoved()) {
+            getLog().info("  Removed   " + removed);
+        }
+
+        if (result.getFailures() > 0) {
+            throw new MojoFailureException("Failed to synchronize SDU " + sdu.getAbsolutePath() + " with "
+                    + result.getFailures() + " error(s), the load order was left unchanged.");
+        }
+        getLog().info(String.format("Copied %d of %d packages and removed %d stale path(s) in %d ms using %d thread(s)",
+                copied, result.getPackages().size(), result.getRemoved().size(),
+                TimeUnit.NANOSECONDS.toMillis(elapsed), threadsUsed));
+    }
+}
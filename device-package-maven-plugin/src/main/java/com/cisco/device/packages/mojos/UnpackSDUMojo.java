@@ -0,0 +1,201 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.cisco.device.packages.internal.plugin.BoundedExecutor;
+import com.cisco.device.packages.internal.plugin.PluginExecutor;
+import com.cisco.device.packages.internal.sdu.SduEntry;
+import com.cisco.device.packages.internal.sdu.SduExtractor;
+import com.cisco.device.packages.internal.sdu.SduPackage;
+import com.cisco.device.packages.internal.sdu.SduReader;
+
+/**
+ * Extracts a Single Deployable Unit (SDU) into a staging directory, as a faster
+ * replacement of {@code unzip}. Entries are extracted in parallel from a memory
+ * mapped SDU, and files already present with the size and CRC of their entry
+ * are skipped, so extracting the SDU of every build only writes the packages
+ * that changed. The extraction can be limited to selected packages, or to the
+ * Device Profiles at the root of the SDU. This goal does not require a
+ * project.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+@Mojo(name = "unpack-sdu", requiresProject = false, threadSafe = true)
+public class UnpackSDUMojo extends AbstractMojo {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    /**
+     * The SDU file to extract.
+     */
+    @Parameter(property = "sdu", defaultValue = "${project.build.directory}/${project.artifactId}-${project.version}.sdu")
+    private File sdu;
+
+    /**
+     * The directory to extract the SDU to.
+     */
+    @Parameter(property = "unpackDirectory", defaultValue = "${project.build.directory}/sdu")
+    private File unpackDirectory;
+
+    /**
+     * Only extract the device packages matching one of these patterns, in
+     * {@code <groupId1>:<artifactId1>,<groupId2>:<artifactId2>,etc.} format,
+     * where {@code *} matches any characters. The other entries of the SDU,
+     * such as its manifest, are always extracted.
+     */
+    @Parameter(property = "unpackPackages")
+    private String packages;
+
+    /**
+     * Only extract the Device Profiles at the root of the SDU, along with the
+     * other entries of the SDU that are not device packages.
+     */
+    @Parameter(property = "unpackDeviceProfiles", defaultValue = "false")
+    private boolean deviceProfilesOnly;
+
+    /**
+     * Whether the CRC and size of every extracted entry are checked against
+     * the central directory of the SDU.
+     */
+    @Parameter(property = "unpackVerify", defaultValue = "true")
+    private boolean verify;
+
+    /**
+     * The number of entries to extract concurrently. Defaults to all threads of
+     * the plugin executor when zero or less.
+     */
+    @Parameter(property = "unpackThreads", defaultValue = "0")
+    private int threads;
+
+    /**
+     * The number of threads of the executor shared by the goals of the
+     * plugin, see {@code pluginThreads} of the {@code create-sdu} goal.
+     */
+    @Parameter(property = "pluginThreads", defaultValue = "0")
+    private int pluginThreads;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    @Component
+    private PluginExecutor executors;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        if (sdu == null || !sdu.isFile()) {
+            throw new MojoExecutionException("SDU not found: " + (sdu == null ? null : sdu.getAbsolutePath()) + ".");
+        }
+
+        getLog().info("Extracting SDU " + sdu.getAbsolutePath() + " to " + unpackDirectory.getAbsolutePath());
+        int errors = 0;
+        try (SduReader reader = new SduReader(sdu)) {
+            Map<SduEntry, String> targets = getTargets(reader);
+            SduExtractor extractor = new SduExtractor(reader, unpackDirectory);
+            extractor.setVerify(verify);
+            BoundedExecutor workers = executors.getExecutor(session, pluginThreads).compute(threads);
+            extractor.setThreads(workers.getLimit());
+            extractor.setExecutor(workers);
+
+            long start = System.nanoTime();
+            List<SduExtractor.Result> results = extractor.extract(targets);
+            long elapsed = System.nanoTime() - start;
+
+            int extracted = 0;
+            long bytes = 0;
+            for (SduExtractor.Result result : results) {
+                switch (result.getStatus()) {
+                case EXTRACTED:
+                    getLog().debug("  Extracted " + result.getPath() + " ("
+                            + TimeUnit.NANOSECONDS.toMillis(result.getNanos()) + " ms)");
+                    extracted++;
+                    bytes += result.getEntry().getSize();
+                    break;
+                case UNCHANGED:
+                    getLog().debug("  Unchanged " + result.getPath());
+                    break;
+                default:
+                    getLog().error("  FAIL  " + result.getPath() + ": " + result.getError());
+                    errors++;
+                }
+            }
+            getLog().info(String.format("Extracted %d of %d entries, %.1f MB in %d ms using %d thread(s)", extracted,
+                    results.size(), bytes / MEGABYTE, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    workers.getLimit()));
+            getLog().debug("Extraction workers: " + workers.getStats());
+        } catch (IOException e) {
+            throw new MojoExecutionException("An error occurred reading SDU: " + sdu.getAbsolutePath() + ".", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while extracting SDU: " + sdu.getAbsolutePath() + ".", e);
+        }
+
+        if (errors > 0) {
+            throw new MojoFailureException(
+                    "Failed to extract SDU " + sdu.getAbsolutePath() + " with " + errors + " error(s).");
+        }
+    }
+
+    /**
+     * Selects the entries to extract, each to its path in the SDU.
+     */
+    private Map<SduEntry, String> getTargets(SduReader reader) throws IOException, MojoFailureException {
+        String[] patterns = packages == null ? null : packages.split(",");
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                if (pattern.split(":").length != 2) {
+                    throw new MojoFailureException(
+                            "Package does not adhere to expected format. Expected: [<groupId>:<artifactId>], found: "
+                                    + pattern);
+                }
+            }
+        }
+
+        Set<SduEntry> skipped = new HashSet<SduEntry>();
+        for (SduPackage sduPackage : reader.getPackages()) {
+            if ((deviceProfilesOnly && !sduPackage.isDeviceProfile())
+                    || (patterns != null && !matches(patterns, sduPackage))) {
+                skipped.add(sduPackage.getEntry());
+            }
+        }
+
+        Map<SduEntry, String> targets = new LinkedHashMap<SduEntry, String>();
+        for (SduEntry entry : reader.getEntries()) {
+            if (!entry.isDirectory() && !skipped.contains(entry)) {
+                targets.put(entry, entry.getName());
+            }
+        }
+        return targets;
+    }
+
+    private static boolean matches(String[] patterns, SduPackage sduPackage) {
+        for (String pattern : patterns) {
+            String[] coords = pattern.trim().split(":");
+            if (sduPackage.getGroupId().matches(coords[0].replace(".", "\\.").replace("*", ".*"))
+                    && sduPackage.getArtifactId().matches(coords[1].replace(".", "\\.").replace("*", ".*"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,201 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.plugin.BoundedExecutor;
+import com.cisco.device.packages.internal.plugin.ManifestService;
+import com.cisco.device.packages.internal.plugin.PluginExecutor;
+import com.cisco.device.packages.internal.plugin.ReactorValidationIndex;
+import com.cisco.device.packages.internal.plugin.RecordingBuildContext;
+
+/**
+ * Validates every Device Package project of the reactor concurrently, as the
+ * {@code validate} goal does for a single project, and then checks the
+ * projects against each other: Device Profiles whose archives would collide
+ * at the root of an SDU, feature overrides that do not match a feature of a
+ * parent Device Profile, and Network Features no Device Profile of the reactor
+ * includes. The problems found are reported as one consolidated list,
+ * ordered by project, once all projects are validated.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+@Mojo(name = "validate-all", aggregator = true, defaultPhase = LifecyclePhase.VALIDATE, threadSafe = true)
+public class ValidateAllMojo extends AbstractMojo {
+
+    /**
+     * The projects in the reactor to validate.
+     */
+    @Parameter(property = "reactorProjects", readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    @Parameter(defaultValue = "${session}", required = true, readonly = true)
+    private MavenSession session;
+
+    @Component
+    private BuildContext buildContext;
+
+    @Component
+    private MavenProjectHelper helper;
+
+    @Component
+    private ManifestService manifests;
+
+    @Component
+    private PluginExecutor executors;
+
+    /**
+     * The number of projects to validate concurrently. Defaults to all threads
+     * of the plugin executor when zero or less.
+     */
+    @Parameter(property = "validateThreads", defaultValue = "0")
+    private int threads;
+
+    /**
+     * The number of threads of the executor shared by the goals of the
+     * plugin, see {@code pluginThreads} of the {@code create-sdu} goal.
+     */
+    @Parameter(property = "pluginThreads", defaultValue = "0")
+    private int pluginThreads;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        List<MavenProject> projects = new ArrayList<MavenProject>();
+        for (MavenProject project : reactorProjects) {
+            if (PackagingConstants.ALL_DP_PACKAGING.contains(project.getPackaging())) {
+                projects.add(project);
+            }
+        }
+        if (projects.isEmpty()) {
+            getLog().warn("No Device Package projects found in the reactor, nothing to validate.");
+            return;
+        }
+
+        long start = System.nanoTime();
+        ReactorValidationIndex index = new ReactorValidationIndex(projects);
+        List<Result> results = new ArrayList<Result>(projects.size());
+        BoundedExecutor executor = executors.getExecutor(session, pluginThreads)
+                .compute(Math.min(threads > 0 ? threads : Integer.MAX_VALUE, projects.size()));
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>(projects.size());
+            for (MavenProject project : projects) {
+                futures.add(executor.submit(() -> validate(project, index)));
+            }
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("An error occurred validating the reactor: " + e.getCause(),
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while validating the reactor.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        RecordingBuildContext reactorContext = new RecordingBuildContext(buildContext, false);
+        index.check(reactorContext);
+        long elapsed = System.nanoTime() - start;
+
+        // Report all problems at once, grouped by project
+        int errors = 0;
+        int warnings = 0;
+        int skipped = 0;
+        for (Result result : results) {
+            skipped += result.skipped ? 1 : 0;
+            if (!result.markers.isEmpty()) {
+                getLog().info(result.project.getGroupId() + PackagingConstants.COLON
+                        + result.project.getArtifactId() + ":");
+            }
+            for (RecordingBuildContext.Marker marker : result.markers) {
+                report(marker);
+                if (marker.isError()) {
+                    errors++;
+                } else {
+                    warnings++;
+                }
+            }
+        }
+        List<RecordingBuildContext.Marker> reactorMarkers = reactorContext.getMarkers();
+        if (!reactorMarkers.isEmpty()) {
+            getLog().info("Reactor:");
+        }
+        for (RecordingBuildContext.Marker marker : reactorMarkers) {
+            report(marker);
+            if (marker.isError()) {
+                errors++;
+            } else {
+                warnings++;
+            }
+        }
+
+        getLog().info(String.format(
+                "Validated %d project(s), %d unchanged, in %d ms using %d thread(s): %d error(s), %d warning(s)",
+                projects.size(), skipped, TimeUnit.NANOSECONDS.toMillis(elapsed), executor.getLimit(), errors,
+                warnings));
+        getLog().debug("Validation workers: " + executor.getStats());
+        if (errors > 0) {
+            throw new MojoFailureException(
+                    "Validation of the reactor failed with " + errors + " error(s), see the problems listed above.");
+        }
+    }
+
+    /**
+     * Validates a project, holding back its markers for the consolidated
+     * report, and records the ordered features of Device Profiles.
+     */
+    private Result validate(MavenProject project, ReactorValidationIndex index) {
+        RecordingBuildContext context = new RecordingBuildContext(buildContext, false);
+        boolean skipped = false;
+        try {
+            skipped = ValidateProjectMojo.validate(project, context, helper, manifests, index);
+        } catch (MojoExecutionException e) {
+            // Already recorded as an error marker
+            getLog().debug("Validation of " + project.getArtifactId() + " failed: " + e.getMessage());
+        }
+        return new Result(project, skipped, context.getMarkers());
+    }
+
+    private void report(RecordingBuildContext.Marker marker) {
+        buildContext.addMessage(marker.getFile(), marker.getLine(), marker.getColumn(), marker.getMessage(),
+                marker.getSeverity(), null);
+    }
+
+    /**
+     * The validation result of a project.
+     */
+    private static class Result {
+        private final MavenProject project;
+        private final boolean skipped;
+        private final List<RecordingBuildContext.Marker> markers;
+
+        Result(MavenProject project, boolean skipped, List<RecordingBuildContext.Marker> markers) {
+            this.project = project;
+            this.skipped = skipped;
+            this.markers = markers;
+        }
+    }
+}
@@ -5,6 +5,11 @@
  *****************************************************************************/
 package com.cisco.device.packages.mojos;
 
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -20,7 +25,12 @@ import org.sonatype.plexus.build.incremental.BuildContext;
 import com.cisco.common.plugin.helpers.BuildHelper;
 import com.cisco.device.packages.constants.PackagingConstants;
 import com.cisco.device.packages.internal.device.profile.DeviceProfileValidator;
+import com.cisco.device.packages.internal.device.profile.OrderedFeatures;
+import com.cisco.device.packages.internal.device.profile.constants.IOrderedDependencyConstants;
 import com.cisco.device.packages.internal.feature.NetworkFeatureValidator;
+import com.cisco.device.packages.internal.plugin.ManifestService;
+import com.cisco.device.packages.internal.plugin.ReactorValidationIndex;
+import com.cisco.device.packages.internal.plugin.ValidationCache;
 
 /**
  * Validates Device Package project types (Device Profile, Network Feature, or
@@ -41,11 +51,99 @@ public class ValidateProjectMojo extends AbstractMojo {
     @Component
     private MavenProjectHelper helper;
 
+    @Component
+    private ManifestService manifests;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
-        if (PackagingConstants.DAR_EXT.equals(project.getPackaging())) {
-            DeviceProfileValidator.validate(project, buildContext, helper);
-        } else if (PackagingConstants.FEATURE_EXT.equals(project.getPackaging())) {
-            NetworkFeatureValidator.validate(project, buildContext, helper);
+        if (validate(project, buildContext, helper, manifests)) {
+            getLog().info("Project inputs unchanged since the last validation, skipping validation.");
+        }
+    }
+
+    /**
+     * Validates a Device Package project according to its packaging, also used
+     * by the {@code watch} goal to validate a project again after a change.
+     * Device Profile and Network Feature projects whose inputs did not change
+     * since their last successful validation are not validated again, the
+     * markers of the last validation are emitted instead.
+     *
+     * @param project
+     *            - The project to validate.
+     * @param buildContext
+     *            - The current maven build context.
+     * @param helper
+     *            - The project helper.
+     * @param manifests
+     *            - The service reading the project Manifest.
+     * @return {@code true} if the validation was skipped.
+     * @throws MojoExecutionException
+     *             - If the project is not valid.
+     */
+    static boolean validate(MavenProject project, BuildContext buildContext, MavenProjectHelper helper,
+            ManifestService manifests) throws MojoExecutionException {
+        return validate(project, buildContext, helper, manifests, null);
+    }
+
+    /**
+     * Validates a Device Package project, recording the ordered features of a
+     * Device Profile in the index of the reactor. The ordered features parsed
+     * by the validation are recorded, they are only read when the validation
+     * is skipped.
+     *
+     * @param project
+     *            - The project to validate.
+     * @param buildContext
+     *            - The current maven build context.
+     * @param helper
+     *            - The project helper.
+     * @param manifests
+     *            - The service reading the project Manifest.
+     * @param index
+     *            - The index of the reactor, or {@code null}.
+     * @return {@code true} if the validation was skipped.
+     * @throws MojoExecutionException
+     *             - If the project is not valid.
+     */
+    static boolean validate(MavenProject project, BuildContext buildContext, MavenProjectHelper helper,
+            ManifestService manifests, ReactorValidationIndex index) throws MojoExecutionException {
+        boolean dar = PackagingConstants.DAR_EXT.equals(project.getPackaging());
+        if (dar || PackagingConstants.FEATURE_EXT.equals(project.getPackaging())) {
+            ValidationCache cache = new ValidationCache(project);
+            if (cache.isUpToDate(buildContext)) {
+                cache.replay(buildContext);
+                if (dar && index != null) {
+                    File orderedFeaturesFile = new File(project.getBasedir(),
+                            IOrderedDependencyConstants.ORDERED_FEATURE_FILE_NAME);
+                    try {
+                        index.addOrderedFeatures(project, OrderedFeatures.read(orderedFeaturesFile));
+                    } catch (IOException | XMLStreamException e) {
+                        cache.invalidate();
+                        BuildHelper.makeError(buildContext, orderedFeaturesFile, "Failed to parse "
+                                + IOrderedDependencyConstants.ORDERED_FEATURE_FILE_NAME + " file.", e, true);
+                    }
+                }
+                return true;
+            }
+            try {
+                if (dar) {
+                    OrderedFeatures orderedFeatures = DeviceProfileValidator.validate(project,
+                            cache.record(buildContext), helper);
+                    if (index != null) {
+                        index.addOrderedFeatures(project, orderedFeatures);
+                    }
+                } else {
+                    NetworkFeatureValidator.validate(project, cache.record(buildContext), helper, manifests);
+                }
+            } catch (MojoExecutionException e) {
+                cache.invalidate();
+                throw e;
+            }
+            try {
+                cache.save();
+            } catch (IOException e) {
+                // The project is simply validated again next time
+                cache.invalidate();
+            }
         } else if (PackagingConstants.XDE_EXT.equals(project.getPackaging())) {
             // No XDE project validation in place yet
         } else {
@@ -54,5 +152,6 @@ public class ValidateProjectMojo extends AbstractMojo {
                             + StringUtils.defaultString(project.getPackaging(), PackagingConstants.JAR_EXT)
                             + "' packaging, skipping.");
         }
+        return false;
     }
 }
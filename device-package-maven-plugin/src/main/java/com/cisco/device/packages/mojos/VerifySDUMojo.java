@@ -0,0 +1,133 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.cisco.device.packages.internal.plugin.BoundedExecutor;
+import com.cisco.device.packages.internal.plugin.PluginExecutor;
+import com.cisco.device.packages.internal.sdu.SduReader;
+import com.cisco.device.packages.internal.sdu.SduVerifier;
+
+/**
+ * Verifies the integrity of a Single Deployable Unit (SDU) file, as a faster
+ * replacement of {@code unzip -t} before promoting an SDU. The CRC and size of
+ * every entry, stored or deflated, are checked against the central directory
+ * in parallel using memory mapped I/O. The SDU manifest is checked to ensure
+ * every {@code devicePackageN} entry has a matching payload, and that the load
+ * order has no gaps. This goal does not require a project, so it can be run
+ * against any downloaded SDU.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+@Mojo(name = "verify-sdu", requiresProject = false, defaultPhase = LifecyclePhase.VERIFY, threadSafe = true)
+public class VerifySDUMojo extends AbstractMojo {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    /**
+     * The SDU file to verify.
+     */
+    @Parameter(property = "sdu", defaultValue = "${project.build.directory}/${project.artifactId}-${project.version}.sdu")
+    private File sdu;
+
+    /**
+     * The number of entries to verify concurrently. Defaults to all threads of
+     * the plugin executor when zero or less.
+     */
+    @Parameter(property = "verifyThreads", defaultValue = "0")
+    private int threads;
+
+    /**
+     * The number of threads of the executor shared by the goals of the
+     * plugin, see {@code pluginThreads} of the {@code create-sdu} goal.
+     */
+    @Parameter(property = "pluginThreads", defaultValue = "0")
+    private int pluginThreads;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    @Component
+    private PluginExecutor executors;
+
+    /**
+     * Whether or not the build should fail if the SDU is corrupt.
+     */
+    @Parameter(property = "failOnError", defaultValue = "true")
+    private boolean failOnError;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        if (sdu == null || !sdu.isFile()) {
+            throw new MojoExecutionException("SDU not found: " + (sdu == null ? null : sdu.getAbsolutePath()) + ".");
+        }
+
+        getLog().info("Verifying SDU: " + sdu.getAbsolutePath());
+        int errors = 0;
+        try (SduReader reader = new SduReader(sdu)) {
+            SduVerifier verifier = new SduVerifier(reader);
+            BoundedExecutor workers = executors.getExecutor(session, pluginThreads).compute(threads);
+            verifier.setThreads(workers.getLimit());
+            verifier.setExecutor(workers);
+
+            for (String problem : verifier.verifyManifest()) {
+                getLog().error("MANIFEST: " + problem);
+                errors++;
+            }
+
+            long start = System.nanoTime();
+            List<SduVerifier.Result> results = verifier.verifyEntries();
+            long elapsed = System.nanoTime() - start;
+
+            long bytes = 0;
+            for (SduVerifier.Result result : results) {
+                bytes += result.getEntry().getCompressedSize();
+                if (result.isValid()) {
+                    getLog().info("  OK    " + result.getEntry().getName() + " (" + result.getEntry().getSize()
+                            + " bytes, " + TimeUnit.NANOSECONDS.toMillis(result.getNanos()) + " ms)");
+                } else {
+                    getLog().error("  FAIL  " + result.getEntry().getName() + ": " + result.getError());
+                    errors++;
+                }
+            }
+
+            double seconds = Math.max(elapsed, 1) / 1e9;
+            getLog().info(String.format("Verified %d entries, %.1f MB in %d ms using %d thread(s): %.1f MB/s",
+                    results.size(), bytes / MEGABYTE, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    workers.getLimit(), bytes / MEGABYTE / seconds));
+            getLog().debug("Verification workers: " + workers.getStats());
+        } catch (IOException e) {
+            throw new MojoExecutionException("An error occurred reading SDU: " + sdu.getAbsolutePath() + ".", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while verifying SDU: " + sdu.getAbsolutePath() + ".", e);
+        }
+
+        if (errors > 0) {
+            String message = "SDU " + sdu.getAbsolutePath() + " failed verification with " + errors + " error(s).";
+            if (failOnError) {
+                throw new MojoFailureException(message);
+            }
+            getLog().warn(message);
+        } else {
+            getLog().info("SDU verified: " + sdu.getAbsolutePath());
+        }
+    }
+}
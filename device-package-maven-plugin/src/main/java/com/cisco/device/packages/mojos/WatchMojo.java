@@ -0,0 +1,371 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.mojos;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.cisco.common.plugin.helpers.ManifestHelper;
+import com.cisco.device.packages.constants.PackagingConstants;
+import com.cisco.device.packages.internal.archive.DevicePackageArchiver;
+import com.cisco.device.packages.internal.plugin.ManifestService;
+import com.cisco.device.packages.internal.sdu.SduPatcher;
+
+/**
+ * Watches the resource directories of the Device Package projects of the
+ * reactor, including the {@code .orderedFeatures} of Device Profiles, and
+ * repackages a project as soon as one of its resources changes. Only the
+ * affected project is validated again, its changed resources are copied to
+ * the output directory, and its archive is written in process. Every SDU
+ * attached to a project of the reactor that holds the package is then patched
+ * in place, without creating the SDU again.<br>
+ * <br>
+ * This goal is intended to run after the reactor has been packaged once, for
+ * example {@code mvn package device-package:watch -DcreateSDU=true}, and runs
+ * until interrupted. Filtered resources are not supported, a change to one is
+ * reported and requires a full build.
+ *
+ * @author danijoh2
+ * @since 1.0.1
+ */
+@Mojo(name = "watch", aggregator = true, threadSafe = true)
+public class WatchMojo extends AbstractMojo {
+
+    private static final String JAR_SEPARATOR = "/"; // $NON-NLS-1$
+    private static final String DEFAULT_INCLUDE = "**/**"; // $NON-NLS-1$
+
+    /**
+     * The projects in the reactor to watch.
+     */
+    @Parameter(property = "reactorProjects", readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    @Component
+    private BuildContext buildContext;
+
+    @Component
+    private MavenProjectHelper helper;
+
+    @Component
+    private ManifestService manifests;
+
+    /**
+     * How long to wait, in milliseconds, for changes to settle before
+     * repackaging, so saving several files at once repackages only once.
+     */
+    @Parameter(property = "watchDelay", defaultValue = "200")
+    private long delay;
+
+    /**
+     * Stop watching after this many seconds, or watch until interrupted when
+     * zero or less.
+     */
+    @Parameter(property = "watchTimeout", defaultValue = "0")
+    private long timeout;
+
+    private final Map<WatchKey, Watched> keys = new HashMap<WatchKey, Watched>();
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        List<MavenProject> projects = new ArrayList<MavenProject>();
+        for (MavenProject project : reactorProjects) {
+            if (PackagingConstants.ALL_DP_PACKAGING.contains(project.getPackaging())) {
+                projects.add(project);
+            }
+        }
+        if (projects.isEmpty()) {
+            getLog().warn("No Device Package projects found in the reactor, nothing to watch.");
+            return;
+        }
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            for (MavenProject project : projects) {
+                for (Resource resource : project.getResources()) {
+                    File directory = getDirectory(project, resource);
+                    if (directory.isDirectory()) {
+                        register(watcher, project, resource, directory.toPath());
+                        getLog().info("Watching " + directory.getAbsolutePath());
+                    }
+                }
+            }
+            watch(watcher);
+        } catch (IOException e) {
+            throw new MojoExecutionException("An error occurred watching the Device Package projects.", e);
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+            getLog().info("Stopped watching.");
+        }
+    }
+
+    private void watch(WatchService watcher) throws IOException, InterruptedException {
+        long end = timeout > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout) : Long.MAX_VALUE;
+        while (true) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+            if (remaining <= 0) {
+                getLog().info("Stopped watching after " + timeout + " seconds.");
+                return;
+            }
+            WatchKey key = watcher.poll(remaining, TimeUnit.MILLISECONDS);
+            if (key == null) {
+                continue;
+            }
+
+            // Gather the changes until they settle
+            Map<MavenProject, Map<Path, Resource>> changes = new LinkedHashMap<MavenProject, Map<Path, Resource>>();
+            while (key != null) {
+                collect(watcher, key, changes);
+                key = watcher.poll(delay, TimeUnit.MILLISECONDS);
+            }
+
+            long start = System.nanoTime();
+            Map<String, File> packages = new HashMap<String, File>();
+            for (MavenProject project : reactorProjects) {
+                Map<Path, Resource> changed = changes.get(project);
+                if (changed != null) {
+                    File archive = rebuild(project, changed);
+                    if (archive != null) {
+                        packages.put(project.getGroupId() + PackagingConstants.COLON + project.getArtifactId()
+                                + PackagingConstants.COLON + project.getVersion(), archive);
+                    }
+                }
+            }
+            if (!packages.isEmpty()) {
+                patchSDUs(packages);
+                getLog().info("Repackaged " + packages.size() + " project(s) in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+        }
+    }
+
+    /**
+     * Records the files changed in a watched directory, and starts watching
+     * the directories created in it.
+     */
+    private void collect(WatchService watcher, WatchKey key, Map<MavenProject, Map<Path, Resource>> changes)
+            throws IOException {
+        Watched watched = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (watched == null) {
+                continue;
+            }
+            Map<Path, Resource> changed = changes.get(watched.project);
+            if (changed == null) {
+                changed = new LinkedHashMap<Path, Resource>();
+                changes.put(watched.project, changed);
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, copy the whole directory again
+                addAll(watched.directory, watched.resource, changed);
+                continue;
+            }
+            Path path = watched.directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(watcher, watched.project, watched.resource, path);
+                addAll(path, watched.resource, changed);
+            } else {
+                changed.put(path, watched.resource);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    private void register(WatchService watcher, MavenProject project, Resource resource, Path directory)
+            throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(key, new Watched(project, resource, dir));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void addAll(Path directory, Resource resource, Map<Path, Resource> changed) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                changed.put(file, resource);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Validates a project again, copies its changed resources to its output
+     * directory and writes its archive.
+     *
+     * @return The archive, or {@code null} if the project could not be
+     *         repackaged.
+     */
+    private File rebuild(MavenProject project, Map<Path, Resource> changed) {
+        String id = project.getGroupId() + PackagingConstants.COLON + project.getArtifactId();
+        getLog().info("Repackaging " + id);
+        try {
+            if (manifests.fixManifest(project)) {
+                getLog().warn("Project Manifest file did not have an empty line, the manifest has been fixed: "
+                        + ManifestHelper.getManifest(project).getAbsolutePath());
+            }
+            ValidateProjectMojo.validate(project, buildContext, helper, manifests);
+
+            File outputDirectory = new File(project.getBuild().getOutputDirectory());
+            for (Map.Entry<Path, Resource> change : changed.entrySet()) {
+                copyResource(project, change.getValue(), change.getKey(), outputDirectory);
+            }
+
+            DevicePackageArchiver archiver = new DevicePackageArchiver(project);
+            archiver.setManifest(manifests.getManifest(project, new File(outputDirectory, JarFile.MANIFEST_NAME)));
+            File archive = archiver.createArchive();
+            if (project.getArtifact() != null) {
+                project.getArtifact().setFile(archive);
+            }
+            getLog().info("  Wrote " + archive.getAbsolutePath());
+            return archive;
+        } catch (MojoExecutionException e) {
+            getLog().error("  Validation of " + id + " failed: " + e.getMessage());
+        } catch (IOException e) {
+            getLog().error("  Failed to repackage " + id + ": " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Copies a changed resource to the output directory, or removes it from
+     * the output directory if it was deleted.
+     */
+    private void copyResource(MavenProject project, Resource resource, Path path, File outputDirectory)
+            throws IOException {
+        Path root = getDirectory(project, resource).toPath();
+        String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+        if (!isIncluded(resource, name)) {
+            return;
+        }
+        if (resource.isFiltering()) {
+            getLog().warn("  " + path + " is a filtered resource, which is not supported while watching. "
+                    + "Run a full build to package this change.");
+            return;
+        }
+
+        String targetPath = resource.getTargetPath();
+        File target = new File(outputDirectory,
+                targetPath == null || targetPath.isEmpty() ? name : targetPath + JAR_SEPARATOR + name);
+        if (Files.isRegularFile(path)) {
+            Files.createDirectories(target.getParentFile().toPath());
+            Files.copy(path, target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.COPY_ATTRIBUTES);
+            getLog().debug("  Copied " + name);
+        } else if (!Files.exists(path) && target.isFile()) {
+            Files.delete(target.toPath());
+            getLog().debug("  Removed " + name);
+        }
+    }
+
+    private static boolean isIncluded(Resource resource, String name) {
+        List<String> includes = resource.getIncludes();
+        if (includes == null || includes.isEmpty()) {
+            includes = Collections.singletonList(DEFAULT_INCLUDE);
+        }
+        boolean included = false;
+        for (String include : includes) {
+            included |= SelectorUtils.matchPath(include, name);
+        }
+        if (included && resource.getExcludes() != null) {
+            for (String exclude : resource.getExcludes()) {
+                if (SelectorUtils.matchPath(exclude, name)) {
+                    return false;
+                }
+            }
+        }
+        return included;
+    }
+
+    /**
+     * Patches every SDU attached to a project of the reactor with the
+     * repackaged projects.
+     */
+    private void patchSDUs(Map<String, File> packages) {
+        Set<File> sdus = new LinkedHashSet<File>();
+        for (MavenProject project : reactorProjects) {
+            for (Artifact artifact : project.getAttachedArtifacts()) {
+                if (PackagingConstants.SDU_EXT.equals(artifact.getType()) && artifact.getFile() != null
+                        && artifact.getFile().isFile()) {
+                    sdus.add(artifact.getFile());
+                }
+            }
+        }
+        for (File sdu : sdus) {
+            try {
+                int replaced = new SduPatcher(sdu).patch(packages);
+                if (replaced > 0) {
+                    getLog().info("  Patched " + replaced + " package(s) in " + sdu.getAbsolutePath());
+                }
+            } catch (IOException e) {
+                getLog().error("  Failed to patch SDU " + sdu.getAbsolutePath() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static File getDirectory(MavenProject project, Resource resource) {
+        File directory = new File(resource.getDirectory());
+        return directory.isAbsolute() ? directory : new File(project.getBasedir(), resource.getDirectory());
+    }
+
+    /**
+     * A watched directory, with the project and resource it belongs to.
+     */
+    private static class Watched {
+        private final MavenProject project;
+        private final Resource resource;
+        private final Path directory;
+
+        Watched(MavenProject project, Resource resource, Path directory) {
+            this.project = project;
+            this.resource = resource;
+            this.directory = directory;
+        }
+    }
+}
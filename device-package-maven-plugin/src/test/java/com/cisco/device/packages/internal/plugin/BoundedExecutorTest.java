@@ -0,0 +1,59 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the batches of {@link BoundedExecutor}.
+ *
+ * @author danijoh2
+ */
+public class BoundedExecutorTest {
+
+    @Test
+    public void testBatchOnExecutor() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            BoundedExecutor batch = BoundedExecutor.forBatch(executor, 1);
+            CountDownLatch started = new CountDownLatch(1);
+            Future<?> running = batch.submit(() -> {
+                started.countDown();
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                return null;
+            });
+            Future<?> queued = batch.submit(() -> null);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // The batch is cancelled, the executor keeps running
+            batch.release();
+            assertTrue(running.isCancelled());
+            assertTrue(queued.isCancelled());
+            assertFalse(executor.isShutdown());
+            assertEquals(Integer.valueOf(1), executor.submit(() -> 1).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBatchOnOwnPool() throws Exception {
+        BoundedExecutor batch = BoundedExecutor.forBatch(null, 2);
+        assertEquals(Integer.valueOf(2), batch.submit(() -> 2).get());
+        batch.release();
+        assertTrue(batch.isShutdown());
+    }
+}
@@ -0,0 +1,105 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The fixtures of the SDU tests: a temporary folder handing out new files,
+ * and the package contents and manifest the test SDUs are written with.
+ *
+ * @author danijoh2
+ */
+public class SduFixtures extends TemporaryFolder {
+
+    public static final String VERSION = "version.txt"; // $NON-NLS-1$
+    public static final String VERSION_TEXT = "1.0.0"; // $NON-NLS-1$
+
+    private int files;
+
+    /**
+     * @return A new empty file of the folder.
+     */
+    public File nextFile() throws IOException {
+        return newFile("file" + files++); // $NON-NLS-1$
+    }
+
+    /**
+     * Writes contents to new files of the folder.
+     *
+     * @return The files, mapped to the name of their content.
+     */
+    public Map<File, String> toFiles(Map<String, byte[]> contents) throws IOException {
+        Map<File, String> result = new LinkedHashMap<File, String>();
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            File file = nextFile();
+            Files.write(file.toPath(), content.getValue());
+            result.put(file, content.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * @return Compressible text of the given size, resembling a device package
+     *         descriptor.
+     */
+    public static byte[] newText(int size) {
+        StringBuilder text = new StringBuilder(size + 32);
+        for (int i = 0; text.length() < size; i++) {
+            text.append("<device-package id=\"").append(i).append("\"/>\n"); // $NON-NLS-1$ // $NON-NLS-2$
+        }
+        return text.substring(0, size).getBytes();
+    }
+
+    /**
+     * @return A manifest with the version attributes of an SDU.
+     */
+    public static Manifest newManifest() {
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0"); // $NON-NLS-1$
+        mf.getMainAttributes().putValue("xmp_version", VERSION_TEXT); // $NON-NLS-1$
+        return mf;
+    }
+
+    /**
+     * Reads a stream to its end, without closing it.
+     */
+    public static byte[] toBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The uncompressed contents of an entry of an SDU.
+     */
+    public static byte[] read(SduReader reader, SduEntry entry) throws IOException {
+        try (InputStream in = reader.getInputStream(entry)) {
+            return toBytes(in);
+        }
+    }
+
+    public static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
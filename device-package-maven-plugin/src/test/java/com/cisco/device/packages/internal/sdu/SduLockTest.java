@@ -0,0 +1,199 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@link SduLock} file format, and the comparison of a lock with the
+ * lock of the graph resolved now.
+ *
+ * @author danijoh2
+ */
+public class SduLockTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+    private static final String GROUP_ID = "com.example"; // $NON-NLS-1$
+    private static final String SHA256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"; // $NON-NLS-1$
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        SduLock lock = newLock();
+        lock.addExclusion("com.example:profile:1.0.0", "com.example:excluded:dar", "com.example:excluded"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+        File file = folder.newFile(SduLock.LOCK_FILE_NAME);
+        lock.write(file);
+
+        SduLock read = SduLock.read(file);
+        assertEquals(lock.getExclusions(), read.getExclusions());
+        assertEquals(lock.isIncludeAll(), read.isIncludeAll());
+        assertEquals(lock.getTime(), read.getTime());
+        assertEquals(lock.getPackages().size(), read.getPackages().size());
+        for (int i = 0; i < lock.getPackages().size(); i++) {
+            SduLock.Package expected = lock.getPackages().get(i);
+            SduLock.Package actual = read.getPackages().get(i);
+            assertEquals(expected.toString(), actual.toString());
+            assertEquals(expected.isReactor(), actual.isReactor());
+            assertEquals(expected.getSha256(), actual.getSha256());
+            assertEquals(expected.getPath(), actual.getPath());
+        }
+        assertEquals(lock.getEntries().size(), read.getEntries().size());
+        for (int i = 0; i < lock.getEntries().size(); i++) {
+            SduLock.Entry expected = lock.getEntries().get(i);
+            SduLock.Entry actual = read.getEntries().get(i);
+            assertEquals(expected.toString(), actual.toString());
+            assertEquals(expected.getWave(), actual.getWave());
+            assertEquals(expected.getPredecessors(), actual.getPredecessors());
+        }
+        assertTrue(lock.compare(read).isEmpty());
+        assertTrue(read.compare(lock).isEmpty());
+
+        // Writing the lock read back gives the same file
+        File again = folder.newFile("again.lock"); // $NON-NLS-1$
+        read.write(again);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(again.toPath()));
+    }
+
+    @Test
+    public void testSortedOutput() throws IOException {
+        SduLock lock = new SduLock("", true, 0); // $NON-NLS-1$
+        lock.addPackage(GROUP_ID, "b", "1.0.0", "dar", SduLock.SOURCE_REACTOR, "", "b-1.0.0.dar"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        lock.addPackage(GROUP_ID, "a", "1.0.0", "dar", SduLock.SOURCE_REACTOR, "", "a-1.0.0.dar"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        lock.addEntry(1, GROUP_ID, "b", "1.0.0", "dar", 0, ""); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+        lock.addEntry(0, GROUP_ID, "a", "1.0.0", "dar", 0, ""); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+        File file = folder.newFile(SduLock.LOCK_FILE_NAME);
+        lock.write(file);
+
+        SduLock read = SduLock.read(file);
+        assertEquals("a-1.0.0.dar", read.getPackages().get(0).getPath()); // $NON-NLS-1$
+        assertEquals(0, read.getEntries().get(0).getLoadOrder());
+        assertEquals(1, read.getEntries().get(1).getLoadOrder());
+    }
+
+    @Test
+    public void testChangedVersion() {
+        SduLock resolved = new SduLock("", true, 1); // $NON-NLS-1$
+        resolved.addPackage(GROUP_ID, "profile", "1.0.0", "dar", SduLock.SOURCE_REACTOR, "", "profile-1.0.0.dar"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        resolved.addPackage(GROUP_ID, "feature", "2.1.0", "feature", SduLock.SOURCE_REPOSITORY, SHA256, // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+                "feature-2.0.0.feature"); // $NON-NLS-1$
+        resolved.addEntry(0, GROUP_ID, "profile", "1.0.0", "dar", 1, "1"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        resolved.addEntry(1, GROUP_ID, "feature", "2.1.0", "feature", 0, ""); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+
+        List<String> differences = newLock().compare(resolved);
+        assertEquals(differences.toString(), 2, differences.size());
+        assertEquals("Changed version of device package com.example:feature: locked 2.0.0, resolved 2.1.0.", // $NON-NLS-1$
+                differences.get(0));
+        assertEquals("Changed version of manifest entry com.example:feature: locked 2.0.0, resolved 2.1.0.", // $NON-NLS-1$
+                differences.get(1));
+    }
+
+    @Test
+    public void testMissingEntry() {
+        SduLock resolved = new SduLock("", true, 1); // $NON-NLS-1$
+        resolved.addPackage(GROUP_ID, "profile", "1.0.0", "dar", SduLock.SOURCE_REACTOR, "", "profile-1.0.0.dar"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        resolved.addEntry(0, GROUP_ID, "profile", "1.0.0", "dar", 0, ""); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+
+        List<String> differences = newLock().compare(resolved);
+        assertTrue(differences.toString(), differences.contains(
+                "Missing device package com.example:feature:2.0.0:feature, locked but no longer resolved.")); // $NON-NLS-1$
+        assertTrue(differences.toString(), differences.contains(
+                "Missing manifest entry devicePackage1 com.example:feature:2.0.0:feature, locked but no longer resolved.")); // $NON-NLS-1$
+        // The profile no longer has a predecessor nor the wave after it
+        assertTrue(differences.toString(), differences.contains(
+                "Changed wave of manifest entry com.example:profile: locked 1, resolved 0.")); // $NON-NLS-1$
+        assertTrue(differences.toString(), differences.contains(
+                "Changed predecessors of manifest entry com.example:profile: locked 1, resolved .")); // $NON-NLS-1$
+        assertEquals(differences.toString(), 4, differences.size());
+    }
+
+    @Test
+    public void testExtraEntry() {
+        SduLock resolved = newLock();
+        resolved.addPackage(GROUP_ID, "extra", "3.0.0", "dar", SduLock.SOURCE_REPOSITORY, SHA256, "extra-3.0.0.dar"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+        resolved.addEntry(2, GROUP_ID, "extra", "3.0.0", "dar", 0, ""); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+
+        List<String> differences = newLock().compare(resolved);
+        assertEquals(Arrays.asList("Extra device package com.example:extra:3.0.0:dar, resolved but not locked.", // $NON-NLS-1$
+                "Extra manifest entry devicePackage2 com.example:extra:3.0.0:dar, resolved but not locked."), // $NON-NLS-1$
+                differences);
+    }
+
+    @Test
+    public void testChangedSettingsAndChecksum() {
+        SduLock resolved = new SduLock("com.example:excluded", false, 1); // $NON-NLS-1$
+        resolved.addPackage(GROUP_ID, "profile", "1.0.0", "dar", SduLock.SOURCE_REACTOR, "", "profile-1.0.0.dar"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        resolved.addPackage(GROUP_ID, "feature", "2.0.0", "feature", SduLock.SOURCE_REPOSITORY, "0000", // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+                "feature-2.0.0.feature"); // $NON-NLS-1$
+        resolved.addEntry(0, GROUP_ID, "profile", "1.0.0", "dar", 1, "1"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        resolved.addEntry(1, GROUP_ID, "feature", "2.0.0", "feature", 0, ""); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+
+        List<String> differences = newLock().compare(resolved);
+        assertEquals(differences.toString(), 3, differences.size());
+        assertTrue(differences.get(0).startsWith("Changed exclusions")); // $NON-NLS-1$
+        assertTrue(differences.get(1).startsWith("Changed includeAll")); // $NON-NLS-1$
+        assertTrue(differences.get(2).startsWith("Changed checksum of device package com.example:feature")); // $NON-NLS-1$
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        String valid = "# Device package lock v1\nexclusions\t\nincludeAll\ttrue\ntime\t1\n"; // $NON-NLS-1$
+        assertMalformed("# Device package lock v2\n"); // $NON-NLS-1$
+        assertMalformed("exclusions\t\nincludeAll\ttrue\ntime\t1\n"); // $NON-NLS-1$
+        assertMalformed("# Device package lock v1\nexclusions\t\nincludeAll\ttrue\n"); // $NON-NLS-1$
+        assertMalformed(valid + "time\tnow\n"); // $NON-NLS-1$
+        assertMalformed(valid + "package\tcom.example\tprofile\t1.0.0\tdar\treactor\t\n"); // $NON-NLS-1$
+        assertMalformed(valid + "entry\tfirst\tcom.example\tprofile\t1.0.0\tdar\t0\t\n"); // $NON-NLS-1$
+        assertMalformed(valid + "unknown\trecord\n"); // $NON-NLS-1$
+
+        File file = folder.newFile("valid.lock"); // $NON-NLS-1$
+        Files.write(file.toPath(), valid.getBytes(UTF_8));
+        SduLock lock = SduLock.read(file);
+        assertTrue(lock.getPackages().isEmpty());
+        assertFalse(lock.getExclusions() == null);
+    }
+
+    /**
+     * @return The lock of a profile depending on a feature fetched from the
+     *         repository.
+     */
+    private static SduLock newLock() {
+        SduLock lock = new SduLock("", true, 1500000000000L); // $NON-NLS-1$
+        lock.addPackage(GROUP_ID, "profile", "1.0.0", "dar", SduLock.SOURCE_REACTOR, "", "profile-1.0.0.dar"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        lock.addPackage(GROUP_ID, "feature", "2.0.0", "feature", SduLock.SOURCE_REPOSITORY, SHA256, // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+                "feature-2.0.0.feature"); // $NON-NLS-1$
+        lock.addEntry(0, GROUP_ID, "profile", "1.0.0", "dar", 1, "1"); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+        lock.addEntry(1, GROUP_ID, "feature", "2.0.0", "feature", 0, ""); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+        return lock;
+    }
+
+    private void assertMalformed(String content) throws IOException {
+        File file = folder.newFile("malformed" + content.hashCode() + ".lock"); // $NON-NLS-1$ // $NON-NLS-2$
+        Files.write(file.toPath(), content.getBytes(UTF_8));
+        try {
+            SduLock.read(file);
+            fail("Read a malformed lock file: " + content); // $NON-NLS-1$
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
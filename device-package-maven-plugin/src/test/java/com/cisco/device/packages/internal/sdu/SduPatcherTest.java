@@ -0,0 +1,67 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests {@link SduPatcher}.
+ *
+ * @author danijoh2
+ */
+public class SduPatcherTest {
+
+    private static final String PACKAGE = "com/example/package/1.0.0/package-1.0.0.dar"; // $NON-NLS-1$
+    private static final String OTHER_PACKAGE = "com/example/other/1.0.0/other-1.0.0.dar"; // $NON-NLS-1$
+    private static final long TIME = 1500000000000L;
+
+    @Rule
+    public SduFixtures folder = new SduFixtures();
+
+    @Test
+    public void testPatchKeepsTimes() throws IOException {
+        Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+        contents.put(PACKAGE, "old".getBytes()); // $NON-NLS-1$
+        contents.put(OTHER_PACKAGE, "other".getBytes()); // $NON-NLS-1$
+        Map<File, String> files = folder.toFiles(contents);
+
+        File sdu = new File(folder.getRoot(), "test.sdu"); // $NON-NLS-1$
+        try (SduWriter writer = new SduWriter(sdu)) {
+            writer.setTime(TIME);
+            writer.putFiles(files);
+        }
+
+        File rebuilt = folder.nextFile();
+        Files.write(rebuilt.toPath(), "new".getBytes()); // $NON-NLS-1$
+        int replaced = new SduPatcher(sdu)
+                .patch(Collections.singletonMap("com.example:package:1.0.0", rebuilt)); // $NON-NLS-1$
+        assertEquals(1, replaced);
+
+        try (SduReader reader = new SduReader(sdu)) {
+            assertArrayEquals("new".getBytes(), SduFixtures.read(reader, reader.getEntry(PACKAGE))); // $NON-NLS-1$
+            // Every entry, copied, replaced or a directory, keeps its time
+            int time = reader.getEntry(OTHER_PACKAGE).getDosTime();
+            for (SduEntry entry : reader.getEntries()) {
+                assertEquals(entry.getName(), time, entry.getDosTime());
+            }
+        }
+        try (ZipFile zip = new ZipFile(sdu)) {
+            assertEquals(TIME, zip.getEntry(PACKAGE).getTime());
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import static com.cisco.device.packages.internal.sdu.SduFixtures.VERSION;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.VERSION_TEXT;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.newManifest;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.newText;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.read;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests {@link SduReader} against archives written by
+ * {@link ZipOutputStream} and by {@link SduWriter}, and against truncated and
+ * corrupt archives.
+ *
+ * @author danijoh2
+ */
+public class SduReaderTest {
+
+    private static final String STORED_PACKAGE = "packages/stored.dar"; // $NON-NLS-1$
+    private static final String DEFLATED_PACKAGE = "packages/deflated.dar"; // $NON-NLS-1$
+
+    private static final int TEXT_SIZE = 55 * 1024;
+
+    @Rule
+    public SduFixtures folder = new SduFixtures();
+
+    @Test
+    public void testZipOutputStream() throws IOException, DataFormatException {
+        Map<String, byte[]> contents = newContents();
+        File sdu = folder.nextFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(sdu))) {
+            writeZip(out, contents);
+        }
+        assertContents(sdu, contents);
+    }
+
+    @Test
+    public void testArchiveComment() throws IOException, DataFormatException {
+        Map<String, byte[]> contents = newContents();
+        File sdu = folder.nextFile();
+        char[] comment = new char[40000];
+        Arrays.fill(comment, 'c');
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(sdu))) {
+            out.setComment(new String(comment));
+            writeZip(out, contents);
+        }
+        assertContents(sdu, contents);
+    }
+
+    @Test
+    public void testZip64ZipOutputStream() throws IOException {
+        // More entries than the end of central directory record can count
+        int count = SduReader.ZIP64_MAGIC_COUNT + 10;
+        File sdu = folder.nextFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(sdu))) {
+            for (int i = 0; i < count; i++) {
+                out.putNextEntry(new ZipEntry("entry" + i)); // $NON-NLS-1$
+                out.write(i);
+                out.closeEntry();
+            }
+        }
+        try (SduReader reader = new SduReader(sdu)) {
+            assertEquals(count, reader.getEntries().size());
+            SduEntry last = reader.getEntry("entry" + (count - 1)); // $NON-NLS-1$
+            assertArrayEquals(new byte[] { (byte) (count - 1) }, read(reader, last));
+        }
+    }
+
+    @Test
+    public void testSduWriter() throws IOException, DataFormatException {
+        Map<String, byte[]> contents = newContents();
+        assertContents(write(contents, SduReader.ZIP64_MAGIC), contents);
+    }
+
+    @Test
+    public void testZip64SduWriter() throws IOException, DataFormatException {
+        Map<String, byte[]> contents = newContents();
+        assertContents(write(contents, 1), contents);
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        byte[] data = Files.readAllBytes(write(newContents(), SduReader.ZIP64_MAGIC).toPath());
+        for (int length = 0; length < data.length; length += length < data.length - 200 ? 97 : 1) {
+            File truncated = folder.nextFile();
+            Files.write(truncated.toPath(), Arrays.copyOf(data, length));
+            try (SduReader reader = new SduReader(truncated)) {
+                fail("Read an SDU truncated to " + length + " bytes"); // $NON-NLS-1$
+            } catch (ZipException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testCorrupt() throws IOException {
+        for (long zip64Limit : new long[] { SduReader.ZIP64_MAGIC, 1 }) {
+            File sdu = write(newContents(), zip64Limit);
+            byte[] data = Files.readAllBytes(sdu.toPath());
+            long centralOffset;
+            try (SduReader reader = new SduReader(sdu)) {
+                SduEntry version = reader.getEntry(VERSION);
+                centralOffset = reader.getDataOffset(version) + version.getCompressedSize();
+            }
+            // Corrupt every byte of the central directory and end records,
+            // every failure must be reported as an IOException
+            for (int i = (int) centralOffset; i < data.length; i++) {
+                for (int value : new int[] { 0x00, 0xFF, data[i] ^ 0x80 }) {
+                    byte[] corrupt = data.clone();
+                    corrupt[i] = (byte) value;
+                    File file = folder.nextFile();
+                    Files.write(file.toPath(), corrupt);
+                    readAll(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidOffset() throws IOException {
+        File sdu = write(newContents(), SduReader.ZIP64_MAGIC);
+        byte[] data = Files.readAllBytes(sdu.toPath());
+        // Point the central directory past the end of the file
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).putInt(data.length - SduReader.END_HEADER_SIZE + 16,
+                data.length);
+        Files.write(sdu.toPath(), data);
+        try (SduReader reader = new SduReader(sdu)) {
+            fail("Read an SDU with an invalid central directory offset"); // $NON-NLS-1$
+        } catch (ZipException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Opens an SDU and reads all of its entries, ignoring {@link IOException}
+     * and {@link DataFormatException} but failing on any other exception.
+     */
+    private static void readAll(File file) {
+        try (SduReader reader = new SduReader(file)) {
+            for (SduEntry entry : reader.getEntries()) {
+                try {
+                    read(reader, entry);
+                    reader.readData(entry, new CRC32(), null);
+                } catch (IOException | DataFormatException e) {
+                    // Expected for corrupt entries
+                }
+            }
+        } catch (IOException e) {
+            // Expected for a corrupt central directory
+        }
+    }
+
+    private static Map<String, byte[]> newContents() {
+        Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+        String text = new String(newText(TEXT_SIZE));
+        contents.put(STORED_PACKAGE, text.getBytes());
+        contents.put(DEFLATED_PACKAGE, new StringBuilder(text).reverse().toString().getBytes());
+        contents.put(VERSION, VERSION_TEXT.getBytes());
+        return contents;
+    }
+
+    private static void writeZip(ZipOutputStream out, Map<String, byte[]> contents) throws IOException {
+        out.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+        newManifest().write(out);
+        out.closeEntry();
+        out.putNextEntry(new ZipEntry("packages/")); // $NON-NLS-1$
+        out.closeEntry();
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            ZipEntry entry = new ZipEntry(content.getKey());
+            if (!DEFLATED_PACKAGE.equals(content.getKey())) {
+                CRC32 crc = new CRC32();
+                crc.update(content.getValue());
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(content.getValue().length);
+                entry.setCrc(crc.getValue());
+            }
+            out.putNextEntry(entry);
+            out.write(content.getValue());
+            out.closeEntry();
+        }
+    }
+
+    private File write(Map<String, byte[]> contents, long zip64Limit) throws IOException {
+        File stored = folder.nextFile();
+        Files.write(stored.toPath(), contents.get(STORED_PACKAGE));
+        File deflated = folder.nextFile();
+        Files.write(deflated.toPath(), contents.get(DEFLATED_PACKAGE));
+        File sdu = folder.nextFile();
+        try (SduWriter writer = new SduWriter(sdu)) {
+            writer.setZip64Limit(zip64Limit);
+            writer.putManifest(newManifest());
+            writer.putFiles(Collections.singletonMap(stored, STORED_PACKAGE));
+            writer.setCompression(SduCompression.DEFLATE);
+            writer.putFiles(Collections.singletonMap(deflated, DEFLATED_PACKAGE));
+            writer.putStored(VERSION, contents.get(VERSION));
+        }
+        return sdu;
+    }
+
+    private static void assertContents(File sdu, Map<String, byte[]> contents)
+            throws IOException, DataFormatException {
+        try (SduReader reader = new SduReader(sdu)) {
+            assertEquals(VERSION_TEXT, reader.getVersion());
+            assertEquals(VERSION_TEXT, reader.getManifest().getMainAttributes().getValue("xmp_version")); // $NON-NLS-1$
+            assertNotNull(reader.getEntry("packages/")); // $NON-NLS-1$
+            assertNull(reader.getEntry("missing")); // $NON-NLS-1$
+            assertEquals(ZipEntry.STORED, reader.getEntry(STORED_PACKAGE).getMethod());
+            assertEquals(ZipEntry.DEFLATED, reader.getEntry(DEFLATED_PACKAGE).getMethod());
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                SduEntry entry = reader.getEntry(content.getKey());
+                assertEquals(content.getKey(), content.getValue().length, entry.getSize());
+                assertArrayEquals(content.getKey(), content.getValue(), read(reader, entry));
+
+                CRC32 crc = new CRC32();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(entry.getSize(), reader.readData(entry, crc, Channels.newChannel(out)));
+                assertEquals(content.getKey(), entry.getCrc(), crc.getValue());
+                assertArrayEquals(content.getKey(), content.getValue(), out.toByteArray());
+            }
+        }
+    }
+}
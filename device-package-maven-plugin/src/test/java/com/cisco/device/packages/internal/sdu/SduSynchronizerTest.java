@@ -0,0 +1,88 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests {@link SduSynchronizer} and the {@link SduIndex} it writes as the
+ * load order of the deployment directory.
+ *
+ * @author danijoh2
+ */
+public class SduSynchronizerTest {
+
+    private static final String PACKAGE = "com/example/package/1.0.0/package-1.0.0.dar"; // $NON-NLS-1$
+    private static final String ROOT_PACKAGE = "root-1.0.0.dar"; // $NON-NLS-1$
+
+    @Rule
+    public SduFixtures folder = new SduFixtures();
+
+    @Test
+    public void testIndexUnknownValues() throws IOException {
+        SduIndex index = new SduIndex();
+        index.add(0, "com.example", "package", "1.0.0", "dar", PACKAGE); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+        index.add(SduPackage.NO_LOAD_ORDER, null, "root-1.0.0", null, "dar", ROOT_PACKAGE); // $NON-NLS-1$ // $NON-NLS-2$
+
+        List<SduIndex.Record> records = SduIndex.read(new ByteArrayInputStream(index.toBytes())).getRecords();
+        assertEquals(2, records.size());
+        assertEquals("com.example", records.get(0).getGroupId()); // $NON-NLS-1$
+        assertNull(records.get(1).getGroupId());
+        assertNull(records.get(1).getVersion());
+        assertEquals(ROOT_PACKAGE, records.get(1).getPath());
+        assertTrue(new String(index.toBytes(), "UTF-8").indexOf("null") < 0); // $NON-NLS-1$ // $NON-NLS-2$
+
+        for (String invalid : new String[] { "", "a\tb", "a\nb" }) { // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+            try {
+                index.add(0, invalid, "package", "1.0.0", "dar", PACKAGE); // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$
+                throw new AssertionError("Added " + invalid); // $NON-NLS-1$
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testRootLevelPackage() throws IOException, InterruptedException {
+        Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+        contents.put(PACKAGE, "package".getBytes()); // $NON-NLS-1$
+        contents.put(ROOT_PACKAGE, "root".getBytes()); // $NON-NLS-1$
+        File sdu = new File(folder.getRoot(), "test.sdu"); // $NON-NLS-1$
+        try (SduWriter writer = new SduWriter(sdu)) {
+            writer.putFiles(folder.toFiles(contents));
+        }
+
+        // The root level package has no known group or version, so it keeps
+        // its SDU path
+        File directory = folder.newFolder("deploy"); // $NON-NLS-1$
+        try (SduReader reader = new SduReader(sdu)) {
+            SduSynchronizer.Result result = new SduSynchronizer(reader, directory).sync();
+            assertEquals(0, result.getFailures());
+        }
+        assertTrue(new File(directory, PACKAGE).isFile());
+        assertTrue(new File(directory, ROOT_PACKAGE).isFile());
+        try (InputStream in = new FileInputStream(new File(directory, SduSynchronizer.LOAD_ORDER_PATH))) {
+            List<SduIndex.Record> records = SduIndex.read(in).getRecords();
+            assertEquals(2, records.size());
+            assertEquals(ROOT_PACKAGE, records.get(1).getPath());
+            assertNull(records.get(1).getGroupId());
+        }
+    }
+}
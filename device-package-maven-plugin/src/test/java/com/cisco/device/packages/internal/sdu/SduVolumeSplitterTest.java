@@ -0,0 +1,246 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cisco.device.packages.constants.PackagingConstants;
+
+/**
+ * Tests {@link SduVolumeSplitter} and the volume attributes of the manifest of
+ * each volume.
+ *
+ * @author danijoh2
+ */
+public class SduVolumeSplitterTest {
+
+    private static final String GROUP_ID = "com.example"; // $NON-NLS-1$
+    private static final String VERSION = "1.0.0"; // $NON-NLS-1$
+    private static final long TIME = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int sdus;
+
+    @Test
+    public void testParseSize() {
+        assertEquals(100, SduVolumeSplitter.parseSize("100")); // $NON-NLS-1$
+        assertEquals(2048, SduVolumeSplitter.parseSize(" 2k ")); // $NON-NLS-1$
+        assertEquals(3L * 1024 * 1024, SduVolumeSplitter.parseSize("3M")); // $NON-NLS-1$
+        assertEquals(4L * 1024 * 1024 * 1024, SduVolumeSplitter.parseSize("4g")); // $NON-NLS-1$
+        for (String invalid : new String[] { null, "", "0", "-1k", "1t", "k" }) { // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+            try {
+                SduVolumeSplitter.parseSize(invalid);
+                throw new AssertionError("Parsed " + invalid); // $NON-NLS-1$
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testSmallSdu() throws IOException {
+        File sdu = writeSdu(new int[] { 1000, 1000 }, new int[0]);
+        try (SduReader reader = new SduReader(sdu)) {
+            assertFalse(new SduVolumeSplitter(reader, sdu.length()).needsSplit());
+        }
+    }
+
+    @Test
+    public void testOversizedPackage() throws IOException {
+        File sdu = writeSdu(new int[] { 1000, 20000, 1000 }, new int[0]);
+        List<File> volumes;
+        try (SduReader reader = new SduReader(sdu)) {
+            // Room for both small packages, but not the large one
+            long maxSize = new SduVolumeSplitter(reader, 0).getVolumeOverhead() + 3000;
+            SduVolumeSplitter splitter = new SduVolumeSplitter(reader, maxSize);
+            assertTrue(splitter.needsSplit());
+            volumes = splitter.split();
+        }
+
+        // The large package gets a volume of its own, the packages around it
+        // are not moved out of load order to share a volume
+        assertEquals(3, volumes.size());
+        assertVolumes(sdu, volumes, Arrays.asList(Arrays.asList(0), Arrays.asList(1), Arrays.asList(2)));
+        assertTrue(volumes.get(1).length() > 20000);
+    }
+
+    @Test
+    public void testExactFit() throws IOException {
+        File sdu = writeSdu(new int[] { 1000, 1000, 1000 }, new int[0]);
+        long maxSize;
+        try (SduReader reader = new SduReader(sdu)) {
+            maxSize = new SduVolumeSplitter(reader, 0).getVolumeOverhead()
+                    + SduVolumeSplitter.getSize(reader.getPackages().get(0).getEntry())
+                    + SduVolumeSplitter.getSize(reader.getPackages().get(1).getEntry());
+        }
+
+        // Two packages fill a volume exactly
+        List<File> volumes = split(sdu, maxSize);
+        assertVolumes(sdu, volumes, Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2)));
+        for (File volume : volumes) {
+            assertTrue(volume.length() <= maxSize);
+        }
+
+        // One byte less and every package needs a volume of its own
+        volumes = split(sdu, maxSize - 1);
+        assertVolumes(sdu, volumes, Arrays.asList(Arrays.asList(0), Arrays.asList(1), Arrays.asList(2)));
+    }
+
+    @Test
+    public void testLoadOrder() throws IOException {
+        File sdu = writeSdu(new int[] { 1000, 1000, 1000, 1000, 1000, 1000 }, new int[] { 1000, 1000 });
+        long maxSize;
+        try (SduReader reader = new SduReader(sdu)) {
+            maxSize = new SduVolumeSplitter(reader, 0).getVolumeOverhead()
+                    + 2 * SduVolumeSplitter.getSize(reader.getPackages().get(0).getEntry());
+        }
+
+        List<File> volumes = split(sdu, maxSize);
+        int none = SduPackage.NO_LOAD_ORDER;
+        assertVolumes(sdu, volumes, Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 3), Arrays.asList(4, 5),
+                Arrays.asList(none, none)));
+
+        // The volume of the packages outside of the load order starts past
+        // its end, and has no load order entries
+        try (SduReader reader = new SduReader(volumes.get(3))) {
+            assertEquals(6, SduVolumeSplitter.getFirstLoadOrder(reader.getManifest()));
+            assertTrue(reader.getManifest().getEntries().isEmpty());
+        }
+    }
+
+    private List<File> split(File sdu, long maxSize) throws IOException {
+        try (SduReader reader = new SduReader(sdu)) {
+            return new SduVolumeSplitter(reader, maxSize).split();
+        }
+    }
+
+    /**
+     * Checks the volume attributes, load order entries and packages of every
+     * volume against the SDU.
+     *
+     * @param loadOrders
+     *            - The load orders of the packages expected in each volume.
+     */
+    private static void assertVolumes(File sdu, List<File> volumes, List<List<Integer>> loadOrders)
+            throws IOException {
+        assertEquals(loadOrders.size(), volumes.size());
+        try (SduReader source = new SduReader(sdu)) {
+            Map<String, Attributes> sourceEntries = source.getManifest().getEntries();
+            int next = 0;
+            for (int i = 0; i < volumes.size(); i++) {
+                assertEquals(SduVolumeSplitter.getVolumeFile(sdu, i + 1), volumes.get(i));
+                try (SduReader reader = new SduReader(volumes.get(i))) {
+                    Manifest mf = reader.getManifest();
+                    Attributes main = mf.getMainAttributes();
+                    assertEquals(String.valueOf(i + 1), main.getValue(SduVolumeSplitter.SDU_MANIFEST_ATTR_VOLUME));
+                    assertEquals(String.valueOf(volumes.size()),
+                            main.getValue(SduVolumeSplitter.SDU_MANIFEST_ATTR_VOLUMES));
+                    assertEquals(VERSION, reader.getVersion());
+                    assertTrue(reader.hasIndex());
+                    // Every entry keeps the time of the SDU
+                    int time = source.getEntry(JarFile.MANIFEST_NAME).getDosTime();
+                    for (SduEntry entry : reader.getEntries()) {
+                        assertEquals(entry.getName(), time, entry.getDosTime());
+                    }
+
+                    List<Integer> expected = loadOrders.get(i);
+                    List<SduPackage> packages = reader.getPackages();
+                    assertEquals(expected.size(), packages.size());
+                    if (expected.get(0) != SduPackage.NO_LOAD_ORDER) {
+                        // The load order continues where the previous volume
+                        // stopped, keeping the global index of every entry
+                        assertEquals(next, SduVolumeSplitter.getFirstLoadOrder(mf));
+                        assertEquals(expected.size(), mf.getEntries().size());
+                        for (int loadOrder : expected) {
+                            String name = SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + loadOrder;
+                            assertEquals(next++, loadOrder);
+                            assertEquals(sourceEntries.get(name), mf.getEntries().get(name));
+                        }
+                    }
+                    for (int j = 0; j < packages.size(); j++) {
+                        SduPackage sduPackage = packages.get(j);
+                        assertEquals((int) expected.get(j), sduPackage.getLoadOrder());
+                        SduEntry original = source.getEntry(sduPackage.getPath());
+                        assertTrue(original.isSameContent(sduPackage.getEntry()));
+                    }
+                }
+            }
+            assertNull(sourceEntries.get(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + next));
+        }
+    }
+
+    /**
+     * Writes an SDU of random packages of the given sizes, in and out of the
+     * load order, with a manifest, version and index as written by
+     * {@link SduCreator}.
+     */
+    private File writeSdu(int[] ordered, int[] unordered) throws IOException {
+        File dir = folder.newFolder("sdu" + sdus++); // $NON-NLS-1$
+        Random random = new Random(ordered.length);
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0"); // $NON-NLS-1$
+        SduIndex index = new SduIndex();
+        Map<File, String> files = new LinkedHashMap<File, String>();
+        List<int[]> packages = new ArrayList<int[]>();
+        for (int i = 0; i < ordered.length; i++) {
+            packages.add(new int[] { i, ordered[i] });
+        }
+        for (int size : unordered) {
+            packages.add(new int[] { SduPackage.NO_LOAD_ORDER, size });
+        }
+        for (int i = 0; i < packages.size(); i++) {
+            int loadOrder = packages.get(i)[0];
+            String artifactId = "package" + i; // $NON-NLS-1$
+            String path = artifactId + PackagingConstants.DOT + PackagingConstants.DAR_EXT;
+            byte[] data = new byte[packages.get(i)[1]];
+            random.nextBytes(data);
+            File file = new File(dir, path);
+            Files.write(file.toPath(), data);
+            files.put(file, path);
+            index.add(loadOrder, GROUP_ID, artifactId, VERSION, PackagingConstants.DAR_EXT, path);
+            if (loadOrder != SduPackage.NO_LOAD_ORDER) {
+                Attributes attr = new Attributes();
+                attr.putValue(SduCreator.SDU_MANIFEST_ATTR_GROUP_ID, GROUP_ID);
+                attr.putValue(SduCreator.SDU_MANIFEST_ATTR_ARTIFACT_ID, artifactId);
+                attr.putValue(SduCreator.SDU_MANIFEST_ATTR_VERSION, VERSION);
+                attr.putValue(SduCreator.SDU_MANIFEST_ATTR_TYPE, PackagingConstants.DAR_EXT);
+                mf.getEntries().put(SduCreator.SDU_MANIFEST_ATTR_LOAD_ORDER + loadOrder, attr);
+            }
+        }
+
+        File sdu = new File(dir, "test" + PackagingConstants.DOT + PackagingConstants.SDU_EXT); // $NON-NLS-1$
+        try (SduWriter writer = new SduWriter(sdu)) {
+            writer.setTime(TIME);
+            writer.putManifest(mf);
+            writer.putStored("version.txt", VERSION.getBytes()); // $NON-NLS-1$
+            writer.putStored(SduIndex.SDU_INDEX_PATH, index.toBytes());
+            writer.putFiles(files);
+        }
+        return sdu;
+    }
+}
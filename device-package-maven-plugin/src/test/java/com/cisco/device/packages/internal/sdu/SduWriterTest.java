@@ -0,0 +1,291 @@
+/******************************************************************************
+ * Copyright (C) 2018 Cisco and/or its affiliates. All rights reserved.
+ *
+ * This source code is distributed under the terms of the MIT license.
+ *****************************************************************************/
+package com.cisco.device.packages.internal.sdu;
+
+import static com.cisco.device.packages.internal.sdu.SduFixtures.VERSION;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.VERSION_TEXT;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.crc;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.newManifest;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.newText;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.read;
+import static com.cisco.device.packages.internal.sdu.SduFixtures.toBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests {@link SduWriter} by reading the SDUs it writes back with
+ * {@link ZipFile} and {@link ZipInputStream}.
+ *
+ * @author danijoh2
+ */
+public class SduWriterTest {
+
+    private static final String TEXT_PACKAGE = "packages/text.dar"; // $NON-NLS-1$
+    private static final String RANDOM_PACKAGE = "packages/random.dar"; // $NON-NLS-1$
+    private static final String EMPTY_PACKAGE = "packages/empty.dar"; // $NON-NLS-1$
+
+    @Rule
+    public SduFixtures folder = new SduFixtures();
+
+    @Test
+    public void testStoredEntries() throws IOException {
+        Map<String, byte[]> contents = newContents(300 * 1024);
+        File sdu = write(SduCompression.STORED, contents, 0, 0);
+
+        Map<String, byte[]> read = readZipFile(sdu, ZipEntry.STORED);
+        assertContents(contents, read);
+        assertContents(contents, readZipInputStream(sdu));
+    }
+
+    @Test
+    public void testDeflatedEntries() throws IOException {
+        Map<String, byte[]> contents = newContents(300 * 1024);
+        File sdu = write(SduCompression.DEFLATE, contents, 0, 0);
+
+        Map<String, byte[]> read = readZipFile(sdu, ZipEntry.DEFLATED);
+        assertContents(contents, read);
+        assertContents(contents, readZipInputStream(sdu));
+    }
+
+    @Test
+    public void testMultiBlockEntries() throws IOException {
+        // Many blocks per entry, the last one partial, so the CRC of each
+        // entry is combined from the CRC of its blocks
+        Map<String, byte[]> contents = newContents(100 * 1024 + 17);
+        for (SduCompression compression : new SduCompression[] { SduCompression.STORED, SduCompression.DEFLATE }) {
+            File sdu = write(compression, contents, 4096, 0);
+            try (ZipFile zip = new ZipFile(sdu)) {
+                for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                    assertEquals(content.getKey(), crc(content.getValue()), zip.getEntry(content.getKey()).getCrc());
+                }
+            }
+            assertContents(contents, readZipFile(sdu, -1));
+            assertContents(contents, readZipInputStream(sdu));
+        }
+    }
+
+    @Test
+    public void testCrc32Combine() {
+        byte[] data = newText(10000);
+        for (int split : new int[] { 0, 1, 4096, 9999, 10000 }) {
+            CRC32 first = new CRC32();
+            first.update(data, 0, split);
+            CRC32 second = new CRC32();
+            second.update(data, split, data.length - split);
+            assertEquals(crc(data), SduWriter.crc32Combine(first.getValue(), second.getValue(), data.length - split));
+        }
+    }
+
+    @Test
+    public void testRawEntries() throws IOException {
+        Map<String, byte[]> contents = newContents(200 * 1024);
+        File source = write(SduCompression.DEFLATE, contents, 0, 0);
+
+        File copy = folder.nextFile();
+        try (SduReader reader = new SduReader(source); SduWriter writer = new SduWriter(copy)) {
+            writer.putManifest(reader.getManifest());
+            for (String name : contents.keySet()) {
+                SduEntry entry = reader.getEntry(name);
+                writer.putRaw("copied/" + name, reader, entry); // $NON-NLS-1$
+            }
+        }
+
+        Map<String, byte[]> copied = new HashMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            copied.put("copied/" + content.getKey(), content.getValue()); // $NON-NLS-1$
+        }
+        assertContents(copied, readZipFile(copy, ZipEntry.DEFLATED));
+        assertContents(copied, readZipInputStream(copy));
+        try (ZipFile zip = new ZipFile(copy)) {
+            assertNotNull(zip.getEntry("copied/packages/")); // $NON-NLS-1$
+        }
+    }
+
+    @Test
+    public void testRawEntryTimes() throws IOException {
+        Map<String, byte[]> contents = newContents(1024);
+        long time = 1500000000000L;
+        long otherTime = 1400000000000L;
+        File source = folder.nextFile();
+        try (SduWriter writer = new SduWriter(source)) {
+            writer.setTime(time);
+            writer.putFiles(folder.toFiles(contents));
+        }
+
+        // Copied entries keep their time, unless given another one
+        File copy = folder.nextFile();
+        try (SduReader reader = new SduReader(source); SduWriter writer = new SduWriter(copy)) {
+            SduEntry entry = reader.getEntry(TEXT_PACKAGE);
+            writer.putRaw(TEXT_PACKAGE, reader, entry);
+            writer.putRaw("other/" + TEXT_PACKAGE, reader, entry, otherTime); // $NON-NLS-1$
+        }
+        try (ZipFile zip = new ZipFile(copy)) {
+            assertEquals(time, zip.getEntry(TEXT_PACKAGE).getTime());
+            assertEquals(otherTime, zip.getEntry("other/" + TEXT_PACKAGE).getTime()); // $NON-NLS-1$
+        }
+    }
+
+    @Test
+    public void testZip64Records() throws IOException {
+        Map<String, byte[]> contents = newContents(64 * 1024);
+        for (SduCompression compression : new SduCompression[] { SduCompression.STORED, SduCompression.DEFLATE }) {
+            // Every entry, offset and the central directory are past the
+            // limit, so every ZIP64 record is written
+            File sdu = write(compression, contents, 4096, 1);
+            byte[] data = Files.readAllBytes(sdu.toPath());
+            assertTrue(indexOf(data, SduReader.ZIP64_END_HEADER_SIGNATURE) > 0);
+            assertTrue(indexOf(data, SduReader.ZIP64_LOCATOR_SIGNATURE) > 0);
+
+            assertContents(contents, readZipFile(sdu, -1));
+            assertContents(contents, readZipInputStream(sdu));
+            try (SduReader reader = new SduReader(sdu)) {
+                for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                    SduEntry entry = reader.getEntry(content.getKey());
+                    assertEquals(content.getValue().length, entry.getSize());
+                    assertArrayEquals(content.getValue(), read(reader, entry));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFixedTime() throws IOException, InterruptedException {
+        Map<String, byte[]> contents = newContents(1024);
+        long time = 1500000000000L;
+        Map<File, String> files = folder.toFiles(contents);
+        File first = folder.nextFile();
+        File second = folder.nextFile();
+        for (File sdu : new File[] { first, second }) {
+            if (sdu == second) {
+                // Past the two second resolution of ZIP times
+                Thread.sleep(2100);
+            }
+            try (SduWriter writer = new SduWriter(sdu)) {
+                writer.setTime(time);
+                writer.putFiles(files);
+            }
+        }
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+        try (ZipFile zip = new ZipFile(first)) {
+            assertEquals(time, zip.getEntry(TEXT_PACKAGE).getTime());
+        }
+    }
+
+    /**
+     * @return Compressible text, random data and an empty package, plus a
+     *         version entry written with {@link SduWriter#putStored}.
+     */
+    private static Map<String, byte[]> newContents(int size) {
+        Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+        contents.put(TEXT_PACKAGE, newText(size));
+        byte[] random = new byte[size];
+        new Random(42).nextBytes(random);
+        contents.put(RANDOM_PACKAGE, random);
+        contents.put(EMPTY_PACKAGE, new byte[0]);
+        contents.put(VERSION, VERSION_TEXT.getBytes());
+        return contents;
+    }
+
+    private File write(SduCompression compression, Map<String, byte[]> contents, int blockSize, long zip64Limit)
+            throws IOException {
+        File sdu = folder.nextFile();
+        Map<File, String> files = folder.toFiles(contents);
+        files.values().remove(VERSION);
+        try (SduWriter writer = new SduWriter(sdu)) {
+            writer.setCompression(compression);
+            writer.setThreads(3);
+            if (blockSize > 0) {
+                writer.setBlockSize(blockSize);
+            }
+            if (zip64Limit > 0) {
+                writer.setZip64Limit(zip64Limit);
+            }
+            writer.putManifest(newManifest());
+            writer.putFiles(files);
+            writer.putStored(VERSION, contents.get(VERSION));
+        }
+        return sdu;
+    }
+
+    /**
+     * Reads the file entries of an SDU with {@link ZipFile}, checking their
+     * sizes and CRC, and that packages use the given method.
+     */
+    private static Map<String, byte[]> readZipFile(File sdu, int method) throws IOException {
+        Map<String, byte[]> read = new HashMap<String, byte[]>();
+        try (ZipFile zip = new ZipFile(sdu)) {
+            assertNotNull(zip.getEntry(JarFile.MANIFEST_NAME));
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (entry.isDirectory() || JarFile.MANIFEST_NAME.equals(entry.getName())) {
+                    continue;
+                }
+                byte[] data = toBytes(zip.getInputStream(entry));
+                assertEquals(entry.getName(), data.length, entry.getSize());
+                assertEquals(entry.getName(), crc(data), entry.getCrc());
+                if (method != -1 && !entry.getName().endsWith(VERSION) && data.length > 0) {
+                    assertEquals(entry.getName(), method, entry.getMethod());
+                }
+                assertNull(entry.getName(), read.put(entry.getName(), data));
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Reads the file entries of an SDU with {@link ZipInputStream}, which
+     * checks the CRC of every entry against the local headers.
+     */
+    private static Map<String, byte[]> readZipInputStream(File sdu) throws IOException {
+        Map<String, byte[]> read = new HashMap<String, byte[]>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(sdu))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (!entry.isDirectory() && !JarFile.MANIFEST_NAME.equals(entry.getName())) {
+                    read.put(entry.getName(), toBytes(in));
+                }
+            }
+        }
+        return read;
+    }
+
+    private static void assertContents(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> content : expected.entrySet()) {
+            assertArrayEquals(content.getKey(), content.getValue(), actual.get(content.getKey()));
+        }
+    }
+
+    private static int indexOf(byte[] data, int signature) {
+        for (int i = data.length - 4; i >= 0; i--) {
+            if ((data[i] & 0xFF | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16
+                    | (data[i + 3] & 0xFF) << 24) == signature) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}